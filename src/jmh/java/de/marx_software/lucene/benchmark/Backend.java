@@ -0,0 +1,154 @@
+package de.marx_software.lucene.benchmark;
+
+import de.marx_software.lucene.DBDirectories;
+import de.marx_software.lucene.DBFileStore;
+import de.marx_software.lucene.DedupBlockStore;
+import de.marx_software.lucene.DirectoryConfig;
+import de.marx_software.lucene.ExtensionPlacementPolicy;
+import de.marx_software.lucene.Profile;
+import de.marx_software.lucene.leveldb.LeveldbFileStore;
+import de.marx_software.lucene.mvstore.MVStoreConfig;
+import de.marx_software.lucene.mvstore.MVStoreFileStore;
+import de.marx_software.lucene.rocksdb.RocksDBConfig;
+import de.marx_software.lucene.rocksdb.RocksDBFileStore;
+import java.io.IOException;
+import java.nio.file.Path;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * The directory implementations compared by the benchmarks. The DB backends
+ * are created through {@link DBDirectories}, FS and BYTEBUFFERS are the stock
+ * lucene directories used as baseline.
+ *
+ * The DB backends are tuned by a {@link Profile}, benchmarks that take a
+ * <code>profile</code> parameter compare them.
+ *
+ * @author marx
+ */
+public enum Backend {
+
+	ROCKSDB {
+		@Override
+		public Directory open(Path path, Profile profile) throws IOException {
+			return DBDirectories.rocket(path, profile);
+		}
+
+		@Override
+		public DBFileStore openStore(Path path) throws IOException {
+			return new RocksDBFileStore(path);
+		}
+	},
+	/**
+	 * RocksDB with the bulk data files of large segments memory mapped
+	 */
+	ROCKSDB_HYBRID {
+		@Override
+		public Directory open(Path path, Profile profile) throws IOException {
+			return DBDirectories.rocket(path, DirectoryConfig.builder(profile).placementPolicy(new ExtensionPlacementPolicy()).build(),
+					RocksDBConfig.of(profile));
+		}
+
+		@Override
+		public DBFileStore openStore(Path path) throws IOException {
+			return new RocksDBFileStore(path);
+		}
+	},
+	/**
+	 * RocksDB with content addressed blocks
+	 */
+	ROCKSDB_DEDUP {
+		@Override
+		public Directory open(Path path, Profile profile) throws IOException {
+			return DBDirectories.deduplicated(new DedupBlockStore(new RocksDBFileStore(path, RocksDBConfig.of(profile))), NAMESPACE,
+					DirectoryConfig.of(profile));
+		}
+
+		@Override
+		public DBFileStore openStore(Path path) throws IOException {
+			return new DedupBlockStore(new RocksDBFileStore(path)).open(NAMESPACE);
+		}
+	},
+	LEVELDB {
+		@Override
+		public Directory open(Path path, Profile profile) throws IOException {
+			return DBDirectories.leveldb(path, profile);
+		}
+
+		@Override
+		public DBFileStore openStore(Path path) throws IOException {
+			return new LeveldbFileStore(path);
+		}
+	},
+	MVSTORE {
+		@Override
+		public Directory open(Path path, Profile profile) throws IOException {
+			return DBDirectories.mvstore(path, profile);
+		}
+
+		@Override
+		public DBFileStore openStore(Path path) throws IOException {
+			return new MVStoreFileStore(path);
+		}
+	},
+	MVSTORE_MAPPED {
+		@Override
+		public Directory open(Path path, Profile profile) throws IOException {
+			return DBDirectories.mvstore(path, DirectoryConfig.of(profile), mvstore(profile, MVStoreConfig.Mode.MAPPED));
+		}
+
+		@Override
+		public DBFileStore openStore(Path path) throws IOException {
+			return new MVStoreFileStore(path, mvstore(Profile.DEFAULT, MVStoreConfig.Mode.MAPPED));
+		}
+	},
+	MVSTORE_OFF_HEAP {
+		@Override
+		public Directory open(Path path, Profile profile) throws IOException {
+			return DBDirectories.mvstore(path, DirectoryConfig.of(profile), mvstore(profile, MVStoreConfig.Mode.OFF_HEAP));
+		}
+
+		@Override
+		public DBFileStore openStore(Path path) throws IOException {
+			return new MVStoreFileStore(path, mvstore(Profile.DEFAULT, MVStoreConfig.Mode.OFF_HEAP));
+		}
+	},
+	FS {
+		@Override
+		public Directory open(Path path, Profile profile) throws IOException {
+			return FSDirectory.open(path);
+		}
+	},
+	BYTEBUFFERS {
+		@Override
+		public Directory open(Path path, Profile profile) {
+			return new ByteBuffersDirectory();
+		}
+	};
+
+	private static final String NAMESPACE = "index";
+
+	private static MVStoreConfig mvstore(Profile profile, MVStoreConfig.Mode mode) {
+		return MVStoreConfig.builder(profile).mode(mode).build();
+	}
+
+	public Directory open(Path path) throws IOException {
+		return open(path, Profile.DEFAULT);
+	}
+
+	/**
+	 * @param path
+	 * @param profile tuning of the DB backends, ignored by the baselines
+	 */
+	public abstract Directory open(Path path, Profile profile) throws IOException;
+
+	/**
+	 * @param path
+	 * @return the raw file store of a DB backend
+	 * @throws UnsupportedOperationException for the lucene baseline directories
+	 */
+	public DBFileStore openStore(Path path) throws IOException {
+		throw new UnsupportedOperationException(name() + " has no DBFileStore");
+	}
+}
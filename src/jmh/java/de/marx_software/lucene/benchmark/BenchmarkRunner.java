@@ -0,0 +1,29 @@
+package de.marx_software.lucene.benchmark;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks once for every thread count given in the system
+ * property <code>bench.threads</code> (default: 1,4). All other arguments are
+ * passed through to JMH.
+ *
+ * @author marx
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		String threads = System.getProperty("bench.threads", "1,4");
+
+		for (String count : threads.split(",")) {
+			Options options = new OptionsBuilder()
+					.parent(commandLine)
+					.threads(Integer.parseInt(count.trim()))
+					.build();
+			new Runner(options).run();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package de.marx_software.lucene.benchmark;
+
+import de.marx_software.lucene.TestUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+
+/**
+ * Shared setup code for the benchmarks.
+ *
+ * @author marx
+ */
+final class BenchmarkSupport {
+
+	static final long SEED = 0x5EED;
+
+	private BenchmarkSupport() {
+	}
+
+	static Path createTempDir() throws IOException {
+		return Files.createTempDirectory("lucene-directories-bench");
+	}
+
+	static void deleteDir(Path path) {
+		if (path != null) {
+			TestUtils.deleteDir(path.toFile());
+		}
+	}
+
+	static byte[] randomBytes(int size) {
+		byte[] bytes = new byte[size];
+		new Random(SEED).nextBytes(bytes);
+		return bytes;
+	}
+
+	static void writeFile(Directory directory, String name, byte[] content) throws IOException {
+		try (IndexOutput output = directory.createOutput(name, IOContext.DEFAULT)) {
+			output.writeBytes(content, 0, content.length);
+		}
+	}
+
+	static File testDataSet() {
+		return new File(TestUtils.class.getResource("/test-data-set").getPath());
+	}
+
+	/**
+	 * Indexes the test data set into the directory and commits.
+	 */
+	static void index(Directory directory) throws IOException {
+		IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+		try (IndexWriter writer = new IndexWriter(directory, config)) {
+			TestUtils.indexTextFile(writer, testDataSet());
+			writer.commit();
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package de.marx_software.lucene.benchmark;
+
+import de.marx_software.lucene.CompressionPolicy;
+import de.marx_software.lucene.DBFileWriter;
+import de.marx_software.lucene.ExtensionCompressionPolicy;
+import de.marx_software.lucene.TestUtils;
+import de.marx_software.lucene.rocksdb.RocksDBConfig;
+import de.marx_software.lucene.rocksdb.RocksDBFileStore;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.rocksdb.CompressionType;
+
+/**
+ * Stores the files of an index of the test data set with every RocksDB
+ * compression and prints the ratio of stored to raw size, the write and the
+ * read time per file extension, next to the compression
+ * {@link ExtensionCompressionPolicy} chooses. The stored size includes the
+ * fixed overhead of the SST files, which dominates for the tiny files.
+ *
+ * Run with:
+ * <code>mvn -Pjmh test-compile exec:java -Dexec.mainClass=de.marx_software.lucene.benchmark.CompressionReport -Dexec.classpathScope=test</code>
+ *
+ * @author marx
+ */
+public class CompressionReport {
+
+	private static final CompressionType[] COMPRESSIONS = {
+		CompressionType.NO_COMPRESSION,
+		CompressionType.SNAPPY_COMPRESSION,
+		CompressionType.LZ4_COMPRESSION,
+		CompressionType.ZSTD_COMPRESSION
+	};
+
+	private static final int BLOCK_SIZE = 16 * 1024;
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		Map<String, List<byte[]>> files = indexFiles();
+		ExtensionCompressionPolicy policy = new ExtensionCompressionPolicy();
+
+		StringBuilder header = new StringBuilder(String.format("%-10s %-6s %10s", "extension", "policy", "bytes"));
+		for (CompressionType compression : COMPRESSIONS) {
+			header.append(String.format(" | %6s %8s %8s", name(compression), "write ms", "read ms"));
+		}
+		System.out.println(header);
+
+		for (Map.Entry<String, List<byte[]>> entry : files.entrySet()) {
+			long bytes = 0;
+			for (byte[] content : entry.getValue()) {
+				bytes += content.length;
+			}
+			String sample = entry.getKey().equals("segments") ? "segments_1" : "_0." + entry.getKey();
+			StringBuilder line = new StringBuilder(String.format("%-10s %-6s %10d", entry.getKey(), policy.compression(sample), bytes));
+			for (CompressionType compression : COMPRESSIONS) {
+				long[] result = measure(compression, entry.getValue());
+				line.append(String.format(" | %6.2f %8.2f %8.2f", (double) result[0] / bytes,
+						result[1] / 1_000_000.0, result[2] / 1_000_000.0));
+			}
+			System.out.println(line);
+		}
+	}
+
+	/**
+	 * @return the files of a force merged index without compound files by
+	 * extension
+	 */
+	private static Map<String, List<byte[]>> indexFiles() throws IOException {
+		Map<String, List<byte[]>> files = new TreeMap<>();
+		try (ByteBuffersDirectory directory = new ByteBuffersDirectory()) {
+			IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer()).setUseCompoundFile(false);
+			try (IndexWriter writer = new IndexWriter(directory, config)) {
+				TestUtils.indexTextFile(writer, BenchmarkSupport.testDataSet());
+				writer.forceMerge(1);
+				writer.commit();
+			}
+			for (String name : directory.listAll()) {
+				String extension = name.startsWith(IndexFileNames.SEGMENTS) ? "segments" : IndexFileNames.getExtension(name);
+				if (extension == null) {
+					continue;
+				}
+				try (IndexInput input = directory.openInput(name, IOContext.READONCE)) {
+					byte[] content = new byte[(int) input.length()];
+					input.readBytes(content, 0, content.length);
+					files.computeIfAbsent(extension, e -> new ArrayList<>()).add(content);
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * @return stored bytes after a full compaction, best write and best read
+	 * time in nanos
+	 */
+	private static long[] measure(CompressionType compression, List<byte[]> contents) throws IOException {
+		RocksDBConfig config = RocksDBConfig.builder()
+				.compression(compression)
+				.compressionPolicy(CompressionPolicy.FAST)
+				.blockCacheSize(0)
+				.build();
+		long write = Long.MAX_VALUE;
+		long read = Long.MAX_VALUE;
+		long size = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			Path path = BenchmarkSupport.createTempDir();
+			RocksDBFileStore store = new RocksDBFileStore(path, config);
+			try {
+				long start = System.nanoTime();
+				for (int i = 0; i < contents.size(); i++) {
+					byte[] content = contents.get(i);
+					DBFileWriter writer = store.createWriter("file-" + i, BLOCK_SIZE);
+					for (int offset = 0; offset < content.length; offset += BLOCK_SIZE) {
+						writer.append(content, offset, Math.min(BLOCK_SIZE, content.length - offset));
+					}
+					writer.commit();
+				}
+				store.compact();
+				write = Math.min(write, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				for (int i = 0; i < contents.size(); i++) {
+					byte[] content = new byte[contents.get(i).length];
+					store.load("file-" + i, 0, content, 0, content.length);
+				}
+				read = Math.min(read, System.nanoTime() - start);
+			} finally {
+				store.close();
+				size = sstSize(path.resolve("_data").toFile());
+				BenchmarkSupport.deleteDir(path);
+			}
+		}
+		return new long[]{size, write, read};
+	}
+
+	private static long sstSize(File data) {
+		long size = 0;
+		File[] files = data.listFiles((dir, name) -> name.endsWith(".sst"));
+		if (files != null) {
+			for (File file : files) {
+				size += file.length();
+			}
+		}
+		return size;
+	}
+
+	private static String name(CompressionType compression) {
+		return compression.name().replace("_COMPRESSION", "");
+	}
+}
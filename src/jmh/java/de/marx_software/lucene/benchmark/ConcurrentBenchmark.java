@@ -0,0 +1,126 @@
+package de.marx_software.lucene.benchmark;
+
+import de.marx_software.lucene.Profile;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Searches and indexes on the same directory at the same time. Three search
+ * threads share a searcher on the indexed test data set while one thread adds
+ * documents with a small RAM buffer, so segments are flushed to the store
+ * during the searches. Run with several thread counts (bench.threads) to see
+ * how both scale with the number of cores.
+ *
+ * @author marx
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class ConcurrentBenchmark {
+
+	private static final String FIELD = "content";
+
+	private static final String[] WORDS = {"good", "game", "team", "season", "player", "coach", "match", "score"};
+
+	@Param({"ROCKSDB", "LEVELDB", "MVSTORE", "FS", "BYTEBUFFERS"})
+	public Backend backend;
+
+	@Param({"DEFAULT"})
+	public Profile profile;
+
+	private Path path;
+
+	private Directory directory;
+
+	private DirectoryReader reader;
+
+	private IndexSearcher searcher;
+
+	private IndexWriter writer;
+
+	private final TermQuery query = new TermQuery(new Term(FIELD, "good"));
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		path = BenchmarkSupport.createTempDir();
+		directory = backend.open(path, profile);
+		BenchmarkSupport.index(directory);
+		reader = DirectoryReader.open(directory);
+		searcher = new IndexSearcher(reader);
+		searcher.setQueryCache(null);
+
+		IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+		config.setRAMBufferSizeMB(1);
+		writer = new IndexWriter(directory, config);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		writer.close();
+		reader.close();
+		directory.close();
+		BenchmarkSupport.deleteDir(path);
+	}
+
+	@State(Scope.Thread)
+	public static class Words {
+
+		final Random random = new Random(BenchmarkSupport.SEED);
+
+		String sentence() {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 50; i++) {
+				sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+			}
+			return sb.toString();
+		}
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(3)
+	public TopDocs search() throws IOException {
+		return searcher.search(query, 100);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public long index(Words words) throws IOException {
+		Document doc = new Document();
+		doc.add(new TextField(FIELD, words.sentence(), Field.Store.NO));
+		return writer.addDocument(doc);
+	}
+}
@@ -0,0 +1,168 @@
+package de.marx_software.lucene.benchmark;
+
+import de.marx_software.lucene.DBFileStore;
+import de.marx_software.lucene.DBFileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * load, append, move and remove directly on the {@link DBFileStore} of the DB
+ * backends.
+ *
+ * @author marx
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileStoreBenchmark {
+
+	private static final String FILE = "store.bin";
+
+	private static final int CHUNK_SIZE = 10 * 1024;
+
+	/**
+	 * appends to a file before the next one is started
+	 */
+	private static final int MAX_APPENDS = 64;
+
+	@Param({"ROCKSDB", "LEVELDB", "MVSTORE", "MVSTORE_MAPPED", "MVSTORE_OFF_HEAP"})
+	public Backend backend;
+
+	@Param({"65536", "1048576", "16777216"})
+	public int fileSize;
+
+	private final AtomicInteger fileCounter = new AtomicInteger();
+
+	private Path path;
+
+	private DBFileStore store;
+
+	private byte[] content;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		path = BenchmarkSupport.createTempDir();
+		store = backend.openStore(path);
+		content = BenchmarkSupport.randomBytes(fileSize);
+		write(FILE);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		store.close();
+		BenchmarkSupport.deleteDir(path);
+	}
+
+	private void write(String name) throws IOException {
+		DBFileWriter writer = store.createWriter(name, CHUNK_SIZE);
+		for (int offset = 0; offset < fileSize; offset += CHUNK_SIZE) {
+			writer.append(content, offset, Math.min(CHUNK_SIZE, fileSize - offset));
+		}
+		writer.commit();
+	}
+
+	private String nextName() {
+		return "store_" + fileCounter.getAndIncrement() + ".bin";
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+
+		final byte[] buffer = new byte[CHUNK_SIZE];
+
+		long[] positions;
+
+		int next;
+
+		String appendName;
+
+		int appends;
+
+		String moveSource;
+
+		String moveDest;
+
+		String removeName;
+
+		@Setup(Level.Trial)
+		public void setUp(FileStoreBenchmark benchmark) throws IOException {
+			Random random = new Random(Thread.currentThread().getId());
+			positions = new long[1024];
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = (long) (random.nextDouble() * benchmark.fileSize);
+			}
+
+			moveSource = benchmark.nextName();
+			moveDest = benchmark.nextName();
+			benchmark.write(moveSource);
+		}
+
+		// a fresh file per iteration, the store is dropped with the trial
+		@Setup(Level.Iteration)
+		public void setUpIteration(FileStoreBenchmark benchmark) {
+			appendName = benchmark.nextName();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class RemoveState {
+
+		String name;
+
+		@Setup(Level.Invocation)
+		public void setUp(FileStoreBenchmark benchmark) throws IOException {
+			name = benchmark.nextName();
+			benchmark.write(name);
+		}
+	}
+
+	@Benchmark
+	public int load(ThreadState state) throws IOException {
+		long position = state.positions[state.next++ & (state.positions.length - 1)];
+		return store.load(FILE, position, state.buffer, 0, CHUNK_SIZE);
+	}
+
+	/**
+	 * Appends to small files, an append rewrites the meta data of the whole
+	 * file.
+	 */
+	@Benchmark
+	public void append(ThreadState state) throws IOException {
+		if (++state.appends % MAX_APPENDS == 0) {
+			state.appendName = nextName();
+		}
+		store.append(state.appendName, content, 0, Math.min(CHUNK_SIZE, fileSize));
+	}
+
+	@Benchmark
+	public void move(ThreadState state) throws IOException {
+		store.move(state.moveSource, state.moveDest);
+		String source = state.moveSource;
+		state.moveSource = state.moveDest;
+		state.moveDest = source;
+	}
+
+	@Benchmark
+	public void remove(RemoveState state) throws IOException {
+		store.remove(state.name);
+	}
+}
@@ -0,0 +1,120 @@
+package de.marx_software.lucene.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * readByte, readBytes and seek on an input opened with
+ * {@link Directory#openInput(String, IOContext)}. Every thread reads its own
+ * clone of a shared input.
+ *
+ * @author marx
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexInputBenchmark {
+
+	private static final String FILE = "input.bin";
+
+	private static final int CHUNK_SIZE = 4096;
+
+	@Param({"ROCKSDB", "LEVELDB", "MVSTORE", "MVSTORE_MAPPED", "MVSTORE_OFF_HEAP", "FS", "BYTEBUFFERS"})
+	public Backend backend;
+
+	@Param({"65536", "1048576", "16777216"})
+	public int fileSize;
+
+	private Path path;
+
+	private Directory directory;
+
+	private IndexInput input;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		path = BenchmarkSupport.createTempDir();
+		directory = backend.open(path);
+		BenchmarkSupport.writeFile(directory, FILE, BenchmarkSupport.randomBytes(fileSize));
+		input = directory.openInput(FILE, IOContext.DEFAULT);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		input.close();
+		directory.close();
+		BenchmarkSupport.deleteDir(path);
+	}
+
+	@State(Scope.Thread)
+	public static class Reader {
+
+		IndexInput input;
+
+		final byte[] chunk = new byte[CHUNK_SIZE];
+
+		long[] positions;
+
+		int next;
+
+		@Setup(Level.Iteration)
+		public void setUp(IndexInputBenchmark benchmark) throws IOException {
+			input = benchmark.input.clone();
+			input.seek(0);
+
+			Random random = new Random(Thread.currentThread().getId());
+			positions = new long[1024];
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = (long) (random.nextDouble() * benchmark.fileSize);
+			}
+			next = 0;
+		}
+	}
+
+	@Benchmark
+	public byte readByte(Reader reader) throws IOException {
+		IndexInput in = reader.input;
+		if (in.getFilePointer() == in.length()) {
+			in.seek(0);
+		}
+		return in.readByte();
+	}
+
+	@Benchmark
+	public byte[] readBytes(Reader reader) throws IOException {
+		IndexInput in = reader.input;
+		if (in.length() - in.getFilePointer() < CHUNK_SIZE) {
+			in.seek(0);
+		}
+		in.readBytes(reader.chunk, 0, CHUNK_SIZE);
+		return reader.chunk;
+	}
+
+	@Benchmark
+	public byte seek(Reader reader) throws IOException {
+		IndexInput in = reader.input;
+		in.seek(reader.positions[reader.next++ & (reader.positions.length - 1)]);
+		return in.readByte();
+	}
+}
@@ -0,0 +1,81 @@
+package de.marx_software.lucene.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writes a complete file of <code>fileSize</code> bytes through
+ * {@link IndexOutput#writeBytes(byte[], int, int)} per invocation.
+ *
+ * @author marx
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexOutputBenchmark {
+
+	@Param({"ROCKSDB", "LEVELDB", "MVSTORE", "FS", "BYTEBUFFERS"})
+	public Backend backend;
+
+	@Param({"65536", "1048576", "16777216"})
+	public int fileSize;
+
+	@Param({"128", "8192"})
+	public int chunkSize;
+
+	private final AtomicInteger fileCounter = new AtomicInteger();
+
+	private Path path;
+
+	private Directory directory;
+
+	private byte[] content;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		path = BenchmarkSupport.createTempDir();
+		directory = backend.open(path);
+		content = BenchmarkSupport.randomBytes(fileSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		directory.close();
+		BenchmarkSupport.deleteDir(path);
+	}
+
+	@Benchmark
+	public long writeBytes() throws IOException {
+		String name = "output_" + fileCounter.getAndIncrement() + ".bin";
+		long length;
+		try (IndexOutput output = directory.createOutput(name, IOContext.DEFAULT)) {
+			for (int offset = 0; offset < fileSize; offset += chunkSize) {
+				output.writeBytes(content, offset, Math.min(chunkSize, fileSize - offset));
+			}
+			length = output.getFilePointer();
+		}
+		directory.deleteFile(name);
+		return length;
+	}
+}
@@ -0,0 +1,62 @@
+package de.marx_software.lucene.benchmark;
+
+import de.marx_software.lucene.Profile;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Indexes the test data set into a fresh directory and commits. Every thread
+ * uses its own directory.
+ *
+ * @author marx
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class IndexingBenchmark {
+
+	@Param({"ROCKSDB", "ROCKSDB_HYBRID", "ROCKSDB_DEDUP", "LEVELDB", "MVSTORE", "FS", "BYTEBUFFERS"})
+	public Backend backend;
+
+	@Param({"DEFAULT"})
+	public Profile profile;
+
+	private Path path;
+
+	private Directory directory;
+
+	@Setup(Level.Invocation)
+	public void setUp() throws IOException {
+		path = BenchmarkSupport.createTempDir();
+		directory = backend.open(path, profile);
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDown() throws IOException {
+		directory.close();
+		BenchmarkSupport.deleteDir(path);
+	}
+
+	@Benchmark
+	public void index() throws IOException {
+		BenchmarkSupport.index(directory);
+	}
+}
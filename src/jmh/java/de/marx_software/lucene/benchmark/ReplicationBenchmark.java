@@ -0,0 +1,117 @@
+package de.marx_software.lucene.benchmark;
+
+import de.marx_software.lucene.DBDirectory;
+import de.marx_software.lucene.LocalReplicationTransport;
+import de.marx_software.lucene.ReplicationFollower;
+import de.marx_software.lucene.ReplicationPrimary;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of a follower to catch up with a primary that is <code>behind</code>
+ * commits ahead. The follower holds the indexed test data set, every commit
+ * adds a small batch of documents, so the measured time is the cost of an
+ * incremental update and not of a full copy.
+ *
+ * @author marx
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class ReplicationBenchmark {
+
+	private static final int BATCH_SIZE = 100;
+
+	@Param({"ROCKSDB", "LEVELDB", "MVSTORE"})
+	public Backend backend;
+
+	@Param({"1", "10"})
+	public int behind;
+
+	private Path path;
+
+	private DBDirectory primaryDirectory;
+
+	private DBDirectory followerDirectory;
+
+	private IndexWriter writer;
+
+	private ReplicationPrimary primary;
+
+	private ReplicationFollower follower;
+
+	private final Random random = new Random(BenchmarkSupport.SEED);
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		path = BenchmarkSupport.createTempDir();
+		primaryDirectory = (DBDirectory) backend.open(path.resolve("primary"));
+		followerDirectory = (DBDirectory) backend.open(path.resolve("follower"));
+		BenchmarkSupport.index(primaryDirectory);
+		SnapshotDeletionPolicy snapshots = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+		writer = new IndexWriter(primaryDirectory, new IndexWriterConfig(new StandardAnalyzer())
+				.setOpenMode(IndexWriterConfig.OpenMode.APPEND)
+				.setIndexDeletionPolicy(snapshots));
+		primary = new ReplicationPrimary(primaryDirectory, snapshots);
+		follower = new ReplicationFollower(followerDirectory, new LocalReplicationTransport(primary));
+		commit();
+		follower.update();
+	}
+
+	@Setup(Level.Iteration)
+	public void commits() throws IOException {
+		for (int i = 0; i < behind; i++) {
+			commit();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		primary.close();
+		writer.close();
+		primaryDirectory.close();
+		followerDirectory.close();
+		BenchmarkSupport.deleteDir(path);
+	}
+
+	private void commit() throws IOException {
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			Document doc = new Document();
+			doc.add(new TextField("content", "document " + random.nextInt(), Field.Store.YES));
+			writer.addDocument(doc);
+		}
+		writer.commit();
+		primary.publish();
+	}
+
+	@Benchmark
+	public long catchUp() throws IOException {
+		return follower.update();
+	}
+}
@@ -0,0 +1,98 @@
+package de.marx_software.lucene.benchmark;
+
+import de.marx_software.lucene.Profile;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TermQuery and BooleanQuery search on the indexed test data set. All
+ * threads share one searcher.
+ *
+ * @author marx
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+	private static final String FIELD = "content";
+
+	@Param({"ROCKSDB", "ROCKSDB_HYBRID", "ROCKSDB_DEDUP", "LEVELDB", "MVSTORE", "MVSTORE_MAPPED", "MVSTORE_OFF_HEAP", "FS", "BYTEBUFFERS"})
+	public Backend backend;
+
+	@Param({"DEFAULT"})
+	public Profile profile;
+
+	private Path path;
+
+	private Directory directory;
+
+	private DirectoryReader reader;
+
+	private IndexSearcher searcher;
+
+	private Query termQuery;
+
+	private Query booleanQuery;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		path = BenchmarkSupport.createTempDir();
+		directory = backend.open(path, profile);
+		BenchmarkSupport.index(directory);
+		reader = DirectoryReader.open(directory);
+		searcher = new IndexSearcher(reader);
+		// no query cache, every search has to go to the directory
+		searcher.setQueryCache(null);
+
+		termQuery = new TermQuery(new Term(FIELD, "good"));
+		booleanQuery = new BooleanQuery.Builder()
+				.add(new TermQuery(new Term(FIELD, "good")), BooleanClause.Occur.SHOULD)
+				.add(new TermQuery(new Term(FIELD, "game")), BooleanClause.Occur.SHOULD)
+				.add(new TermQuery(new Term(FIELD, "team")), BooleanClause.Occur.MUST)
+				.build();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		reader.close();
+		directory.close();
+		BenchmarkSupport.deleteDir(path);
+	}
+
+	@Benchmark
+	public TopDocs termQuery() throws IOException {
+		return searcher.search(termQuery, 100);
+	}
+
+	@Benchmark
+	public TopDocs booleanQuery() throws IOException {
+		return searcher.search(booleanQuery, 100);
+	}
+}
@@ -1,38 +1,963 @@
-/*
- * To change this license header, choose License Headers in Project Properties.
- * To change this template file, choose Tools | Templates
- * and open the template in the editor.
- */
-package de.marx_software.lucene;
-
-/**
- *
- * @author marx
- */
-public abstract class BaseDBFileStore implements DBFileStore {
-
-	protected long readLong(byte[] bytes) {
-		return ((long) bytes[0] << 56)
-				+ ((long) (bytes[1] & 255) << 48)
-				+ ((long) (bytes[2] & 255) << 40)
-				+ ((long) (bytes[3] & 255) << 32)
-				+ ((long) (bytes[4] & 255) << 24)
-				+ ((bytes[5] & 255) << 16)
-				+ ((bytes[6] & 255) << 8)
-				+ ((bytes[7] & 255) << 0);
-	}
-
-	protected byte[] longToBytes(long size) {
-		return new byte[]{
-			(byte) (size >>> 56),
-			(byte) (size >>> 48),
-			(byte) (size >>> 40),
-			(byte) (size >>> 32),
-			(byte) (size >>> 24),
-			(byte) (size >>> 16),
-			(byte) (size >>> 8),
-			(byte) (size >>> 0)
-
-		};
-	}
-}
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package de.marx_software.lucene;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.DoubleConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * File layout shared by all stores.
+ *
+ * A file consists of a meta entry, keyed by the file name, and a data entry
+ * per extent, keyed by file id and extent number. Every append writes a new
+ * extent with exactly the appended bytes, so no block is ever read back on
+ * the write path. The meta entry holds the file id, length and extent index,
+ * see {@link FileMeta}. A rename only moves the meta entry.
+ *
+ * Data keys are binary, see {@link #dataKey(long, int)}, so all extents of a
+ * file are stored next to each other and in order.
+ *
+ * The meta data of all files is held in memory, Lucene files are written
+ * once and there are few of them. The meta entries are only read on open.
+ *
+ * Subclasses provide the key value access of the backend and call
+ * {@link #open()} at the end of their constructor.
+ *
+ * @author marx
+ */
+public abstract class BaseDBFileStore implements DBFileStore {
+
+	/**
+	 * block size of files written before the block size was recorded
+	 */
+	protected static final int BLOCK_SIZE = DEFAULT_BLOCK_SIZE;
+
+	/**
+	 * Staged writes of a batch are written to the store when they exceed this
+	 * size. They are not reachable before the file meta data is written.
+	 */
+	protected static final int MAX_BATCH_BYTES = 4 * 1024 * 1024;
+
+	/**
+	 * length of the binary data keys
+	 */
+	protected static final int DATA_KEY_LENGTH = 12;
+
+	/**
+	 * End of the binary data keys. File ids stay below 2^56, so their keys
+	 * start with a zero byte, unlike the string keys of the legacy layout.
+	 */
+	protected static final byte[] DATA_KEY_END = dataKey(1L << 56, 0);
+
+	private static final int LOCK_STRIPES = 64;
+
+	/**
+	 * names of the statistics of all stores, see {@link #getStatistics()}
+	 */
+	public static final String FILES = "store.files";
+	public static final String UNSYNCED_FILES = "store.unsyncedFiles";
+	public static final String REMOVED_FILES = "store.removedFiles";
+	public static final String LOCK_WAITS = "store.lockWaits";
+	public static final String LOCK_WAIT_NANOS = "store.lockWaitNanos";
+
+	/**
+	 * Held shared by changes of single files and exclusive by changes of the
+	 * whole store. Reads take no lock, file meta data is immutable and the
+	 * backends are thread safe for point operations.
+	 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * serializes changes of the same file name
+	 */
+	private final Lock[] stripes = new Lock[LOCK_STRIPES];
+
+	/**
+	 * Meta data of all files, read by {@link #open()} and updated with every
+	 * change. Lookups of lengths, extents and names never go to the backend.
+	 */
+	private final Map<String, FileMeta> files = new ConcurrentHashMap<>();
+
+	/**
+	 * names per file id of the ids with more than one name, found by
+	 * {@link #open()}
+	 */
+	private final Map<Long, Integer> sharedIds = new ConcurrentHashMap<>();
+
+	/**
+	 * next free file id, initialized by {@link #open()}
+	 */
+	private final AtomicLong nextFileId = new AtomicLong(1);
+
+	/**
+	 * names of the files changed since their last sync
+	 */
+	private final Set<String> unsynced = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * count of all changes, a change is counted after it is written
+	 */
+	private final AtomicLong changes = new AtomicLong();
+
+	/**
+	 * count of the changes covered by the last sync
+	 */
+	private volatile long syncedChanges;
+
+	/**
+	 * ids of the files removed since the last compaction of their ranges
+	 */
+	private final NavigableSet<Long> removedIds = new ConcurrentSkipListSet<>();
+
+	private final CompressionPolicy compressionPolicy;
+
+	/**
+	 * lock acquisitions that had to wait and their wait time
+	 */
+	private final LongAdder lockWaits = new LongAdder();
+	private final LongAdder lockWaitNanos = new LongAdder();
+
+	/**
+	 * A store that compresses all files alike.
+	 */
+	protected BaseDBFileStore() {
+		this(CompressionPolicy.FAST);
+	}
+
+	/**
+	 * @param compressionPolicy compression of new files, passed to the
+	 * backend with every data access
+	 */
+	protected BaseDBFileStore(CompressionPolicy compressionPolicy) {
+		this.compressionPolicy = compressionPolicy;
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	private int stripe(String name) {
+		int h = name.hashCode();
+		return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+	}
+
+	/**
+	 * Locks the store shared and the stripe of the file.
+	 *
+	 * @return the locked stripe
+	 */
+	private Lock lockFile(String name) {
+		lock(lock.readLock());
+		Lock stripe = stripes[stripe(name)];
+		lock(stripe);
+		return stripe;
+	}
+
+	/**
+	 * Locks and counts the wait if the lock is not free.
+	 */
+	private void lock(Lock l) {
+		if (l.tryLock()) {
+			return;
+		}
+		long start = System.nanoTime();
+		l.lock();
+		lockWaits.increment();
+		lockWaitNanos.add(System.nanoTime() - start);
+	}
+
+	private void unlockFile(Lock stripe) {
+		stripe.unlock();
+		lock.readLock().unlock();
+	}
+
+	/**
+	 * Writes staged in memory and applied to the store at once.
+	 */
+	protected interface StoreBatch extends AutoCloseable {
+
+		void putData(long fileId, int extent, FileCompression compression, byte[] value) throws IOException;
+
+		void deleteData(long fileId, int extent, FileCompression compression) throws IOException;
+
+		/**
+		 * Deletes a data entry of the string keyed legacy layout.
+		 */
+		void deleteLegacyData(String key) throws IOException;
+
+		/**
+		 * Deletes all extents of a file. Backends with range deletes drop the
+		 * key range of the id at once.
+		 *
+		 * @param fileId
+		 * @param extentCount
+		 * @param length file length in bytes
+		 * @param compression
+		 */
+		default void deleteFile(long fileId, int extentCount, long length, FileCompression compression) throws IOException {
+			for (int i = 0; i < extentCount; i++) {
+				deleteData(fileId, i, compression);
+			}
+		}
+
+		void putMeta(String name, byte[] value) throws IOException;
+
+		void deleteMeta(String name) throws IOException;
+
+		/**
+		 * Applies the staged writes and empties the batch. Backends without
+		 * atomic batches apply data puts first, then the meta changes and the
+		 * data deletes last, so meta data never points to missing extents.
+		 */
+		void write() throws IOException;
+
+		@Override
+		void close();
+	}
+
+	protected abstract StoreBatch createBatch() throws IOException;
+
+	/**
+	 * Makes all writes applied so far durable, without compacting. Called
+	 * by one thread at a time.
+	 */
+	protected abstract void syncBackend() throws IOException;
+
+	/**
+	 * Creates the batch of a writer of a bulk file, see
+	 * {@link DBFileStore#createWriter(String, int, boolean)}. The data of a
+	 * bulk batch is only reachable after the meta data of its file is
+	 * written, so the batch may defer the data until then.
+	 */
+	protected StoreBatch createBulkBatch() throws IOException {
+		return createBatch();
+	}
+
+	/**
+	 * Deletes the data of all file ids without meta data. Called by
+	 * {@link #open()} before any file is written, the data was left by
+	 * writers that flushed a part of their batch and never committed.
+	 *
+	 * @param fileIds the file ids of the meta data
+	 */
+	protected abstract void deleteOrphanedData(NavigableSet<Long> fileIds) throws IOException;
+
+	/**
+	 * @param fileIds the file ids of the meta data
+	 * @param fileId an orphaned file id
+	 * @return the key after the orphaned data from fileId on
+	 */
+	protected static byte[] orphanedDataEnd(NavigableSet<Long> fileIds, long fileId) {
+		Long next = fileIds.higher(fileId);
+		return next != null ? dataKey(next, 0) : DATA_KEY_END;
+	}
+
+	/**
+	 * @param name
+	 * @return the raw meta entry or null
+	 */
+	protected abstract byte[] getMeta(String name) throws IOException;
+
+	/**
+	 * @return the names of all meta entries in the backend
+	 */
+	protected abstract Set<String> listMetaKeys() throws IOException;
+
+	/**
+	 * @param fileId
+	 * @param extent
+	 * @param compression the compression of the file, backends that store
+	 * it apart read it from there
+	 * @return the data entry or null
+	 */
+	protected abstract byte[] getData(long fileId, int extent, FileCompression compression) throws IOException;
+
+	/**
+	 * Copies a part of an extent into the buffer. Backends that can read into
+	 * a caller supplied buffer override this to avoid the array of
+	 * {@link #getData(long, int, FileCompression)}.
+	 *
+	 * @param fileId
+	 * @param extent
+	 * @param compression
+	 * @param offset position within the extent
+	 * @param buf
+	 * @param bufOffset
+	 * @param len
+	 * @return the number of bytes copied, -1 if the extent does not exist
+	 */
+	protected int readData(long fileId, int extent, FileCompression compression, int offset, byte[] buf, int bufOffset, int len) throws IOException {
+		byte[] bb = getData(fileId, extent, compression);
+		if (bb == null) {
+			return -1;
+		}
+		int n = Math.min(len, bb.length - offset);
+		System.arraycopy(bb, offset, buf, bufOffset, n);
+		return n;
+	}
+
+	/**
+	 * @param key
+	 * @return a data entry of the string keyed legacy layout or null
+	 */
+	protected abstract byte[] getLegacyData(String key) throws IOException;
+
+	/**
+	 * Big endian file id followed by the big endian extent number, so the
+	 * keys sort by file and extent.
+	 *
+	 * @param fileId
+	 * @param extent
+	 * @return the binary key of the extent
+	 */
+	protected static byte[] dataKey(long fileId, int extent) {
+		byte[] key = new byte[DATA_KEY_LENGTH];
+		for (int i = 7; i >= 0; i--) {
+			key[i] = (byte) fileId;
+			fileId >>>= 8;
+		}
+		key[8] = (byte) (extent >>> 24);
+		key[9] = (byte) (extent >>> 16);
+		key[10] = (byte) (extent >>> 8);
+		key[11] = (byte) extent;
+		return key;
+	}
+
+	/**
+	 * Reads the meta data of all files and migrates files of the string keyed
+	 * legacy layout to binary keys.
+	 */
+	protected void open() throws IOException {
+		NavigableSet<Long> fileIds = new TreeSet<>();
+		for (String name : listMetaKeys()) {
+			byte[] bytes = getMeta(name);
+			if (bytes != null) {
+				FileMeta meta = FileMeta.decode(bytes, BLOCK_SIZE);
+				files.put(name, meta);
+				fileIds.add(meta.fileId());
+			}
+		}
+		nextFileId.set(fileIds.isEmpty() ? FileMeta.NO_FILE_ID + 1 : fileIds.last() + 1);
+		// ids above the max are handed out again, their orphaned data must not show up
+		deleteOrphanedData(fileIds);
+
+		Map<Long, String> ids = new HashMap<>();
+		for (Map.Entry<String, FileMeta> file : files.entrySet()) {
+			String other = ids.put(file.getValue().fileId(), file.getKey());
+			if (other != null && file.getValue().fileId() != FileMeta.NO_FILE_ID) {
+				Logger.getLogger(BaseDBFileStore.class.getName()).log(Level.WARNING,
+						"{0} and {1} share their data, it is kept until both are removed", new Object[]{other, file.getKey()});
+				sharedIds.merge(file.getValue().fileId(), 2, (names, one) -> names + 1);
+			}
+		}
+
+		for (Map.Entry<String, FileMeta> file : files.entrySet()) {
+			if (file.getValue().isLegacy()) {
+				migrate(file.getKey(), file.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Copies the extents to binary keys under a new id, then replaces the meta
+	 * entry and deletes the old keys in one batch.
+	 */
+	private void migrate(String name, FileMeta meta) throws IOException {
+		Logger.getLogger(BaseDBFileStore.class.getName()).log(Level.INFO, "migrating {0} to binary keys", name);
+
+		lock.writeLock().lock();
+		try (StoreBatch batch = createBatch()) {
+			long fileId = nextFileId.getAndIncrement();
+			long[] extentLengths = new long[meta.extentCount()];
+			int batchBytes = 0;
+			for (int i = 0; i < meta.extentCount(); i++) {
+				byte[] bb = getLegacyData(meta.legacyDataKey(name, i));
+				if (bb == null) {
+					throw new IOException("missing extent " + i + " of " + name);
+				}
+				int length = (int) (meta.extentEnd(i) - meta.extentStart(i));
+				batch.putData(fileId, i, meta.compression(), bb.length == length ? bb : Arrays.copyOf(bb, length));
+				extentLengths[i] = length;
+				batchBytes += length;
+				// the copy is not visible before its meta data is written
+				if (batchBytes >= MAX_BATCH_BYTES) {
+					batch.write();
+					batchBytes = 0;
+				}
+			}
+			FileMeta migrated = FileMeta.of(fileId, extentLengths, extentLengths.length, meta.blockSize(), meta.compression());
+			batch.putMeta(name, migrated.encode());
+			for (int i = 0; i < meta.extentCount(); i++) {
+				batch.deleteLegacyData(meta.legacyDataKey(name, i));
+			}
+			batch.write();
+			files.put(name, migrated);
+			changed(name);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean contains(String key) {
+		return files.containsKey(key);
+	}
+
+	/**
+	 * @param key
+	 * @return not exist return -1
+	 */
+	@Override
+	public long getSize(String key) {
+		FileMeta meta = files.get(key);
+		return meta != null ? meta.length() : -1;
+	}
+
+	@Override
+	public int getBlockSize(String name) {
+		FileMeta meta = files.get(name);
+		return meta != null ? meta.blockSize() : -1;
+	}
+
+	@Override
+	public Set<String> listKey() {
+		return new HashSet<>(files.keySet());
+	}
+
+	/**
+	 * Lock free, the meta data of a file is replaced but never changed.
+	 */
+	@Override
+	public int load(String name, long position, byte[] buf, int offset, int len) throws IOException {
+
+		FileMeta meta = files.get(name);
+
+		if (meta == null || position >= meta.length()) {
+			return -1;
+		}
+
+		if (buf.length < offset + len) {
+			throw new IllegalArgumentException("len is too long");
+		}
+
+		long p = position;
+		int f = offset;
+		int n = len;
+		int i = meta.extentOf(p);
+
+		while (n > 0 && p < meta.length()) {
+			long start = meta.extentStart(i);
+			int m = (int) (p - start);
+			int r = (int) Math.min(meta.extentEnd(i) - p, n);
+
+			if (readData(meta.fileId(), i, meta.compression(), m, buf, f, r) < r) {
+				throw new IOException("missing extent " + i + " of " + name);
+			}
+
+			p += r;
+			f += r;
+			n -= r;
+			i++;
+		}
+
+		return (int) (p - position);
+	}
+
+	/**
+	 * Appends the bytes as a new extent and rewrites the extent index, see
+	 * {@link DBFileStore#append(String, byte[], int, int)}.
+	 */
+	@Override
+	public void append(String name, byte[] buf, int offset, int len) throws IOException {
+
+		Lock stripe = lockFile(name);
+		try (StoreBatch batch = createBatch()) {
+
+			FileMeta meta = files.get(name);
+			if (meta == null) {
+				meta = FileMeta.empty(nextFileId.getAndIncrement(), BLOCK_SIZE, compressionPolicy.compression(name));
+			}
+
+			if (len > 0) {
+				batch.putData(meta.fileId(), meta.extentCount(), meta.compression(), Arrays.copyOfRange(buf, offset, offset + len));
+				meta = meta.append(len);
+			}
+			batch.putMeta(name, meta.encode());
+			batch.write();
+			files.put(name, meta);
+			changed(name);
+
+		} finally {
+			unlockFile(stripe);
+		}
+	}
+
+	@Override
+	public void remove(String key) throws IOException {
+		Lock stripe = lockFile(key);
+		try (StoreBatch batch = createBatch()) {
+			FileMeta meta = files.get(key);
+			if (meta == null) {
+				return;
+			}
+			batch.deleteMeta(key);
+			boolean shared = isShared(meta);
+			if (!shared) {
+				deleteData(batch, meta);
+			}
+			batch.write();
+			files.remove(key);
+			changed(key);
+			if (shared) {
+				unshare(meta);
+			} else {
+				removedIds.add(meta.fileId());
+			}
+
+		} finally {
+			unlockFile(stripe);
+		}
+	}
+
+	@Override
+	public void clear() throws IOException {
+
+		lock(lock.writeLock());
+		try {
+			deleteAll();
+			files.clear();
+			sharedIds.clear();
+			changed(null);
+			removedIds.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Deletes the meta and data entries of all files, called while no file is
+	 * changed.
+	 */
+	protected void deleteAll() throws IOException {
+		try (StoreBatch batch = createBatch()) {
+			for (Map.Entry<String, FileMeta> file : files.entrySet()) {
+				batch.deleteMeta(file.getKey());
+				deleteData(batch, file.getValue());
+			}
+			batch.write();
+		}
+	}
+
+	/**
+	 * A rename persisted half by a store without atomic batches leaves two
+	 * names for one id, the data is only deleted with the last of them.
+	 *
+	 * @return true if another file refers to the data of meta
+	 */
+	private boolean isShared(FileMeta meta) {
+		return sharedIds.containsKey(meta.fileId());
+	}
+
+	/**
+	 * Drops a name of a shared id after its meta entry is gone.
+	 */
+	private void unshare(FileMeta meta) {
+		sharedIds.computeIfPresent(meta.fileId(), (id, names) -> names > 2 ? names - 1 : null);
+	}
+
+	private static void deleteData(StoreBatch batch, FileMeta meta) throws IOException {
+		batch.deleteFile(meta.fileId(), meta.extentCount(), meta.length(), meta.compression());
+	}
+
+	/**
+	 * Moves the meta entry in one batch.
+	 */
+	@Override
+	public void move(String source, String dest) throws IOException {
+
+		// both stripes in index order
+		int first = Math.min(stripe(source), stripe(dest));
+		int second = Math.max(stripe(source), stripe(dest));
+		lock(lock.readLock());
+		lock(stripes[first]);
+		if (second != first) {
+			lock(stripes[second]);
+		}
+		try (StoreBatch batch = createBatch()) {
+
+			FileMeta meta = files.get(source);
+			if (meta == null || source.equals(dest)) {
+				return;
+			}
+
+			FileMeta replaced = files.get(dest);
+			boolean shared = replaced != null && (replaced.fileId() == meta.fileId() || isShared(replaced));
+			if (replaced != null && !shared) {
+				deleteData(batch, replaced);
+			}
+			batch.putMeta(dest, meta.encode());
+			batch.deleteMeta(source);
+			batch.write();
+			files.put(dest, meta);
+			files.remove(source);
+			changed(source);
+			changed(dest);
+			if (shared) {
+				unshare(replaced);
+			} else if (replaced != null) {
+				removedIds.add(replaced.fileId());
+			}
+
+		} finally {
+			if (second != first) {
+				stripes[second].unlock();
+			}
+			stripes[first].unlock();
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Counts a written change, the name is null for changes of the whole
+	 * store.
+	 */
+	private void changed(String name) {
+		changes.incrementAndGet();
+		if (name != null) {
+			unsynced.add(name);
+		}
+	}
+
+	@Override
+	public void sync() throws IOException {
+		if (changes.get() == syncedChanges) {
+			return;
+		}
+		List<String> pending = new ArrayList<>(unsynced);
+		unsynced.removeAll(pending);
+		syncChanges(pending);
+	}
+
+	/**
+	 * Only syncs if one of the files changed since its last sync. The
+	 * backends cannot sync single files, but the WAL or log sync covers just
+	 * the writes since the last sync and does not compact.
+	 */
+	@Override
+	public void sync(Collection<String> names) throws IOException {
+		List<String> pending = new ArrayList<>();
+		for (String name : names) {
+			if (unsynced.remove(name)) {
+				pending.add(name);
+			}
+		}
+		if (!pending.isEmpty()) {
+			syncChanges(pending);
+		}
+	}
+
+	/**
+	 * @param pending the names taken from the unsynced files, put back if
+	 * the sync fails
+	 */
+	private synchronized void syncChanges(List<String> pending) throws IOException {
+		long count = changes.get();
+		if (count == syncedChanges) {
+			// covered by a sync of another thread
+			return;
+		}
+		try {
+			syncBackend();
+		} catch (IOException | RuntimeException ex) {
+			unsynced.addAll(pending);
+			throw ex;
+		}
+		syncedChanges = count;
+	}
+
+	/**
+	 * Compacts the data key ranges of the files removed since the last call
+	 * one at a time, see {@link #compactRange(long, long)}.
+	 */
+	@Override
+	public void compactRemoved(DoubleConsumer progress) throws IOException {
+		List<long[]> ranges = takeRemovedRanges();
+		for (int i = 0; i < ranges.size(); i++) {
+			compactRange(ranges.get(i)[0], ranges.get(i)[1]);
+			progress.accept((i + 1) / (double) ranges.size());
+		}
+	}
+
+	/**
+	 * Compacts the data of the file ids from fromFileId to toFileId
+	 * (exclusive). The range holds no live file.
+	 */
+	protected abstract void compactRange(long fromFileId, long toFileId) throws IOException;
+
+	/**
+	 * Groups the ids of the files removed since the last call into ranges
+	 * without live files and forgets them.
+	 *
+	 * @return ranges of file ids, start inclusive and end exclusive, in
+	 * ascending order
+	 */
+	protected List<long[]> takeRemovedRanges() {
+		List<Long> removed = new ArrayList<>(removedIds);
+		removedIds.removeAll(removed);
+		if (removed.isEmpty()) {
+			return Collections.emptyList();
+		}
+		TreeSet<Long> live = new TreeSet<>();
+		for (FileMeta meta : files.values()) {
+			live.add(meta.fileId());
+		}
+
+		List<long[]> ranges = new ArrayList<>();
+		long start = removed.get(0);
+		long end = start + 1;
+		for (long id : removed.subList(1, removed.size())) {
+			Long next = live.higher(end - 1);
+			if (next != null && next < id) {
+				ranges.add(new long[]{start, end});
+				start = id;
+			}
+			end = id + 1;
+		}
+		ranges.add(new long[]{start, end});
+		return ranges;
+	}
+
+	/**
+	 * The statistics of all stores and the ones the backend adds in
+	 * {@link #backendStatistics(Map)}.
+	 */
+	@Override
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> statistics = new HashMap<>();
+		statistics.put(FILES, (long) files.size());
+		statistics.put(UNSYNCED_FILES, (long) unsynced.size());
+		statistics.put(REMOVED_FILES, (long) removedIds.size());
+		statistics.put(LOCK_WAITS, lockWaits.sum());
+		statistics.put(LOCK_WAIT_NANOS, lockWaitNanos.sum());
+		backendStatistics(statistics);
+		return statistics;
+	}
+
+	/**
+	 * Adds the statistics of the backend, prefixed with its name.
+	 *
+	 * @param statistics
+	 */
+	protected void backendStatistics(Map<String, Long> statistics) {
+	}
+
+	@Override
+	public DBFileWriter createWriter(String name, int blockSize) throws IOException {
+		return new BatchWriter(name, blockSize, false);
+	}
+
+	@Override
+	public DBFileWriter createWriter(String name, int blockSize, boolean bulk) throws IOException {
+		return new BatchWriter(name, blockSize, bulk);
+	}
+
+	/**
+	 * Copies the extents as they are.
+	 */
+	@Override
+	public void copyFile(String name, DBFileStore target) throws IOException {
+		FileMeta meta = files.get(name);
+		if (meta == null) {
+			throw new FileNotFoundException(name);
+		}
+		DBFileWriter writer = target.createWriter(name, meta.blockSize(), true);
+		try {
+			for (int i = 0; i < meta.extentCount(); i++) {
+				byte[] extent = getData(meta.fileId(), i, meta.compression());
+				if (extent == null) {
+					throw new IOException("missing extent " + i + " of " + name);
+				}
+				writer.append(extent, 0, extent.length);
+			}
+			writer.commit();
+		} catch (IOException | RuntimeException e) {
+			DBFileWriter.abort(writer, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Copies the files to a store opened by {@link #openCheckpoint(Path)}.
+	 */
+	@Override
+	public void checkpoint(Path target, Collection<String> names) throws IOException {
+		DBFileStore copy = openCheckpoint(target);
+		try {
+			for (String name : names) {
+				copyFile(name, copy);
+			}
+			copy.sync();
+		} finally {
+			copy.close();
+		}
+	}
+
+	/**
+	 * @param path an empty directory
+	 * @return a new store of the same kind and configuration
+	 * @throws UnsupportedOperationException if the store cannot create
+	 * checkpoints
+	 */
+	protected DBFileStore openCheckpoint(Path path) throws IOException {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot create checkpoints");
+	}
+
+	/**
+	 * Stages one extent per append in a batch, the meta data is written once
+	 * on commit.
+	 */
+	private class BatchWriter implements DBFileWriter {
+
+		private final String name;
+
+		private final long fileId;
+
+		private long[] extentLengths = new long[16];
+
+		private int extentCount;
+
+		private StoreBatch batch;
+
+		private int batchBytes;
+
+		private final int blockSize;
+
+		private final FileCompression compression;
+
+		private boolean committed;
+
+		BatchWriter(String name, int blockSize, boolean bulk) throws IOException {
+			this.name = name;
+			this.blockSize = blockSize;
+			this.compression = compressionPolicy.compression(name);
+			this.fileId = nextFileId.getAndIncrement();
+			this.batch = bulk ? createBulkBatch() : createBatch();
+		}
+
+		@Override
+		public void append(byte[] buf, int offset, int len) throws IOException {
+			if (len == 0) {
+				return;
+			}
+			batch.putData(fileId, extentCount, compression, Arrays.copyOfRange(buf, offset, offset + len));
+
+			if (extentCount == extentLengths.length) {
+				extentLengths = Arrays.copyOf(extentLengths, extentCount * 2);
+			}
+			extentLengths[extentCount++] = len;
+
+			batchBytes += len;
+			if (batchBytes >= MAX_BATCH_BYTES) {
+				batch.write();
+				batchBytes = 0;
+			}
+		}
+
+		@Override
+		public void commit() throws IOException {
+			FileMeta meta = FileMeta.of(fileId, extentLengths, extentCount, blockSize, compression);
+			Lock stripe = lockFile(name);
+			try {
+				FileMeta replaced = files.get(name);
+				boolean shared = replaced != null && isShared(replaced);
+				if (replaced != null && !shared) {
+					deleteData(batch, replaced);
+				}
+				batch.putMeta(name, meta.encode());
+				batch.write();
+				files.put(name, meta);
+				changed(name);
+				committed = true;
+				if (shared) {
+					unshare(replaced);
+				} else if (replaced != null) {
+					removedIds.add(replaced.fileId());
+				}
+			} finally {
+				unlockFile(stripe);
+				batch.close();
+			}
+		}
+
+		/**
+		 * Drops the staged extents and deletes the ones already flushed.
+		 */
+		@Override
+		public void abort() throws IOException {
+			if (committed) {
+				return;
+			}
+			committed = true;
+			batch.close();
+			long length = 0;
+			for (int i = 0; i < extentCount; i++) {
+				length += extentLengths[i];
+			}
+			try (StoreBatch delete = createBatch()) {
+				delete.deleteFile(fileId, extentCount, length, compression);
+				delete.write();
+			}
+			removedIds.add(fileId);
+		}
+	}
+
+	protected static long readLong(byte[] bytes) {
+		return ((long) bytes[0] << 56)
+				+ ((long) (bytes[1] & 255) << 48)
+				+ ((long) (bytes[2] & 255) << 40)
+				+ ((long) (bytes[3] & 255) << 32)
+				+ ((long) (bytes[4] & 255) << 24)
+				+ ((bytes[5] & 255) << 16)
+				+ ((bytes[6] & 255) << 8)
+				+ ((bytes[7] & 255) << 0);
+	}
+
+	protected static byte[] longToBytes(long size) {
+		return new byte[]{
+			(byte) (size >>> 56),
+			(byte) (size >>> 48),
+			(byte) (size >>> 40),
+			(byte) (size >>> 32),
+			(byte) (size >>> 24),
+			(byte) (size >>> 16),
+			(byte) (size >>> 8),
+			(byte) (size >>> 0)
+
+		};
+	}
+}
@@ -0,0 +1,400 @@
+package de.marx_software.lucene;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size bounded cache of file blocks, shared by all inputs of a
+ * {@link DBDirectory}.
+ *
+ * Blocks are keyed by file name and block index. The cache is split into
+ * segments, each evicting in LRU order and indexing its blocks by file. A new block is only admitted to a full
+ * segment if it was requested more often than the blocks it would evict
+ * (TinyLFU), so a single scan over a large file does not flush the hot blocks
+ * of term dictionaries and doc values.
+ *
+ * Cached arrays are shared between readers and must never be modified.
+ *
+ * @author marx
+ */
+public class BlockCache {
+
+	private static final int SEGMENTS = 16;
+
+	/**
+	 * Block size used to size the frequency sketches.
+	 */
+	private static final int EXPECTED_BLOCK_SIZE = 10 * 1024;
+
+	private final Segment[] segments;
+
+	private final long maxBytes;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+
+	/**
+	 * @param maxBytes maximum size of all cached blocks
+	 */
+	public BlockCache(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+		}
+		this.maxBytes = maxBytes;
+		long segmentBytes = Math.max(1, maxBytes / SEGMENTS);
+		segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(segmentBytes);
+		}
+	}
+
+	/**
+	 * @param file
+	 * @param block
+	 * @return the cached block or null
+	 */
+	public byte[] get(String file, long block) {
+		BlockKey key = new BlockKey(file, block);
+		byte[] data = segmentFor(key).get(key);
+		if (data != null) {
+			hits.increment();
+		} else {
+			misses.increment();
+		}
+		return data;
+	}
+
+	/**
+	 * Offers a block to the cache. The block is not added if it would evict
+	 * blocks that are used more frequently.
+	 *
+	 * @param file
+	 * @param block
+	 * @param data the block content, must not be modified afterwards
+	 */
+	public void put(String file, long block, byte[] data) {
+		BlockKey key = new BlockKey(file, block);
+		segmentFor(key).put(key, data);
+	}
+
+	/**
+	 * Removes all blocks of the file.
+	 *
+	 * @param file
+	 */
+	public void invalidate(String file) {
+		for (Segment segment : segments) {
+			segment.invalidate(file);
+		}
+	}
+
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	public long hitCount() {
+		return hits.sum();
+	}
+
+	public long missCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return ratio of hits to lookups, 0 if there was no lookup yet
+	 */
+	public double hitRate() {
+		long h = hits.sum();
+		long requests = h + misses.sum();
+		return requests == 0 ? 0 : (double) h / requests;
+	}
+
+	public long evictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return number of blocks that were not admitted
+	 */
+	public long rejectionCount() {
+		return rejections.sum();
+	}
+
+	/**
+	 * @return bytes currently held by the cache
+	 */
+	public long sizeInBytes() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.weight();
+		}
+		return size;
+	}
+
+	public long maxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return number of cached blocks
+	 */
+	public int blockCount() {
+		int count = 0;
+		for (Segment segment : segments) {
+			count += segment.count();
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return "BlockCache(size=" + sizeInBytes() + ", max=" + maxBytes
+				+ ", hits=" + hitCount() + ", misses=" + missCount()
+				+ ", evictions=" + evictionCount() + ", rejections=" + rejectionCount() + ")";
+	}
+
+	private Segment segmentFor(BlockKey key) {
+		int h = key.hashCode();
+		return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+	}
+
+	private static final class BlockKey {
+
+		final String file;
+		final long block;
+		final int hash;
+
+		BlockKey(String file, long block) {
+			this.file = file;
+			this.block = block;
+			this.hash = 31 * file.hashCode() + Long.hashCode(block);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof BlockKey)) {
+				return false;
+			}
+			BlockKey other = (BlockKey) obj;
+			return block == other.block && file.equals(other.file);
+		}
+	}
+
+	private final class Segment {
+
+		private final ReentrantLock lock = new ReentrantLock();
+
+		// access ordered, the eldest entry is the LRU victim
+		private final LinkedHashMap<BlockKey, byte[]> blocks = new LinkedHashMap<>(64, 0.75f, true);
+
+		/**
+		 * keys of the cached blocks by file, invalidating a file does not
+		 * scan all blocks
+		 */
+		private final Map<String, Set<BlockKey>> files = new HashMap<>();
+
+		private final FrequencySketch sketch;
+
+		private final long maxWeight;
+
+		private long weight;
+
+		Segment(long maxWeight) {
+			this.maxWeight = maxWeight;
+			this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(16, maxWeight / EXPECTED_BLOCK_SIZE)));
+		}
+
+		byte[] get(BlockKey key) {
+			lock.lock();
+			try {
+				sketch.increment(key.hash);
+				return blocks.get(key);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void put(BlockKey key, byte[] data) {
+			if (data.length > maxWeight) {
+				rejections.increment();
+				return;
+			}
+			lock.lock();
+			try {
+				byte[] old = blocks.get(key);
+				if (old != null) {
+					remove(key);
+				}
+				if (weight + data.length > maxWeight && !makeRoom(key, data.length)) {
+					rejections.increment();
+					return;
+				}
+				blocks.put(key, data);
+				weight += data.length;
+				files.computeIfAbsent(key.file, file -> new HashSet<>()).add(key);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Evicts LRU blocks until the candidate fits, but only if the
+		 * candidate is used more frequently than every block it replaces.
+		 */
+		private boolean makeRoom(BlockKey candidate, int size) {
+			int candidateFrequency = sketch.frequency(candidate.hash);
+			List<BlockKey> victims = new ArrayList<>(2);
+			long freed = 0;
+			for (Map.Entry<BlockKey, byte[]> entry : blocks.entrySet()) {
+				if (weight - freed + size <= maxWeight) {
+					break;
+				}
+				if (sketch.frequency(entry.getKey().hash) >= candidateFrequency) {
+					return false;
+				}
+				victims.add(entry.getKey());
+				freed += entry.getValue().length;
+			}
+			for (BlockKey victim : victims) {
+				remove(victim);
+				evictions.increment();
+			}
+			return true;
+		}
+
+		private void remove(BlockKey key) {
+			weight -= blocks.remove(key).length;
+			Set<BlockKey> keys = files.get(key.file);
+			keys.remove(key);
+			if (keys.isEmpty()) {
+				files.remove(key.file);
+			}
+		}
+
+		void invalidate(String file) {
+			lock.lock();
+			try {
+				Set<BlockKey> keys = files.remove(file);
+				if (keys != null) {
+					for (BlockKey key : keys) {
+						weight -= blocks.remove(key).length;
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void clear() {
+			lock.lock();
+			try {
+				blocks.clear();
+				files.clear();
+				weight = 0;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		long weight() {
+			lock.lock();
+			try {
+				return weight;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		int count() {
+			lock.lock();
+			try {
+				return blocks.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Count-min sketch with four 4 bit counters per key. All counters are
+	 * halved after a sample period, so old popularity fades out. Not thread
+	 * safe, used under the segment lock.
+	 */
+	private static final class FrequencySketch {
+
+		private static final int[] SEEDS = {0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f};
+
+		private static final long RESET_MASK = 0x7777777777777777L;
+
+		private final long[] table;
+
+		private final int counterMask;
+
+		private final int sampleSize;
+
+		private int additions;
+
+		FrequencySketch(int maxEntries) {
+			int longs = Integer.highestOneBit(Math.max(4, maxEntries - 1)) << 1;
+			table = new long[longs];
+			// 16 counters per long
+			counterMask = (longs << 4) - 1;
+			sampleSize = 10 * maxEntries;
+		}
+
+		int frequency(int hash) {
+			int frequency = 15;
+			for (int i = 0; i < SEEDS.length; i++) {
+				int index = index(hash, i);
+				int count = (int) ((table[index >>> 4] >>> ((index & 15) << 2)) & 15);
+				frequency = Math.min(frequency, count);
+			}
+			return frequency;
+		}
+
+		void increment(int hash) {
+			boolean added = false;
+			for (int i = 0; i < SEEDS.length; i++) {
+				int index = index(hash, i);
+				int shift = (index & 15) << 2;
+				long counter = (table[index >>> 4] >>> shift) & 15;
+				if (counter < 15) {
+					table[index >>> 4] += 1L << shift;
+					added = true;
+				}
+			}
+			if (added && ++additions >= sampleSize) {
+				reset();
+			}
+		}
+
+		private void reset() {
+			for (int i = 0; i < table.length; i++) {
+				table[i] = (table[i] >>> 1) & RESET_MASK;
+			}
+			additions >>>= 1;
+		}
+
+		private int index(int hash, int row) {
+			int h = (hash ^ (hash >>> 16)) * SEEDS[row];
+			h ^= h >>> 15;
+			return h & counterMask;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package de.marx_software.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteArrayDataOutput;
+
+/**
+ * A file of a {@link DedupFileStore}: the block keys in file order and the
+ * extent index of their lengths, see {@link FileMeta}.
+ *
+ * Encoded as the length of the encoded {@link FileMeta}, the meta data and
+ * the 32 byte hash of each block.
+ *
+ * Instances are immutable.
+ *
+ * @author marx
+ */
+final class BlockManifest {
+
+	private static final int HASH_LENGTH = 32;
+
+	final FileMeta meta;
+
+	/**
+	 * block keys, see {@link DedupBlockStore#blockKey(byte[])}
+	 */
+	final String[] blocks;
+
+	private BlockManifest(FileMeta meta, String[] blocks) {
+		this.meta = meta;
+		this.blocks = blocks;
+	}
+
+	/**
+	 * @param blocks block keys in file order
+	 * @param blockLengths length of each block
+	 * @param count number of blocks
+	 * @param blockSize the block size readers align to
+	 */
+	static BlockManifest of(String[] blocks, long[] blockLengths, int count, int blockSize) {
+		return new BlockManifest(FileMeta.of(FileMeta.NO_FILE_ID, blockLengths, count, blockSize, FileCompression.NONE),
+				Arrays.copyOf(blocks, count));
+	}
+
+	/**
+	 * @param block key of a block of the given length
+	 * @return a copy with the block at the end
+	 */
+	BlockManifest append(String block, int length) {
+		String[] appended = Arrays.copyOf(blocks, blocks.length + 1);
+		appended[blocks.length] = block;
+		return new BlockManifest(meta.append(length), appended);
+	}
+
+	byte[] encode() throws IOException {
+		byte[] encodedMeta = meta.encode();
+		byte[] bytes = new byte[5 + encodedMeta.length + HASH_LENGTH * blocks.length];
+		ByteArrayDataOutput out = new ByteArrayDataOutput(bytes);
+		out.writeVInt(encodedMeta.length);
+		out.writeBytes(encodedMeta, encodedMeta.length);
+		for (String block : blocks) {
+			out.writeBytes(DedupBlockStore.hash(block), HASH_LENGTH);
+		}
+		return Arrays.copyOf(bytes, out.getPosition());
+	}
+
+	static BlockManifest decode(byte[] bytes) {
+		ByteArrayDataInput in = new ByteArrayDataInput(bytes);
+		byte[] encodedMeta = new byte[in.readVInt()];
+		in.readBytes(encodedMeta, 0, encodedMeta.length);
+		FileMeta meta = FileMeta.decode(encodedMeta, DBFileStore.DEFAULT_BLOCK_SIZE);
+		String[] blocks = new String[meta.extentCount()];
+		byte[] hash = new byte[HASH_LENGTH];
+		for (int i = 0; i < blocks.length; i++) {
+			in.readBytes(hash, 0, HASH_LENGTH);
+			blocks[i] = DedupBlockStore.blockKey(hash);
+		}
+		return new BlockManifest(meta, blocks);
+	}
+}
@@ -0,0 +1,30 @@
+package de.marx_software.lucene;
+
+import org.apache.lucene.store.IOContext;
+
+/**
+ * Chooses the block size of new files and the read buffer size of inputs.
+ *
+ * The block size is recorded with the file. Inputs whose buffer size equals
+ * the one of {@link IOContext#READ} inputs share their blocks through the
+ * {@link BlockCache}, inputs with other buffer sizes bypass it.
+ *
+ * @author marx
+ */
+public interface BlockSizePolicy {
+
+	/**
+	 * @param name the file name
+	 * @param context the context of the output
+	 * @return the block size of a new file
+	 */
+	int blockSize(String name, IOContext context);
+
+	/**
+	 * @param name the file name
+	 * @param blockSize the block size the file was written with
+	 * @param context the context of the input
+	 * @return the size of the blocks an input reads from the store
+	 */
+	int readBufferSize(String name, int blockSize, IOContext context);
+}
@@ -0,0 +1,122 @@
+package de.marx_software.lucene;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The files of a commit generation of a {@link ReplicationPrimary} and the
+ * files a follower of an older generation does not have yet.
+ *
+ * @author marx
+ */
+public final class ChangeSet {
+
+	public static final class FileInfo {
+
+		private final String name;
+
+		private final long length;
+
+		private final int blockSize;
+
+		private final long checksum;
+
+		public FileInfo(String name, long length, int blockSize, long checksum) {
+			this.name = name;
+			this.length = length;
+			this.blockSize = blockSize;
+			this.checksum = checksum;
+		}
+
+		public String name() {
+			return name;
+		}
+
+		public long length() {
+			return length;
+		}
+
+		/**
+		 * @return the block size the file was written with, the size of the
+		 * blocks it is streamed in
+		 */
+		public int blockSize() {
+			return blockSize;
+		}
+
+		/**
+		 * @return the checksum in the footer of the file, -1 if it has no
+		 * valid footer
+		 */
+		public long checksum() {
+			return checksum;
+		}
+
+		/**
+		 * @return true if both files have a valid footer with the same
+		 * checksum and the same length
+		 */
+		boolean isSameFile(long length, long checksum) {
+			return this.length == length && this.checksum != -1 && this.checksum == checksum;
+		}
+	}
+
+	private final long generation;
+
+	private final String segmentsFileName;
+
+	private final long publishedMillis;
+
+	private final List<FileInfo> files;
+
+	private final List<FileInfo> changed;
+
+	public ChangeSet(long generation, String segmentsFileName, long publishedMillis, List<FileInfo> files, List<FileInfo> changed) {
+		this.generation = generation;
+		this.segmentsFileName = segmentsFileName;
+		this.publishedMillis = publishedMillis;
+		this.files = Collections.unmodifiableList(files);
+		this.changed = Collections.unmodifiableList(changed);
+	}
+
+	public long generation() {
+		return generation;
+	}
+
+	public String segmentsFileName() {
+		return segmentsFileName;
+	}
+
+	/**
+	 * @return wall clock time the generation was published at
+	 */
+	public long publishedMillis() {
+		return publishedMillis;
+	}
+
+	/**
+	 * @return all files of the generation
+	 */
+	public List<FileInfo> files() {
+		return files;
+	}
+
+	/**
+	 * @return the files added since the generation of the follower,
+	 * including the commit point
+	 */
+	public List<FileInfo> changed() {
+		return changed;
+	}
+
+	/**
+	 * @return bytes of the changed files
+	 */
+	public long changedBytes() {
+		long bytes = 0;
+		for (FileInfo file : changed) {
+			bytes += file.length();
+		}
+		return bytes;
+	}
+}
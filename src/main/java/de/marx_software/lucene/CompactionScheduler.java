@@ -0,0 +1,219 @@
+package de.marx_software.lucene;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compacts the store in the background after merges removed enough data.
+ *
+ * The directory reports the size of every removed file. Once the removed
+ * bytes since the last compaction reach the minimum and their share of the
+ * live and removed bytes reaches the garbage ratio, a single background thread
+ * compacts the key ranges of the removed files, see
+ * {@link DBFileStore#compactRemoved()}. Commits never wait for it.
+ *
+ * The live bytes are a running total of the files written by the directory
+ * and the removed ones, recounted after every compaction to include files
+ * written past the directory.
+ *
+ * Compactions are throttled to the configured rate of removed bytes: the
+ * store compacts in parts and the thread waits after each part until the
+ * rate allows the next one.
+ *
+ * @author marx
+ */
+public class CompactionScheduler implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(CompactionScheduler.class.getName());
+
+	private final DBFileStore store;
+
+	private final long minBytes;
+
+	private final double garbageRatio;
+
+	private final long bytesPerSecond;
+
+	private final ExecutorService executor;
+
+	private final AtomicLong removedBytes = new AtomicLong();
+
+	private final AtomicLong liveBytes = new AtomicLong();
+
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	private final AtomicLong compactions = new AtomicLong();
+
+	/**
+	 * @param store
+	 * @param minBytes removed bytes that trigger a compaction
+	 * @param garbageRatio minimum share of the removed bytes in the live and
+	 * removed bytes
+	 * @param bytesPerSecond removed bytes compacted per second at most
+	 */
+	public CompactionScheduler(DBFileStore store, long minBytes, double garbageRatio, long bytesPerSecond) {
+		this.store = store;
+		this.minBytes = minBytes;
+		this.garbageRatio = garbageRatio;
+		this.bytesPerSecond = bytesPerSecond;
+		this.executor = Executors.newSingleThreadExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "db-directory-compaction");
+			thread.setDaemon(true);
+			return thread;
+		});
+		liveBytes.set(countLiveBytes());
+	}
+
+	/**
+	 * @return the writer, counting the bytes of the file once it is
+	 * committed
+	 */
+	public DBFileWriter track(DBFileWriter writer) {
+		return new TrackingWriter(writer);
+	}
+
+	/**
+	 * Called with the length of every removed file, schedules a compaction
+	 * if the thresholds are reached and none is pending.
+	 */
+	public void removed(long bytes) {
+		long removed = removedBytes.addAndGet(bytes);
+		long live = Math.max(0, liveBytes.addAndGet(-bytes));
+		if (removed < minBytes || scheduled.get()) {
+			return;
+		}
+		if (removed < garbageRatio * (live + removed)) {
+			return;
+		}
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(this::compact);
+		}
+	}
+
+	private long countLiveBytes() {
+		long live = 0;
+		for (String name : store.listKey()) {
+			try {
+				live += Math.max(0, store.getSize(name));
+			} catch (IOException ex) {
+				// removed in the meantime
+			}
+		}
+		return live;
+	}
+
+	private void compact() {
+		long bytes = removedBytes.getAndSet(0);
+		long start = System.nanoTime();
+		try {
+			store.compactRemoved(done -> throttle(waitNanos(done * bytes, bytesPerSecond, System.nanoTime() - start)));
+			compactions.incrementAndGet();
+			liveBytes.set(countLiveBytes());
+		} catch (IOException | RuntimeException ex) {
+			LOGGER.log(Level.WARNING, "compaction failed", ex);
+		} finally {
+			scheduled.set(false);
+		}
+	}
+
+	/**
+	 * @param bytes removed bytes compacted so far
+	 * @param elapsed nanoseconds since the start of the compaction
+	 * @return the nanoseconds until the rate allows to go on, computed in
+	 * double as the nanoseconds of more than 9.2 GB overflow a long
+	 */
+	static long waitNanos(double bytes, long bytesPerSecond, long elapsed) {
+		return (long) (bytes * 1e9 / bytesPerSecond) - elapsed;
+	}
+
+	/**
+	 * Waits unless the thread is interrupted by {@link #close()}.
+	 */
+	private static void throttle(long nanos) {
+		long deadline = System.nanoTime() + nanos;
+		while (nanos > 0 && !Thread.currentThread().isInterrupted()) {
+			LockSupport.parkNanos(nanos);
+			nanos = deadline - System.nanoTime();
+		}
+	}
+
+	/**
+	 * @return number of compactions run so far
+	 */
+	public long getCompactionCount() {
+		return compactions.get();
+	}
+
+	/**
+	 * @return removed bytes not compacted yet
+	 */
+	public long getRemovedBytes() {
+		return removedBytes.get();
+	}
+
+	/**
+	 * @return bytes of the live files, as far as the directory reported them
+	 */
+	public long getLiveBytes() {
+		return liveBytes.get();
+	}
+
+	/**
+	 * Stops the thread, a running compaction is finished before the store
+	 * may be closed.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+					break;
+				}
+				LOGGER.info("waiting for the compaction to finish");
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private final class TrackingWriter implements DBFileWriter {
+
+		private final DBFileWriter writer;
+
+		private long length;
+
+		TrackingWriter(DBFileWriter writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void append(byte[] buf, int offset, int len) throws IOException {
+			writer.append(buf, offset, len);
+			length += len;
+		}
+
+		@Override
+		public void commit() throws IOException {
+			writer.commit();
+			liveBytes.addAndGet(length);
+		}
+
+		@Override
+		public void abort() throws IOException {
+			writer.abort();
+		}
+	}
+}
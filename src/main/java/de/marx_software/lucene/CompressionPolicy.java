@@ -0,0 +1,20 @@
+package de.marx_software.lucene;
+
+/**
+ * Chooses the compression of new files.
+ *
+ * @author marx
+ */
+public interface CompressionPolicy {
+
+	/**
+	 * every file with the default compression of the store
+	 */
+	CompressionPolicy FAST = (name) -> FileCompression.FAST;
+
+	/**
+	 * @param name the file name
+	 * @return the compression of a new file
+	 */
+	FileCompression compression(String name);
+}
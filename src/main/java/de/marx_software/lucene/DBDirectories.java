@@ -1,33 +1,140 @@
-/*
- * To change this license header, choose License Headers in Project Properties.
- * To change this template file, choose Tools | Templates
- * and open the template in the editor.
- */
-package de.marx_software.lucene;
-
-import de.marx_software.lucene.leveldb.LeveldbFileStore;
-import de.marx_software.lucene.mvstore.MVStoreFileStore;
-import de.marx_software.lucene.rocksdb.RocksDBFileStore;
-import java.io.IOException;
-import java.nio.file.Path;
-
-/**
- *
- * @author marx
- */
-public class DBDirectories {
-	
-	
-	public static DBDirectory rocket (final Path path) throws IOException {
-		DBFileStore fileStore = new RocksDBFileStore(path);
-		return new DBDirectory(fileStore);
-	}
-	public static DBDirectory leveldb (final Path path) throws IOException {
-		DBFileStore fileStore = new LeveldbFileStore(path);
-		return new DBDirectory(fileStore);
-	}
-	public static DBDirectory mvstore (final Path path) throws IOException {
-		DBFileStore fileStore = new MVStoreFileStore(path);
-		return new DBDirectory(fileStore);
-	}
-}
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.leveldb.LeveldbConfig;
+import de.marx_software.lucene.leveldb.LeveldbFileStore;
+import de.marx_software.lucene.mvstore.MVStoreConfig;
+import de.marx_software.lucene.mvstore.MVStoreFileStore;
+import de.marx_software.lucene.rocksdb.RocksDBConfig;
+import de.marx_software.lucene.rocksdb.RocksDBFileStore;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NoLockFactory;
+import org.apache.lucene.store.SingleInstanceLockFactory;
+
+/**
+ *
+ * @author marx
+ */
+public class DBDirectories {
+	
+	/**
+	 * Default size of the block cache shared by the inputs of a directory.
+	 */
+	public static final long DEFAULT_CACHE_SIZE = DirectoryConfig.DEFAULT_CACHE_SIZE;
+	
+	public static DBDirectory rocket (final Path path) throws IOException {
+		return rocket(path, DEFAULT_CACHE_SIZE);
+	}
+	/**
+	 * @param path
+	 * @param cacheSize size of the block cache in bytes, 0 disables the cache
+	 */
+	public static DBDirectory rocket (final Path path, final long cacheSize) throws IOException {
+		return rocket(path, DirectoryConfig.builder().cacheSize(cacheSize).build(), RocksDBConfig.DEFAULT);
+	}
+	public static DBDirectory rocket (final Path path, final Profile profile) throws IOException {
+		return rocket(path, DirectoryConfig.of(profile), RocksDBConfig.of(profile));
+	}
+	public static DBDirectory rocket (final Path path, final DirectoryConfig config, final RocksDBConfig storeConfig) throws IOException {
+		return directory(path, new RocksDBFileStore(path, storeConfig), config);
+	}
+	public static DBDirectory leveldb (final Path path) throws IOException {
+		return leveldb(path, DEFAULT_CACHE_SIZE);
+	}
+	/**
+	 * @param path
+	 * @param cacheSize size of the block cache in bytes, 0 disables the cache
+	 */
+	public static DBDirectory leveldb (final Path path, final long cacheSize) throws IOException {
+		return leveldb(path, DirectoryConfig.builder().cacheSize(cacheSize).build(), LeveldbConfig.DEFAULT);
+	}
+	public static DBDirectory leveldb (final Path path, final Profile profile) throws IOException {
+		return leveldb(path, DirectoryConfig.of(profile), LeveldbConfig.of(profile));
+	}
+	public static DBDirectory leveldb (final Path path, final DirectoryConfig config, final LeveldbConfig storeConfig) throws IOException {
+		return directory(path, new LeveldbFileStore(path, storeConfig), config);
+	}
+	public static DBDirectory mvstore (final Path path) throws IOException {
+		return mvstore(path, DEFAULT_CACHE_SIZE);
+	}
+	/**
+	 * @param path
+	 * @param cacheSize size of the block cache in bytes, 0 disables the cache
+	 */
+	public static DBDirectory mvstore (final Path path, final long cacheSize) throws IOException {
+		return mvstore(path, DirectoryConfig.builder().cacheSize(cacheSize).build(), MVStoreConfig.DEFAULT);
+	}
+	/**
+	 * @param path
+	 * @param mode file, memory mapped file or off heap memory with snapshots
+	 */
+	public static DBDirectory mvstore (final Path path, final MVStoreConfig.Mode mode) throws IOException {
+		return mvstore(path, DirectoryConfig.DEFAULT, MVStoreConfig.builder().mode(mode).build());
+	}
+	public static DBDirectory mvstore (final Path path, final Profile profile) throws IOException {
+		return mvstore(path, DirectoryConfig.of(profile), MVStoreConfig.of(profile));
+	}
+	public static DBDirectory mvstore (final Path path, final DirectoryConfig config, final MVStoreConfig storeConfig) throws IOException {
+		return directory(path, new MVStoreFileStore(path, storeConfig), config);
+	}
+	/**
+	 * Opens a directory on a namespace of shared content addressed blocks.
+	 * Files copied between the directories of the same blocks are linked.
+	 *
+	 * @param blocks
+	 * @param namespace the name of the directory within the blocks
+	 * @param config the configuration, without placement policy
+	 */
+	public static DBDirectory deduplicated (final DedupBlockStore blocks, final String namespace, final DirectoryConfig config) throws IOException {
+		if (config.placementPolicy() != null) {
+			throw new IllegalArgumentException("deduplicated directories do not map files");
+		}
+		return directory(null, blocks.open(namespace), config);
+	}
+	
+	/**
+	 * Directory of the mapped files of a {@link HybridDBDirectory} within the
+	 * directory of the store.
+	 */
+	public static final String MAPPED_DIRECTORY = "mapped";
+	
+	/**
+	 * Closes the store if the directory can not be created.
+	 */
+	private static DBDirectory directory (final Path path, final DBFileStore fileStore, final DirectoryConfig config) throws IOException {
+		DBDirectory directory = null;
+		try {
+			if (config.placementPolicy() != null) {
+				Path mappedPath = Files.createDirectories(path.resolve(MAPPED_DIRECTORY));
+				directory = new HybridDBDirectory(fileStore, new SingleInstanceLockFactory(), config.createBlockCache(), config.blockSizePolicy(),
+						config.createCompactionScheduler(fileStore), config.createMetrics(), config.createNrtStore(fileStore),
+						new MMapDirectory(mappedPath, NoLockFactory.INSTANCE), config.placementPolicy());
+			} else {
+				directory = new DBDirectory(fileStore, new SingleInstanceLockFactory(), config.createBlockCache(), config.blockSizePolicy(),
+						config.createCompactionScheduler(fileStore), config.createMetrics(), config.createNrtStore(fileStore));
+			}
+			if (config.jmxName() != null) {
+				directory.registerMBean(config.jmxName());
+			}
+			return directory;
+		} catch (IOException | RuntimeException e) {
+			try {
+				if (directory != null) {
+					directory.close();
+				} else {
+					fileStore.close();
+				}
+			} catch (IOException | RuntimeException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+	}
+}
@@ -1,28 +1,73 @@
 package de.marx_software.lucene;
 
+import de.marx_software.lucene.DirectoryMetrics.Operation;
 import org.apache.lucene.store.*;
 import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
 
 /**
  * Created by wens on 16-3-10.
  */
 public class DBDirectory extends BaseDirectory implements Accountable {
 
-	private static final int BUFFER_SIZE = 10 * 1024;
-
 	protected final DBFileStore store;
 
+	/**
+	 * blocks shared by all inputs, null if caching is disabled
+	 */
+	protected final BlockCache blockCache;
+
+	protected final BlockSizePolicy blockSizePolicy;
+
+	/**
+	 * compacts after removed files in the background, null if disabled
+	 */
+	protected final CompactionScheduler compactionScheduler;
+
+	/**
+	 * operations of the directory, null if disabled
+	 */
+	protected final DirectoryMetrics metrics;
+
+	/**
+	 * keeps small new files in memory until they are synced, null if
+	 * disabled
+	 */
+	protected final NrtCachingFileStore nrtStore;
+
+	/**
+	 * the store as seen by the file operations, in front of the NRT cache
+	 * and recording them if the directory has metrics
+	 */
+	private final DBFileStore files;
+
+	/**
+	 * name of the registered metrics MBean or null
+	 */
+	private ObjectName mbeanName;
+
 	protected final AtomicLong sizeInBytes = new AtomicLong();
 
 	private final AtomicLong nextTempFileCounter = new AtomicLong();
@@ -31,16 +76,54 @@ public class DBDirectory extends BaseDirectory implements Accountable {
 		this(store, new SingleInstanceLockFactory());
 	}
 
-	
+	protected DBDirectory(DBFileStore store, BlockCache blockCache) throws IOException {
+		this(store, new SingleInstanceLockFactory(), blockCache);
+	}
+
+	protected DBDirectory(DBFileStore store, LockFactory lockFactory) throws IOException {
+		this(store, lockFactory, null);
+	}
+
+	protected DBDirectory(DBFileStore store, LockFactory lockFactory, BlockCache blockCache) throws IOException {
+		this(store, lockFactory, blockCache, new ExtensionBlockSizePolicy());
+	}
+
+	protected DBDirectory(DBFileStore store, LockFactory lockFactory, BlockCache blockCache, BlockSizePolicy blockSizePolicy) throws IOException {
+		this(store, lockFactory, blockCache, blockSizePolicy, null);
+	}
+
+	protected DBDirectory(DBFileStore store, LockFactory lockFactory, BlockCache blockCache, BlockSizePolicy blockSizePolicy, CompactionScheduler compactionScheduler) throws IOException {
+		this(store, lockFactory, blockCache, blockSizePolicy, compactionScheduler, DirectoryConfig.DEFAULT.createMetrics());
+	}
+
+	protected DBDirectory(DBFileStore store, LockFactory lockFactory, BlockCache blockCache, BlockSizePolicy blockSizePolicy, CompactionScheduler compactionScheduler, DirectoryMetrics metrics) throws IOException {
+		this(store, lockFactory, blockCache, blockSizePolicy, compactionScheduler, metrics, null);
+	}
+
 	/**
 	 * Sole constructor.
 	 *
 	 * @param store
 	 * @param lockFactory
+	 * @param blockCache cache for the blocks read from the store, may be null
+	 * @param blockSizePolicy block sizes of new files and buffer sizes of
+	 * inputs
+	 * @param compactionScheduler receives the sizes of removed files, may be
+	 * null, closed with the directory
+	 * @param metrics records the operations, may be null
+	 * @param nrtStore NRT cache in front of the store, may be null, closed
+	 * with the directory
 	 */
-	protected DBDirectory(DBFileStore store, LockFactory lockFactory) throws IOException {
+	protected DBDirectory(DBFileStore store, LockFactory lockFactory, BlockCache blockCache, BlockSizePolicy blockSizePolicy, CompactionScheduler compactionScheduler, DirectoryMetrics metrics, NrtCachingFileStore nrtStore) throws IOException {
 		super(lockFactory);
 		this.store = store;
+		this.blockCache = blockCache;
+		this.blockSizePolicy = blockSizePolicy;
+		this.compactionScheduler = compactionScheduler;
+		this.metrics = metrics;
+		this.nrtStore = nrtStore;
+		DBFileStore view = nrtStore != null ? nrtStore : store;
+		this.files = metrics != null ? new MeteredFileStore(view, metrics) : view;
 	}
 
 	protected DBDirectory(DBFileStore store, FSDirectory dir, IOContext context) throws IOException {
@@ -60,13 +143,13 @@ public class DBDirectory extends BaseDirectory implements Accountable {
 	}
 
 	@Override
-	public final String[] listAll() {
+	public String[] listAll() {
 		ensureOpen();
 		// NOTE: this returns a "weakly consistent view". Unless we change Dir API, keep this,
 		// and do not synchronize or anything stronger. it's great for testing!
 		// NOTE: fileMap.keySet().toArray(new String[0]) is broken in non Sun JDKs,
 		// and the code below is resilient to map changes during the array population.
-		Set<String> keySet = store.listKey();
+		Set<String> keySet = files.listKey();
 		List<String> names = new ArrayList<>(keySet.size());
 		for (String name : keySet) {
 			names.add(name);
@@ -80,9 +163,9 @@ public class DBDirectory extends BaseDirectory implements Accountable {
 	 * @throws IOException if the file does not exist
 	 */
 	@Override
-	public final long fileLength(String name) throws IOException {
+	public long fileLength(String name) throws IOException {
 		ensureOpen();
-		long size = store.getSize(name);
+		long size = files.getSize(name);
 		if (size == -1) {
 			throw new FileNotFoundException(name);
 		}
@@ -97,10 +180,15 @@ public class DBDirectory extends BaseDirectory implements Accountable {
 	@Override
 	public void deleteFile(String name) throws IOException {
 		ensureOpen();
-		long size = store.getSize(name);
+		long size = files.getSize(name);
 		if (size != -1) {
 			sizeInBytes.addAndGet(-size);
-			store.remove(name);
+			boolean stored = !isCached(name);
+			files.remove(name);
+			invalidate(name);
+			if (stored) {
+				removed(size);
+			}
 		} else {
 			throw new FileNotFoundException(name);
 		}
@@ -114,15 +202,58 @@ public class DBDirectory extends BaseDirectory implements Accountable {
 	public IndexOutput createOutput(String name, IOContext context) throws IOException {
 		ensureOpen();
 
-		if (store.contains(name)) {
-			store.remove(name);
+		long size = files.getSize(name);
+		if (size != -1) {
+			boolean stored = !isCached(name);
+			files.remove(name);
+			invalidate(name);
+			if (stored) {
+				removed(size);
+			}
+		}
+
+		return createOutputStream(name, context);
+	}
+
+	private IndexOutput createOutputStream(String name, IOContext context) throws IOException {
+		long start = System.nanoTime();
+		int blockSize = blockSizePolicy.blockSize(name, context);
+		boolean bulk = context.context == IOContext.Context.MERGE || context.context == IOContext.Context.FLUSH;
+		DBFileWriter writer;
+		if (nrtStore != null && nrtStore.caches(name, context)) {
+			writer = nrtStore.createCachedWriter(name, blockSize);
+			if (metrics != null) {
+				writer = metrics.meter(name, writer);
+			}
+		} else {
+			writer = createStoreWriter(name, blockSize, bulk);
 		}
+		IndexOutput output = new DBOutputStream(name, writer, blockSize, true);
+		record(Operation.CREATE_OUTPUT, name, 0, start);
+		return output;
+	}
 
-		return new DBOutputStream(name, store, BUFFER_SIZE, true);
+	/**
+	 * Writes a file copied from elsewhere in bulk to the store, metered and
+	 * counted by the compaction scheduler like the outputs.
+	 */
+	DBFileWriter createCopyWriter(String name, int blockSize) throws IOException {
+		ensureOpen();
+		return createStoreWriter(name, blockSize, true);
+	}
+
+	private DBFileWriter createStoreWriter(String name, int blockSize, boolean bulk) throws IOException {
+		DBFileWriter writer = files.createWriter(name, blockSize, bulk);
+		if (compactionScheduler != null) {
+			writer = compactionScheduler.track(writer);
+		}
+		return writer;
 	}
 
 	@Override
 	public void sync(Collection<String> names) throws IOException {
+		ensureOpen();
+		files.sync(names);
 	}
 
 	/**
@@ -132,11 +263,25 @@ public class DBDirectory extends BaseDirectory implements Accountable {
 	public IndexInput openInput(String name, IOContext context) throws IOException {
 		ensureOpen();
 
-		if (!store.contains(name)) {
+		long start = System.nanoTime();
+		long length = files.getSize(name);
+		int blockSize = files.getBlockSize(name);
+		if (length == -1 || blockSize == -1) {
 			throw new FileNotFoundException(name);
 		}
 
-		return new DBInputStream(name, store, BUFFER_SIZE);
+		int bufferSize = blockSizePolicy.readBufferSize(name, blockSize, context);
+		// cached blocks are aligned to the buffer size of random access inputs
+		BlockCache cache = bufferSize == blockSizePolicy.readBufferSize(name, blockSize, IOContext.READ) ? blockCache : null;
+		IndexInput input = new DBInputStream(name, files, bufferSize, length, cache, !context.readOnce);
+		record(Operation.OPEN_INPUT, name, length, start);
+		return input;
+	}
+
+	private void record(Operation operation, String name, long bytes, long start) {
+		if (metrics != null) {
+			metrics.record(operation, name, bytes, System.nanoTime() - start);
+		}
 	}
 
 	/**
@@ -146,29 +291,276 @@ public class DBDirectory extends BaseDirectory implements Accountable {
 	public void close() {
 		isOpen = false;
 		try {
-			store.close();
+			unregisterMBean();
+			if (compactionScheduler != null) {
+				compactionScheduler.close();
+			}
+			files.close();
 		} catch (IOException e) {
 			throw new RuntimeException();
 		}
 	}
 
+	public DBFileStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return the background compaction, null if disabled
+	 */
+	public CompactionScheduler getCompactionScheduler() {
+		return compactionScheduler;
+	}
+
+	/**
+	 * @return the operations of the directory, the block cache and the
+	 * statistics of the store at this point in time
+	 */
+	public MetricsSnapshot getMetrics() {
+		List<MetricsSnapshot.OperationSnapshot> operations = metrics != null
+				? metrics.snapshot()
+				: Collections.<MetricsSnapshot.OperationSnapshot>emptyList();
+		return new MetricsSnapshot(operations, blockCache, compactionScheduler, files.getStatistics());
+	}
+
+	/**
+	 * Registers the metrics as {@link DirectoryMetricsMXBean} with the
+	 * platform MBean server, unregistered on close.
+	 *
+	 * @param name the value of the name key of the object name
+	 * @return the object name
+	 */
+	public synchronized ObjectName registerMBean(String name) throws IOException {
+		if (mbeanName != null) {
+			throw new IllegalStateException("already registered as " + mbeanName);
+		}
+		try {
+			ObjectName objectName = new ObjectName("de.marx_software.lucene:type=DBDirectory,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new DirectoryMetricsBean(this), objectName);
+			mbeanName = objectName;
+			return objectName;
+		} catch (JMException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private synchronized void unregisterMBean() {
+		if (mbeanName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+			} catch (JMException e) {
+				// already gone
+			}
+			mbeanName = null;
+		}
+	}
+
+	/**
+	 * @return the NRT cache in front of the store, null if disabled
+	 */
+	public NrtCachingFileStore getNrtStore() {
+		return nrtStore;
+	}
+
+	/**
+	 * @return the shared block cache, null if caching is disabled
+	 */
+	public BlockCache getBlockCache() {
+		return blockCache;
+	}
+
+	/**
+	 * Writes a checkpoint of the commit to the empty directory target, which
+	 * opens as a directory of the same kind. RocksDB creates a checkpoint of
+	 * the whole store with hard links, the other stores copy the files of the
+	 * commit in bulk into a new store. The commit has to stay pinned, for
+	 * example by a {@link SnapshotDeletionPolicy}, until this returns.
+	 *
+	 * @param commit a commit of this directory
+	 * @param target
+	 */
+	public void checkpoint(IndexCommit commit, Path target) throws IOException {
+		ensureOpen();
+		List<String> names = new ArrayList<>();
+		for (String name : commit.getFileNames()) {
+			if (store.contains(name)) {
+				names.add(name);
+			}
+		}
+		store.checkpoint(target, names);
+	}
+
+	/**
+	 * Makes the target a copy of the commit. Only files the target does not
+	 * have with the same length and footer checksum are copied, so backing
+	 * up the commits of an index to the same target is incremental. The files are streamed in
+	 * bulk from store to store, the commit point last, then the files of
+	 * older commits are deleted from the target.
+	 *
+	 * The commit has to stay pinned, for example by a
+	 * {@link SnapshotDeletionPolicy}, until this returns. No IndexWriter may
+	 * be open on the target.
+	 *
+	 * @param commit a commit of this directory
+	 * @param target a directory holding backups of this index or nothing
+	 * @return bytes copied
+	 */
+	public long backup(IndexCommit commit, DBDirectory target) throws IOException {
+		ensureOpen();
+		Collection<String> names = commit.getFileNames();
+		String segments = commit.getSegmentsFileName();
+		Set<String> existing = new HashSet<>(Arrays.asList(target.listAll()));
+		long copied = 0;
+		for (String name : names) {
+			if (!name.equals(segments)) {
+				copied += backupFile(name, target, existing);
+			}
+		}
+		copied += backupFile(segments, target, existing);
+		target.sync(names);
+		target.syncMetaData();
+		for (String name : existing) {
+			if (!names.contains(name)) {
+				target.deleteFile(name);
+			}
+		}
+		return copied;
+	}
+
+	/**
+	 * Restores the latest commit of a backup written by
+	 * {@link #backup(IndexCommit, DBDirectory)}, files of this directory
+	 * that are not part of it are deleted. No IndexWriter may be open on this
+	 * directory.
+	 *
+	 * @param backup
+	 * @return bytes copied
+	 */
+	public long restore(DBDirectory backup) throws IOException {
+		List<IndexCommit> commits = DirectoryReader.listCommits(backup);
+		return backup.backup(commits.get(commits.size() - 1), this);
+	}
+
+	private long backupFile(String name, DBDirectory target, Set<String> existing) throws IOException {
+		long length = fileLength(name);
+		if (existing.contains(name)) {
+			if (target.fileLength(name) == length && sameChecksum(name, target)) {
+				return 0;
+			}
+			target.deleteFile(name);
+		}
+		IOContext context = new IOContext(new MergeInfo(-1, length, false, -1));
+		if (store.contains(name) && target.storesCopy(name, context)) {
+			store.copyFile(name, target.store);
+		} else {
+			target.copyFrom(this, name, name, context);
+		}
+		return length;
+	}
+
+	/**
+	 * Files of another index or of a recreated one may have the same names
+	 * and lengths, but not the same checksums.
+	 *
+	 * @return true if both files have a valid footer with the same checksum
+	 */
+	private boolean sameChecksum(String name, DBDirectory target) throws IOException {
+		long checksum = footerChecksum(name);
+		return checksum != -1 && checksum == target.footerChecksum(name);
+	}
+
+	/**
+	 * @return the checksum in the footer of the file, -1 if it has no valid
+	 * footer
+	 */
+	long footerChecksum(String name) throws IOException {
+		try (IndexInput input = openInput(name, IOContext.READONCE)) {
+			return CodecUtil.retrieveChecksum(input);
+		} catch (CorruptIndexException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Links files of a directory whose store shares its data with the store
+	 * of this one, see {@link DBFileStore#linkFile(String, DBFileStore, String)},
+	 * and copies all others.
+	 */
+	@Override
+	public void copyFrom(Directory from, String src, String dest, IOContext context) throws IOException {
+		if (from instanceof DBDirectory) {
+			DBDirectory source = (DBDirectory) from;
+			ensureOpen();
+			if (source.store.contains(src) && !stored(dest) && storesCopy(dest, context)
+					&& source.store.linkFile(src, store, dest)) {
+				invalidate(dest);
+				return;
+			}
+		}
+		super.copyFrom(from, src, dest, context);
+	}
+
+	/**
+	 * @param name
+	 * @param context the context of the copy
+	 * @return true if a copied file is written to the store, false if it is
+	 * written by {@link #createOutput(String, IOContext)}
+	 */
+	protected boolean storesCopy(String name, IOContext context) {
+		return true;
+	}
+
+	/**
+	 * @param name
+	 * @return true if the file is in the store or the NRT cache
+	 */
+	protected boolean stored(String name) throws IOException {
+		return files.contains(name);
+	}
+
+	private boolean isCached(String name) {
+		return nrtStore != null && nrtStore.isCached(name);
+	}
+
+	private void removed(long size) {
+		if (compactionScheduler != null) {
+			compactionScheduler.removed(size);
+		}
+	}
+
+	private void invalidate(String name) {
+		if (blockCache != null) {
+			blockCache.invalidate(name);
+		}
+	}
+
 	@Override
 	public long ramBytesUsed() {
-		return 0;
+		return (blockCache != null ? blockCache.sizeInBytes() : 0)
+				+ (nrtStore != null ? nrtStore.cachedBytes() : 0);
 	}
 
 	@Override
 	public Collection<Accountable> getChildResources() {
-		return null;
+		List<Accountable> resources = new ArrayList<>(2);
+		if (blockCache != null) {
+			resources.add(Accountables.namedAccountable("block cache", blockCache.sizeInBytes()));
+		}
+		if (nrtStore != null) {
+			resources.add(Accountables.namedAccountable("nrt cache", nrtStore.cachedBytes()));
+		}
+		return resources;
 	}
 
 	@Override
 	public void rename(String source, String dest) throws IOException {
 		ensureOpen();
-		if (!store.contains(source)) {
+		if (!files.contains(source)) {
 			throw new FileNotFoundException(source);
 		}
-		store.move(source, dest);
+		files.move(source, dest);
+		invalidate(source);
+		invalidate(dest);
 	}
 
 	@Override
@@ -178,14 +570,18 @@ public class DBDirectory extends BaseDirectory implements Accountable {
 		// ... then try to find a unique name for it:
 		while (true) {
 			String name = IndexFileNames.segmentFileName(prefix, suffix + "_" + Long.toString(nextTempFileCounter.getAndIncrement(), Character.MAX_RADIX), "tmp");
-			if (!store.contains(name)) {
-				return new DBOutputStream(name, store, BUFFER_SIZE, true);
+			if (!files.contains(name)) {
+				return createOutputStream(name, context);
 
 			}
 
 		}
 	}
 
+	/**
+	 * Syncs the store only, files of the NRT cache are written to the store
+	 * by the sync of their names.
+	 */
 	@Override
 	public void syncMetaData() throws IOException {
 		store.sync();
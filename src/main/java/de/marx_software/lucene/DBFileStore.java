@@ -5,8 +5,14 @@
  */
 package de.marx_software.lucene;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.DoubleConsumer;
 
 /**
  *
@@ -14,8 +20,48 @@ import java.util.Set;
  */
 public interface DBFileStore {
 
+	/**
+	 * block size of writers created without a block size
+	 */
+	int DEFAULT_BLOCK_SIZE = 10 * 1024;
+
+	/**
+	 * Appends the bytes to the file, creating it if it does not exist, and
+	 * makes them visible at once. Every call rewrites the meta data of the
+	 * whole file, so appending n times costs O(n²): for small files only.
+	 * Files written in more than a few parts use {@link #createWriter(String, int)}.
+	 */
 	void append(String name, byte[] buf, int offset, int len) throws IOException;
 
+	/**
+	 * Creates a writer for a new file. The blocks are staged in a batch and
+	 * the file is only visible after {@link DBFileWriter#commit()}.
+	 *
+	 * @param name the file, must not exist
+	 * @param blockSize size of the blocks the writer appends, recorded with
+	 * the file
+	 * @return the writer
+	 */
+	DBFileWriter createWriter(String name, int blockSize) throws IOException;
+
+	/**
+	 * Creates a writer for a new file written in one go by a merge or a
+	 * flush. Stores with a bulk load mode may write such files around their
+	 * usual write path, the others create a normal writer.
+	 *
+	 * @param name the file, must not exist
+	 * @param blockSize size of the blocks the writer appends
+	 * @param bulk true if the file is written by a merge or a flush
+	 * @return the writer
+	 */
+	default DBFileWriter createWriter(String name, int blockSize, boolean bulk) throws IOException {
+		return createWriter(name, blockSize);
+	}
+
+	default DBFileWriter createWriter(String name) throws IOException {
+		return createWriter(name, DEFAULT_BLOCK_SIZE);
+	}
+
 	void clear() throws IOException;
 
 	void close() throws IOException;
@@ -28,14 +74,136 @@ public interface DBFileStore {
 	 */
 	long getSize(String key) throws IOException;
 
+	/**
+	 * @param name
+	 * @return the block size the file was written with, -1 if it does not
+	 * exist
+	 */
+	int getBlockSize(String name) throws IOException;
+
+	/**
+	 * @return a copy of the names of all files
+	 */
 	Set<String> listKey();
 
+	/**
+	 * Reads up to len bytes of the file, the caller knows the file length and
+	 * does not read beyond it.
+	 *
+	 * @return the number of bytes read, -1 at the end of the file
+	 */
 	int load(String name, long position, byte[] buf, int offset, int len) throws IOException;
 
 	void move(String source, String dest) throws IOException;
 
 	void remove(String key) throws IOException;
 
+	/**
+	 * Makes all changes durable. Cheap if nothing changed since the last
+	 * sync, never compacts.
+	 */
 	void sync() throws IOException;
+
+	/**
+	 * Makes the named files durable, a no-op if none of them changed since
+	 * its last sync.
+	 *
+	 * @param names
+	 */
+	default void sync(Collection<String> names) throws IOException {
+		sync();
+	}
+
+	/**
+	 * Compacts the backend to free the space of removed files. Expensive,
+	 * not part of a commit.
+	 */
+	void compact() throws IOException;
+
+	/**
+	 * Compacts only where files were removed since the last call, to free
+	 * their space and drop their tombstones. Stores that cannot compact a
+	 * part compact everything.
+	 */
+	default void compactRemoved() throws IOException {
+		compactRemoved(done -> {
+		});
+	}
+
+	/**
+	 * Compacts like {@link #compactRemoved()} in parts.
+	 *
+	 * @param progress called after each part with the share of the work
+	 * done so far
+	 */
+	default void compactRemoved(DoubleConsumer progress) throws IOException {
+		compact();
+		progress.accept(1);
+	}
+
+	/**
+	 * Writes the file to a new file of the target, in bulk and in blocks of
+	 * the block size of the file.
+	 *
+	 * @param name the file, must not change while it is copied
+	 * @param target the store, must not contain the file
+	 * @throws FileNotFoundException if the file does not exist
+	 */
+	default void copyFile(String name, DBFileStore target) throws IOException {
+		long length = getSize(name);
+		int blockSize = getBlockSize(name);
+		if (length == -1 || blockSize == -1) {
+			throw new FileNotFoundException(name);
+		}
+		DBFileWriter writer = target.createWriter(name, blockSize, true);
+		byte[] block = new byte[blockSize];
+		try {
+			for (long position = 0; position < length;) {
+				int n = load(name, position, block, 0, (int) Math.min(blockSize, length - position));
+				writer.append(block, 0, n);
+				position += n;
+			}
+			writer.commit();
+		} catch (IOException | RuntimeException e) {
+			DBFileWriter.abort(writer, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Makes dest a file of the target with the content of the file without
+	 * copying its data, if the stores share their data.
+	 *
+	 * @param name the file
+	 * @param target the store, must not contain dest
+	 * @param dest the name in the target
+	 * @return false if the target does not share the data of this store
+	 * @throws FileNotFoundException if the file does not exist
+	 */
+	default boolean linkFile(String name, DBFileStore target, String dest) throws IOException {
+		return false;
+	}
+
+	/**
+	 * Writes the named files as a new store of the same kind to the empty
+	 * directory target. The files must not change while this runs, like the
+	 * files of a commit pinned by a {@link org.apache.lucene.index.SnapshotDeletionPolicy}.
+	 * Stores with a point in time copy of the backend may write all files.
+	 *
+	 * @param target
+	 * @param names
+	 * @throws UnsupportedOperationException if the store cannot create
+	 * checkpoints
+	 */
+	default void checkpoint(Path target, Collection<String> names) throws IOException {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot create checkpoints");
+	}
+
+	/**
+	 * @return counters and gauges of the store and its backend by name
+	 */
+	default Map<String, Long> getStatistics() {
+		return Collections.emptyMap();
+	}
 	
 }
@@ -0,0 +1,38 @@
+package de.marx_software.lucene;
+
+import java.io.IOException;
+
+/**
+ * Writes a new file to a {@link DBFileStore}. The file becomes visible with
+ * all appended bytes when {@link #commit()} is called, until then it does not
+ * exist for readers.
+ *
+ * @author marx
+ */
+public interface DBFileWriter {
+
+	void append(byte[] buf, int offset, int len) throws IOException;
+
+	/**
+	 * Writes the outstanding blocks and the file length in one atomic batch.
+	 */
+	void commit() throws IOException;
+
+	/**
+	 * Discards the appended bytes, called instead of {@link #commit()} or
+	 * after it failed. The file is left as it was.
+	 */
+	void abort() throws IOException;
+
+	/**
+	 * Aborts the writer after a failure, a failure of the abort is added to
+	 * it.
+	 */
+	static void abort(DBFileWriter writer, Throwable failure) {
+		try {
+			writer.abort();
+		} catch (IOException | RuntimeException e) {
+			failure.addSuppressed(e);
+		}
+	}
+}
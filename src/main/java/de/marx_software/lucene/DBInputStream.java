@@ -2,16 +2,22 @@ package de.marx_software.lucene;
 
 import de.marx_software.lucene.rocksdb.*;
 import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.BitUtil;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Created by wens on 16-3-10.
+ *
+ * Positional reads of {@link RandomAccessInput} use the current block if it
+ * contains the position and do not move the file pointer.
  */
-public class DBInputStream extends IndexInput {
+public class DBInputStream extends IndexInput implements RandomAccessInput {
 
 	private final int bufferSize;
 
@@ -19,25 +25,60 @@ public class DBInputStream extends IndexInput {
 
 	private final long length;
 
+	/**
+	 * the block at the current position, either readBuffer or a block shared
+	 * with the cache
+	 */
 	private byte[] currentBuffer;
 
 	private int currentBufferIndex;
 
+	private int currentBufferLength;
+
+	/**
+	 * file position of the first byte of the current block
+	 */
+	private long currentBufferStart;
+
+	/**
+	 * private buffer for blocks that are not cached, allocated on first use
+	 */
+	private byte[] readBuffer;
+
 	private final DBFileStore store;
 
 	private final String name;
 
+	private final BlockCache cache;
+
+	private final boolean cacheBlocks;
+
 	public DBInputStream(String name, DBFileStore store, int bufferSize) throws IOException {
 		this(name, store, bufferSize, store.getSize(name));
 	}
 
 	public DBInputStream(String name, DBFileStore store, int bufferSize, long length) {
+		this(name, store, bufferSize, length, null, false);
+	}
+
+	/**
+	 * @param name
+	 * @param store
+	 * @param bufferSize size of the blocks read from the store
+	 * @param length
+	 * @param cache shared block cache, may be null
+	 * @param cacheBlocks add blocks read from the store to the cache, false for
+	 * read once inputs
+	 */
+	public DBInputStream(String name, DBFileStore store, int bufferSize, long length, BlockCache cache, boolean cacheBlocks) {
 		super("DBInputStream(name=" + name + ")");
 		this.name = name;
 		this.store = store;
 		this.bufferSize = bufferSize;
-		this.currentBuffer = new byte[this.bufferSize];
-		this.currentBufferIndex = bufferSize;
+		this.cache = cache;
+		this.cacheBlocks = cache != null && cacheBlocks;
+		this.currentBufferIndex = 0;
+		this.currentBufferLength = 0;
 		this.position = 0;
 		this.length = length;
 
@@ -59,7 +100,13 @@ public class DBInputStream extends IndexInput {
 			throw new IllegalArgumentException("pos must be between 0 and " + length);
 		}
 		position = pos;
-		currentBufferIndex = this.bufferSize;
+		// keep the block if it contains the position
+		long index = pos - currentBufferStart;
+		if (currentBuffer != null && index >= 0 && index < currentBufferLength) {
+			currentBufferIndex = (int) index;
+		} else {
+			currentBufferIndex = currentBufferLength;
+		}
 	}
 
 	@Override
@@ -74,7 +121,7 @@ public class DBInputStream extends IndexInput {
 			throw new IllegalArgumentException("slice() " + sliceDescription + " out of bounds: " + this);
 		}
 
-		return new DBInputStream(name, store, bufferSize, offset + length) {
+		return new DBInputStream(name, store, bufferSize, offset + length, cache, cacheBlocks) {
 			{
 				seek(0L);
 			}
@@ -102,9 +149,27 @@ public class DBInputStream extends IndexInput {
 			public IndexInput slice(String sliceDescription, long ofs, long len) throws IOException {
 				return super.slice(sliceDescription, offset + ofs, len);
 			}
+
+			@Override
+			protected long filePosition(long pos) {
+				return pos + offset;
+			}
 		};
 	}
 
+	@Override
+	public RandomAccessInput randomAccessSlice(long offset, long length) throws IOException {
+		return (RandomAccessInput) slice("randomaccess", offset, length);
+	}
+
+	/**
+	 * @param pos position relative to the start of this input
+	 * @return the position in the file
+	 */
+	protected long filePosition(long pos) {
+		return pos;
+	}
+
 	@Override
 	public byte readByte() throws IOException {
 
@@ -117,29 +182,267 @@ public class DBInputStream extends IndexInput {
 		return b;
 	}
 
+	@Override
+	public short readShort() throws IOException {
+		if (available() < Short.BYTES) {
+			return super.readShort();
+		}
+		short v = (short) BitUtil.VH_LE_SHORT.get(currentBuffer, currentBufferIndex);
+		skipInBuffer(Short.BYTES);
+		return v;
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		if (available() < Integer.BYTES) {
+			return super.readInt();
+		}
+		int v = (int) BitUtil.VH_LE_INT.get(currentBuffer, currentBufferIndex);
+		skipInBuffer(Integer.BYTES);
+		return v;
+	}
+
+	@Override
+	public long readLong() throws IOException {
+		if (available() < Long.BYTES) {
+			return super.readLong();
+		}
+		long v = (long) BitUtil.VH_LE_LONG.get(currentBuffer, currentBufferIndex);
+		skipInBuffer(Long.BYTES);
+		return v;
+	}
+
+	@Override
+	public int readVInt() throws IOException {
+		// a vInt has at most 5 bytes
+		if (available() < 5) {
+			return super.readVInt();
+		}
+		byte[] b = currentBuffer;
+		int i = currentBufferIndex;
+		byte x = b[i++];
+		int v = x & 0x7F;
+		for (int shift = 7; x < 0; shift += 7) {
+			if (shift > 28) {
+				throw new IOException("Invalid vInt detected (too many bits)");
+			}
+			x = b[i++];
+			v |= (x & 0x7F) << shift;
+		}
+		skipInBuffer(i - currentBufferIndex);
+		return v;
+	}
+
+	@Override
+	public long readVLong() throws IOException {
+		// a vLong has at most 9 bytes
+		if (available() < 9) {
+			return super.readVLong();
+		}
+		byte[] b = currentBuffer;
+		int i = currentBufferIndex;
+		byte x = b[i++];
+		long v = x & 0x7FL;
+		for (int shift = 7; x < 0; shift += 7) {
+			if (shift > 56) {
+				throw new IOException("Invalid vLong detected (negative values disallowed)");
+			}
+			x = b[i++];
+			v |= (x & 0x7FL) << shift;
+		}
+		skipInBuffer(i - currentBufferIndex);
+		return v;
+	}
+
+	@Override
+	public void readLongs(long[] dst, int offset, int length) throws IOException {
+		while (length > 0) {
+			int n = Math.min(available() / Long.BYTES, length);
+			if (n == 0) {
+				// the value spans two blocks
+				dst[offset++] = super.readLong();
+				length--;
+				continue;
+			}
+			for (int i = 0; i < n; i++) {
+				dst[offset + i] = (long) BitUtil.VH_LE_LONG.get(currentBuffer, currentBufferIndex + i * Long.BYTES);
+			}
+			skipInBuffer(n * Long.BYTES);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	@Override
+	public void readInts(int[] dst, int offset, int length) throws IOException {
+		while (length > 0) {
+			int n = Math.min(available() / Integer.BYTES, length);
+			if (n == 0) {
+				dst[offset++] = super.readInt();
+				length--;
+				continue;
+			}
+			for (int i = 0; i < n; i++) {
+				dst[offset + i] = (int) BitUtil.VH_LE_INT.get(currentBuffer, currentBufferIndex + i * Integer.BYTES);
+			}
+			skipInBuffer(n * Integer.BYTES);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	@Override
+	public void readFloats(float[] dst, int offset, int length) throws IOException {
+		while (length > 0) {
+			int n = Math.min(available() / Float.BYTES, length);
+			if (n == 0) {
+				dst[offset++] = Float.intBitsToFloat(super.readInt());
+				length--;
+				continue;
+			}
+			for (int i = 0; i < n; i++) {
+				dst[offset + i] = (float) BitUtil.VH_LE_FLOAT.get(currentBuffer, currentBufferIndex + i * Float.BYTES);
+			}
+			skipInBuffer(n * Float.BYTES);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Bytes of the current block that may be decoded directly. A slice shares
+	 * whole blocks, so this stops at the end of the slice.
+	 */
+	private int available() {
+		return (int) Math.min(currentBufferLength - currentBufferIndex, length - position);
+	}
+
+	/**
+	 * Advances over bytes decoded directly from the current block.
+	 */
+	private void skipInBuffer(int n) {
+		currentBufferIndex += n;
+		position += n;
+	}
+
+	/**
+	 * Loads the block containing the current position. Blocks are aligned to
+	 * the buffer size, so they can be shared through the cache.
+	 */
 	protected void loadBufferIfNeed() throws IOException {
-		if (this.currentBufferIndex == this.bufferSize) {
-			int n = store.load(name, position, currentBuffer, 0, bufferSize);
+		if (this.currentBufferIndex < this.currentBufferLength) {
+			return;
+		}
+		loadBlock(position / bufferSize);
+		this.currentBufferIndex = (int) (position - currentBufferStart);
+		if (this.currentBufferIndex >= this.currentBufferLength) {
+			throw new EOFException("Read end");
+		}
+	}
+
+	private void loadBlock(long block) throws IOException {
+		long blockStart = block * bufferSize;
+
+		byte[] data = cache != null ? cache.get(name, block) : null;
+		if (data == null) {
+			data = cacheBlocks ? new byte[bufferSize] : readBuffer();
+			int n = store.load(name, blockStart, data, 0, bufferSize);
 			if (n == -1) {
 				throw new EOFException("Read end");
 			}
-			this.currentBufferIndex = 0;
+			if (cacheBlocks) {
+				if (n < bufferSize) {
+					data = Arrays.copyOf(data, n);
+				}
+				cache.put(name, block, data);
+			}
+			this.currentBufferLength = n;
+		} else {
+			this.currentBufferLength = data.length;
+		}
+		this.currentBuffer = data;
+		this.currentBufferStart = blockStart;
+	}
+
+	/**
+	 * Makes the block containing the position current without moving the
+	 * file pointer.
+	 *
+	 * @param pos position relative to the start of this input
+	 * @param size number of bytes that are read
+	 * @return the index of the position in the current block
+	 */
+	private int blockIndex(long pos, int size) throws IOException {
+		long filePos = filePosition(pos);
+		if (pos < 0 || filePos + size > length) {
+			throw new EOFException("Read end");
+		}
+		long index = filePos - currentBufferStart;
+		if (currentBuffer == null || index < 0 || index >= currentBufferLength) {
+			loadBlock(filePos / bufferSize);
+			index = filePos - currentBufferStart;
+			// sequential reads continue in the new block only if it contains the file pointer
+			long current = position - currentBufferStart;
+			currentBufferIndex = current >= 0 && current < currentBufferLength ? (int) current : currentBufferLength;
+		}
+		return (int) index;
+	}
+
+	@Override
+	public byte readByte(long pos) throws IOException {
+		int i = blockIndex(pos, 1);
+		return currentBuffer[i];
+	}
+
+	@Override
+	public short readShort(long pos) throws IOException {
+		int i = blockIndex(pos, Short.BYTES);
+		if (i + Short.BYTES <= currentBufferLength) {
+			return (short) BitUtil.VH_LE_SHORT.get(currentBuffer, i);
+		}
+		return (short) ((readByte(pos) & 0xFF) | (readByte(pos + 1) & 0xFF) << 8);
+	}
+
+	@Override
+	public int readInt(long pos) throws IOException {
+		int i = blockIndex(pos, Integer.BYTES);
+		if (i + Integer.BYTES <= currentBufferLength) {
+			return (int) BitUtil.VH_LE_INT.get(currentBuffer, i);
 		}
+		// spans two blocks
+		return (readShort(pos) & 0xFFFF) | (readShort(pos + 2) & 0xFFFF) << 16;
+	}
+
+	@Override
+	public long readLong(long pos) throws IOException {
+		int i = blockIndex(pos, Long.BYTES);
+		if (i + Long.BYTES <= currentBufferLength) {
+			return (long) BitUtil.VH_LE_LONG.get(currentBuffer, i);
+		}
+		// spans two blocks
+		return (readInt(pos) & 0xFFFFFFFFL) | (long) readInt(pos + 4) << 32;
+	}
+
+	private byte[] readBuffer() {
+		if (readBuffer == null) {
+			readBuffer = new byte[bufferSize];
+		}
+		return readBuffer;
 	}
 
 	@Override
 	public void readBytes(byte[] b, int offset, int len) throws IOException {
 
-		if (position >= length) {
+		if (len > length - position) {
 			throw new EOFException("Read end");
 		}
 
 		int f = offset;
-		int n = Math.min((int) (length - position), len);
-		while (true) {
+		int n = len;
+		while (n > 0) {
 			loadBufferIfNeed();
 
-			int r = Math.min(bufferSize - currentBufferIndex, n);
+			int r = Math.min(currentBufferLength - currentBufferIndex, n);
 
 			System.arraycopy(currentBuffer, currentBufferIndex, b, f, r);
 
@@ -147,18 +450,17 @@ public class DBInputStream extends IndexInput {
 			position += r;
 			currentBufferIndex += r;
 			n -= r;
-			if (n == 0) {
-				break;
-			}
-
 		}
 	}
 
 	@Override
 	public IndexInput clone() {
 		DBInputStream in = (DBInputStream) super.clone();
-		in.currentBuffer = new byte[bufferSize];
-		System.arraycopy(this.currentBuffer, 0, in.currentBuffer, 0, bufferSize);
+		in.readBuffer = null;
+		if (currentBuffer != null && currentBuffer == readBuffer) {
+			// cached blocks are immutable and can be shared, the private buffer not
+			in.currentBuffer = Arrays.copyOf(currentBuffer, currentBufferLength);
+		}
 		return in;
 	}
 }
@@ -4,6 +4,7 @@ import de.marx_software.lucene.rocksdb.*;
 import org.apache.lucene.store.BufferedChecksum;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BitUtil;
 
 import java.io.IOException;
 import java.util.Collection;
@@ -27,14 +28,31 @@ public class DBOutputStream extends IndexOutput implements Accountable {
 
 	private final Checksum crc;
 
-	private final DBFileStore store;
+	private final DBFileWriter writer;
 
 	private final String name;
 
-	public DBOutputStream(String name, DBFileStore store, int bufferSize, boolean checksum) {
+	private boolean closed;
+
+	/**
+	 * set when an append failed, the writer is aborted on close
+	 */
+	private boolean failed;
+
+	public DBOutputStream(String name, DBFileStore store, int bufferSize, boolean checksum) throws IOException {
+		this(name, store.createWriter(name, bufferSize), bufferSize, checksum);
+	}
+
+	/**
+	 * @param name
+	 * @param writer receives the buffer on every flush, committed on close
+	 * @param bufferSize
+	 * @param checksum
+	 */
+	public DBOutputStream(String name, DBFileWriter writer, int bufferSize, boolean checksum) {
 		super("LeveldbOutputStream(name=" + name + ")", name);
 		this.name = name;
-		this.store = store;
+		this.writer = writer;
 		this.bufferSize = bufferSize;
 		this.currentBuffer = new byte[this.bufferSize];
 		this.position = 0;
@@ -48,15 +66,33 @@ public class DBOutputStream extends IndexOutput implements Accountable {
 
 	@Override
 	public void close() throws IOException {
-		if (dirty) {
-			flush();
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (failed) {
+			writer.abort();
+			return;
+		}
+		try {
+			if (dirty) {
+				flush();
+			}
+			writer.commit();
+		} catch (IOException | RuntimeException e) {
+			DBFileWriter.abort(writer, e);
+			throw e;
 		}
-		//store.close();
 	}
 
 	private void flush() throws IOException {
 
-		store.append(name, currentBuffer, 0, currentBufferIndex);
+		try {
+			writer.append(currentBuffer, 0, currentBufferIndex);
+		} catch (IOException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
 		currentBufferIndex = 0;
 		dirty = false;
 	}
@@ -115,6 +151,48 @@ public class DBOutputStream extends IndexOutput implements Accountable {
 		}
 	}
 
+	@Override
+	public void writeShort(short i) throws IOException {
+		if (bufferSize - currentBufferIndex < Short.BYTES) {
+			super.writeShort(i);
+			return;
+		}
+		BitUtil.VH_LE_SHORT.set(currentBuffer, currentBufferIndex, i);
+		wrote(Short.BYTES);
+	}
+
+	@Override
+	public void writeInt(int i) throws IOException {
+		if (bufferSize - currentBufferIndex < Integer.BYTES) {
+			super.writeInt(i);
+			return;
+		}
+		BitUtil.VH_LE_INT.set(currentBuffer, currentBufferIndex, i);
+		wrote(Integer.BYTES);
+	}
+
+	@Override
+	public void writeLong(long i) throws IOException {
+		if (bufferSize - currentBufferIndex < Long.BYTES) {
+			super.writeLong(i);
+			return;
+		}
+		BitUtil.VH_LE_LONG.set(currentBuffer, currentBufferIndex, i);
+		wrote(Long.BYTES);
+	}
+
+	/**
+	 * Accounts for bytes written directly into the buffer.
+	 */
+	private void wrote(int n) {
+		if (crc != null) {
+			crc.update(currentBuffer, currentBufferIndex, n);
+		}
+		currentBufferIndex += n;
+		position += n;
+		dirty = true;
+	}
+
 	@Override
 	public long ramBytesUsed() {
 		return position;
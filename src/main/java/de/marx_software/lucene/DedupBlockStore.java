@@ -0,0 +1,418 @@
+package de.marx_software.lucene;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Content addressed blocks in a {@link DBFileStore}, shared by the
+ * {@link DedupFileStore} views of any number of directories.
+ *
+ * A block is stored once under the hash of its content, no matter how many
+ * files refer to it. A file is a manifest, the list of the hashes of its
+ * blocks, stored under the namespace of its view. Copying a file between
+ * views of the same blocks, renaming it or backing it up only writes a
+ * manifest.
+ *
+ * The reference counts are held in memory and rebuilt from the manifests on
+ * open. Blocks no manifest refers to, left by a crash or by a writer that
+ * was never committed, are removed then.
+ *
+ * A block is reserved in the map of reference counts and written or removed
+ * outside of it, threads that need the block meanwhile wait for it.
+ *
+ * @author marx
+ */
+public class DedupBlockStore implements Closeable {
+
+	public static final String BLOCKS = "dedup.blocks";
+	public static final String BLOCK_BYTES = "dedup.blockBytes";
+	public static final String WRITTEN_BLOCKS = "dedup.writtenBlocks";
+	public static final String SHARED_BLOCKS = "dedup.sharedBlocks";
+	public static final String SHARED_BYTES = "dedup.sharedBytes";
+	public static final String REMOVED_BLOCKS = "dedup.removedBlocks";
+
+	/**
+	 * namespace of the blocks in the backend
+	 */
+	static final String BLOCK_NAMESPACE = "_blocks";
+
+	static final char SEPARATOR = '/';
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final DBFileStore backend;
+
+	private final Map<String, Block> blocks = new ConcurrentHashMap<>();
+
+	private final Map<String, DedupFileStore> views = new HashMap<>();
+
+	private final AtomicLong blockBytes = new AtomicLong();
+
+	private final LongAdder writtenBlocks = new LongAdder();
+
+	private final LongAdder sharedBlocks = new LongAdder();
+
+	private final LongAdder sharedBytes = new LongAdder();
+
+	private final LongAdder removedBlocks = new LongAdder();
+
+	private boolean closed;
+
+	/**
+	 * @param backend holds the blocks and the manifests of all views, closed
+	 * with the last view or by {@link #close()}, or if the blocks cannot be
+	 * opened
+	 * @throws IOException if a manifest refers to a missing block
+	 */
+	public DedupBlockStore(DBFileStore backend) throws IOException {
+		this.backend = backend;
+		try {
+			countReferences();
+		} catch (IOException | RuntimeException e) {
+			try {
+				backend.close();
+			} catch (IOException | RuntimeException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Counts the references of the manifests to the blocks and removes the
+	 * blocks without references.
+	 */
+	private void countReferences() throws IOException {
+		Set<String> keys = backend.listKey();
+		Set<String> stored = new HashSet<>();
+		for (String key : keys) {
+			if (key.startsWith(BLOCK_NAMESPACE + SEPARATOR)) {
+				stored.add(key);
+			}
+		}
+		for (String key : keys) {
+			if (key.indexOf(SEPARATOR) > 0 && !stored.contains(key)) {
+				for (String block : readManifest(key).blocks) {
+					if (!stored.contains(block)) {
+						throw new IOException("manifest " + key + " references missing block " + block);
+					}
+					Block b = blocks.get(block);
+					if (b == null) {
+						b = new Block((int) backend.getSize(block), true);
+						blocks.put(block, b);
+					}
+					b.refs++;
+				}
+			}
+		}
+		for (String key : stored) {
+			Block block = blocks.get(key);
+			if (block == null) {
+				backend.remove(key);
+			} else {
+				blockBytes.addAndGet(block.length);
+			}
+		}
+	}
+
+	/**
+	 * Opens the files of a namespace, a namespace is open in one view at a
+	 * time.
+	 *
+	 * @param namespace the name of the directory, must not contain '/'
+	 */
+	public synchronized DedupFileStore open(String namespace) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("closed");
+		}
+		if (namespace.isEmpty() || namespace.indexOf(SEPARATOR) >= 0 || namespace.equals(BLOCK_NAMESPACE)) {
+			throw new IllegalArgumentException("illegal namespace: " + namespace);
+		}
+		if (views.containsKey(namespace)) {
+			throw new IllegalStateException("namespace " + namespace + " is already open");
+		}
+		String prefix = namespace + SEPARATOR;
+		Map<String, BlockManifest> files = new HashMap<>();
+		for (String key : backend.listKey()) {
+			if (key.startsWith(prefix)) {
+				files.put(key.substring(prefix.length()), readManifest(key));
+			}
+		}
+		DedupFileStore view = new DedupFileStore(this, prefix, files);
+		views.put(namespace, view);
+		return view;
+	}
+
+	/**
+	 * @return the namespaces with files
+	 */
+	public Set<String> namespaces() {
+		Set<String> namespaces = new HashSet<>();
+		for (String key : backend.listKey()) {
+			int i = key.indexOf(SEPARATOR);
+			if (i > 0 && !key.startsWith(BLOCK_NAMESPACE + SEPARATOR)) {
+				namespaces.add(key.substring(0, i));
+			}
+		}
+		return namespaces;
+	}
+
+	DBFileStore backend() {
+		return backend;
+	}
+
+	/**
+	 * Adds a reference to the block with the hash, the data is only written
+	 * if the block is new.
+	 *
+	 * @param hash the SHA-256 of the data
+	 * @return the key of the block
+	 */
+	String acquire(byte[] hash, byte[] data, int offset, int len) throws IOException {
+		String key = blockKey(hash);
+		while (true) {
+			Block created = new Block(len, false);
+			boolean[] referenced = new boolean[1];
+			Block block = blocks.compute(key, (k, b) -> {
+				if (b == null) {
+					b = created;
+				} else if (b.refs == 0 && !b.isStored()) {
+					// being removed
+					return b;
+				}
+				b.refs++;
+				referenced[0] = true;
+				return b;
+			});
+			if (block == created) {
+				write(key, block, data, offset, len);
+				return key;
+			}
+			// written or removed by another thread, a failed write removed
+			// the reference with the block
+			if (block.await() && referenced[0]) {
+				sharedBlocks.increment();
+				sharedBytes.add(len);
+				return key;
+			}
+		}
+	}
+
+	/**
+	 * Writes a reserved block, it is dropped again if the write fails.
+	 */
+	private void write(String key, Block block, byte[] data, int offset, int len) throws IOException {
+		DBFileWriter writer = backend.createWriter(key, len);
+		try {
+			writer.append(data, offset, len);
+			writer.commit();
+		} catch (IOException | RuntimeException e) {
+			DBFileWriter.abort(writer, e);
+			blocks.remove(key, block);
+			block.done(false);
+			throw e;
+		}
+		writtenBlocks.increment();
+		blockBytes.addAndGet(len);
+		block.done(true);
+	}
+
+	/**
+	 * Adds a reference to each of the blocks of a copied manifest.
+	 */
+	void retain(String[] keys) {
+		for (String key : keys) {
+			blocks.compute(key, (k, block) -> {
+				if (block == null) {
+					throw new IllegalStateException("missing block " + k);
+				}
+				block.refs++;
+				sharedBytes.add(block.length);
+				return block;
+			});
+		}
+		sharedBlocks.add(keys.length);
+	}
+
+	/**
+	 * Drops a reference to each of the blocks, blocks without references
+	 * are removed.
+	 */
+	void release(String[] keys) throws IOException {
+		for (String key : keys) {
+			Block[] unreferenced = new Block[1];
+			blocks.computeIfPresent(key, (k, block) -> {
+				if (--block.refs == 0) {
+					block.removing();
+					unreferenced[0] = block;
+				}
+				return block;
+			});
+			if (unreferenced[0] != null) {
+				remove(key, unreferenced[0]);
+			}
+		}
+	}
+
+	/**
+	 * Removes a block without references, it is kept if the remove fails
+	 * and removed on the next open unless it is acquired again.
+	 */
+	private void remove(String key, Block block) throws IOException {
+		try {
+			backend.remove(key);
+		} catch (IOException | RuntimeException e) {
+			block.done(true);
+			throw e;
+		}
+		blocks.remove(key, block);
+		blockBytes.addAndGet(-block.length);
+		removedBlocks.increment();
+		block.done(false);
+	}
+
+	BlockManifest readManifest(String key) throws IOException {
+		byte[] bytes = new byte[(int) backend.getSize(key)];
+		for (int position = 0; position < bytes.length;) {
+			int n = backend.load(key, position, bytes, position, bytes.length - position);
+			if (n <= 0) {
+				throw new IOException("truncated manifest " + key);
+			}
+			position += n;
+		}
+		return BlockManifest.decode(bytes);
+	}
+
+	void writeManifest(String key, BlockManifest manifest) throws IOException {
+		byte[] bytes = manifest.encode();
+		DBFileWriter writer = backend.createWriter(key, bytes.length);
+		try {
+			writer.append(bytes, 0, bytes.length);
+			writer.commit();
+		} catch (IOException | RuntimeException e) {
+			DBFileWriter.abort(writer, e);
+			throw e;
+		}
+	}
+
+	static String blockKey(byte[] hash) {
+		char[] key = new char[BLOCK_NAMESPACE.length() + 1 + hash.length * 2];
+		BLOCK_NAMESPACE.getChars(0, BLOCK_NAMESPACE.length(), key, 0);
+		int i = BLOCK_NAMESPACE.length();
+		key[i++] = SEPARATOR;
+		for (byte b : hash) {
+			key[i++] = HEX[(b >>> 4) & 15];
+			key[i++] = HEX[b & 15];
+		}
+		return new String(key);
+	}
+
+	static byte[] hash(String key) {
+		int start = BLOCK_NAMESPACE.length() + 1;
+		byte[] hash = new byte[(key.length() - start) / 2];
+		for (int i = 0; i < hash.length; i++) {
+			hash[i] = (byte) Integer.parseInt(key.substring(start + 2 * i, start + 2 * i + 2), 16);
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the counts and bytes of the stored, shared and removed blocks
+	 */
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> statistics = new HashMap<>();
+		statistics.put(BLOCKS, (long) blocks.size());
+		statistics.put(BLOCK_BYTES, blockBytes.get());
+		statistics.put(WRITTEN_BLOCKS, writtenBlocks.sum());
+		statistics.put(SHARED_BLOCKS, sharedBlocks.sum());
+		statistics.put(SHARED_BYTES, sharedBytes.sum());
+		statistics.put(REMOVED_BLOCKS, removedBlocks.sum());
+		return statistics;
+	}
+
+	/**
+	 * Closes the backend with the last open view.
+	 */
+	synchronized void closed(DedupFileStore view) throws IOException {
+		views.values().remove(view);
+		if (views.isEmpty()) {
+			close();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			views.clear();
+			backend.close();
+		}
+	}
+
+	private static final class Block {
+
+		final int length;
+
+		/**
+		 * changed in the map only
+		 */
+		int refs;
+
+		/**
+		 * the data is written or removed
+		 */
+		private boolean busy;
+
+		private boolean stored;
+
+		/**
+		 * @param stored false for a new block, which is busy until it is
+		 * written
+		 */
+		Block(int length, boolean stored) {
+			this.length = length;
+			this.stored = stored;
+			this.busy = !stored;
+		}
+
+		synchronized boolean isStored() {
+			return stored;
+		}
+
+		synchronized void removing() {
+			stored = false;
+			busy = true;
+		}
+
+		synchronized void done(boolean stored) {
+			this.stored = stored;
+			busy = false;
+			notifyAll();
+		}
+
+		/**
+		 * Waits until the block is written or removed.
+		 *
+		 * @return true if the data is stored
+		 */
+		synchronized boolean await() throws InterruptedIOException {
+			while (busy) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted waiting for a block");
+				}
+			}
+			return stored;
+		}
+	}
+}
@@ -0,0 +1,374 @@
+package de.marx_software.lucene;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleConsumer;
+
+/**
+ * The files of one namespace of a {@link DedupBlockStore}.
+ *
+ * Writers cut the data into blocks at content defined boundaries, so equal
+ * content ends up in equal blocks even if it is shifted, like the files
+ * within a compound file. The boundaries are found with a gear hash over the
+ * last 64 bytes, blocks are between a quarter and twice the block size of
+ * the file and about the block size on average. Each block is hashed with
+ * SHA-256 and only written if no file refers to it yet.
+ *
+ * A file of another view of the same blocks is linked by writing its
+ * manifest, see {@link #linkFile(String, DBFileStore, String)}. A rename
+ * only moves the manifest.
+ *
+ * @author marx
+ */
+public class DedupFileStore implements DBFileStore {
+
+	public static final String FILES = "dedup.files";
+
+	/**
+	 * Random values of the gear hash. Fixed, the boundaries must not change
+	 * between runs.
+	 */
+	private static final long[] GEAR = new long[256];
+
+	static {
+		SplittableRandom random = new SplittableRandom(0x6765617248617368L);
+		for (int i = 0; i < GEAR.length; i++) {
+			GEAR[i] = random.nextLong();
+		}
+	}
+
+	private final DedupBlockStore blocks;
+
+	private final DBFileStore backend;
+
+	/**
+	 * namespace and separator
+	 */
+	private final String prefix;
+
+	private final Map<String, BlockManifest> files;
+
+	private volatile boolean closed;
+
+	DedupFileStore(DedupBlockStore blocks, String prefix, Map<String, BlockManifest> files) {
+		this.blocks = blocks;
+		this.backend = blocks.backend();
+		this.prefix = prefix;
+		this.files = new ConcurrentHashMap<>(files);
+	}
+
+	/**
+	 * @return the shared blocks
+	 */
+	public DedupBlockStore getBlockStore() {
+		return blocks;
+	}
+
+	private String key(String name) {
+		return prefix + name;
+	}
+
+	@Override
+	public DBFileWriter createWriter(String name, int blockSize) throws IOException {
+		return new ChunkingWriter(name, blockSize);
+	}
+
+	/**
+	 * Appends the bytes as a new block and rewrites the manifest, see
+	 * {@link DBFileStore#append(String, byte[], int, int)}.
+	 */
+	@Override
+	public synchronized void append(String name, byte[] buf, int offset, int len) throws IOException {
+		BlockManifest manifest = files.get(name);
+		if (manifest == null) {
+			manifest = BlockManifest.of(new String[0], new long[0], 0, DEFAULT_BLOCK_SIZE);
+		}
+		if (len > 0) {
+			manifest = manifest.append(blocks.acquire(sha256().digest(Arrays.copyOfRange(buf, offset, offset + len)), buf, offset, len), len);
+		}
+		put(name, manifest);
+	}
+
+	@Override
+	public int load(String name, long position, byte[] buf, int offset, int len) throws IOException {
+		BlockManifest manifest = files.get(name);
+		if (manifest == null || position >= manifest.meta.length()) {
+			return -1;
+		}
+		FileMeta meta = manifest.meta;
+		long p = position;
+		int f = offset;
+		int n = len;
+		int i = meta.extentOf(p);
+		while (n > 0 && p < meta.length()) {
+			int m = (int) (p - meta.extentStart(i));
+			int r = (int) Math.min(meta.extentEnd(i) - p, n);
+			if (backend.load(manifest.blocks[i], m, buf, f, r) < r) {
+				throw new IOException("missing block " + i + " of " + name);
+			}
+			p += r;
+			f += r;
+			n -= r;
+			i++;
+		}
+		return (int) (p - position);
+	}
+
+	@Override
+	public boolean contains(String key) {
+		return files.containsKey(key);
+	}
+
+	@Override
+	public long getSize(String key) {
+		BlockManifest manifest = files.get(key);
+		return manifest != null ? manifest.meta.length() : -1;
+	}
+
+	@Override
+	public int getBlockSize(String name) {
+		BlockManifest manifest = files.get(name);
+		return manifest != null ? manifest.meta.blockSize() : -1;
+	}
+
+	@Override
+	public Set<String> listKey() {
+		return new HashSet<>(files.keySet());
+	}
+
+	/**
+	 * Moves the manifest, the blocks of a replaced file are released.
+	 */
+	@Override
+	public synchronized void move(String source, String dest) throws IOException {
+		BlockManifest manifest = files.get(source);
+		if (manifest == null || source.equals(dest)) {
+			return;
+		}
+		backend.move(key(source), key(dest));
+		BlockManifest replaced = files.put(dest, manifest);
+		files.remove(source);
+		if (replaced != null) {
+			blocks.release(replaced.blocks);
+		}
+	}
+
+	@Override
+	public synchronized void remove(String key) throws IOException {
+		BlockManifest manifest = files.get(key);
+		if (manifest == null) {
+			return;
+		}
+		backend.remove(key(key));
+		files.remove(key);
+		blocks.release(manifest.blocks);
+	}
+
+	@Override
+	public synchronized void clear() throws IOException {
+		for (String name : new ArrayList<>(files.keySet())) {
+			remove(name);
+		}
+	}
+
+	/**
+	 * Closes the view, the backend is closed with the last view.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			blocks.closed(this);
+		}
+	}
+
+	@Override
+	public void sync() throws IOException {
+		backend.sync();
+	}
+
+	/**
+	 * Syncs the manifests, the blocks are written before them and covered
+	 * by the sync of the backend.
+	 */
+	@Override
+	public void sync(Collection<String> names) throws IOException {
+		List<String> keys = new ArrayList<>(names.size());
+		for (String name : names) {
+			keys.add(key(name));
+		}
+		backend.sync(keys);
+	}
+
+	@Override
+	public void compact() throws IOException {
+		backend.compact();
+	}
+
+	@Override
+	public void compactRemoved(DoubleConsumer progress) throws IOException {
+		backend.compactRemoved(progress);
+	}
+
+	/**
+	 * Links the file if the target shares the blocks, copies it otherwise.
+	 */
+	@Override
+	public void copyFile(String name, DBFileStore target) throws IOException {
+		if (!linkFile(name, target, name)) {
+			DBFileStore.super.copyFile(name, target);
+		}
+	}
+
+	/**
+	 * Writes the manifest of the file to the target if it is a view of the
+	 * same blocks.
+	 */
+	@Override
+	public boolean linkFile(String name, DBFileStore target, String dest) throws IOException {
+		if (!(target instanceof DedupFileStore) || ((DedupFileStore) target).blocks != blocks) {
+			return false;
+		}
+		BlockManifest manifest = files.get(name);
+		if (manifest == null) {
+			throw new FileNotFoundException(name);
+		}
+		blocks.retain(manifest.blocks);
+		try {
+			((DedupFileStore) target).put(dest, manifest);
+		} catch (IOException | RuntimeException e) {
+			blocks.release(manifest.blocks);
+			throw e;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the manifest, the blocks of a replaced file are released.
+	 */
+	private synchronized void put(String name, BlockManifest manifest) throws IOException {
+		blocks.writeManifest(key(name), manifest);
+		BlockManifest replaced = files.put(name, manifest);
+		if (replaced != null) {
+			blocks.release(replaced.blocks);
+		}
+	}
+
+	/**
+	 * The statistics of the backend, of the shared blocks and the number of
+	 * files of this view.
+	 */
+	@Override
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> statistics = new HashMap<>(backend.getStatistics());
+		statistics.putAll(blocks.getStatistics());
+		statistics.put(FILES, (long) files.size());
+		return statistics;
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Cuts the appended bytes into blocks and acquires each block when it is
+	 * complete, the manifest is written on commit.
+	 */
+	private final class ChunkingWriter implements DBFileWriter {
+
+		private final String name;
+
+		private final int blockSize;
+
+		private final int minChunk;
+
+		/**
+		 * the high bits of the gear hash that have to be zero at a boundary
+		 */
+		private final long mask;
+
+		private final byte[] chunk;
+
+		private int chunkLength;
+
+		private long fingerprint;
+
+		private final MessageDigest digest = sha256();
+
+		private String[] keys = new String[16];
+
+		private long[] lengths = new long[16];
+
+		private int count;
+
+		ChunkingWriter(String name, int blockSize) {
+			this.name = name;
+			this.blockSize = blockSize;
+			this.minChunk = Math.max(64, blockSize / 4);
+			this.chunk = new byte[Math.max(minChunk + 1, 2 * blockSize)];
+			// the blocks average about minChunk plus two to the power of the bits
+			int bits = Math.max(1, 31 - Integer.numberOfLeadingZeros(Math.max(1, blockSize - minChunk)));
+			this.mask = -1L << (64 - bits);
+		}
+
+		@Override
+		public void append(byte[] buf, int offset, int len) throws IOException {
+			for (int i = offset, end = offset + len; i < end; i++) {
+				byte b = buf[i];
+				chunk[chunkLength++] = b;
+				fingerprint = (fingerprint << 1) + GEAR[b & 255];
+				if ((chunkLength >= minChunk && (fingerprint & mask) == 0) || chunkLength == chunk.length) {
+					cut();
+				}
+			}
+		}
+
+		private void cut() throws IOException {
+			if (count == keys.length) {
+				keys = Arrays.copyOf(keys, count * 2);
+				lengths = Arrays.copyOf(lengths, count * 2);
+			}
+			digest.update(chunk, 0, chunkLength);
+			keys[count] = blocks.acquire(digest.digest(), chunk, 0, chunkLength);
+			lengths[count++] = chunkLength;
+			chunkLength = 0;
+			fingerprint = 0;
+		}
+
+		@Override
+		public void commit() throws IOException {
+			if (chunkLength > 0) {
+				cut();
+			}
+			put(name, BlockManifest.of(keys, lengths, count, blockSize));
+			count = 0;
+		}
+
+		/**
+		 * Releases the blocks acquired so far.
+		 */
+		@Override
+		public void abort() throws IOException {
+			String[] acquired = Arrays.copyOf(keys, count);
+			count = 0;
+			chunkLength = 0;
+			blocks.release(acquired);
+		}
+	}
+}
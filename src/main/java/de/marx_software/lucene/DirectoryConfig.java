@@ -0,0 +1,389 @@
+package de.marx_software.lucene;
+
+/**
+ * Settings of a {@link DBDirectory} that are independent of the store.
+ *
+ * <pre>
+ * DirectoryConfig config = DirectoryConfig.builder(Profile.READ_HEAVY)
+ *		.cacheSize(512 * 1024 * 1024)
+ *		.build();
+ * </pre>
+ *
+ * @author marx
+ */
+public final class DirectoryConfig {
+
+	/**
+	 * Default size of the block cache shared by the inputs of a directory.
+	 */
+	public static final long DEFAULT_CACHE_SIZE = 32 * 1024 * 1024;
+
+	public static final DirectoryConfig DEFAULT = builder().build();
+
+	private final long cacheSize;
+
+	private final BlockSizePolicy blockSizePolicy;
+
+	private final long compactionMinBytes;
+
+	private final double compactionGarbageRatio;
+
+	private final long compactionBytesPerSecond;
+
+	private final boolean metrics;
+
+	private final long slowOperationNanos;
+
+	private final String jmxName;
+
+	private final long nrtMaxCachedBytes;
+
+	private final long nrtMaxFileBytes;
+
+	private final boolean nrtOffHeap;
+
+	private final PlacementPolicy placementPolicy;
+
+	private DirectoryConfig(Builder builder) {
+		this.cacheSize = builder.cacheSize;
+		this.blockSizePolicy = builder.blockSizePolicy;
+		this.compactionMinBytes = builder.compactionMinBytes;
+		this.compactionGarbageRatio = builder.compactionGarbageRatio;
+		this.compactionBytesPerSecond = builder.compactionBytesPerSecond;
+		this.metrics = builder.metrics;
+		this.slowOperationNanos = builder.slowOperationNanos;
+		this.jmxName = builder.jmxName;
+		this.nrtMaxCachedBytes = builder.nrtMaxCachedBytes;
+		this.nrtMaxFileBytes = builder.nrtMaxFileBytes;
+		this.nrtOffHeap = builder.nrtOffHeap;
+		this.placementPolicy = builder.placementPolicy;
+	}
+
+	/**
+	 * @return size of the block cache in bytes, 0 if the cache is disabled
+	 */
+	public long cacheSize() {
+		return cacheSize;
+	}
+
+	public BlockSizePolicy blockSizePolicy() {
+		return blockSizePolicy;
+	}
+
+	/**
+	 * @return removed bytes that trigger a background compaction, 0 if the
+	 * compaction is disabled
+	 */
+	public long compactionMinBytes() {
+		return compactionMinBytes;
+	}
+
+	/**
+	 * @return minimum share of the removed bytes in all bytes for a
+	 * compaction
+	 */
+	public double compactionGarbageRatio() {
+		return compactionGarbageRatio;
+	}
+
+	/**
+	 * @return removed bytes compacted per second at most
+	 */
+	public long compactionBytesPerSecond() {
+		return compactionBytesPerSecond;
+	}
+
+	/**
+	 * @return true if the directory records its operations
+	 */
+	public boolean metrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return latency from which an operation is emitted as JFR event, 0 for
+	 * none
+	 */
+	public long slowOperationNanos() {
+		return slowOperationNanos;
+	}
+
+	/**
+	 * @return name of the metrics MBean of the directory, null if it is not
+	 * registered
+	 */
+	public String jmxName() {
+		return jmxName;
+	}
+
+	/**
+	 * @return bytes of the new files kept in memory until their sync, 0 if
+	 * the NRT cache is disabled
+	 */
+	public long nrtMaxCachedBytes() {
+		return nrtMaxCachedBytes;
+	}
+
+	/**
+	 * @return estimated size of a file kept in the NRT cache at most
+	 */
+	public long nrtMaxFileBytes() {
+		return nrtMaxFileBytes;
+	}
+
+	/**
+	 * @return true if the NRT cache holds the files in direct buffers
+	 */
+	public boolean nrtOffHeap() {
+		return nrtOffHeap;
+	}
+
+	/**
+	 * @return the tier of new files of a {@link HybridDBDirectory}, null if
+	 * all files are in the store
+	 */
+	public PlacementPolicy placementPolicy() {
+		return placementPolicy;
+	}
+
+	/**
+	 * @return a new NRT cache in front of the store, null if disabled
+	 */
+	NrtCachingFileStore createNrtStore(DBFileStore store) {
+		return nrtMaxCachedBytes > 0 ? new NrtCachingFileStore(store, nrtMaxCachedBytes, nrtMaxFileBytes, nrtOffHeap) : null;
+	}
+
+	/**
+	 * @return new metrics, null if disabled
+	 */
+	DirectoryMetrics createMetrics() {
+		return metrics ? new DirectoryMetrics(slowOperationNanos) : null;
+	}
+
+	/**
+	 * @return a new compaction scheduler for the store, null if the
+	 * compaction is disabled
+	 */
+	CompactionScheduler createCompactionScheduler(DBFileStore store) {
+		return compactionMinBytes > 0
+				? new CompactionScheduler(store, compactionMinBytes, compactionGarbageRatio, compactionBytesPerSecond)
+				: null;
+	}
+
+	/**
+	 * @return a new block cache, null if the cache is disabled
+	 */
+	BlockCache createBlockCache() {
+		return cacheSize > 0 ? new BlockCache(cacheSize) : null;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @param profile
+	 * @return a builder initialized with the values of the profile
+	 */
+	public static Builder builder(Profile profile) {
+		Builder builder = new Builder();
+		switch (profile) {
+			case READ_HEAVY:
+				builder.cacheSize(256 * 1024 * 1024);
+				break;
+			case WRITE_HEAVY:
+				// merges remove a lot, compact less often
+				// small flushed segments are mostly merged away before a commit
+				builder.compactionMinBytes(512 * 1024 * 1024)
+						.nrtMaxCachedBytes(64 * 1024 * 1024);
+				break;
+			case BULK_LOAD:
+				// merges read once and bypass the cache anyway
+				// compacted once at the end of the load
+				builder.compactionMinBytes(0)
+						.cacheSize(8 * 1024 * 1024)
+						.blockSizePolicy(new ExtensionBlockSizePolicy(16 * 1024, 64 * 1024,
+								1024 * 1024, 1024 * 1024, 1024 * 1024));
+				break;
+			case LOW_MEMORY:
+				builder.cacheSize(4 * 1024 * 1024)
+						.compactionMinBytes(32 * 1024 * 1024)
+						.compactionBytesPerSecond(8 * 1024 * 1024)
+						.blockSizePolicy(new ExtensionBlockSizePolicy(4 * 1024, 8 * 1024,
+								32 * 1024, 64 * 1024, 64 * 1024));
+				break;
+			default:
+				break;
+		}
+		return builder;
+	}
+
+	public static DirectoryConfig of(Profile profile) {
+		return builder(profile).build();
+	}
+
+	public static final class Builder {
+
+		private long cacheSize = DEFAULT_CACHE_SIZE;
+
+		private BlockSizePolicy blockSizePolicy = new ExtensionBlockSizePolicy();
+
+		private long compactionMinBytes = 128 * 1024 * 1024;
+
+		private double compactionGarbageRatio = 0.25;
+
+		private long compactionBytesPerSecond = 64 * 1024 * 1024;
+
+		private boolean metrics = true;
+
+		private long slowOperationNanos = 50_000_000;
+
+		private String jmxName;
+
+		private long nrtMaxCachedBytes = 0;
+
+		private long nrtMaxFileBytes = 8 * 1024 * 1024;
+
+		private boolean nrtOffHeap = false;
+
+		private PlacementPolicy placementPolicy;
+
+		private Builder() {
+		}
+
+		/**
+		 * @param cacheSize size of the block cache in bytes, 0 disables the
+		 * cache
+		 */
+		public Builder cacheSize(long cacheSize) {
+			if (cacheSize < 0) {
+				throw new IllegalArgumentException("cacheSize must not be negative: " + cacheSize);
+			}
+			this.cacheSize = cacheSize;
+			return this;
+		}
+
+		/**
+		 * @param blockSizePolicy block sizes of new files and buffer sizes of
+		 * inputs
+		 */
+		public Builder blockSizePolicy(BlockSizePolicy blockSizePolicy) {
+			if (blockSizePolicy == null) {
+				throw new IllegalArgumentException("blockSizePolicy must not be null");
+			}
+			this.blockSizePolicy = blockSizePolicy;
+			return this;
+		}
+
+		/**
+		 * @param compactionMinBytes removed bytes that trigger a background
+		 * compaction, 0 disables the compaction
+		 */
+		public Builder compactionMinBytes(long compactionMinBytes) {
+			if (compactionMinBytes < 0) {
+				throw new IllegalArgumentException("compactionMinBytes must not be negative: " + compactionMinBytes);
+			}
+			this.compactionMinBytes = compactionMinBytes;
+			return this;
+		}
+
+		/**
+		 * @param compactionGarbageRatio minimum share of the removed bytes in
+		 * the live and removed bytes, between 0 and 1
+		 */
+		public Builder compactionGarbageRatio(double compactionGarbageRatio) {
+			if (compactionGarbageRatio < 0 || compactionGarbageRatio > 1) {
+				throw new IllegalArgumentException("compactionGarbageRatio must be between 0 and 1: " + compactionGarbageRatio);
+			}
+			this.compactionGarbageRatio = compactionGarbageRatio;
+			return this;
+		}
+
+		/**
+		 * @param compactionBytesPerSecond removed bytes compacted per second
+		 * at most
+		 */
+		public Builder compactionBytesPerSecond(long compactionBytesPerSecond) {
+			if (compactionBytesPerSecond <= 0) {
+				throw new IllegalArgumentException("compactionBytesPerSecond must be positive: " + compactionBytesPerSecond);
+			}
+			this.compactionBytesPerSecond = compactionBytesPerSecond;
+			return this;
+		}
+
+		/**
+		 * @param metrics record counts, bytes and latencies of the operations
+		 */
+		public Builder metrics(boolean metrics) {
+			this.metrics = metrics;
+			return this;
+		}
+
+		/**
+		 * @param slowOperationNanos latency from which an operation is
+		 * emitted as JFR event, 0 for none
+		 */
+		public Builder slowOperationNanos(long slowOperationNanos) {
+			if (slowOperationNanos < 0) {
+				throw new IllegalArgumentException("slowOperationNanos must not be negative: " + slowOperationNanos);
+			}
+			this.slowOperationNanos = slowOperationNanos;
+			return this;
+		}
+
+		/**
+		 * @param jmxName registers the metrics of the directory as MBean with
+		 * this name, null for none
+		 */
+		public Builder jmxName(String jmxName) {
+			this.jmxName = jmxName;
+			return this;
+		}
+
+		/**
+		 * @param nrtMaxCachedBytes bytes of the new files written by flushes
+		 * and merges kept in memory until their sync, 0 disables the NRT
+		 * cache
+		 */
+		public Builder nrtMaxCachedBytes(long nrtMaxCachedBytes) {
+			if (nrtMaxCachedBytes < 0) {
+				throw new IllegalArgumentException("nrtMaxCachedBytes must not be negative: " + nrtMaxCachedBytes);
+			}
+			this.nrtMaxCachedBytes = nrtMaxCachedBytes;
+			return this;
+		}
+
+		/**
+		 * @param nrtMaxFileBytes estimated size of the flushed or merged
+		 * segment of a file kept in the NRT cache at most
+		 */
+		public Builder nrtMaxFileBytes(long nrtMaxFileBytes) {
+			if (nrtMaxFileBytes < 0) {
+				throw new IllegalArgumentException("nrtMaxFileBytes must not be negative: " + nrtMaxFileBytes);
+			}
+			this.nrtMaxFileBytes = nrtMaxFileBytes;
+			return this;
+		}
+
+		/**
+		 * @param nrtOffHeap hold the files of the NRT cache in direct buffers
+		 */
+		public Builder nrtOffHeap(boolean nrtOffHeap) {
+			this.nrtOffHeap = nrtOffHeap;
+			return this;
+		}
+
+		/**
+		 * @param placementPolicy maps the files it chooses in a directory
+		 * next to the store, null keeps all files in the store
+		 */
+		public Builder placementPolicy(PlacementPolicy placementPolicy) {
+			this.placementPolicy = placementPolicy;
+			return this;
+		}
+
+		public DirectoryConfig build() {
+			return new DirectoryConfig(this);
+		}
+	}
+}
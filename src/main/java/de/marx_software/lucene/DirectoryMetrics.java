@@ -0,0 +1,157 @@
+package de.marx_software.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.lucene.index.IndexFileNames;
+
+/**
+ * Counts, bytes and latencies of the operations of a {@link DBDirectory} by
+ * file extension. Operations slower than the threshold are also emitted as
+ * JFR events.
+ *
+ * @author marx
+ */
+public class DirectoryMetrics {
+
+	public enum Operation {
+		/**
+		 * a block read by an input
+		 */
+		LOAD,
+		/**
+		 * a block written by an output
+		 */
+		APPEND,
+		REMOVE,
+		MOVE,
+		OPEN_INPUT,
+		CREATE_OUTPUT
+	}
+
+	private final Map<Operation, Map<String, Stats>> operations = new EnumMap<>(Operation.class);
+
+	private final long slowOperationNanos;
+
+	/**
+	 * @param slowOperationNanos latency from which an operation is emitted as
+	 * JFR event, 0 for none
+	 */
+	public DirectoryMetrics(long slowOperationNanos) {
+		if (slowOperationNanos < 0) {
+			throw new IllegalArgumentException("slowOperationNanos must not be negative: " + slowOperationNanos);
+		}
+		this.slowOperationNanos = slowOperationNanos;
+		for (Operation operation : Operation.values()) {
+			operations.put(operation, new ConcurrentHashMap<>());
+		}
+	}
+
+	/**
+	 * @param operation
+	 * @param name the file name
+	 * @param bytes bytes read or written, the file length for removes and
+	 * moves
+	 * @param nanos latency
+	 */
+	public void record(Operation operation, String name, long bytes, long nanos) {
+		operations.get(operation).computeIfAbsent(extension(name), e -> new Stats()).record(bytes, nanos);
+		if (slowOperationNanos > 0 && nanos >= slowOperationNanos) {
+			SlowOperationEvent.emit(operation, name, bytes, nanos);
+		}
+	}
+
+	/**
+	 * @param name
+	 * @param writer
+	 * @return a writer that records its appends
+	 */
+	public DBFileWriter meter(String name, DBFileWriter writer) {
+		return new MeteredWriter(name, writer);
+	}
+
+	public long getSlowOperationNanos() {
+		return slowOperationNanos;
+	}
+
+	/**
+	 * @return the statistics of each operation and extension seen so far
+	 */
+	public List<MetricsSnapshot.OperationSnapshot> snapshot() {
+		List<MetricsSnapshot.OperationSnapshot> snapshots = new ArrayList<>();
+		for (Map.Entry<Operation, Map<String, Stats>> operation : operations.entrySet()) {
+			for (Map.Entry<String, Stats> extension : operation.getValue().entrySet()) {
+				Stats stats = extension.getValue();
+				snapshots.add(new MetricsSnapshot.OperationSnapshot(operation.getKey(), extension.getKey(),
+						stats.count.sum(), stats.bytes.sum(), stats.latency.totalNanos(), stats.latency.counts()));
+			}
+		}
+		return snapshots;
+	}
+
+	public void reset() {
+		for (Map<String, Stats> extensions : operations.values()) {
+			extensions.clear();
+		}
+	}
+
+	/**
+	 * @return the extension, "segments" for commit points and "" for files
+	 * without extension
+	 */
+	static String extension(String name) {
+		if (name.startsWith(IndexFileNames.SEGMENTS) || name.startsWith(IndexFileNames.PENDING_SEGMENTS)) {
+			return IndexFileNames.SEGMENTS;
+		}
+		String extension = IndexFileNames.getExtension(name);
+		return extension != null ? extension : "";
+	}
+
+	private static final class Stats {
+
+		private final LongAdder count = new LongAdder();
+
+		private final LongAdder bytes = new LongAdder();
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		void record(long bytes, long nanos) {
+			count.increment();
+			this.bytes.add(bytes);
+			latency.record(nanos);
+		}
+	}
+
+	private final class MeteredWriter implements DBFileWriter {
+
+		private final String name;
+
+		private final DBFileWriter writer;
+
+		MeteredWriter(String name, DBFileWriter writer) {
+			this.name = name;
+			this.writer = writer;
+		}
+
+		@Override
+		public void append(byte[] buf, int offset, int len) throws IOException {
+			long start = System.nanoTime();
+			writer.append(buf, offset, len);
+			record(Operation.APPEND, name, len, System.nanoTime() - start);
+		}
+
+		@Override
+		public void commit() throws IOException {
+			writer.commit();
+		}
+
+		@Override
+		public void abort() throws IOException {
+			writer.abort();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package de.marx_software.lucene;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Builds the attributes of the {@link DirectoryMetricsMXBean} from a fresh
+ * snapshot of the directory.
+ *
+ * @author marx
+ */
+final class DirectoryMetricsBean implements DirectoryMetricsMXBean {
+
+	private final DBDirectory directory;
+
+	DirectoryMetricsBean(DBDirectory directory) {
+		this.directory = directory;
+	}
+
+	private Map<String, Long> byOperation(ToLongFunction<MetricsSnapshot.OperationSnapshot> value) {
+		Map<String, Long> values = new TreeMap<>();
+		for (MetricsSnapshot.OperationSnapshot snapshot : directory.getMetrics().operations()) {
+			values.put(snapshot.operation() + "." + snapshot.extension(), value.applyAsLong(snapshot));
+		}
+		return values;
+	}
+
+	private long storeStatistic(String name) {
+		return directory.getMetrics().storeStatistics().getOrDefault(name, 0L);
+	}
+
+	@Override
+	public Map<String, Long> getCounts() {
+		return byOperation(MetricsSnapshot.OperationSnapshot::count);
+	}
+
+	@Override
+	public Map<String, Long> getBytes() {
+		return byOperation(MetricsSnapshot.OperationSnapshot::bytes);
+	}
+
+	@Override
+	public Map<String, Long> getMeanLatencyMicros() {
+		return byOperation(snapshot -> snapshot.meanNanos() / 1000);
+	}
+
+	@Override
+	public Map<String, Long> getP99LatencyMicros() {
+		return byOperation(snapshot -> snapshot.percentileNanos(0.99) / 1000);
+	}
+
+	@Override
+	public double getCacheHitRate() {
+		return directory.getMetrics().cacheHitRate();
+	}
+
+	@Override
+	public long getCacheBytes() {
+		return directory.getMetrics().cacheBytes();
+	}
+
+	@Override
+	public long getCompactionPendingBytes() {
+		return directory.getMetrics().compactionPendingBytes();
+	}
+
+	@Override
+	public long getCompactionCount() {
+		return directory.getMetrics().compactions();
+	}
+
+	@Override
+	public long getLockWaitNanos() {
+		return storeStatistic(BaseDBFileStore.LOCK_WAIT_NANOS);
+	}
+
+	@Override
+	public long getUnsyncedFiles() {
+		return storeStatistic(BaseDBFileStore.UNSYNCED_FILES);
+	}
+
+	@Override
+	public Map<String, Long> getStoreStatistics() {
+		return directory.getMetrics().storeStatistics();
+	}
+
+	@Override
+	public void reset() {
+		if (directory.metrics != null) {
+			directory.metrics.reset();
+		}
+	}
+}
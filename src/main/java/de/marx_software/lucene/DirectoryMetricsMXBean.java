@@ -0,0 +1,43 @@
+package de.marx_software.lucene;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of a {@link DBDirectory}, registered with
+ * {@link DBDirectory#registerMBean(String)}. Per operation values are keyed
+ * by operation and extension, like <code>LOAD.tim</code>.
+ *
+ * @author marx
+ */
+public interface DirectoryMetricsMXBean {
+
+	Map<String, Long> getCounts();
+
+	Map<String, Long> getBytes();
+
+	Map<String, Long> getMeanLatencyMicros();
+
+	Map<String, Long> getP99LatencyMicros();
+
+	double getCacheHitRate();
+
+	long getCacheBytes();
+
+	long getCompactionPendingBytes();
+
+	long getCompactionCount();
+
+	long getLockWaitNanos();
+
+	long getUnsyncedFiles();
+
+	/**
+	 * @return statistics of the store and its backend
+	 */
+	Map<String, Long> getStoreStatistics();
+
+	/**
+	 * Forgets the recorded operations.
+	 */
+	void reset();
+}
@@ -0,0 +1,116 @@
+package de.marx_software.lucene;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.IOContext;
+
+/**
+ * Block sizes by file extension and context.
+ *
+ * <ul>
+ * <li>small blocks for meta data files and files read at random positions,
+ * like doc values, norms and the terms index</li>
+ * <li>bulk blocks for postings, stored fields and vectors, which are written
+ * and mostly read in long runs, larger for files written by merges</li>
+ * <li>the default block size for all other files</li>
+ * </ul>
+ *
+ * Inputs that read a file once or for a merge use a large buffer and bypass
+ * the cache. All other inputs read at random positions, they read blocks of
+ * the file's block size, at most the random access buffer size.
+ *
+ * @author marx
+ */
+public class ExtensionBlockSizePolicy implements BlockSizePolicy {
+
+	public static final int SMALL_BLOCK_SIZE = 4 * 1024;
+
+	public static final int DEFAULT_BLOCK_SIZE = 16 * 1024;
+
+	public static final int BULK_BLOCK_SIZE = 256 * 1024;
+
+	public static final int MERGE_BLOCK_SIZE = 1024 * 1024;
+
+	public static final int SEQUENTIAL_BUFFER_SIZE = 256 * 1024;
+
+	public static final int RANDOM_ACCESS_BUFFER_SIZE = 32 * 1024;
+
+	private static final Set<String> SMALL = new HashSet<>(Arrays.asList(
+			"si", "fnm", "liv", "cfe", "dvm", "dvd", "nvm", "nvd", "tmd", "tip",
+			"kdm", "kdi", "fdm", "fdx", "vem", "vex", "psm"));
+
+	private static final Set<String> BULK = new HashSet<>(Arrays.asList(
+			"doc", "pos", "pay", "fdt", "tvd", "vec"));
+
+	private final int smallBlockSize;
+
+	private final int defaultBlockSize;
+
+	private final int bulkBlockSize;
+
+	private final int mergeBlockSize;
+
+	private final int sequentialBufferSize;
+
+	private final int randomAccessBufferSize;
+
+	public ExtensionBlockSizePolicy() {
+		this(SMALL_BLOCK_SIZE, DEFAULT_BLOCK_SIZE, BULK_BLOCK_SIZE, MERGE_BLOCK_SIZE, SEQUENTIAL_BUFFER_SIZE);
+	}
+
+	public ExtensionBlockSizePolicy(int smallBlockSize, int defaultBlockSize, int bulkBlockSize, int mergeBlockSize, int sequentialBufferSize) {
+		this(smallBlockSize, defaultBlockSize, bulkBlockSize, mergeBlockSize, sequentialBufferSize, RANDOM_ACCESS_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param smallBlockSize block size of meta data and random access files
+	 * @param defaultBlockSize block size of other files
+	 * @param bulkBlockSize block size of bulk files
+	 * @param mergeBlockSize block size of bulk files written by merges
+	 * @param sequentialBufferSize minimum buffer size of read once and merge
+	 * inputs
+	 * @param randomAccessBufferSize maximum buffer size of all other inputs
+	 */
+	public ExtensionBlockSizePolicy(int smallBlockSize, int defaultBlockSize, int bulkBlockSize, int mergeBlockSize, int sequentialBufferSize,
+			int randomAccessBufferSize) {
+		this.smallBlockSize = smallBlockSize;
+		this.defaultBlockSize = defaultBlockSize;
+		this.bulkBlockSize = bulkBlockSize;
+		this.mergeBlockSize = mergeBlockSize;
+		this.sequentialBufferSize = sequentialBufferSize;
+		this.randomAccessBufferSize = randomAccessBufferSize;
+	}
+
+	@Override
+	public int blockSize(String name, IOContext context) {
+		if (name.startsWith(IndexFileNames.SEGMENTS) || name.startsWith(IndexFileNames.PENDING_SEGMENTS)) {
+			return smallBlockSize;
+		}
+		String extension = IndexFileNames.getExtension(name);
+		if (extension == null) {
+			return defaultBlockSize;
+		}
+		if (SMALL.contains(extension)) {
+			return smallBlockSize;
+		}
+		if (BULK.contains(extension)) {
+			return context.context == IOContext.Context.MERGE ? mergeBlockSize : bulkBlockSize;
+		}
+		return defaultBlockSize;
+	}
+
+	@Override
+	public int readBufferSize(String name, int blockSize, IOContext context) {
+		if (context.readOnce || context.context == IOContext.Context.MERGE) {
+			if (blockSize < sequentialBufferSize) {
+				// a multiple of the block size, every read covers whole extents
+				return (sequentialBufferSize + blockSize - 1) / blockSize * blockSize;
+			}
+			return blockSize;
+		}
+		// a lookup reads a part of a large extent
+		return Math.min(blockSize, randomAccessBufferSize);
+	}
+}
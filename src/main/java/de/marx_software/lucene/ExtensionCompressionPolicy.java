@@ -0,0 +1,49 @@
+package de.marx_software.lucene;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.lucene.index.IndexFileNames;
+
+/**
+ * Compression by file extension.
+ *
+ * <ul>
+ * <li>none for stored fields and term vectors, which Lucene compresses with
+ * LZ4 or Deflate, for the bit packed postings, points and doc values, for
+ * the terms index, an FST that hardly compresses, and for vectors</li>
+ * <li>high for the small meta data and index files, which compress well and
+ * are read rarely or cached, and for the terms dictionary, which gains the
+ * most of all files from the stronger compression</li>
+ * <li>fast for all other files, like compound files and norms</li>
+ * </ul>
+ *
+ * @author marx
+ */
+public class ExtensionCompressionPolicy implements CompressionPolicy {
+
+	private static final Set<String> NONE = new HashSet<>(Arrays.asList(
+			"fdt", "tvd", "doc", "pos", "pay", "dvd", "kdd", "vec", "tip"));
+
+	private static final Set<String> HIGH = new HashSet<>(Arrays.asList(
+			"si", "fnm", "liv", "cfe", "fdm", "fdx", "tvm", "tvx", "tmd", "tim",
+			"dvm", "nvm", "kdm", "kdi", "vem", "vex", "psm"));
+
+	@Override
+	public FileCompression compression(String name) {
+		if (name.startsWith(IndexFileNames.SEGMENTS) || name.startsWith(IndexFileNames.PENDING_SEGMENTS)) {
+			return FileCompression.HIGH;
+		}
+		String extension = IndexFileNames.getExtension(name);
+		if (extension == null) {
+			return FileCompression.FAST;
+		}
+		if (NONE.contains(extension)) {
+			return FileCompression.NONE;
+		}
+		if (HIGH.contains(extension)) {
+			return FileCompression.HIGH;
+		}
+		return FileCompression.FAST;
+	}
+}
@@ -0,0 +1,68 @@
+package de.marx_software.lucene;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.IOContext;
+
+/**
+ * Maps the bulk data files of segments, stored fields, postings, doc values,
+ * points, vectors and compound files, of flushes and merges from an
+ * estimated size on. Commit points, the small meta data files and the files
+ * of small segments stay in the store.
+ *
+ * Files written without an estimated size are placed by their extension.
+ *
+ * @author marx
+ */
+public class ExtensionPlacementPolicy implements PlacementPolicy {
+
+	/**
+	 * extensions of the bulk data files
+	 */
+	public static final Set<String> DATA_EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			"fdt", "tvd", "doc", "pos", "pay", "tim", "dvd", "nvd", "kdd", "vec", "cfs")));
+
+	public static final long DEFAULT_MIN_BYTES = 8 * 1024 * 1024;
+
+	private final Set<String> extensions;
+
+	private final long minBytes;
+
+	public ExtensionPlacementPolicy() {
+		this(DATA_EXTENSIONS, DEFAULT_MIN_BYTES);
+	}
+
+	/**
+	 * @param extensions extensions of the mapped files
+	 * @param minBytes estimated size of the flushed or merged segment from
+	 * which its files are mapped
+	 */
+	public ExtensionPlacementPolicy(Set<String> extensions, long minBytes) {
+		if (minBytes < 0) {
+			throw new IllegalArgumentException("minBytes must not be negative: " + minBytes);
+		}
+		this.extensions = new HashSet<>(extensions);
+		this.minBytes = minBytes;
+	}
+
+	@Override
+	public boolean mapped(String name, IOContext context) {
+		if (name.startsWith(IndexFileNames.SEGMENTS) || name.startsWith(IndexFileNames.PENDING_SEGMENTS)) {
+			return false;
+		}
+		String extension = IndexFileNames.getExtension(name);
+		if (extension == null || !extensions.contains(extension)) {
+			return false;
+		}
+		if (context.context == IOContext.Context.FLUSH) {
+			return context.flushInfo.estimatedSegmentSize >= minBytes;
+		}
+		if (context.context == IOContext.Context.MERGE) {
+			return context.mergeInfo.estimatedMergeBytes >= minBytes;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,25 @@
+package de.marx_software.lucene;
+
+/**
+ * How the data of a file is compressed by the store, chosen per file by a
+ * {@link CompressionPolicy} and recorded with the file.
+ *
+ * Stores that compress all data alike ignore it.
+ *
+ * @author marx
+ */
+public enum FileCompression {
+
+	/**
+	 * no compression, for data that Lucene already compressed or packed
+	 */
+	NONE,
+	/**
+	 * the fast default compression of the store
+	 */
+	FAST,
+	/**
+	 * a strong compression for small and compressible files
+	 */
+	HIGH
+}
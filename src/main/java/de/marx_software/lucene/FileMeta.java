@@ -0,0 +1,242 @@
+package de.marx_software.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteArrayDataOutput;
+
+/**
+ * Meta data of a stored file: its id, length and the extent index.
+ *
+ * The data of a file is addressed by its id, not by its name, so a rename
+ * only changes the meta entry.
+ *
+ * A file is stored as a sequence of extents of variable length, one per
+ * flush of the writer. Extent i covers the bytes from
+ * {@link #extentStart(int)} to {@link #extentEnd(int)}, the extent of a
+ * position is found by binary search.
+ *
+ * The legacy layout, an 8 byte length and uniform blocks keyed by
+ * "name_block" compressed with {@link FileCompression#FAST}, is only read to
+ * migrate it, see {@link #isLegacy()}. The current format 5 addresses extents
+ * with binary keys, see {@link BaseDBFileStore#dataKey(long, int)}, and
+ * records the block size the file was written with and the
+ * {@link FileCompression} of the data.
+ *
+ * Instances are immutable.
+ *
+ * @author marx
+ */
+final class FileMeta {
+
+	private static final byte FORMAT_LENGTH = 0;
+
+	private static final byte FORMAT_COMPRESSION = 5;
+
+	private static final FileCompression[] COMPRESSIONS = FileCompression.values();
+
+	/**
+	 * id of legacy files whose data is addressed by name
+	 */
+	static final long NO_FILE_ID = 0;
+
+	private final byte format;
+
+	private final long fileId;
+
+	private final long length;
+
+	/**
+	 * exclusive end offset of each extent, null for uniform blocks
+	 */
+	private final long[] ends;
+
+	private final int extentCount;
+
+	/**
+	 * size of the uniform blocks of the legacy layout, the size of the write
+	 * buffer for the extent layout
+	 */
+	private final int blockSize;
+
+	private final FileCompression compression;
+
+	private FileMeta(byte format, long fileId, long length, long[] ends, int extentCount, int blockSize, FileCompression compression) {
+		this.format = format;
+		this.fileId = fileId;
+		this.length = length;
+		this.ends = ends;
+		this.extentCount = extentCount;
+		this.blockSize = blockSize;
+		this.compression = compression;
+	}
+
+	private FileMeta(long length, int blockSize) {
+		this.format = FORMAT_LENGTH;
+		this.fileId = NO_FILE_ID;
+		this.length = length;
+		this.ends = null;
+		this.extentCount = (int) ((length + blockSize - 1) / blockSize);
+		this.blockSize = blockSize;
+		this.compression = FileCompression.FAST;
+	}
+
+	/**
+	 * @param fileId
+	 * @param blockSize
+	 * @param compression
+	 * @return meta data of an empty file
+	 */
+	static FileMeta empty(long fileId, int blockSize, FileCompression compression) {
+		return new FileMeta(FORMAT_COMPRESSION, fileId, 0, new long[0], 0, blockSize, compression);
+	}
+
+	/**
+	 * @param fileId
+	 * @param extentLengths length of each extent in file order
+	 * @param count number of extents
+	 * @param blockSize size of the write buffer
+	 * @param compression
+	 */
+	static FileMeta of(long fileId, long[] extentLengths, int count, int blockSize, FileCompression compression) {
+		long[] ends = new long[count];
+		long end = 0;
+		for (int i = 0; i < count; i++) {
+			end += extentLengths[i];
+			ends[i] = end;
+		}
+		return new FileMeta(FORMAT_COMPRESSION, fileId, end, ends, count, blockSize, compression);
+	}
+
+	/**
+	 * @return true if the data is stored under string keys of the legacy
+	 * layout
+	 */
+	boolean isLegacy() {
+		return format == FORMAT_LENGTH;
+	}
+
+	/**
+	 * @param name
+	 * @param extent
+	 * @return the string key of an extent in the legacy layout
+	 */
+	String legacyDataKey(String name, int extent) {
+		return name + "_" + extent;
+	}
+
+	/**
+	 * @return the id addressing the data
+	 */
+	long fileId() {
+		return fileId;
+	}
+
+	long length() {
+		return length;
+	}
+
+	/**
+	 * @return the block size readers align to
+	 */
+	int blockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @return the compression of the data
+	 */
+	FileCompression compression() {
+		return compression;
+	}
+
+	int extentCount() {
+		return extentCount;
+	}
+
+	long extentStart(int extent) {
+		return extent == 0 ? 0 : extentEnd(extent - 1);
+	}
+
+	long extentEnd(int extent) {
+		if (ends == null) {
+			return Math.min((long) (extent + 1) * blockSize, length);
+		}
+		return ends[extent];
+	}
+
+	/**
+	 * @param position must be smaller than the length
+	 * @return the extent containing the position
+	 */
+	int extentOf(long position) {
+		if (ends == null) {
+			return (int) (position / blockSize);
+		}
+		// first extent whose end is behind the position
+		int i = Arrays.binarySearch(ends, 0, extentCount, position);
+		return i >= 0 ? i + 1 : -i - 1;
+	}
+
+	/**
+	 * @param extentLength
+	 * @return a copy with one more extent at the end
+	 */
+	FileMeta append(long extentLength) {
+		long[] newEnds = new long[extentCount + 1];
+		for (int i = 0; i < extentCount; i++) {
+			newEnds[i] = extentEnd(i);
+		}
+		newEnds[extentCount] = length + extentLength;
+		return new FileMeta(format, fileId, length + extentLength, newEnds, extentCount + 1, blockSize, compression);
+	}
+
+	byte[] encode() throws IOException {
+		if (isLegacy()) {
+			throw new IllegalStateException("legacy meta data is not written");
+		}
+		byte[] bytes = new byte[1 + 9 + 9 + 5 + 1 + 5 + 9 * extentCount];
+		ByteArrayDataOutput out = new ByteArrayDataOutput(bytes);
+		out.writeByte(FORMAT_COMPRESSION);
+		out.writeVLong(fileId);
+		out.writeVLong(length);
+		out.writeVInt(blockSize);
+		out.writeByte((byte) compression.ordinal());
+		out.writeVInt(extentCount);
+		for (int i = 0; i < extentCount; i++) {
+			out.writeVLong(extentEnd(i) - extentStart(i));
+		}
+		return Arrays.copyOf(bytes, out.getPosition());
+	}
+
+	/**
+	 * @param bytes
+	 * @param blockSize block size of legacy entries
+	 */
+	static FileMeta decode(byte[] bytes, int blockSize) {
+		// the first byte of a legacy entry is the high byte of the length
+		if (bytes.length == 8 && bytes[0] == FORMAT_LENGTH) {
+			return new FileMeta(BaseDBFileStore.readLong(bytes), blockSize);
+		}
+		byte format = bytes[0];
+		if (format != FORMAT_COMPRESSION) {
+			throw new IllegalStateException("unknown meta data format: " + format);
+		}
+		ByteArrayDataInput in = new ByteArrayDataInput(bytes, 1, bytes.length - 1);
+		long fileId = in.readVLong();
+		long length = in.readVLong();
+		int fileBlockSize = in.readVInt();
+		FileCompression compression = COMPRESSIONS[in.readByte()];
+		int count = in.readVInt();
+		long[] ends = new long[count];
+		long end = 0;
+		for (int i = 0; i < count; i++) {
+			end += in.readVLong();
+			ends[i] = end;
+		}
+		if (end != length) {
+			throw new IllegalStateException("extents do not match the length " + length);
+		}
+		return new FileMeta(format, fileId, length, ends, count, fileBlockSize, compression);
+	}
+}
@@ -0,0 +1,278 @@
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.DirectoryMetrics.Operation;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.LockFactory;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * A {@link DBDirectory} that keeps the bulk data files of large segments as
+ * memory mapped files and all other files, above all the commit points, in
+ * the store. The {@link PlacementPolicy} chooses the tier of a new file, a
+ * file stays in its tier until it is deleted.
+ *
+ * Both tiers are seen as one directory. A commit stays crash consistent:
+ * Lucene syncs the files of a commit before it writes the commit point to
+ * the store, the sync of mapped files also syncs the directory entries of
+ * the mapped files, so a commit point never refers to a mapped file that is
+ * lost on a crash.
+ *
+ * Reads of mapped files are not recorded by the metrics and bypass the block
+ * cache.
+ *
+ * @author marx
+ */
+public class HybridDBDirectory extends DBDirectory {
+
+	/**
+	 * directory of the mapped files, closed with this directory
+	 */
+	protected final FSDirectory mappedDirectory;
+
+	protected final PlacementPolicy placementPolicy;
+
+	private final Set<String> mapped = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @param store
+	 * @param lockFactory
+	 * @param blockCache
+	 * @param blockSizePolicy
+	 * @param compactionScheduler
+	 * @param metrics
+	 * @param nrtStore
+	 * @param mappedDirectory holds the mapped files, its lock factory is not
+	 * used
+	 * @param placementPolicy chooses the tier of new files
+	 */
+	protected HybridDBDirectory(DBFileStore store, LockFactory lockFactory, BlockCache blockCache, BlockSizePolicy blockSizePolicy,
+			CompactionScheduler compactionScheduler, DirectoryMetrics metrics, NrtCachingFileStore nrtStore,
+			FSDirectory mappedDirectory, PlacementPolicy placementPolicy) throws IOException {
+		super(store, lockFactory, blockCache, blockSizePolicy, compactionScheduler, metrics, nrtStore);
+		this.mappedDirectory = mappedDirectory;
+		this.placementPolicy = placementPolicy;
+		for (String name : mappedDirectory.listAll()) {
+			mapped.add(name);
+		}
+	}
+
+	/**
+	 * @param name
+	 * @return true if the file is a mapped file
+	 */
+	public boolean isMapped(String name) {
+		return mapped.contains(name);
+	}
+
+	public FSDirectory getMappedDirectory() {
+		return mappedDirectory;
+	}
+
+	@Override
+	public String[] listAll() {
+		ensureOpen();
+		Set<String> names = new TreeSet<>(mapped);
+		for (String name : super.listAll()) {
+			names.add(name);
+		}
+		// sorted like the listing of every Lucene directory
+		return names.toArray(new String[names.size()]);
+	}
+
+	@Override
+	public long fileLength(String name) throws IOException {
+		ensureOpen();
+		if (mapped.contains(name)) {
+			return mappedDirectory.fileLength(name);
+		}
+		return super.fileLength(name);
+	}
+
+	@Override
+	public void deleteFile(String name) throws IOException {
+		ensureOpen();
+		if (mapped.contains(name)) {
+			deleteMapped(name);
+		} else {
+			super.deleteFile(name);
+		}
+	}
+
+	@Override
+	public IndexOutput createOutput(String name, IOContext context) throws IOException {
+		ensureOpen();
+		if (!placementPolicy.mapped(name, context)) {
+			if (mapped.contains(name)) {
+				deleteMapped(name);
+			}
+			return super.createOutput(name, context);
+		}
+		if (mapped.contains(name)) {
+			deleteMapped(name);
+		} else if (stored(name)) {
+			super.deleteFile(name);
+		}
+		long start = System.nanoTime();
+		IndexOutput output = mappedDirectory.createOutput(name, context);
+		mapped.add(name);
+		if (metrics != null) {
+			metrics.record(Operation.CREATE_OUTPUT, name, 0, System.nanoTime() - start);
+		}
+		return output;
+	}
+
+	@Override
+	public IndexOutput createTempOutput(String prefix, String suffix, IOContext context) throws IOException {
+		ensureOpen();
+		// temporary copies of index files, for sorted segments, are named
+		// after the final file by the prefix
+		if (!placementPolicy.mapped(suffix.isEmpty() ? prefix : prefix + "." + suffix, context)) {
+			return super.createTempOutput(prefix, suffix, context);
+		}
+		IndexOutput output = mappedDirectory.createTempOutput(prefix, suffix, context);
+		mapped.add(output.getName());
+		return output;
+	}
+
+	@Override
+	public IndexInput openInput(String name, IOContext context) throws IOException {
+		ensureOpen();
+		if (!mapped.contains(name)) {
+			return super.openInput(name, context);
+		}
+		long start = System.nanoTime();
+		IndexInput input = mappedDirectory.openInput(name, context);
+		if (metrics != null) {
+			metrics.record(Operation.OPEN_INPUT, name, input.length(), System.nanoTime() - start);
+		}
+		return input;
+	}
+
+	/**
+	 * A file keeps its tier, a file of the other tier replaced by it is
+	 * deleted.
+	 */
+	@Override
+	public void rename(String source, String dest) throws IOException {
+		ensureOpen();
+		if (!mapped.contains(source)) {
+			if (mapped.contains(dest)) {
+				deleteMapped(dest);
+			}
+			super.rename(source, dest);
+			return;
+		}
+		if (stored(dest)) {
+			super.deleteFile(dest);
+		}
+		long start = System.nanoTime();
+		mappedDirectory.rename(source, dest);
+		mapped.add(dest);
+		mapped.remove(source);
+		if (metrics != null) {
+			metrics.record(Operation.MOVE, dest, mappedDirectory.fileLength(dest), System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Syncs the directory entries of mapped files too, Lucene syncs the
+	 * meta data only after the commit point is renamed.
+	 */
+	@Override
+	public void sync(Collection<String> names) throws IOException {
+		ensureOpen();
+		List<String> mappedNames = new ArrayList<>();
+		List<String> storedNames = new ArrayList<>();
+		for (String name : names) {
+			(mapped.contains(name) ? mappedNames : storedNames).add(name);
+		}
+		if (!mappedNames.isEmpty()) {
+			mappedDirectory.sync(mappedNames);
+			mappedDirectory.syncMetaData();
+		}
+		if (!storedNames.isEmpty()) {
+			super.sync(storedNames);
+		}
+	}
+
+	@Override
+	public void syncMetaData() throws IOException {
+		mappedDirectory.syncMetaData();
+		super.syncMetaData();
+	}
+
+	/**
+	 * Links the mapped files of the commit into the mapped directory of the
+	 * checkpoint, or copies them if the target is on another file system.
+	 */
+	@Override
+	public void checkpoint(IndexCommit commit, Path target) throws IOException {
+		super.checkpoint(commit, target);
+		Path mappedTarget = Files.createDirectories(target.resolve(DBDirectories.MAPPED_DIRECTORY));
+		for (String name : commit.getFileNames()) {
+			if (mapped.contains(name)) {
+				Path source = mappedDirectory.getDirectory().resolve(name);
+				try {
+					Files.createLink(mappedTarget.resolve(name), source);
+				} catch (IOException | UnsupportedOperationException e) {
+					Files.copy(source, mappedTarget.resolve(name));
+				}
+			}
+		}
+		IOUtils.fsync(mappedTarget, true);
+	}
+
+	/**
+	 * Copied files are placed by the policy like merged files.
+	 */
+	@Override
+	protected boolean storesCopy(String name, IOContext context) {
+		return !placementPolicy.mapped(name, context);
+	}
+
+	@Override
+	public Set<String> getPendingDeletions() throws IOException {
+		return mappedDirectory.getPendingDeletions();
+	}
+
+	@Override
+	public void close() {
+		try {
+			mappedDirectory.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			super.close();
+		}
+	}
+
+	private void deleteMapped(String name) throws IOException {
+		long start = System.nanoTime();
+		long size;
+		try {
+			size = mappedDirectory.fileLength(name);
+		} catch (FileNotFoundException | NoSuchFileException e) {
+			size = 0;
+		}
+		mappedDirectory.deleteFile(name);
+		mapped.remove(name);
+		if (metrics != null) {
+			metrics.record(Operation.REMOVE, name, size, System.nanoTime() - start);
+		}
+	}
+}
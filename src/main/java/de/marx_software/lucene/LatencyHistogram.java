@@ -0,0 +1,74 @@
+package de.marx_software.lucene;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies in power of two buckets of nanoseconds, bucket i counts the
+ * latencies below 2^i ns. Recording is lock free, percentiles are the upper
+ * bound of their bucket and so at most twice the real value.
+ *
+ * @author marx
+ */
+public final class LatencyHistogram {
+
+	/**
+	 * the last bucket holds everything from about 69 seconds on
+	 */
+	static final int BUCKETS = 37;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+	private final LongAdder totalNanos = new LongAdder();
+
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	public void record(long nanos) {
+		long n = Math.max(0, nanos);
+		buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(n))].increment();
+		totalNanos.add(n);
+	}
+
+	/**
+	 * @return a copy of the bucket counts
+	 */
+	public long[] counts() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+		}
+		return counts;
+	}
+
+	public long totalNanos() {
+		return totalNanos.sum();
+	}
+
+	/**
+	 * @param counts bucket counts of {@link #counts()}
+	 * @param quantile between 0 and 1
+	 * @return upper bound of the bucket of the quantile in nanoseconds, 0 if
+	 * nothing was recorded
+	 */
+	public static long percentile(long[] counts, double quantile) {
+		long total = 0;
+		for (long count : counts) {
+			total += count;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return 1L << i;
+			}
+		}
+		return 1L << (counts.length - 1);
+	}
+}
@@ -0,0 +1,37 @@
+package de.marx_software.lucene;
+
+import java.io.IOException;
+
+/**
+ * Transport to a primary in the same JVM.
+ *
+ * @author marx
+ */
+public class LocalReplicationTransport implements ReplicationTransport {
+
+	private final ReplicationPrimary primary;
+
+	public LocalReplicationTransport(ReplicationPrimary primary) {
+		this.primary = primary;
+	}
+
+	@Override
+	public long latestGeneration() {
+		return primary.getGeneration();
+	}
+
+	@Override
+	public ChangeSet changesSince(long generation) {
+		return primary.changesSince(generation);
+	}
+
+	@Override
+	public int read(String name, long position, byte[] buf, int offset, int len) throws IOException {
+		return primary.read(name, position, buf, offset, len);
+	}
+
+	@Override
+	public void release(long generation) throws IOException {
+		primary.release(generation);
+	}
+}
@@ -0,0 +1,121 @@
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.DirectoryMetrics.Operation;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Records the file operations of a {@link DBDirectory} on its store, the
+ * directory and its inputs and outputs work on this view.
+ *
+ * @author marx
+ */
+final class MeteredFileStore implements DBFileStore {
+
+	private final DBFileStore store;
+
+	private final DirectoryMetrics metrics;
+
+	MeteredFileStore(DBFileStore store, DirectoryMetrics metrics) {
+		this.store = store;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void append(String name, byte[] buf, int offset, int len) throws IOException {
+		long start = System.nanoTime();
+		store.append(name, buf, offset, len);
+		metrics.record(Operation.APPEND, name, len, System.nanoTime() - start);
+	}
+
+	@Override
+	public DBFileWriter createWriter(String name, int blockSize) throws IOException {
+		return metrics.meter(name, store.createWriter(name, blockSize));
+	}
+
+	@Override
+	public DBFileWriter createWriter(String name, int blockSize, boolean bulk) throws IOException {
+		return metrics.meter(name, store.createWriter(name, blockSize, bulk));
+	}
+
+	@Override
+	public int load(String name, long position, byte[] buf, int offset, int len) throws IOException {
+		long start = System.nanoTime();
+		int n = store.load(name, position, buf, offset, len);
+		metrics.record(Operation.LOAD, name, Math.max(0, n), System.nanoTime() - start);
+		return n;
+	}
+
+	@Override
+	public void move(String source, String dest) throws IOException {
+		long start = System.nanoTime();
+		store.move(source, dest);
+		metrics.record(Operation.MOVE, dest, Math.max(0, store.getSize(dest)), System.nanoTime() - start);
+	}
+
+	@Override
+	public void remove(String key) throws IOException {
+		long size = store.getSize(key);
+		long start = System.nanoTime();
+		store.remove(key);
+		metrics.record(Operation.REMOVE, key, Math.max(0, size), System.nanoTime() - start);
+	}
+
+	@Override
+	public void clear() throws IOException {
+		store.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		store.close();
+	}
+
+	@Override
+	public boolean contains(String key) throws IOException {
+		return store.contains(key);
+	}
+
+	@Override
+	public long getSize(String key) throws IOException {
+		return store.getSize(key);
+	}
+
+	@Override
+	public int getBlockSize(String name) throws IOException {
+		return store.getBlockSize(name);
+	}
+
+	@Override
+	public Set<String> listKey() {
+		return store.listKey();
+	}
+
+	@Override
+	public void sync() throws IOException {
+		store.sync();
+	}
+
+	@Override
+	public void sync(Collection<String> names) throws IOException {
+		store.sync(names);
+	}
+
+	@Override
+	public void compact() throws IOException {
+		store.compact();
+	}
+
+	@Override
+	public void compactRemoved(DoubleConsumer progress) throws IOException {
+		store.compactRemoved(progress);
+	}
+
+	@Override
+	public Map<String, Long> getStatistics() {
+		return store.getStatistics();
+	}
+}
@@ -0,0 +1,191 @@
+package de.marx_software.lucene;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The metrics of a {@link DBDirectory} at one point in time, see
+ * {@link DBDirectory#getMetrics()}.
+ *
+ * @author marx
+ */
+public final class MetricsSnapshot {
+
+	private final List<OperationSnapshot> operations;
+
+	private final long cacheHits;
+
+	private final long cacheMisses;
+
+	private final long cacheBytes;
+
+	private final long compactionPendingBytes;
+
+	private final long compactions;
+
+	private final Map<String, Long> storeStatistics;
+
+	MetricsSnapshot(List<OperationSnapshot> operations, BlockCache cache, CompactionScheduler compactionScheduler, Map<String, Long> storeStatistics) {
+		this.operations = Collections.unmodifiableList(operations);
+		this.cacheHits = cache != null ? cache.hitCount() : 0;
+		this.cacheMisses = cache != null ? cache.missCount() : 0;
+		this.cacheBytes = cache != null ? cache.sizeInBytes() : 0;
+		this.compactionPendingBytes = compactionScheduler != null ? compactionScheduler.getRemovedBytes() : 0;
+		this.compactions = compactionScheduler != null ? compactionScheduler.getCompactionCount() : 0;
+		this.storeStatistics = Collections.unmodifiableMap(new TreeMap<>(storeStatistics));
+	}
+
+	/**
+	 * @return the statistics of each operation and extension, empty if the
+	 * directory has no metrics
+	 */
+	public List<OperationSnapshot> operations() {
+		return operations;
+	}
+
+	/**
+	 * @param operation
+	 * @return the statistics of the operation over all extensions
+	 */
+	public OperationSnapshot total(DirectoryMetrics.Operation operation) {
+		long count = 0;
+		long bytes = 0;
+		long totalNanos = 0;
+		long[] buckets = new long[LatencyHistogram.BUCKETS];
+		for (OperationSnapshot snapshot : operations) {
+			if (snapshot.operation == operation) {
+				count += snapshot.count;
+				bytes += snapshot.bytes;
+				totalNanos += snapshot.totalNanos;
+				for (int i = 0; i < buckets.length; i++) {
+					buckets[i] += snapshot.buckets[i];
+				}
+			}
+		}
+		return new OperationSnapshot(operation, null, count, bytes, totalNanos, buckets);
+	}
+
+	/**
+	 * @param operation
+	 * @param extension
+	 * @return the statistics of the operation on files with the extension,
+	 * null if there was none
+	 */
+	public OperationSnapshot get(DirectoryMetrics.Operation operation, String extension) {
+		for (OperationSnapshot snapshot : operations) {
+			if (snapshot.operation == operation && snapshot.extension.equals(extension)) {
+				return snapshot;
+			}
+		}
+		return null;
+	}
+
+	public long cacheHits() {
+		return cacheHits;
+	}
+
+	public long cacheMisses() {
+		return cacheMisses;
+	}
+
+	/**
+	 * @return ratio of hits to lookups of the block cache, 0 without lookups
+	 */
+	public double cacheHitRate() {
+		long requests = cacheHits + cacheMisses;
+		return requests == 0 ? 0 : (double) cacheHits / requests;
+	}
+
+	public long cacheBytes() {
+		return cacheBytes;
+	}
+
+	/**
+	 * @return removed bytes waiting for the background compaction
+	 */
+	public long compactionPendingBytes() {
+		return compactionPendingBytes;
+	}
+
+	public long compactions() {
+		return compactions;
+	}
+
+	/**
+	 * @return statistics of the store and its backend by name, see
+	 * {@link DBFileStore#getStatistics()}
+	 */
+	public Map<String, Long> storeStatistics() {
+		return storeStatistics;
+	}
+
+	/**
+	 * Statistics of one operation on the files of one extension.
+	 */
+	public static final class OperationSnapshot {
+
+		private final DirectoryMetrics.Operation operation;
+
+		private final String extension;
+
+		private final long count;
+
+		private final long bytes;
+
+		private final long totalNanos;
+
+		private final long[] buckets;
+
+		OperationSnapshot(DirectoryMetrics.Operation operation, String extension, long count, long bytes, long totalNanos, long[] buckets) {
+			this.operation = operation;
+			this.extension = extension;
+			this.count = count;
+			this.bytes = bytes;
+			this.totalNanos = totalNanos;
+			this.buckets = buckets;
+		}
+
+		public DirectoryMetrics.Operation operation() {
+			return operation;
+		}
+
+		/**
+		 * @return the file extension, null for the total of an operation
+		 */
+		public String extension() {
+			return extension;
+		}
+
+		public long count() {
+			return count;
+		}
+
+		public long bytes() {
+			return bytes;
+		}
+
+		public long totalNanos() {
+			return totalNanos;
+		}
+
+		public long meanNanos() {
+			return count == 0 ? 0 : totalNanos / count;
+		}
+
+		/**
+		 * @param quantile between 0 and 1
+		 * @return the latency of the quantile, rounded up to a power of two
+		 */
+		public long percentileNanos(double quantile) {
+			return LatencyHistogram.percentile(buckets, quantile);
+		}
+
+		@Override
+		public String toString() {
+			return operation + "(" + (extension != null ? extension : "*") + ", count=" + count + ", bytes=" + bytes
+					+ ", mean=" + meanNanos() + "ns, p99=" + percentileNanos(0.99) + "ns)";
+		}
+	}
+}
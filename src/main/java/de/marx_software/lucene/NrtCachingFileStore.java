@@ -0,0 +1,417 @@
+package de.marx_software.lucene;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleConsumer;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.IOContext;
+
+/**
+ * Keeps small new files in memory until they are synced, like Lucene's
+ * NRTCachingDirectory but in front of the store.
+ *
+ * Near real time readers open the files of a flushed segment at once from
+ * memory. A cached file is written to the store by
+ * {@link #sync(Collection)} of its name, by {@link #sync()} or on close. A
+ * cached file that is deleted before, like most small segments that are
+ * merged away, never causes any store I/O.
+ *
+ * Only files written by flushes and merges with an estimated size up to the
+ * maximum file size are cached, commit points never. The cached bytes are
+ * bounded, a file that does not fit on commit is written through to the
+ * store.
+ *
+ * @author marx
+ */
+public class NrtCachingFileStore implements DBFileStore {
+
+	public static final String CACHED_FILES = "nrt.cachedFiles";
+	public static final String CACHED_BYTES = "nrt.cachedBytes";
+	public static final String PERSISTED_FILES = "nrt.persistedFiles";
+	public static final String DROPPED_FILES = "nrt.droppedFiles";
+
+	private final DBFileStore store;
+
+	private final long maxCachedBytes;
+
+	private final long maxFileBytes;
+
+	private final boolean offHeap;
+
+	private final Map<String, CachedFile> cache = new ConcurrentHashMap<>();
+
+	private final AtomicLong cachedBytes = new AtomicLong();
+
+	private final LongAdder persistedFiles = new LongAdder();
+
+	private final LongAdder droppedFiles = new LongAdder();
+
+	/**
+	 * @param store receives the cached files on sync
+	 * @param maxCachedBytes bytes of all cached files at most
+	 * @param maxFileBytes estimated size of a cached file at most
+	 * @param offHeap keep the cached files in direct buffers
+	 */
+	public NrtCachingFileStore(DBFileStore store, long maxCachedBytes, long maxFileBytes, boolean offHeap) {
+		if (maxCachedBytes <= 0) {
+			throw new IllegalArgumentException("maxCachedBytes must be positive: " + maxCachedBytes);
+		}
+		this.store = store;
+		this.maxCachedBytes = maxCachedBytes;
+		this.maxFileBytes = maxFileBytes;
+		this.offHeap = offHeap;
+	}
+
+	/**
+	 * @param name
+	 * @param context the context of the new output
+	 * @return true if the file is to be written by a
+	 * {@link #createCachedWriter(String, int)}
+	 */
+	public boolean caches(String name, IOContext context) {
+		if (name.startsWith(IndexFileNames.SEGMENTS) || name.startsWith(IndexFileNames.PENDING_SEGMENTS)) {
+			return false;
+		}
+		long estimatedBytes;
+		if (context.context == IOContext.Context.FLUSH) {
+			estimatedBytes = context.flushInfo.estimatedSegmentSize;
+		} else if (context.context == IOContext.Context.MERGE) {
+			estimatedBytes = context.mergeInfo.estimatedMergeBytes;
+		} else {
+			return false;
+		}
+		return estimatedBytes <= maxFileBytes && cachedBytes.get() + estimatedBytes <= maxCachedBytes;
+	}
+
+	/**
+	 * @return bytes of the cached files
+	 */
+	public long cachedBytes() {
+		return cachedBytes.get();
+	}
+
+	/**
+	 * @param name
+	 * @return true if the file is only held in memory
+	 */
+	public boolean isCached(String name) {
+		return cache.containsKey(name);
+	}
+
+	/**
+	 * Creates a writer that keeps the file in memory. The file is written to
+	 * the store on commit if the cache is full by then.
+	 */
+	public DBFileWriter createCachedWriter(String name, int blockSize) {
+		return new CachingWriter(name, blockSize);
+	}
+
+	@Override
+	public DBFileWriter createWriter(String name, int blockSize) throws IOException {
+		return store.createWriter(name, blockSize);
+	}
+
+	@Override
+	public DBFileWriter createWriter(String name, int blockSize, boolean bulk) throws IOException {
+		return store.createWriter(name, blockSize, bulk);
+	}
+
+	@Override
+	public void append(String name, byte[] buf, int offset, int len) throws IOException {
+		persist(name);
+		store.append(name, buf, offset, len);
+	}
+
+	@Override
+	public int load(String name, long position, byte[] buf, int offset, int len) throws IOException {
+		CachedFile file = cache.get(name);
+		if (file == null) {
+			return store.load(name, position, buf, offset, len);
+		}
+		return file.load(position, buf, offset, len);
+	}
+
+	@Override
+	public boolean contains(String key) throws IOException {
+		return cache.containsKey(key) || store.contains(key);
+	}
+
+	@Override
+	public long getSize(String key) throws IOException {
+		CachedFile file = cache.get(key);
+		return file != null ? file.meta.length() : store.getSize(key);
+	}
+
+	@Override
+	public int getBlockSize(String name) throws IOException {
+		CachedFile file = cache.get(name);
+		return file != null ? file.meta.blockSize() : store.getBlockSize(name);
+	}
+
+	@Override
+	public Set<String> listKey() {
+		Set<String> names = store.listKey();
+		names.addAll(cache.keySet());
+		return names;
+	}
+
+	/**
+	 * A cached file is dropped without touching the store.
+	 */
+	@Override
+	public synchronized void remove(String key) throws IOException {
+		CachedFile file = cache.remove(key);
+		if (file != null) {
+			cachedBytes.addAndGet(-file.meta.length());
+			droppedFiles.increment();
+		} else {
+			store.remove(key);
+		}
+	}
+
+	/**
+	 * A cached file is renamed in memory, a stored file replaced by it is
+	 * removed from the store.
+	 */
+	@Override
+	public synchronized void move(String source, String dest) throws IOException {
+		CachedFile file = cache.get(source);
+		if (file == null) {
+			CachedFile replaced = cache.remove(dest);
+			if (replaced != null) {
+				cachedBytes.addAndGet(-replaced.meta.length());
+			}
+			store.move(source, dest);
+			return;
+		}
+		if (source.equals(dest)) {
+			return;
+		}
+		if (store.contains(dest)) {
+			store.remove(dest);
+		}
+		CachedFile replaced = cache.put(dest, file);
+		if (replaced != null) {
+			cachedBytes.addAndGet(-replaced.meta.length());
+		}
+		cache.remove(source);
+	}
+
+	@Override
+	public synchronized void clear() throws IOException {
+		cache.clear();
+		cachedBytes.set(0);
+		store.clear();
+	}
+
+	/**
+	 * Writes the cached files to the store first, IndexWriter syncs all files
+	 * it needs, this only keeps files of a writer that was not closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			persistAll();
+		} finally {
+			store.close();
+		}
+	}
+
+	@Override
+	public void sync() throws IOException {
+		persistAll();
+		store.sync();
+	}
+
+	@Override
+	public void sync(Collection<String> names) throws IOException {
+		for (String name : names) {
+			persist(name);
+		}
+		store.sync(names);
+	}
+
+	@Override
+	public void compact() throws IOException {
+		store.compact();
+	}
+
+	@Override
+	public void compactRemoved(DoubleConsumer progress) throws IOException {
+		store.compactRemoved(progress);
+	}
+
+	@Override
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> statistics = new HashMap<>(store.getStatistics());
+		statistics.put(CACHED_FILES, (long) cache.size());
+		statistics.put(CACHED_BYTES, cachedBytes.get());
+		statistics.put(PERSISTED_FILES, persistedFiles.sum());
+		statistics.put(DROPPED_FILES, droppedFiles.sum());
+		return statistics;
+	}
+
+	private void persistAll() throws IOException {
+		for (String name : new ArrayList<>(cache.keySet())) {
+			persist(name);
+		}
+	}
+
+	/**
+	 * Writes a cached file to the store. Readers find it in the cache until
+	 * the store has committed it. The file is written outside the lock of the
+	 * cache, a file removed, renamed or replaced meanwhile is removed from the
+	 * store again.
+	 */
+	private void persist(String name) throws IOException {
+		CachedFile file = cache.get(name);
+		if (file == null) {
+			return;
+		}
+		// one writer per cached file
+		synchronized (file) {
+			if (cache.get(name) != file) {
+				return;
+			}
+			write(name, file.meta, file.extents);
+			synchronized (this) {
+				if (cache.get(name) == file) {
+					cache.remove(name);
+					cachedBytes.addAndGet(-file.meta.length());
+					persistedFiles.increment();
+				} else {
+					store.remove(name);
+				}
+			}
+		}
+	}
+
+	private void write(String name, FileMeta meta, ByteBuffer[] extents) throws IOException {
+		DBFileWriter writer = store.createWriter(name, meta.blockSize());
+		try {
+			for (ByteBuffer extent : extents) {
+				if (extent.hasArray()) {
+					writer.append(extent.array(), extent.arrayOffset(), extent.remaining());
+				} else {
+					byte[] bytes = new byte[extent.remaining()];
+					extent.duplicate().get(bytes);
+					writer.append(bytes, 0, bytes.length);
+				}
+			}
+			writer.commit();
+		} catch (IOException | RuntimeException e) {
+			DBFileWriter.abort(writer, e);
+			throw e;
+		}
+	}
+
+	private static final class CachedFile {
+
+		final FileMeta meta;
+
+		final ByteBuffer[] extents;
+
+		CachedFile(FileMeta meta, ByteBuffer[] extents) {
+			this.meta = meta;
+			this.extents = extents;
+		}
+
+		int load(long position, byte[] buf, int offset, int len) {
+			if (position >= meta.length()) {
+				return -1;
+			}
+			long p = position;
+			int f = offset;
+			int n = len;
+			int i = meta.extentOf(p);
+			while (n > 0 && p < meta.length()) {
+				int m = (int) (p - meta.extentStart(i));
+				int r = (int) Math.min(meta.extentEnd(i) - p, n);
+				ByteBuffer extent = extents[i].duplicate();
+				extent.position(m);
+				extent.get(buf, f, r);
+				p += r;
+				f += r;
+				n -= r;
+				i++;
+			}
+			return (int) (p - position);
+		}
+	}
+
+	/**
+	 * Collects the appended extents, the file becomes visible in the cache on
+	 * commit.
+	 */
+	private final class CachingWriter implements DBFileWriter {
+
+		private final String name;
+
+		private final int blockSize;
+
+		private final List<ByteBuffer> extents = new ArrayList<>();
+
+		private long[] extentLengths = new long[16];
+
+		private long length;
+
+		CachingWriter(String name, int blockSize) {
+			this.name = name;
+			this.blockSize = blockSize;
+		}
+
+		@Override
+		public void append(byte[] buf, int offset, int len) {
+			if (len == 0) {
+				return;
+			}
+			ByteBuffer extent;
+			if (offHeap) {
+				extent = ByteBuffer.allocateDirect(len);
+				extent.put(buf, offset, len).flip();
+			} else {
+				extent = ByteBuffer.wrap(Arrays.copyOfRange(buf, offset, offset + len));
+			}
+			if (extents.size() == extentLengths.length) {
+				extentLengths = Arrays.copyOf(extentLengths, extents.size() * 2);
+			}
+			extentLengths[extents.size()] = len;
+			extents.add(extent);
+			length += len;
+		}
+
+		@Override
+		public void commit() throws IOException {
+			FileMeta meta = FileMeta.of(FileMeta.NO_FILE_ID, extentLengths, extents.size(), blockSize, FileCompression.NONE);
+			ByteBuffer[] data = extents.toArray(new ByteBuffer[0]);
+			synchronized (NrtCachingFileStore.this) {
+				if (cachedBytes.get() + length <= maxCachedBytes) {
+					cachedBytes.addAndGet(length);
+					CachedFile replaced = cache.put(name, new CachedFile(meta, data));
+					if (replaced != null) {
+						cachedBytes.addAndGet(-replaced.meta.length());
+					}
+					return;
+				}
+			}
+			// the cache filled up while the file was written
+			write(name, meta, data);
+			persistedFiles.increment();
+		}
+
+		@Override
+		public void abort() {
+			extents.clear();
+		}
+	}
+}
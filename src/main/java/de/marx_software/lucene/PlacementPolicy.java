@@ -0,0 +1,20 @@
+package de.marx_software.lucene;
+
+import org.apache.lucene.store.IOContext;
+
+/**
+ * Chooses the tier of new files in a {@link HybridDBDirectory}: the store or
+ * the memory mapped files.
+ *
+ * @author marx
+ */
+public interface PlacementPolicy {
+
+	/**
+	 * @param name the file name
+	 * @param context the context of the output, with the estimated size of
+	 * flushes and merges
+	 * @return true if the new file is a memory mapped file
+	 */
+	boolean mapped(String name, IOContext context);
+}
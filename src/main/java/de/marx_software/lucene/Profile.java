@@ -0,0 +1,37 @@
+package de.marx_software.lucene;
+
+/**
+ * Named tunings of a directory and its store. Every backend maps a profile to
+ * values of its own knobs, see {@link DirectoryConfig#builder(Profile)} and
+ * the configs of the stores.
+ *
+ * @author marx
+ */
+public enum Profile {
+
+	/**
+	 * The defaults of the backends, as used by the plain factory methods.
+	 */
+	DEFAULT,
+	/**
+	 * Searches dominate: large caches and bloom filters, so reads are served
+	 * from memory and point lookups skip tables that do not hold the key.
+	 */
+	READ_HEAVY,
+	/**
+	 * Frequent small commits next to searches: larger and more write buffers
+	 * and more background jobs, so flushes and compactions keep up.
+	 */
+	WRITE_HEAVY,
+	/**
+	 * Building an index from scratch: very large write buffers, large blocks
+	 * and a cheap compression, little memory spent on read caches. RocksDB
+	 * opens in its bulk load mode.
+	 */
+	BULK_LOAD,
+	/**
+	 * Small heaps and embedded use: small caches and buffers, one background
+	 * job.
+	 */
+	LOW_MEMORY
+}
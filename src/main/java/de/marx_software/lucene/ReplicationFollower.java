@@ -0,0 +1,196 @@
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.ChangeSet.FileInfo;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MergeInfo;
+
+/**
+ * Keeps a {@link DBDirectory} a read only copy of the index of a
+ * {@link ReplicationPrimary}.
+ *
+ * An update streams the files the follower is missing block by block into
+ * its store, in bulk and with the block size of the primary, then publishes
+ * the commit point like Lucene: written as pending_segments_N, synced and
+ * renamed to segments_N. A crash before the rename leaves the last
+ * generation intact. The files of the previous generation are kept for
+ * readers that are not reopened yet, older ones are deleted.
+ *
+ * @author marx
+ */
+public class ReplicationFollower {
+
+	public static final String GENERATION = "replication.generation";
+	public static final String LAG_GENERATIONS = "replication.lagGenerations";
+	public static final String LAG_MILLIS = "replication.lagMillis";
+	public static final String UPDATES = "replication.updates";
+	public static final String FILES = "replication.files";
+	public static final String BYTES = "replication.bytes";
+
+	private final DBDirectory directory;
+
+	private final ReplicationTransport transport;
+
+	private volatile long generation;
+
+	/**
+	 * time from the publication of the last applied generation until it was
+	 * applied
+	 */
+	private volatile long lagMillis;
+
+	private Set<String> previousFiles = Collections.emptySet();
+
+	private final LongAdder updates = new LongAdder();
+
+	private final LongAdder files = new LongAdder();
+
+	private final LongAdder bytes = new LongAdder();
+
+	/**
+	 * @param directory the copy, no IndexWriter may be open on it
+	 * @param transport
+	 */
+	public ReplicationFollower(DBDirectory directory, ReplicationTransport transport) throws IOException {
+		this.directory = directory;
+		this.transport = transport;
+		this.generation = SegmentInfos.getLastCommitGeneration(directory.listAll());
+	}
+
+	/**
+	 * @return the generation of the copy, -1 if it has none
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Brings the copy to the latest generation of the primary.
+	 *
+	 * @return bytes streamed, 0 if the copy is up to date
+	 */
+	public synchronized long update() throws IOException {
+		ChangeSet changes = transport.changesSince(generation);
+		if (changes == null) {
+			return 0;
+		}
+		try {
+			return apply(changes);
+		} finally {
+			transport.release(changes.generation());
+		}
+	}
+
+	private long apply(ChangeSet changes) throws IOException {
+		Set<String> existing = new HashSet<>(Arrays.asList(directory.listAll()));
+		FileInfo segments = null;
+		List<String> written = new ArrayList<>();
+		long copied = 0;
+		for (FileInfo file : changes.changed()) {
+			if (file.name().equals(changes.segmentsFileName())) {
+				segments = file;
+				continue;
+			}
+			if (existing.contains(file.name())) {
+				// a recreated index reuses names and may reuse lengths
+				if (file.isSameFile(directory.fileLength(file.name()), directory.footerChecksum(file.name()))) {
+					continue;
+				}
+				directory.deleteFile(file.name());
+			}
+			copy(file, file.name());
+			written.add(file.name());
+			copied += file.length();
+		}
+		directory.sync(written);
+
+		if (segments != null) {
+			String pending = IndexFileNames.fileNameFromGeneration(IndexFileNames.PENDING_SEGMENTS, "", changes.generation());
+			if (existing.contains(pending)) {
+				directory.deleteFile(pending);
+			}
+			copy(segments, pending);
+			directory.sync(Collections.singleton(pending));
+			directory.rename(pending, segments.name());
+			directory.syncMetaData();
+			copied += segments.length();
+			written.add(segments.name());
+		}
+
+		Set<String> current = new HashSet<>();
+		for (FileInfo file : changes.files()) {
+			current.add(file.name());
+		}
+		for (String name : directory.listAll()) {
+			if (!current.contains(name) && !previousFiles.contains(name)) {
+				directory.deleteFile(name);
+			}
+		}
+		previousFiles = current;
+		generation = changes.generation();
+		lagMillis = Math.max(0, System.currentTimeMillis() - changes.publishedMillis());
+		updates.increment();
+		files.add(written.size());
+		bytes.add(copied);
+		return copied;
+	}
+
+	/**
+	 * Streams the file into the store, or through an output if the
+	 * directory does not keep copies in its store.
+	 */
+	private void copy(FileInfo file, String name) throws IOException {
+		IOContext context = new IOContext(new MergeInfo(-1, file.length(), false, -1));
+		byte[] block = new byte[file.blockSize()];
+		if (directory.storesCopy(name, context)) {
+			DBFileWriter writer = directory.createCopyWriter(name, file.blockSize());
+			try {
+				for (long position = 0; position < file.length();) {
+					int n = transport.read(file.name(), position, block, 0, (int) Math.min(block.length, file.length() - position));
+					writer.append(block, 0, n);
+					position += n;
+				}
+				writer.commit();
+			} catch (IOException | RuntimeException e) {
+				DBFileWriter.abort(writer, e);
+				throw e;
+			}
+		} else {
+			try (IndexOutput output = directory.createOutput(name, context)) {
+				for (long position = 0; position < file.length();) {
+					int n = transport.read(file.name(), position, block, 0, (int) Math.min(block.length, file.length() - position));
+					output.writeBytes(block, 0, n);
+					position += n;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the generation, the lag behind the primary and the files and
+	 * bytes streamed so far
+	 */
+	public Map<String, Long> getStatistics() throws IOException {
+		Map<String, Long> statistics = new HashMap<>();
+		long current = generation;
+		statistics.put(GENERATION, current);
+		statistics.put(LAG_GENERATIONS, Math.max(0, transport.latestGeneration() - Math.max(0, current)));
+		statistics.put(LAG_MILLIS, lagMillis);
+		statistics.put(UPDATES, updates.sum());
+		statistics.put(FILES, files.sum());
+		statistics.put(BYTES, bytes.sum());
+		return statistics;
+	}
+}
@@ -0,0 +1,230 @@
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.ChangeSet.FileInfo;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Publishes the commits of the IndexWriter of a {@link DBDirectory} to
+ * {@link ReplicationFollower}s.
+ *
+ * Every published generation is logged with the names, lengths and footer
+ * checksums of its files. Lucene files are written once, so the files a follower is missing
+ * are the files of the latest generation that are not in the generation of
+ * the follower. A follower of a generation that is not logged, after a
+ * restart of the primary for example, gets all files and skips those it
+ * already has.
+ *
+ * The latest generation stays pinned by the {@link SnapshotDeletionPolicy}
+ * of the writer, older ones as long as a follower is streaming them.
+ *
+ * @author marx
+ */
+public class ReplicationPrimary implements Closeable {
+
+	/**
+	 * generations kept in the log at most
+	 */
+	private static final int MAX_LOGGED_GENERATIONS = 1024;
+
+	private final DBDirectory directory;
+
+	private final SnapshotDeletionPolicy snapshots;
+
+	/**
+	 * files by name of the logged generations
+	 */
+	private final NavigableMap<Long, Map<String, FileInfo>> log = new TreeMap<>();
+
+	/**
+	 * the pinned generations
+	 */
+	private final Map<Long, Published> published = new HashMap<>();
+
+	private volatile Published latest;
+
+	/**
+	 * inputs of the mapped files read by the streaming followers
+	 */
+	private final Map<String, IndexInput> inputs = new HashMap<>();
+
+	/**
+	 * @param directory
+	 * @param snapshots the deletion policy of the IndexWriter
+	 */
+	public ReplicationPrimary(DBDirectory directory, SnapshotDeletionPolicy snapshots) {
+		this.directory = directory;
+		this.snapshots = snapshots;
+	}
+
+	/**
+	 * Publishes the last commit of the IndexWriter.
+	 *
+	 * @return the generation of the commit
+	 * @throws IllegalStateException if the writer has not committed yet
+	 */
+	public synchronized long publish() throws IOException {
+		IndexCommit commit = snapshots.snapshot();
+		long generation = commit.getGeneration();
+		if (latest != null && latest.generation == generation) {
+			snapshots.release(commit);
+			return generation;
+		}
+		Map<String, FileInfo> files = new LinkedHashMap<>();
+		for (String name : commit.getFileNames()) {
+			int blockSize = directory.getStore().getBlockSize(name);
+			files.put(name, new FileInfo(name, directory.fileLength(name), blockSize > 0 ? blockSize : DBFileStore.DEFAULT_BLOCK_SIZE,
+					directory.footerChecksum(name)));
+		}
+		log.put(generation, files);
+		while (log.size() > MAX_LOGGED_GENERATIONS) {
+			log.pollFirstEntry();
+		}
+		Published previous = latest;
+		latest = new Published(commit, files, System.currentTimeMillis());
+		published.put(generation, latest);
+		if (previous != null) {
+			unpin(previous);
+		}
+		return generation;
+	}
+
+	/**
+	 * @return the latest published generation, -1 if none
+	 */
+	public long getGeneration() {
+		Published current = latest;
+		return current != null ? current.generation : -1;
+	}
+
+	/**
+	 * @see ReplicationTransport#changesSince(long)
+	 */
+	public synchronized ChangeSet changesSince(long generation) {
+		Published current = latest;
+		if (current == null || current.generation <= generation) {
+			return null;
+		}
+		Map<String, FileInfo> known = log.getOrDefault(generation, Collections.<String, FileInfo>emptyMap());
+		List<FileInfo> changed = new ArrayList<>();
+		for (FileInfo file : current.files.values()) {
+			FileInfo old = known.get(file.name());
+			if (old == null || !old.isSameFile(file.length(), file.checksum())) {
+				changed.add(file);
+			}
+		}
+		current.followers++;
+		return new ChangeSet(current.generation, current.commit.getSegmentsFileName(), current.publishedMillis,
+				new ArrayList<>(current.files.values()), changed);
+	}
+
+	/**
+	 * Reads from the store, mapped files of a hybrid directory through an
+	 * input that stays open until no follower is streaming.
+	 *
+	 * @see ReplicationTransport#read(String, long, byte[], int, int)
+	 */
+	public int read(String name, long position, byte[] buf, int offset, int len) throws IOException {
+		DBFileStore store = directory.getStore();
+		if (store.contains(name)) {
+			return store.load(name, position, buf, offset, len);
+		}
+		IndexInput input = input(name);
+		synchronized (input) {
+			int n = (int) Math.min(len, input.length() - position);
+			input.seek(position);
+			input.readBytes(buf, offset, n);
+			return n;
+		}
+	}
+
+	private synchronized IndexInput input(String name) throws IOException {
+		IndexInput input = inputs.get(name);
+		if (input == null) {
+			input = directory.openInput(name, IOContext.READONCE);
+			inputs.put(name, input);
+		}
+		return input;
+	}
+
+	/**
+	 * @see ReplicationTransport#release(long)
+	 */
+	public synchronized void release(long generation) throws IOException {
+		Published released = published.get(generation);
+		if (released != null) {
+			released.followers--;
+			if (released != latest) {
+				unpin(released);
+			}
+		}
+		if (published.values().stream().allMatch(pinned -> pinned.followers == 0)) {
+			closeInputs();
+		}
+	}
+
+	private void closeInputs() throws IOException {
+		try {
+			IOUtils.close(inputs.values());
+		} finally {
+			inputs.clear();
+		}
+	}
+
+	private void unpin(Published generation) throws IOException {
+		if (generation.followers == 0) {
+			published.remove(generation.generation);
+			snapshots.release(generation.commit);
+		}
+	}
+
+	/**
+	 * Releases all pinned generations, the IndexWriter may delete their
+	 * files with its next commit.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		closeInputs();
+		for (Published generation : published.values()) {
+			snapshots.release(generation.commit);
+		}
+		published.clear();
+		latest = null;
+	}
+
+	private static final class Published {
+
+		final IndexCommit commit;
+
+		final long generation;
+
+		final Map<String, FileInfo> files;
+
+		final long publishedMillis;
+
+		/**
+		 * followers streaming this generation
+		 */
+		int followers;
+
+		Published(IndexCommit commit, Map<String, FileInfo> files, long publishedMillis) {
+			this.commit = commit;
+			this.generation = commit.getGeneration();
+			this.files = files;
+			this.publishedMillis = publishedMillis;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package de.marx_software.lucene;
+
+import java.io.IOException;
+
+/**
+ * Connects a {@link ReplicationFollower} to a {@link ReplicationPrimary}.
+ *
+ * @author marx
+ */
+public interface ReplicationTransport {
+
+	/**
+	 * @return the latest published generation of the primary, -1 if none
+	 */
+	long latestGeneration() throws IOException;
+
+	/**
+	 * The files of the returned generation stay readable until it is
+	 * released.
+	 *
+	 * @param generation the generation of the follower, -1 if it has none
+	 * @return the latest generation and the files changed since the given
+	 * one, null if there is no newer generation
+	 */
+	ChangeSet changesSince(long generation) throws IOException;
+
+	/**
+	 * Reads up to len bytes of a file of an unreleased generation.
+	 *
+	 * @return the number of bytes read
+	 */
+	int read(String name, long position, byte[] buf, int offset, int len) throws IOException;
+
+	/**
+	 * @param generation a generation returned by
+	 * {@link #changesSince(long)}
+	 */
+	void release(long generation) throws IOException;
+}
@@ -0,0 +1,46 @@
+package de.marx_software.lucene;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event of a directory operation slower than the threshold of its
+ * {@link DirectoryMetrics}. Only committed if a recording enables it.
+ *
+ * @author marx
+ */
+@Name("de.marx_software.lucene.SlowOperation")
+@Label("Slow Directory Operation")
+@Category({"Lucene", "DBDirectory"})
+@Description("A DBDirectory operation that exceeded the slow operation threshold")
+final class SlowOperationEvent extends jdk.jfr.Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("File")
+	String file;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	@Label("Latency")
+	@Timespan(Timespan.NANOSECONDS)
+	long latency;
+
+	static void emit(DirectoryMetrics.Operation operation, String file, long bytes, long nanos) {
+		SlowOperationEvent event = new SlowOperationEvent();
+		if (event.isEnabled()) {
+			event.operation = operation.name();
+			event.file = file;
+			event.bytes = bytes;
+			event.latency = nanos;
+			event.commit();
+		}
+	}
+}
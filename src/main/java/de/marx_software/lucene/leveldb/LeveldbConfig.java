@@ -0,0 +1,155 @@
+package de.marx_software.lucene.leveldb;
+
+import de.marx_software.lucene.Profile;
+import org.iq80.leveldb.CompressionType;
+
+/**
+ * Tuning of a {@link LeveldbFileStore}. The defaults are the ones of leveldb
+ * with snappy compression.
+ *
+ * @author marx
+ */
+public final class LeveldbConfig {
+
+    public static final LeveldbConfig DEFAULT = builder().build();
+
+    private final long cacheSize;
+    private final int writeBufferSize;
+    private final int blockSize;
+    private final int maxOpenFiles;
+    private final CompressionType compression;
+
+    private LeveldbConfig(Builder builder) {
+        this.cacheSize = builder.cacheSize;
+        this.writeBufferSize = builder.writeBufferSize;
+        this.blockSize = builder.blockSize;
+        this.maxOpenFiles = builder.maxOpenFiles;
+        this.compression = builder.compression;
+    }
+
+    /**
+     * @return size of the cache of uncompressed table blocks of the data db
+     */
+    public long cacheSize() {
+        return cacheSize;
+    }
+
+    public int writeBufferSize() {
+        return writeBufferSize;
+    }
+
+    /**
+     * @return size of the table blocks, not to be confused with the block
+     * size of the lucene files
+     */
+    public int blockSize() {
+        return blockSize;
+    }
+
+    public int maxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    public CompressionType compression() {
+        return compression;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param profile
+     * @return a builder initialized with the values of the profile
+     */
+    public static Builder builder(Profile profile) {
+        Builder builder = new Builder();
+        switch (profile) {
+            case READ_HEAVY:
+                builder.cacheSize(256 * 1024 * 1024)
+                        .blockSize(16 * 1024);
+                break;
+            case WRITE_HEAVY:
+                builder.writeBufferSize(64 * 1024 * 1024);
+                break;
+            case BULK_LOAD:
+                builder.writeBufferSize(128 * 1024 * 1024)
+                        .blockSize(64 * 1024);
+                break;
+            case LOW_MEMORY:
+                builder.cacheSize(1024 * 1024)
+                        .writeBufferSize(1024 * 1024)
+                        .maxOpenFiles(100);
+                break;
+            default:
+                break;
+        }
+        return builder;
+    }
+
+    public static LeveldbConfig of(Profile profile) {
+        return builder(profile).build();
+    }
+
+    public static final class Builder {
+
+        private long cacheSize = 8 * 1024 * 1024;
+        private int writeBufferSize = 4 * 1024 * 1024;
+        private int blockSize = 4 * 1024;
+        private int maxOpenFiles = 1000;
+        private CompressionType compression = CompressionType.SNAPPY;
+
+        private Builder() {
+        }
+
+        /**
+         * @param cacheSize size of the table block cache in bytes
+         */
+        public Builder cacheSize(long cacheSize) {
+            if (cacheSize < 0) {
+                throw new IllegalArgumentException("cacheSize must not be negative: " + cacheSize);
+            }
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        /**
+         * @param writeBufferSize size of the memtable in bytes
+         */
+        public Builder writeBufferSize(int writeBufferSize) {
+            if (writeBufferSize <= 0) {
+                throw new IllegalArgumentException("writeBufferSize must be positive: " + writeBufferSize);
+            }
+            this.writeBufferSize = writeBufferSize;
+            return this;
+        }
+
+        public Builder blockSize(int blockSize) {
+            if (blockSize <= 0) {
+                throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+            }
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        public Builder maxOpenFiles(int maxOpenFiles) {
+            if (maxOpenFiles <= 0) {
+                throw new IllegalArgumentException("maxOpenFiles must be positive: " + maxOpenFiles);
+            }
+            this.maxOpenFiles = maxOpenFiles;
+            return this;
+        }
+
+        public Builder compression(CompressionType compression) {
+            if (compression == null) {
+                throw new IllegalArgumentException("compression must not be null");
+            }
+            this.compression = compression;
+            return this;
+        }
+
+        public LeveldbConfig build() {
+            return new LeveldbConfig(this);
+        }
+    }
+}
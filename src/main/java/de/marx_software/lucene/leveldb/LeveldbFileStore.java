@@ -2,19 +2,24 @@ package de.marx_software.lucene.leveldb;
 
 import de.marx_software.lucene.BaseDBFileStore;
 import de.marx_software.lucene.DBFileStore;
+import de.marx_software.lucene.FileCompression;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBIterator;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
 import org.iq80.leveldb.impl.Iq80DBFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.iq80.leveldb.CompressionType;
 
 /**
@@ -22,17 +27,37 @@ import org.iq80.leveldb.CompressionType;
  */
 public class LeveldbFileStore extends BaseDBFileStore {
 
-    private static final int BLOCK_SIZE = 10 * 1024;
-
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
-
     private final DB metaDb;
     private final DB dataDb;
 
+    /**
+     * cache of the meta db, the meta data of all files is held in memory
+     */
+    private static final long META_CACHE_SIZE = 1024 * 1024;
+
+    private static final byte[] SYNC_KEY = new byte[0];
+
+    private static final WriteOptions SYNC = new WriteOptions().sync(true);
+
+    private final LeveldbConfig config;
+
     public LeveldbFileStore(Path path) throws IOException {
+        this(path, LeveldbConfig.DEFAULT);
+    }
+
+    public LeveldbFileStore(Path path, LeveldbConfig config) throws IOException {
+        this.config = config;
         Options options = new Options();
         options.createIfMissing(true);
-		options.compressionType(CompressionType.SNAPPY);
+		options.compressionType(config.compression());
+        options.cacheSize(config.cacheSize());
+        options.writeBufferSize(config.writeBufferSize());
+        options.blockSize(config.blockSize());
+        options.maxOpenFiles(config.maxOpenFiles());
+        Options metaOptions = new Options();
+        metaOptions.createIfMissing(true);
+        metaOptions.compressionType(config.compression());
+        metaOptions.cacheSize(Math.min(config.cacheSize(), META_CACHE_SIZE));
         File meta = new File(path.toFile(), "_meta");
         File data = new File(path.toFile(), "_data");
         if (!meta.exists()) {
@@ -41,139 +66,49 @@ public class LeveldbFileStore extends BaseDBFileStore {
         if (!data.exists()) {
             data.mkdirs();
         }
-        metaDb = Iq80DBFactory.factory.open(meta, options);
+        metaDb = Iq80DBFactory.factory.open(meta, metaOptions);
         dataDb = Iq80DBFactory.factory.open(data, options);
+        open();
     }
 
-
+    /**
+     * The meta and data databases have no common snapshot, a checkpoint
+     * copies the files of a pinned commit into a new store.
+     */
 	@Override
-    public boolean contains(String key) {
-        lock.readLock().lock();
-        try {
-            byte[] key0 = key.getBytes();
-            byte[] bytes = metaDb.get(key0);
-            return bytes != null;
-        } finally {
-            lock.readLock().unlock();
-        }
+    protected DBFileStore openCheckpoint(Path path) throws IOException {
+        return new LeveldbFileStore(path, config);
     }
 
-
-	@Override
-    public int load(String name, long position, byte[] buf, int offset, int len) {
-
-
-        lock.readLock().lock();
-        try {
-            long size = getSize(name);
-
-            if (position >= size) {
-                return -1;
-            }
-
-            if (buf.length < offset + len) {
-                throw new IllegalArgumentException("len is too long");
-            }
-
-            long p = position;
-            int f = offset;
-            int n = len;
-
-            while (true) {
-                int m = (int) (p % (long) BLOCK_SIZE);
-                int r = Math.min(BLOCK_SIZE - m, n);
-                int i = (int) (p / (long) BLOCK_SIZE);
-
-
-                byte[] bb = dataDb.get((name + "_" + i).getBytes());
-
-                System.arraycopy(bb, m, buf, f, r);
-
-                p += r;
-                f += r;
-                n -= r;
-
-                if (n == 0 || p >= size) {
-                    break;
-                }
-            }
-
-            return (int) (p - position);
-
-        } finally {
-            lock.readLock().unlock();
-        }
+    private static byte[] metaKey(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
     }
 
-    /**
-     * @param key
-     * @return not exist return -1
-     */
+
 	@Override
-    public long getSize(String key) {
-        lock.readLock().lock();
-        try {
-            byte[] key0 = key.getBytes();
-            byte[] bytes = metaDb.get(key0);
-            if (bytes != null) {
-                return readLong(bytes);
-            }
-        } finally {
-            lock.readLock().unlock();
-        }
-        return -1;
+    protected byte[] getMeta(String name) {
+        return metaDb.get(metaKey(name));
     }
 
-
 	@Override
-    public void remove(String key) {
-        lock.writeLock().lock();
-        try {
-            byte[] key0 = key.getBytes();
-            long size = getSize(key);
-
-            if (size == -1) {
-                return;
-            }
-            int n = (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
-            for (int i = 0; i < n; i++) {
-                dataDb.delete((key + "_" + i).getBytes());
-            }
-            metaDb.delete(key0);
-
-        } finally {
-            lock.writeLock().unlock();
-        }
+    protected byte[] getData(long fileId, int extent, FileCompression compression) {
+        return dataDb.get(dataKey(fileId, extent));
     }
 
-
 	@Override
-    public void clear() {
-
-        lock.writeLock().lock();
-        try {
-            Set<String> keySet = listKey();
-            for (String key : keySet) {
-                remove(key);
-            }
-        } finally {
-            lock.writeLock().unlock();
-        }
+    protected byte[] getLegacyData(String key) {
+        return dataDb.get(key.getBytes());
     }
 
 	@Override
-    public Set<String> listKey() {
+    protected Set<String> listMetaKeys() throws IOException {
         Set<String> keys = new HashSet<>();
-        lock.readLock().lock();
-        try {
-            DBIterator iterator = metaDb.iterator();
+        try (DBIterator iterator = metaDb.iterator()) {
             iterator.seekToFirst();
             while (iterator.hasNext()) {
                 Map.Entry<byte[], byte[]> entry = iterator.next();
-                keys.add(new String(entry.getKey()).intern());
+                keys.add(new String(entry.getKey(), StandardCharsets.UTF_8).intern());
             }
-        } finally {
-            lock.readLock().unlock();
         }
 
         return keys;
@@ -181,73 +116,90 @@ public class LeveldbFileStore extends BaseDBFileStore {
 
 
 	@Override
-    public void append(String name, byte[] buf, int offset, int len) {
-
-
-        lock.writeLock().lock();
-        try {
-
-            long size = getSize(name);
-            if (size == -1) {
-                size = 0;
-            }
-
-            int f = offset;
-            int n = len;
-
-            while (true) {
-
-                int m = (int) (size % (long) BLOCK_SIZE);
-                int r = Math.min(BLOCK_SIZE - m, n);
-
-                byte[] bb;
-
-                int i = (int) ((size) / (long) BLOCK_SIZE);
-                if (m == 0) {
-                    bb = new byte[BLOCK_SIZE];
-                } else {
-                    bb = dataDb.get((name + "_" + i).getBytes());
-                }
-
-
-                System.arraycopy(buf, f, bb, m, r);
-                dataDb.put((name + "_" + i).getBytes(), bb);
-                size += r;
-                f += r;
-                n -= r;
-
-                if (n == 0) {
+    protected void deleteOrphanedData(NavigableSet<Long> fileIds) throws IOException {
+        try (DBIterator iterator = dataDb.iterator();
+                WriteBatch batch = dataDb.createWriteBatch()) {
+            iterator.seek(dataKey(0, 0));
+            int count = 0;
+            while (iterator.hasNext()) {
+                byte[] key = iterator.peekNext().getKey();
+                if (Arrays.compareUnsigned(key, DATA_KEY_END) >= 0) {
                     break;
                 }
+                long fileId = readLong(key);
+                if (fileIds.contains(fileId)) {
+                    iterator.seek(dataKey(fileId + 1, 0));
+                } else {
+                    iterator.next();
+                    batch.delete(key);
+                    count++;
+                }
+            }
+            if (count > 0) {
+                dataDb.write(batch);
             }
-
-            metaDb.put(name.getBytes(), longToBytes(size));
-
-        } finally {
-            lock.writeLock().unlock();
         }
     }
 
+    /**
+     * Meta and data are separate databases. The data puts are written first
+     * and the data deletes last, so the meta data never points to missing
+     * extents.
+     */
 	@Override
-    public void move(String source, String dest) {
+    protected StoreBatch createBatch() {
+        return new StoreBatch() {
+            private WriteBatch dataPuts = dataDb.createWriteBatch();
+            private WriteBatch dataDeletes = dataDb.createWriteBatch();
+            private WriteBatch metaBatch = metaDb.createWriteBatch();
+
+            @Override
+            public void putData(long fileId, int extent, FileCompression compression, byte[] value) {
+                dataPuts.put(dataKey(fileId, extent), value);
+            }
 
-        lock.writeLock().lock();
-        try {
+            @Override
+            public void deleteData(long fileId, int extent, FileCompression compression) {
+                dataDeletes.delete(dataKey(fileId, extent));
+            }
 
-            long s_size = getSize(source);
-            metaDb.put(dest.getBytes(), longToBytes(s_size));
+            @Override
+            public void deleteLegacyData(String key) {
+                dataDeletes.delete(key.getBytes());
+            }
 
-            int n = (int) ((s_size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            @Override
+            public void putMeta(String name, byte[] value) {
+                metaBatch.put(metaKey(name), value);
+            }
 
-            for (int i = 0; i < n; i++) {
-                dataDb.put((dest + "_" + i).getBytes(), dataDb.get((source + "_" + i).getBytes()));
+            @Override
+            public void deleteMeta(String name) {
+                metaBatch.delete(metaKey(name));
             }
-            remove(source);
 
-        } finally {
-            lock.writeLock().unlock();
-        }
+            @Override
+            public void write() throws IOException {
+                dataDb.write(dataPuts);
+                metaDb.write(metaBatch);
+                dataDb.write(dataDeletes);
+                close();
+                dataPuts = dataDb.createWriteBatch();
+                dataDeletes = dataDb.createWriteBatch();
+                metaBatch = metaDb.createWriteBatch();
+            }
 
+            @Override
+            public void close() {
+                try {
+                    dataPuts.close();
+                    dataDeletes.close();
+                    metaBatch.close();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        };
     }
 
 	@Override
@@ -259,9 +211,24 @@ public class LeveldbFileStore extends BaseDBFileStore {
         }
     }
 	
+    /**
+     * A synced write forces the log of a db to disk, with all writes
+     * before it. The empty key is neither a file name nor a data key.
+     */
 	@Override
-	public void sync () {
-		metaDb.compactRange(null, null);
-		dataDb.compactRange(null, null);
-	}
+    protected void syncBackend() {
+        dataDb.delete(SYNC_KEY, SYNC);
+        metaDb.delete(SYNC_KEY, SYNC);
+    }
+
+	@Override
+    public void compact() {
+        metaDb.compactRange(null, null);
+        dataDb.compactRange(null, null);
+    }
+
+	@Override
+    protected void compactRange(long fromFileId, long toFileId) {
+        dataDb.compactRange(dataKey(fromFileId, 0), dataKey(toFileId, 0));
+    }
 }
@@ -0,0 +1,273 @@
+package de.marx_software.lucene.mvstore;
+
+import de.marx_software.lucene.Profile;
+
+/**
+ * Tuning of a {@link MVStoreFileStore}. The defaults are the ones of MVStore
+ * with LZF compression.
+ *
+ * @author marx
+ */
+public final class MVStoreConfig {
+
+	public static final MVStoreConfig DEFAULT = builder().build();
+
+	public enum Compression {
+		NONE,
+		/**
+		 * fast LZF compression
+		 */
+		LZF,
+		/**
+		 * slower but smaller Deflate compression
+		 */
+		DEFLATE
+	}
+
+	public enum Mode {
+		/**
+		 * a file read and written through its channel
+		 */
+		FILE,
+		/**
+		 * a file read through memory mapped segments, for large read mostly
+		 * stores
+		 */
+		MAPPED,
+		/**
+		 * off heap memory that is written to a file by periodic snapshots and
+		 * on close, changes since the last snapshot are lost on a crash
+		 */
+		OFF_HEAP
+	}
+
+	private final Mode mode;
+	private final int snapshotInterval;
+	private final int cacheSize;
+	private final int cacheConcurrency;
+	private final int autoCommitDelay;
+	private final int autoCommitBufferSize;
+	private final int autoCompactFillRate;
+	private final int compactFillRate;
+	private final Compression compression;
+
+	private MVStoreConfig(Builder builder) {
+		this.mode = builder.mode;
+		this.snapshotInterval = builder.snapshotInterval;
+		this.cacheSize = builder.cacheSize;
+		this.cacheConcurrency = builder.cacheConcurrency;
+		this.autoCommitDelay = builder.autoCommitDelay;
+		this.autoCommitBufferSize = builder.autoCommitBufferSize;
+		this.autoCompactFillRate = builder.autoCompactFillRate;
+		this.compactFillRate = builder.compactFillRate;
+		this.compression = builder.compression;
+	}
+
+	public Mode mode() {
+		return mode;
+	}
+
+	/**
+	 * @return interval in ms of the snapshots of an off heap store, 0 if it
+	 * is only written on close
+	 */
+	public int snapshotInterval() {
+		return snapshotInterval;
+	}
+
+	/**
+	 * @return size of the page cache in MB
+	 */
+	public int cacheSize() {
+		return cacheSize;
+	}
+
+	public int cacheConcurrency() {
+		return cacheConcurrency;
+	}
+
+	/**
+	 * @return maximum delay in ms until changes are written by the background
+	 * thread
+	 */
+	public int autoCommitDelay() {
+		return autoCommitDelay;
+	}
+
+	/**
+	 * @return size of unsaved changes in KB that triggers a write
+	 */
+	public int autoCommitBufferSize() {
+		return autoCommitBufferSize;
+	}
+
+	/**
+	 * @return fill rate in percent below which chunks are compacted in the
+	 * background, 0 disables the compaction
+	 */
+	public int autoCompactFillRate() {
+		return autoCompactFillRate;
+	}
+
+	/**
+	 * @return fill rate in percent the compaction after removed files aims
+	 * for, chunks below it are rewritten
+	 */
+	public int compactFillRate() {
+		return compactFillRate;
+	}
+
+	public Compression compression() {
+		return compression;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @param profile
+	 * @return a builder initialized with the values of the profile
+	 */
+	public static Builder builder(Profile profile) {
+		Builder builder = new Builder();
+		switch (profile) {
+			case READ_HEAVY:
+				builder.cacheSize(256);
+				break;
+			case WRITE_HEAVY:
+				builder.autoCommitBufferSize(8 * 1024);
+				break;
+			case BULK_LOAD:
+				builder.autoCommitBufferSize(32 * 1024)
+						.autoCommitDelay(5000)
+						.autoCompactFillRate(0)
+						.compression(Compression.NONE);
+				break;
+			case LOW_MEMORY:
+				builder.cacheSize(2)
+						.cacheConcurrency(1)
+						.autoCommitBufferSize(256);
+				break;
+			default:
+				break;
+		}
+		return builder;
+	}
+
+	public static MVStoreConfig of(Profile profile) {
+		return builder(profile).build();
+	}
+
+	public static final class Builder {
+
+		private Mode mode = Mode.FILE;
+		private int snapshotInterval = 60_000;
+		private int cacheSize = 16;
+		private int cacheConcurrency = 16;
+		private int autoCommitDelay = 1000;
+		private int autoCommitBufferSize = 1024;
+		private int autoCompactFillRate = 90;
+		private int compactFillRate = 80;
+		private Compression compression = Compression.LZF;
+
+		private Builder() {
+		}
+
+		public Builder mode(Mode mode) {
+			if (mode == null) {
+				throw new IllegalArgumentException("mode must not be null");
+			}
+			this.mode = mode;
+			return this;
+		}
+
+		/**
+		 * @param snapshotInterval interval in ms of the snapshots of an off
+		 * heap store, 0 writes it only on close
+		 */
+		public Builder snapshotInterval(int snapshotInterval) {
+			if (snapshotInterval < 0) {
+				throw new IllegalArgumentException("snapshotInterval must not be negative: " + snapshotInterval);
+			}
+			this.snapshotInterval = snapshotInterval;
+			return this;
+		}
+
+		/**
+		 * @param cacheSize size of the page cache in MB
+		 */
+		public Builder cacheSize(int cacheSize) {
+			this.cacheSize = positive("cacheSize", cacheSize);
+			return this;
+		}
+
+		/**
+		 * @param cacheConcurrency number of segments of the page cache
+		 */
+		public Builder cacheConcurrency(int cacheConcurrency) {
+			this.cacheConcurrency = positive("cacheConcurrency", cacheConcurrency);
+			return this;
+		}
+
+		/**
+		 * @param autoCommitDelay maximum delay in ms until changes are written
+		 */
+		public Builder autoCommitDelay(int autoCommitDelay) {
+			this.autoCommitDelay = positive("autoCommitDelay", autoCommitDelay);
+			return this;
+		}
+
+		/**
+		 * @param autoCommitBufferSize size of unsaved changes in KB that
+		 * triggers a write
+		 */
+		public Builder autoCommitBufferSize(int autoCommitBufferSize) {
+			this.autoCommitBufferSize = positive("autoCommitBufferSize", autoCommitBufferSize);
+			return this;
+		}
+
+		/**
+		 * @param autoCompactFillRate fill rate in percent, 0 disables the
+		 * background compaction
+		 */
+		public Builder autoCompactFillRate(int autoCompactFillRate) {
+			if (autoCompactFillRate < 0 || autoCompactFillRate > 100) {
+				throw new IllegalArgumentException("autoCompactFillRate must be between 0 and 100: " + autoCompactFillRate);
+			}
+			this.autoCompactFillRate = autoCompactFillRate;
+			return this;
+		}
+
+		/**
+		 * @param compactFillRate fill rate in percent targeted by the
+		 * compaction after removed files
+		 */
+		public Builder compactFillRate(int compactFillRate) {
+			if (compactFillRate <= 0 || compactFillRate > 100) {
+				throw new IllegalArgumentException("compactFillRate must be between 1 and 100: " + compactFillRate);
+			}
+			this.compactFillRate = compactFillRate;
+			return this;
+		}
+
+		public Builder compression(Compression compression) {
+			if (compression == null) {
+				throw new IllegalArgumentException("compression must not be null");
+			}
+			this.compression = compression;
+			return this;
+		}
+
+		public MVStoreConfig build() {
+			return new MVStoreConfig(this);
+		}
+
+		private static int positive(String name, int value) {
+			if (value <= 0) {
+				throw new IllegalArgumentException(name + " must be positive: " + value);
+			}
+			return value;
+		}
+	}
+}
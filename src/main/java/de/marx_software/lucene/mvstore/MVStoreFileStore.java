@@ -1,251 +1,541 @@
 package de.marx_software.lucene.mvstore;
 
 import de.marx_software.lucene.BaseDBFileStore;
-import org.iq80.leveldb.DB;
-import org.iq80.leveldb.DBIterator;
-import org.iq80.leveldb.Options;
-import org.iq80.leveldb.impl.Iq80DBFactory;
+import de.marx_software.lucene.DBFileStore;
+import de.marx_software.lucene.FileCompression;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.DoubleConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.lucene.util.IOUtils;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.FileStore;
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
-import org.iq80.leveldb.CompressionType;
+import org.h2.mvstore.OffHeapStore;
+import org.h2.mvstore.type.ByteArrayDataType;
+import org.h2.mvstore.type.LongDataType;
 
 /**
  * Created by wens on 16-3-10.
+ *
+ * The MVStore auto commit is disabled, a commit could otherwise persist a
+ * batch half applied. Batches are applied under the shared commit lock,
+ * commits take it exclusively: periodically after the auto commit delay,
+ * after a batch that fills the auto commit buffer, on sync, compaction and
+ * snapshot.
  */
 public class MVStoreFileStore extends BaseDBFileStore {
 
-	private static final int BLOCK_SIZE = 10 * 1024;
+	private final MVMap<String, byte[]> metaDb;
+	/**
+	 * extents keyed by file id in the high and extent in the low 32 bits
+	 */
+	private final MVMap<Long, byte[]> dataDb;
+
+	/**
+	 * string keyed data of older stores, null after the migration
+	 */
+	private MVMap<String, byte[]> legacyDb;
 
-	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	/**
+	 * maximum bytes rewritten by one compaction of removed files
+	 */
+	private static final int COMPACT_WRITE_LIMIT = 64 * 1024 * 1024;
 
-	private final MVMap<String, byte[]> metaDb;
-	private final MVMap<String, byte[]> dataDb;
+	private static final Logger LOGGER = Logger.getLogger(MVStoreFileStore.class.getName());
+
+	private static final String FILE_NAME = "directory.db";
 
 	MVStore store;
 
-	public MVStoreFileStore(Path path) throws IOException {
+	private final Path path;
 
-		if (!Files.exists(path)) {
-			Files.createDirectories(path);
-		}
-		store = new MVStore.Builder().
-				fileName(path.resolve("directory.db").toString()).
-				compress().
-				open();
+	private final MVStoreConfig config;
 
-		metaDb = store.openMap("_meta");
-		dataDb = store.openMap("_data");
-	}
+	private final int compactFillRate;
 
-	@Override
-	public boolean contains(String key) {
-		lock.readLock().lock();
-		try {
-			byte[] bytes = metaDb.get(key);
-			return bytes != null;
-		} finally {
-			lock.readLock().unlock();
-		}
-	}
+	/**
+	 * held shared while a batch is applied and exclusive by commits, so a
+	 * commit never sees a part of a batch
+	 */
+	private final ReadWriteLock commitLock = new ReentrantReadWriteLock();
 
-	@Override
-	public int load(String name, long position, byte[] buf, int offset, int len) {
+	/**
+	 * unsaved bytes after which a batch commits
+	 */
+	private final long autoCommitBytes;
 
-		lock.readLock().lock();
-		try {
-			long size = getSize(name);
+	/**
+	 * commits after the auto commit delay
+	 */
+	private final ScheduledExecutorService commitExecutor;
 
-			if (position >= size) {
-				return -1;
-			}
+	/**
+	 * takes the periodic snapshots of an off heap store, null otherwise
+	 */
+	private final ScheduledExecutorService snapshotExecutor;
 
-			if (buf.length < offset + len) {
-				throw new IllegalArgumentException("len is too long");
-			}
+	private final AtomicLong snapshots = new AtomicLong();
 
-			long p = position;
-			int f = offset;
-			int n = len;
+	private volatile long snapshotNanos;
 
-			while (true) {
-				int m = (int) (p % (long) BLOCK_SIZE);
-				int r = Math.min(BLOCK_SIZE - m, n);
-				int i = (int) (p / (long) BLOCK_SIZE);
+	private long snapshotVersion = -1;
 
-				byte[] bb = dataDb.get((name + "_" + i));
+	public MVStoreFileStore(Path path) throws IOException {
+		this(path, MVStoreConfig.DEFAULT);
+	}
 
-				System.arraycopy(bb, m, buf, f, r);
+	public MVStoreFileStore(Path path, MVStoreConfig config) throws IOException {
 
-				p += r;
-				f += r;
-				n -= r;
+		if (!Files.exists(path)) {
+			Files.createDirectories(path);
+		}
+		this.path = path;
+		this.config = config;
+		MVStore.Builder builder = builder(config).
+				cacheSize(config.cacheSize()).
+				cacheConcurrency(config.cacheConcurrency()).
+				autoCommitDisabled();
+		switch (config.mode()) {
+			case OFF_HEAP:
+				builder.fileStore(new OffHeapStore());
+				break;
+			case MAPPED:
+				builder.fileName(MappedFilePath.fileName(path.resolve(FILE_NAME).toString()));
+				break;
+			default:
+				builder.fileName(path.resolve(FILE_NAME).toString());
+				break;
+		}
+		store = builder.open();
+		compactFillRate = config.compactFillRate();
+		autoCommitBytes = config.autoCommitBufferSize() * 1024L;
 
-				if (n == 0 || p >= size) {
-					break;
-				}
+		if (config.mode() == MVStoreConfig.Mode.OFF_HEAP && Files.exists(path.resolve(FILE_NAME))) {
+			loadSnapshot();
+		}
+
+		metaDb = openMeta(store);
+		dataDb = openBlocks(store);
+		if (store.hasMap("_data")) {
+			legacyDb = store.openMap("_data");
+		}
+
+		open();
+
+		if (legacyDb != null && legacyDb.isEmpty()) {
+			store.removeMap(legacyDb);
+			legacyDb = null;
+		}
+
+		commitExecutor = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "mvstore-commit");
+			thread.setDaemon(true);
+			return thread;
+		});
+		commitExecutor.scheduleWithFixedDelay(() -> {
+			try {
+				autoCommit();
+			} catch (RuntimeException ex) {
+				LOGGER.log(Level.WARNING, "auto commit failed", ex);
 			}
+		}, config.autoCommitDelay(), config.autoCommitDelay(), TimeUnit.MILLISECONDS);
 
-			return (int) (p - position);
+		if (config.mode() == MVStoreConfig.Mode.OFF_HEAP && config.snapshotInterval() > 0) {
+			snapshotExecutor = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+				Thread thread = new Thread(runnable, "mvstore-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			});
+			snapshotExecutor.scheduleWithFixedDelay(() -> {
+				try {
+					snapshot();
+				} catch (IOException | RuntimeException ex) {
+					LOGGER.log(Level.WARNING, "snapshot failed", ex);
+				}
+			}, config.snapshotInterval(), config.snapshotInterval(), TimeUnit.MILLISECONDS);
+		} else {
+			snapshotExecutor = null;
+		}
+	}
 
+	/**
+	 * Commits the applied batches.
+	 *
+	 * @return the committed version
+	 */
+	private long commit() {
+		commitLock.writeLock().lock();
+		try {
+			return store.commit();
 		} finally {
-			lock.readLock().unlock();
+			commitLock.writeLock().unlock();
 		}
 	}
 
 	/**
-	 * @param key
-	 * @return not exist return -1
+	 * Commits and rewrites chunks below the auto compact fill rate, like
+	 * the background writer of the MVStore.
 	 */
-	@Override
-	public long getSize(String key) {
-		lock.readLock().lock();
+	private void autoCommit() {
+		commitLock.writeLock().lock();
 		try {
-			byte[] bytes = metaDb.get(key);
-			if (bytes != null) {
-				return readLong(bytes);
+			if (store.isClosed()) {
+				return;
+			}
+			store.commit();
+			if (config.autoCompactFillRate() > 0 && store.getFillRate() < config.autoCompactFillRate()) {
+				store.compact(config.autoCompactFillRate(), COMPACT_WRITE_LIMIT);
 			}
 		} finally {
-			lock.readLock().unlock();
+			commitLock.writeLock().unlock();
 		}
-		return -1;
 	}
 
-	@Override
-	public void remove(String key) {
-		lock.writeLock().lock();
+	/**
+	 * @return a builder with the compression of the config
+	 */
+	private static MVStore.Builder builder(MVStoreConfig config) {
+		MVStore.Builder builder = new MVStore.Builder();
+		switch (config.compression()) {
+			case LZF:
+				builder.compress();
+				break;
+			case DEFLATE:
+				builder.compressHigh();
+				break;
+			default:
+				break;
+		}
+		return builder;
+	}
+
+	private static MVMap<String, byte[]> openMeta(MVStore store) {
+		return store.openMap("_meta");
+	}
+
+	private static MVMap<Long, byte[]> openBlocks(MVStore store) {
+		return store.openMap("_blocks", new MVMap.Builder<Long, byte[]>()
+				.keyType(LongDataType.INSTANCE)
+				.valueType(ByteArrayDataType.INSTANCE));
+	}
+
+	/**
+	 * Copies the last snapshot into the off heap store.
+	 */
+	private void loadSnapshot() {
+		MVStore snapshot = new MVStore.Builder().fileName(path.resolve(FILE_NAME).toString()).readOnly().open();
 		try {
-			long size = getSize(key);
+			openMeta(store).putAll(openMeta(snapshot));
+			openBlocks(store).putAll(openBlocks(snapshot));
+			if (snapshot.hasMap("_data")) {
+				store.<String, byte[]>openMap("_data").putAll(snapshot.openMap("_data"));
+			}
+			store.commit();
+		} finally {
+			snapshot.close();
+		}
+	}
 
-			if (size == -1) {
+	/**
+	 * Writes the committed state of an off heap store to its file. The maps
+	 * are copied at one version to a new file, which replaces the last
+	 * snapshot. A no-op if nothing changed since the last snapshot.
+	 *
+	 * @throws IllegalStateException if the store is not off heap
+	 */
+	public synchronized void snapshot() throws IOException {
+		if (config.mode() != MVStoreConfig.Mode.OFF_HEAP) {
+			throw new IllegalStateException("only an off heap store takes snapshots");
+		}
+		long start = System.nanoTime();
+		// keeps the pages of the version until it is copied
+		MVStore.TxCounter usage = store.registerVersionUsage();
+		try {
+			long version = commit();
+			if (version == snapshotVersion) {
 				return;
 			}
-			int n = (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
-			for (int i = 0; i < n; i++) {
-				dataDb.remove((key + "_" + i));
+			Path file = path.resolve(FILE_NAME);
+			Path tmp = path.resolve(FILE_NAME + ".snapshot");
+			Files.deleteIfExists(tmp);
+			MVStore target = builder(config).fileName(tmp.toString()).autoCommitDisabled().open();
+			try {
+				copy(metaDb.openVersion(version), openMeta(target));
+				copy(dataDb.openVersion(version), openBlocks(target));
+				MVMap<String, byte[]> legacy = legacyDb;
+				if (legacy != null) {
+					copy(legacy.openVersion(version), target.openMap("_data"));
+				}
+				target.commit();
+			} finally {
+				target.close();
 			}
-			metaDb.remove(key);
-
+			Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			IOUtils.fsync(path, true);
+			snapshotVersion = version;
+			snapshots.incrementAndGet();
+			snapshotNanos = System.nanoTime() - start;
 		} finally {
-			lock.writeLock().unlock();
+			store.deregisterVersionUsage(usage);
 		}
 	}
 
+	private static <K> void copy(MVMap<K, byte[]> source, MVMap<K, byte[]> target) {
+		Cursor<K, byte[]> cursor = source.cursor(null);
+		while (cursor.hasNext()) {
+			K key = cursor.next();
+			target.put(key, cursor.getValue());
+		}
+	}
+
+	/**
+	 * A checkpoint copies the files of a pinned commit into a new store.
+	 */
 	@Override
-	public void clear() {
+	protected DBFileStore openCheckpoint(Path path) throws IOException {
+		return new MVStoreFileStore(path, config);
+	}
 
-		lock.writeLock().lock();
-		try {
-			Set<String> keySet = listKey();
-			for (String key : keySet) {
-				remove(key);
+	private static long blockKey(long fileId, int extent) {
+		return (fileId << 32) | (extent & 0xFFFFFFFFL);
+	}
+
+	@Override
+	protected void deleteOrphanedData(NavigableSet<Long> fileIds) throws IOException {
+		try (StoreBatch batch = createBatch()) {
+			Long key = dataDb.ceilingKey(blockKey(0, 0));
+			while (key != null) {
+				long fileId = key >>> 32;
+				if (fileIds.contains(fileId)) {
+					key = dataDb.ceilingKey(blockKey(fileId + 1, 0));
+				} else {
+					batch.deleteData(fileId, key.intValue(), null);
+					key = dataDb.higherKey(key);
+				}
 			}
-		} finally {
-			lock.writeLock().unlock();
+			batch.write();
 		}
 	}
 
 	@Override
-	public Set<String> listKey() {
-		Set<String> keys = new HashSet<>();
-		lock.readLock().lock();
-		try {
+	protected byte[] getMeta(String name) {
+		return metaDb.get(name);
+	}
 
-			metaDb.keySet().forEach((key) -> {
-				keys.add(new String(key).intern());
-			});
-		} finally {
-			lock.readLock().unlock();
-		}
+	@Override
+	protected byte[] getData(long fileId, int extent, FileCompression compression) {
+		return dataDb.get(blockKey(fileId, extent));
+	}
 
-		return keys;
+	@Override
+	protected byte[] getLegacyData(String key) {
+		return legacyDb != null ? legacyDb.get(key) : null;
 	}
 
 	@Override
-	public void append(String name, byte[] buf, int offset, int len) {
+	protected Set<String> listMetaKeys() {
+		Set<String> keys = new HashSet<>();
+		metaDb.keySet().forEach((key) -> {
+			keys.add(key.intern());
+		});
 
-		lock.writeLock().lock();
-		try {
+		return keys;
+	}
 
-			long size = getSize(name);
-			if (size == -1) {
-				size = 0;
+	/**
+	 * Stages the writes and applies them at once under the shared commit
+	 * lock, so a commit persists all or none of them.
+	 */
+	@Override
+	protected StoreBatch createBatch() {
+		return new StoreBatch() {
+			private final Map<Long, byte[]> dataPuts = new LinkedHashMap<>();
+			private final List<Long> dataDeletes = new ArrayList<>();
+			private final List<String> legacyDeletes = new ArrayList<>();
+			private final Map<String, byte[]> metaChanges = new LinkedHashMap<>();
+
+			@Override
+			public void putData(long fileId, int extent, FileCompression compression, byte[] value) {
+				dataPuts.put(blockKey(fileId, extent), value);
 			}
 
-			int f = offset;
-			int n = len;
+			@Override
+			public void deleteData(long fileId, int extent, FileCompression compression) {
+				dataDeletes.add(blockKey(fileId, extent));
+			}
 
-			while (true) {
+			@Override
+			public void deleteLegacyData(String key) {
+				legacyDeletes.add(key);
+			}
 
-				int m = (int) (size % (long) BLOCK_SIZE);
-				int r = Math.min(BLOCK_SIZE - m, n);
+			@Override
+			public void putMeta(String name, byte[] value) {
+				metaChanges.put(name, value);
+			}
 
-				byte[] bb;
+			@Override
+			public void deleteMeta(String name) {
+				// null marks the delete
+				metaChanges.put(name, null);
+			}
 
-				int i = (int) ((size) / (long) BLOCK_SIZE);
-				if (m == 0) {
-					bb = new byte[BLOCK_SIZE];
-				} else {
-					bb = dataDb.get((name + "_" + i).getBytes());
+			@Override
+			public void write() {
+				commitLock.readLock().lock();
+				try {
+					dataPuts.forEach(dataDb::put);
+					metaChanges.forEach((name, value) -> {
+						if (value != null) {
+							metaDb.put(name, value);
+						} else {
+							metaDb.remove(name);
+						}
+					});
+					dataDeletes.forEach(dataDb::remove);
+					if (legacyDb != null) {
+						legacyDeletes.forEach(legacyDb::remove);
+					}
+				} finally {
+					commitLock.readLock().unlock();
+					close();
 				}
-
-				System.arraycopy(buf, f, bb, m, r);
-				dataDb.put((name + "_" + i), bb);
-				size += r;
-				f += r;
-				n -= r;
-
-				if (n == 0) {
-					break;
+				if (store.getUnsavedMemory() > autoCommitBytes) {
+					commit();
 				}
 			}
 
-			metaDb.put(name, longToBytes(size));
+			@Override
+			public void close() {
+				dataPuts.clear();
+				dataDeletes.clear();
+				legacyDeletes.clear();
+				metaChanges.clear();
+			}
+		};
+	}
 
+	/**
+	 * An off heap store takes a last snapshot.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			shutdown(commitExecutor);
+			if (snapshotExecutor != null) {
+				shutdown(snapshotExecutor);
+			}
+			if (config.mode() == MVStoreConfig.Mode.OFF_HEAP) {
+				snapshot();
+			}
 		} finally {
-			lock.writeLock().unlock();
+			commitLock.writeLock().lock();
+			try {
+				store.close();
+			} finally {
+				commitLock.writeLock().unlock();
+			}
 		}
 	}
 
-	@Override
-	public void move(String source, String dest) {
-
-		lock.writeLock().lock();
+	private static void shutdown(ScheduledExecutorService executor) {
+		executor.shutdownNow();
 		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
 
-			long s_size = getSize(source);
-			metaDb.put(dest, longToBytes(s_size));
-
-			int n = (int) ((s_size + BLOCK_SIZE - 1) / BLOCK_SIZE);
-
-			for (int i = 0; i < n; i++) {
-				dataDb.put((dest + "_" + i), dataDb.get((source + "_" + i)));
-			}
-			remove(source);
+	/**
+	 * Writes the changes since the last auto commit and forces the file to
+	 * disk. An off heap store is only durable with its next snapshot.
+	 */
+	@Override
+	protected void syncBackend() {
+		commit();
+		store.sync();
+	}
 
+	/**
+	 * Compactions commit, they run under the exclusive commit lock.
+	 */
+	@Override
+	public void compact() {
+		commitLock.writeLock().lock();
+		try {
+			store.compactMoveChunks();
 		} finally {
-			lock.writeLock().unlock();
+			commitLock.writeLock().unlock();
 		}
+	}
 
+	/**
+	 * Chunks are not ordered by key, so the ranges are dropped and the
+	 * chunks below the fill rate target are rewritten once.
+	 */
+	@Override
+	public void compactRemoved(DoubleConsumer progress) {
+		takeRemovedRanges();
+		compactChunks();
+		progress.accept(1);
 	}
 
 	@Override
-	public void close() throws IOException {
-		store.close();
+	protected void compactRange(long fromFileId, long toFileId) {
+		compactChunks();
 	}
 
+	private void compactChunks() {
+		commitLock.writeLock().lock();
+		try {
+			store.compact(compactFillRate, COMPACT_WRITE_LIMIT);
+		} finally {
+			commitLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Passes through the page cache, fill rate and file statistics.
+	 */
 	@Override
-	public void sync() {
-		store.compactMoveChunks();
+	protected void backendStatistics(Map<String, Long> statistics) {
+		statistics.put("mvstore.cacheHitRatio", (long) store.getCacheHitRatio());
+		statistics.put("mvstore.cacheSizeUsed", (long) store.getCacheSizeUsed() * 1024 * 1024);
+		statistics.put("mvstore.cacheSize", (long) store.getCacheSize() * 1024 * 1024);
+		statistics.put("mvstore.fillRate", (long) store.getFillRate());
+		statistics.put("mvstore.chunksFillRate", (long) store.getChunksFillRate());
+		statistics.put("mvstore.unsavedMemory", (long) store.getUnsavedMemory());
+		FileStore fileStore = store.getFileStore();
+		if (fileStore != null) {
+			statistics.put("mvstore.readCount", fileStore.getReadCount());
+			statistics.put("mvstore.readBytes", fileStore.getReadBytes());
+			statistics.put("mvstore.writeCount", fileStore.getWriteCount());
+			statistics.put("mvstore.writeBytes", fileStore.getWriteBytes());
+			statistics.put("mvstore.fileSize", fileStore.size());
+		}
+		if (config.mode() == MVStoreConfig.Mode.OFF_HEAP) {
+			statistics.put("mvstore.snapshots", snapshots.get());
+			statistics.put("mvstore.snapshotNanos", snapshotNanos);
+		}
 	}
 }
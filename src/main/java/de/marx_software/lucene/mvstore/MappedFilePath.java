@@ -0,0 +1,180 @@
+package de.marx_software.lucene.mvstore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.OpenOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import org.h2.store.fs.FileBaseDefault;
+import org.h2.store.fs.FilePath;
+import org.h2.store.fs.FilePathWrapper;
+
+/**
+ * MVStore file system that reads through memory mapped segments of the
+ * file, like the <code>nioMapped:</code> file system of H2, which is not part
+ * of the h2-mvstore artifact. Writes go through the channel, the mapping of
+ * the end of the file is extended on the first read beyond it.
+ *
+ * Reads copy from the page cache without a system call, which suits large
+ * read mostly stores.
+ *
+ * @author marx
+ */
+public final class MappedFilePath extends FilePathWrapper {
+
+	public static final String SCHEME = "luceneMapped";
+
+	static {
+		FilePath.register(new MappedFilePath());
+	}
+
+	/**
+	 * @param fileName
+	 * @return the file name of the file read through a mapping
+	 */
+	static String fileName(String fileName) {
+		return SCHEME + ":" + fileName;
+	}
+
+	@Override
+	public String getScheme() {
+		return SCHEME;
+	}
+
+	@Override
+	public FileChannel open(String mode) throws IOException {
+		return new MappedFile(getBase().toString(), "r".equals(mode));
+	}
+
+	private static final class MappedFile extends FileBaseDefault {
+
+		private static final int SEGMENT_BITS = 30;
+
+		private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+		private final FileChannel channel;
+
+		/**
+		 * segments and size are published together, reads are not locked
+		 */
+		private volatile Mapping mapping = Mapping.EMPTY;
+
+		MappedFile(String fileName, boolean readOnly) throws IOException {
+			OpenOption[] options = readOnly
+					? new OpenOption[]{StandardOpenOption.READ}
+					: new OpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE};
+			channel = FileChannel.open(Paths.get(fileName), options);
+		}
+
+		@Override
+		public int read(ByteBuffer dst, long position) throws IOException {
+			int len = dst.remaining();
+			Mapping current = mapping;
+			if (position + len > current.size) {
+				current = map();
+			}
+			long size = current.size;
+			if (position >= size) {
+				return -1;
+			}
+			MappedByteBuffer[] mapped = current.segments;
+			long p = position;
+			int n = (int) Math.min(len, size - position);
+			while (n > 0) {
+				ByteBuffer segment = mapped[(int) (p >>> SEGMENT_BITS)].duplicate();
+				int offset = (int) (p & SEGMENT_MASK);
+				int r = Math.min(n, segment.capacity() - offset);
+				segment.limit(offset + r).position(offset);
+				dst.put(segment);
+				p += r;
+				n -= r;
+			}
+			return (int) (p - position);
+		}
+
+		/**
+		 * Maps the file up to its current size, full segments are kept.
+		 */
+		private synchronized Mapping map() throws IOException {
+			long size = channel.size();
+			MappedByteBuffer[] segments = mapping.segments;
+			if (size == mapping.size) {
+				return mapping;
+			}
+			int count = (int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS);
+			MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				long start = (long) i << SEGMENT_BITS;
+				long length = Math.min(SEGMENT_MASK + 1, size - start);
+				if (i < segments.length && segments[i].capacity() == length) {
+					mapped[i] = segments[i];
+				} else {
+					mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+				}
+			}
+			mapping = new Mapping(mapped, size);
+			return mapping;
+		}
+
+		@Override
+		public int write(ByteBuffer src, long position) throws IOException {
+			int len = src.remaining();
+			long p = position;
+			while (src.hasRemaining()) {
+				p += channel.write(src, p);
+			}
+			return len;
+		}
+
+		@Override
+		protected synchronized void implTruncate(long newLength) throws IOException {
+			if (newLength < mapping.size) {
+				mapping = Mapping.EMPTY;
+			}
+			channel.truncate(newLength);
+		}
+
+		@Override
+		public long size() throws IOException {
+			return channel.size();
+		}
+
+		@Override
+		public void force(boolean metaData) throws IOException {
+			channel.force(metaData);
+		}
+
+		@Override
+		public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+			return channel.tryLock(position, size, shared);
+		}
+
+		@Override
+		protected synchronized void implCloseChannel() throws IOException {
+			mapping = Mapping.EMPTY;
+			channel.close();
+		}
+
+		@Override
+		public String toString() {
+			return SCHEME + ":" + channel;
+		}
+	}
+
+	private static final class Mapping {
+
+		static final Mapping EMPTY = new Mapping(new MappedByteBuffer[0], 0);
+
+		final MappedByteBuffer[] segments;
+
+		final long size;
+
+		Mapping(MappedByteBuffer[] segments, long size) {
+			this.segments = segments;
+			this.size = size;
+		}
+	}
+}
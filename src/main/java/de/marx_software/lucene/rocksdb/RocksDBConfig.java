@@ -0,0 +1,368 @@
+package de.marx_software.lucene.rocksdb;
+
+import de.marx_software.lucene.CompressionPolicy;
+import de.marx_software.lucene.ExtensionCompressionPolicy;
+import de.marx_software.lucene.FileCompression;
+import de.marx_software.lucene.Profile;
+import org.rocksdb.CompressionType;
+
+/**
+ * Tuning of a {@link RocksDBFileStore}. The defaults are the ones of RocksDB
+ * with snappy compression and no bloom filters. Files are stored with the
+ * compression their {@link CompressionPolicy} chooses: uncompressed, with
+ * {@link #compression()} or with {@link #highCompression()}.
+ *
+ * <pre>
+ * RocksDBConfig config = RocksDBConfig.builder(Profile.WRITE_HEAVY)
+ *		.maxBackgroundJobs(16)
+ *		.build();
+ * </pre>
+ *
+ * @author marx
+ */
+public final class RocksDBConfig {
+
+	public static final RocksDBConfig DEFAULT = builder().build();
+
+	private final long blockCacheSize;
+	private final int metaBloomBitsPerKey;
+	private final int dataBloomBitsPerKey;
+	private final long writeBufferSize;
+	private final int maxWriteBufferNumber;
+	private final int maxBackgroundJobs;
+	private final CompressionType compression;
+	private final CompressionType highCompression;
+	private final int dictionaryBytes;
+	private final CompressionPolicy compressionPolicy;
+	private final boolean bulkLoad;
+	private final boolean disableWal;
+	private final boolean statistics;
+
+	private RocksDBConfig(Builder builder) {
+		this.blockCacheSize = builder.blockCacheSize;
+		this.metaBloomBitsPerKey = builder.metaBloomBitsPerKey;
+		this.dataBloomBitsPerKey = builder.dataBloomBitsPerKey;
+		this.writeBufferSize = builder.writeBufferSize;
+		this.maxWriteBufferNumber = builder.maxWriteBufferNumber;
+		this.maxBackgroundJobs = builder.maxBackgroundJobs;
+		this.compression = builder.compression;
+		this.highCompression = builder.highCompression;
+		this.dictionaryBytes = builder.dictionaryBytes;
+		this.compressionPolicy = builder.compressionPolicy;
+		this.bulkLoad = builder.bulkLoad;
+		this.disableWal = builder.disableWal;
+		this.statistics = builder.statistics;
+	}
+
+	/**
+	 * @return size of the LRU cache of uncompressed table blocks shared by
+	 * both column families, 0 if disabled
+	 */
+	public long blockCacheSize() {
+		return blockCacheSize;
+	}
+
+	/**
+	 * @return bits per key of the bloom filter of the meta column family, 0
+	 * if it has none
+	 */
+	public int metaBloomBitsPerKey() {
+		return metaBloomBitsPerKey;
+	}
+
+	/**
+	 * @return bits per key of the bloom filter of the data column family, 0
+	 * if it has none
+	 */
+	public int dataBloomBitsPerKey() {
+		return dataBloomBitsPerKey;
+	}
+
+	public long writeBufferSize() {
+		return writeBufferSize;
+	}
+
+	public int maxWriteBufferNumber() {
+		return maxWriteBufferNumber;
+	}
+
+	public int maxBackgroundJobs() {
+		return maxBackgroundJobs;
+	}
+
+	/**
+	 * @return compression of {@link FileCompression#FAST} files
+	 */
+	public CompressionType compression() {
+		return compression;
+	}
+
+	/**
+	 * @return compression of {@link FileCompression#HIGH} files
+	 */
+	public CompressionType highCompression() {
+		return highCompression;
+	}
+
+	/**
+	 * @return maximum size of the compression dictionary of
+	 * {@link FileCompression#HIGH} files, 0 if they have none
+	 */
+	public int dictionaryBytes() {
+		return dictionaryBytes;
+	}
+
+	public CompressionPolicy compressionPolicy() {
+		return compressionPolicy;
+	}
+
+	/**
+	 * @return true if the store is opened in bulk load mode, see
+	 * {@link RocksDBFileStore#beginBulkLoad()}
+	 */
+	public boolean bulkLoad() {
+		return bulkLoad;
+	}
+
+	/**
+	 * @return true if writes skip the WAL, a sync then flushes the memtables
+	 */
+	public boolean disableWal() {
+		return disableWal;
+	}
+
+	/**
+	 * @return true if the db counts its tickers, passed through by
+	 * {@link RocksDBFileStore#getStatistics()}
+	 */
+	public boolean statistics() {
+		return statistics;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return this configuration with the bulk load mode off
+	 */
+	RocksDBConfig withoutBulkLoad() {
+		if (!bulkLoad) {
+			return this;
+		}
+		return new Builder(this).bulkLoad(false).build();
+	}
+
+	/**
+	 * @param profile
+	 * @return a builder initialized with the values of the profile
+	 */
+	public static Builder builder(Profile profile) {
+		Builder builder = new Builder();
+		switch (profile) {
+			case READ_HEAVY:
+				builder.blockCacheSize(256 * 1024 * 1024)
+						.metaBloomBitsPerKey(10)
+						.dataBloomBitsPerKey(10)
+						.maxBackgroundJobs(4);
+				break;
+			case WRITE_HEAVY:
+				builder.blockCacheSize(64 * 1024 * 1024)
+						.dataBloomBitsPerKey(10)
+						.writeBufferSize(128 * 1024 * 1024)
+						.maxWriteBufferNumber(4)
+						.maxBackgroundJobs(8);
+				break;
+			case BULK_LOAD:
+				builder.writeBufferSize(256 * 1024 * 1024)
+						.maxWriteBufferNumber(6)
+						.maxBackgroundJobs(8)
+						.compression(CompressionType.LZ4_COMPRESSION)
+						.bulkLoad(true);
+				break;
+			case LOW_MEMORY:
+				builder.blockCacheSize(4 * 1024 * 1024)
+						.writeBufferSize(4 * 1024 * 1024)
+						.maxWriteBufferNumber(2)
+						.maxBackgroundJobs(1);
+				break;
+			default:
+				break;
+		}
+		return builder;
+	}
+
+	public static RocksDBConfig of(Profile profile) {
+		return builder(profile).build();
+	}
+
+	public static final class Builder {
+
+		private long blockCacheSize = 8 * 1024 * 1024;
+		private int metaBloomBitsPerKey = 0;
+		private int dataBloomBitsPerKey = 0;
+		private long writeBufferSize = 64 * 1024 * 1024;
+		private int maxWriteBufferNumber = 2;
+		private int maxBackgroundJobs = 2;
+		private CompressionType compression = CompressionType.SNAPPY_COMPRESSION;
+		private CompressionType highCompression = CompressionType.ZSTD_COMPRESSION;
+		private int dictionaryBytes = 16 * 1024;
+		private CompressionPolicy compressionPolicy = new ExtensionCompressionPolicy();
+		private boolean bulkLoad = false;
+		private boolean disableWal = false;
+		private boolean statistics = false;
+
+		private Builder() {
+		}
+
+		private Builder(RocksDBConfig config) {
+			this.blockCacheSize = config.blockCacheSize;
+			this.metaBloomBitsPerKey = config.metaBloomBitsPerKey;
+			this.dataBloomBitsPerKey = config.dataBloomBitsPerKey;
+			this.writeBufferSize = config.writeBufferSize;
+			this.maxWriteBufferNumber = config.maxWriteBufferNumber;
+			this.maxBackgroundJobs = config.maxBackgroundJobs;
+			this.compression = config.compression;
+			this.highCompression = config.highCompression;
+			this.dictionaryBytes = config.dictionaryBytes;
+			this.compressionPolicy = config.compressionPolicy;
+			this.bulkLoad = config.bulkLoad;
+			this.disableWal = config.disableWal;
+			this.statistics = config.statistics;
+		}
+
+		/**
+		 * @param blockCacheSize size of the table block cache in bytes, 0
+		 * disables the cache
+		 */
+		public Builder blockCacheSize(long blockCacheSize) {
+			this.blockCacheSize = notNegative("blockCacheSize", blockCacheSize);
+			return this;
+		}
+
+		/**
+		 * @param bitsPerKey bits per key of a bloom filter on the meta column
+		 * family, 0 for none
+		 */
+		public Builder metaBloomBitsPerKey(int bitsPerKey) {
+			this.metaBloomBitsPerKey = (int) notNegative("metaBloomBitsPerKey", bitsPerKey);
+			return this;
+		}
+
+		/**
+		 * @param bitsPerKey bits per key of a bloom filter on the data column
+		 * family, 0 for none
+		 */
+		public Builder dataBloomBitsPerKey(int bitsPerKey) {
+			this.dataBloomBitsPerKey = (int) notNegative("dataBloomBitsPerKey", bitsPerKey);
+			return this;
+		}
+
+		/**
+		 * @param writeBufferSize size of a memtable in bytes
+		 */
+		public Builder writeBufferSize(long writeBufferSize) {
+			this.writeBufferSize = positive("writeBufferSize", writeBufferSize);
+			return this;
+		}
+
+		/**
+		 * @param maxWriteBufferNumber memtables per column family, including
+		 * the ones waiting for their flush
+		 */
+		public Builder maxWriteBufferNumber(int maxWriteBufferNumber) {
+			this.maxWriteBufferNumber = (int) positive("maxWriteBufferNumber", maxWriteBufferNumber);
+			return this;
+		}
+
+		/**
+		 * @param maxBackgroundJobs concurrent flushes and compactions
+		 */
+		public Builder maxBackgroundJobs(int maxBackgroundJobs) {
+			this.maxBackgroundJobs = (int) positive("maxBackgroundJobs", maxBackgroundJobs);
+			return this;
+		}
+
+		public Builder compression(CompressionType compression) {
+			if (compression == null) {
+				throw new IllegalArgumentException("compression must not be null");
+			}
+			this.compression = compression;
+			return this;
+		}
+
+		public Builder highCompression(CompressionType highCompression) {
+			if (highCompression == null) {
+				throw new IllegalArgumentException("highCompression must not be null");
+			}
+			this.highCompression = highCompression;
+			return this;
+		}
+
+		/**
+		 * @param dictionaryBytes maximum size of a zstd dictionary trained
+		 * per SST file of small files, 0 for none
+		 */
+		public Builder dictionaryBytes(int dictionaryBytes) {
+			this.dictionaryBytes = (int) notNegative("dictionaryBytes", dictionaryBytes);
+			return this;
+		}
+
+		/**
+		 * @param compressionPolicy chooses the compression of new files,
+		 * {@link CompressionPolicy#FAST} stores all files like before
+		 */
+		public Builder compressionPolicy(CompressionPolicy compressionPolicy) {
+			if (compressionPolicy == null) {
+				throw new IllegalArgumentException("compressionPolicy must not be null");
+			}
+			this.compressionPolicy = compressionPolicy;
+			return this;
+		}
+
+		/**
+		 * @param bulkLoad open the store in bulk load mode, it ends with
+		 * {@link RocksDBFileStore#endBulkLoad()} or on close
+		 */
+		public Builder bulkLoad(boolean bulkLoad) {
+			this.bulkLoad = bulkLoad;
+			return this;
+		}
+
+		/**
+		 * @param disableWal write without WAL, changes since the last sync
+		 * are lost on a crash and every sync flushes the memtables
+		 */
+		public Builder disableWal(boolean disableWal) {
+			this.disableWal = disableWal;
+			return this;
+		}
+
+		/**
+		 * @param statistics count the RocksDB tickers, costs a few percent
+		 * of throughput
+		 */
+		public Builder statistics(boolean statistics) {
+			this.statistics = statistics;
+			return this;
+		}
+
+		public RocksDBConfig build() {
+			return new RocksDBConfig(this);
+		}
+
+		private static long notNegative(String name, long value) {
+			if (value < 0) {
+				throw new IllegalArgumentException(name + " must not be negative: " + value);
+			}
+			return value;
+		}
+
+		private static long positive(String name, long value) {
+			if (value <= 0) {
+				throw new IllegalArgumentException(name + " must be positive: " + value);
+			}
+			return value;
+		}
+	}
+}
@@ -1,16 +1,28 @@
 package de.marx_software.lucene.rocksdb;
 
 import de.marx_software.lucene.BaseDBFileStore;
-import de.marx_software.lucene.DBFileStore;
+import de.marx_software.lucene.FileCompression;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
 import java.util.logging.Level;
+import java.util.stream.Stream;
 import org.rocksdb.*;
 
 /**
@@ -18,275 +30,870 @@ import org.rocksdb.*;
  */
 public class RocksDBFileStore extends BaseDBFileStore {
 
-	private static final int BLOCK_SIZE = 10 * 1024;
+	static {
+		RocksDB.loadLibrary();
+	}
+
+	/**
+	 * Removed files of at least this size also drop the SST files that only
+	 * contain their range, so the space of merged away segments is freed
+	 * without waiting for compaction.
+	 */
+	private static final long RECLAIM_THRESHOLD = 64 * 1024 * 1024;
+
+	/**
+	 * exclusive upper bound of all data keys, file ids are positive
+	 */
+	private static final byte[] DATA_END = new byte[]{(byte) 0x80};
+
+	/**
+	 * size at which a bulk batch starts a new SST file
+	 */
+	private static final long BULK_FILE_SIZE = 256 * 1024 * 1024;
 
-	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	/**
+	 * directory of the db within the directory of the store
+	 */
+	private static final String DATA_DIR = "_data";
+
+	private static final FileCompression[] COMPRESSIONS = FileCompression.values();
+
+	/**
+	 * read buffers kept for reuse, larger value buffers are dropped after the
+	 * read
+	 */
+	private static final int MAX_READ_BUFFERS = 2 * Runtime.getRuntime().availableProcessors();
+	private static final int MAX_READ_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * properties of the whole db passed through by {@link #getStatistics()}
+	 */
+	private static final String[] DB_PROPERTIES = {
+		"rocksdb.num-running-compactions",
+		"rocksdb.num-running-flushes",
+		"rocksdb.block-cache-usage"
+	};
+
+	/**
+	 * properties summed over all column families
+	 */
+	private static final String[] COLUMN_PROPERTIES = {
+		"rocksdb.estimate-pending-compaction-bytes",
+		"rocksdb.cur-size-all-mem-tables",
+		"rocksdb.total-sst-files-size",
+		"rocksdb.estimate-num-keys"
+	};
 
 	private final RocksDB storeDb;
-	private ColumnFamilyHandle dataHandle;
-	private ColumnFamilyHandle metaHandle;
+	private final WriteOptions writeOptions = new WriteOptions();
+	/**
+	 * true if writes skip the WAL also outside of the bulk load mode
+	 */
+	private final boolean walDisabled;
+	/**
+	 * write options of the bulk load mode, without WAL
+	 */
+	private final WriteOptions bulkWriteOptions = new WriteOptions().setDisableWAL(true);
+	private final ReadOptions readOptions = new ReadOptions();
+
+	/**
+	 * reusable value arrays for reads that start inside an extent
+	 */
+	private final BlockingQueue<byte[]> readBuffers = new ArrayBlockingQueue<>(MAX_READ_BUFFERS);
+
+	/**
+	 * data of the files with {@link FileCompression#FAST}, and of all files
+	 * written before the compression was chosen per file
+	 */
+	private final ColumnFamilyHandle dataHandle;
+	/**
+	 * data column family of each {@link FileCompression}
+	 */
+	private final ColumnFamilyHandle[] dataHandles = new ColumnFamilyHandle[COMPRESSIONS.length];
+	private final ColumnFamilyHandle metaHandle;
+	private final List<ColumnFamilyHandle> handles = new ArrayList<>();
+	/**
+	 * options, filters and caches the db was opened with, closed with it
+	 */
+	private final List<RocksObject> resources = new ArrayList<>();
+
+	private final EnvOptions envOptions = resource(new EnvOptions());
+	/**
+	 * SST writer options of each data column family
+	 */
+	private final Options[] sstOptions = new Options[COMPRESSIONS.length];
+	private final IngestExternalFileOptions ingestOptions = resource(new IngestExternalFileOptions().setMoveFiles(true));
+	/**
+	 * SST files written by bulk batches before their ingestion
+	 */
+	private final File bulkDir;
+	private final AtomicLong bulkFileCounter = new AtomicLong();
+	private volatile boolean bulkLoad;
+	/**
+	 * set once SST files are ingested in the current bulk load
+	 */
+	private volatile boolean bulkIngested;
+	/**
+	 * tickers of the db, null if disabled
+	 */
+	private final Statistics statistics;
+
+	private final RocksDBConfig config;
 
-	
 	public RocksDBFileStore(Path path) throws IOException {
-		Options options = new Options();
+		this(path, RocksDBConfig.DEFAULT);
+	}
+
+	public RocksDBFileStore(Path path, RocksDBConfig config) throws IOException {
+		super(config.compressionPolicy());
+		this.config = config;
+		DBOptions options = resource(new DBOptions());
 		options.setCreateIfMissing(true);
-		options.setCompressionType(CompressionType.SNAPPY_COMPRESSION);
-		File data = new File(path.toFile(), "_data");
+		options.setCreateMissingColumnFamilies(true);
+		options.setMaxBackgroundJobs(config.maxBackgroundJobs());
+		// writes without WAL are only consistent if all column families are flushed together
+		options.setAtomicFlush(true);
+		if (config.statistics()) {
+			statistics = resource(new Statistics());
+			statistics.setStatsLevel(StatsLevel.EXCEPT_DETAILED_TIMERS);
+			options.setStatistics(statistics);
+		} else {
+			statistics = null;
+		}
+		walDisabled = config.disableWal();
+		writeOptions.setDisableWAL(walDisabled);
+		Cache blockCache = config.blockCacheSize() > 0 ? resource(new LRUCache(config.blockCacheSize())) : null;
+		ColumnFamilyOptions metaOptions = columnOptions(config, blockCache, config.metaBloomBitsPerKey());
+		List<ColumnFamilyDescriptor> columns = new ArrayList<>();
+		columns.add(new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, metaOptions));
+		columns.add(new ColumnFamilyDescriptor("meta".getBytes(), metaOptions));
+		for (FileCompression compression : COMPRESSIONS) {
+			ColumnFamilyOptions dataOptions = columnOptions(config, blockCache, config.dataBloomBitsPerKey());
+			switch (compression) {
+				case NONE:
+					dataOptions.setCompressionType(CompressionType.NO_COMPRESSION);
+					break;
+				case HIGH:
+					dataOptions.setCompressionType(config.highCompression());
+					if (config.dictionaryBytes() > 0) {
+						// a dictionary trained from samples of each SST file
+						dataOptions.setCompressionOptions(resource(new CompressionOptions()
+								.setMaxDictBytes(config.dictionaryBytes())
+								.setZStdMaxTrainBytes(config.dictionaryBytes() * 100)));
+					}
+					break;
+				default:
+					break;
+			}
+			columns.add(new ColumnFamilyDescriptor(dataColumn(compression), dataOptions));
+			sstOptions[compression.ordinal()] = resource(new Options(options, dataOptions));
+		}
+		File data = new File(path.toFile(), DATA_DIR);
 		
 		if (!data.exists()) {
 			data.mkdirs();
 		}
+		bulkDir = new File(path.toFile(), "_bulk");
+		deleteBulkFiles();
 		try {
-			storeDb = RocksDB.open(options, data.getAbsolutePath());
-			
-			ColumnFamilyDescriptor metaCol = new ColumnFamilyDescriptor("meta".getBytes());
-			ColumnFamilyDescriptor dataCol = new ColumnFamilyDescriptor("data".getBytes());
+			storeDb = RocksDB.open(options, data.getAbsolutePath(), columns, handles);
 			
-			dataHandle = storeDb.createColumnFamily(dataCol);
-			metaHandle = storeDb.createColumnFamily(metaCol);
+			metaHandle = handles.get(1);
+			for (FileCompression compression : COMPRESSIONS) {
+				dataHandles[compression.ordinal()] = handles.get(2 + compression.ordinal());
+			}
+			dataHandle = dataHandles[FileCompression.FAST.ordinal()];
 			
 		} catch (RocksDBException ex) {
+			closeResources();
 			throw new IOException(ex);
 		}
+		open();
+		if (config.bulkLoad()) {
+			beginBulkLoad();
+		}
+	}
+
+	/**
+	 * Removes SST files left over by bulk batches of a crashed process.
+	 */
+	private void deleteBulkFiles() {
+		File[] files = bulkDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		bulkDir.mkdirs();
+	}
+
+	private ColumnFamilyOptions columnOptions(RocksDBConfig config, Cache blockCache, int bloomBitsPerKey) {
+		BlockBasedTableConfig table = new BlockBasedTableConfig();
+		if (blockCache != null) {
+			table.setBlockCache(blockCache);
+		} else {
+			table.setNoBlockCache(true);
+		}
+		if (bloomBitsPerKey > 0) {
+			table.setFilterPolicy(resource(new BloomFilter(bloomBitsPerKey)));
+		}
+		ColumnFamilyOptions columnOptions = resource(new ColumnFamilyOptions());
+		columnOptions.setCompressionType(config.compression());
+		columnOptions.setWriteBufferSize(config.writeBufferSize());
+		columnOptions.setMaxWriteBufferNumber(config.maxWriteBufferNumber());
+		columnOptions.setTableFormatConfig(table);
+		return columnOptions;
+	}
+
+	private <T extends RocksObject> T resource(T object) {
+		resources.add(object);
+		return object;
+	}
+
+	private void closeResources() {
+		for (RocksObject resource : resources) {
+			resource.close();
+		}
+		resources.clear();
+	}
+
+	private static byte[] dataColumn(FileCompression compression) {
+		switch (compression) {
+			case NONE:
+				return "data_raw".getBytes();
+			case HIGH:
+				return "data_high".getBytes();
+			default:
+				return "data".getBytes();
+		}
+	}
+
+	private ColumnFamilyHandle dataHandle(FileCompression compression) {
+		return dataHandles[compression.ordinal()];
+	}
+
+	private static byte[] metaKey(String name) {
+		return name.getBytes(StandardCharsets.UTF_8);
 	}
 
 	@Override
-	public boolean contains(String key) throws IOException {
-		lock.readLock().lock();
+	protected byte[] getMeta(String name) throws IOException {
 		try {
-			byte[] key0 = key.getBytes();
-			byte[] bytes = storeDb.get(metaHandle, key0);
-			return bytes != null;
+			return storeDb.get(metaHandle, metaKey(name));
 		} catch (RocksDBException ex) {
 			java.util.logging.Logger.getLogger(RocksDBFileStore.class.getName()).log(Level.SEVERE, null, ex);
 
 			throw new IOException(ex);
-		} finally {
-			lock.readLock().unlock();
 		}
 	}
 
 	@Override
-	public int load(String name, long position, byte[] buf, int offset, int len) throws IOException {
-
-		lock.readLock().lock();
+	protected byte[] getData(long fileId, int extent, FileCompression compression) throws IOException {
 		try {
-			long size = getSize(name);
+			return storeDb.get(dataHandle(compression), dataKey(fileId, extent));
+		} catch (RocksDBException ex) {
+			java.util.logging.Logger.getLogger(RocksDBFileStore.class.getName()).log(Level.SEVERE, null, ex);
 
-			if (position >= size) {
-				return -1;
-			}
+			throw new IOException(ex);
+		}
+	}
 
-			if (buf.length < offset + len) {
-				throw new IllegalArgumentException("len is too long");
+	/**
+	 * Reads without allocating a value array. A read from the start of an
+	 * extent is copied by JNI straight into the caller's buffer, other reads
+	 * go through a reusable value array.
+	 */
+	@Override
+	protected int readData(long fileId, int extent, FileCompression compression, int offset, byte[] buf, int bufOffset, int len) throws IOException {
+		byte[] key = dataKey(fileId, extent);
+		ColumnFamilyHandle handle = dataHandle(compression);
+		try {
+			if (offset == 0) {
+				int size = storeDb.get(handle, readOptions, key, 0, key.length, buf, bufOffset, len);
+				return size == RocksDB.NOT_FOUND ? -1 : Math.min(size, len);
 			}
 
-			long p = position;
-			int f = offset;
-			int n = len;
-
-			while (true) {
-				int m = (int) (p % (long) BLOCK_SIZE);
-				int r = Math.min(BLOCK_SIZE - m, n);
-				int i = (int) (p / (long) BLOCK_SIZE);
-
-				byte[] bb = storeDb.get(dataHandle, (name + "_" + i).getBytes());
-
-				System.arraycopy(bb, m, buf, f, r);
-
-				p += r;
-				f += r;
-				n -= r;
-
-				if (n == 0 || p >= size) {
-					break;
+			byte[] value = readBuffers.poll();
+			if (value == null) {
+				value = new byte[BLOCK_SIZE];
+			}
+			try {
+				int size = storeDb.get(handle, readOptions, key, value);
+				if (size > value.length) {
+					// only a part of the extent fit, read it again
+					value = new byte[size];
+					size = storeDb.get(handle, readOptions, key, value);
+				}
+				if (size == RocksDB.NOT_FOUND) {
+					return -1;
 				}
+				int n = Math.min(len, Math.min(size, value.length) - offset);
+				System.arraycopy(value, offset, buf, bufOffset, n);
+				return n;
+			} finally {
+				release(value);
 			}
-
-			return (int) (p - position);
-
 		} catch (RocksDBException ex) {
 			java.util.logging.Logger.getLogger(RocksDBFileStore.class.getName()).log(Level.SEVERE, null, ex);
 
 			throw new IOException(ex);
-		} finally {
-			lock.readLock().unlock();
 		}
 	}
 
 	/**
-	 * @param key
-	 * @return not exist return -1
+	 * Keeps the value array for the next read.
 	 */
+	private void release(byte[] value) {
+		if (value.length <= MAX_READ_BUFFER_SIZE) {
+			readBuffers.offer(value);
+		}
+	}
+
 	@Override
-	public long getSize(String key) throws IOException {
-		lock.readLock().lock();
+	protected byte[] getLegacyData(String key) throws IOException {
 		try {
-			byte[] key0 = key.getBytes();
-			byte[] bytes = storeDb.get(metaHandle, key0);
-			if (bytes != null) {
-				return readLong(bytes);
-			}
+			return storeDb.get(dataHandle, key.getBytes());
 		} catch (RocksDBException ex) {
 			java.util.logging.Logger.getLogger(RocksDBFileStore.class.getName()).log(Level.SEVERE, null, ex);
 
 			throw new IOException(ex);
-		} finally {
-			lock.readLock().unlock();
 		}
-		return -1;
 	}
 
-	
+	@Override
+	protected Set<String> listMetaKeys() {
+		Set<String> keys = new HashSet<>();
+		try ( RocksIterator iterator = storeDb.newIterator(metaHandle);) {
+			iterator.seekToFirst();
+			while (iterator.isValid()) {
+				keys.add(new String(iterator.key(), StandardCharsets.UTF_8).intern());
+				iterator.next();
+			}
+		}
+
+		return keys;
+	}
 
 	@Override
-	public void remove(String key) throws IOException {
-		lock.writeLock().lock();
-		try {
-			byte[] key0 = key.getBytes();
-			long size = getSize(key);
+	protected StoreBatch createBatch() {
+		return new Batch();
+	}
+
+	/**
+	 * In bulk load mode merged and flushed files are written to SST files
+	 * which are ingested on commit.
+	 */
+	@Override
+	protected StoreBatch createBulkBatch() {
+		return bulkLoad ? new BulkBatch() : new Batch();
+	}
+
+	private class Batch implements StoreBatch {
 
-			if (size == -1) {
-				return;
+		private final WriteBatch batch = new WriteBatch();
+		private final Map<FileCompression, List<byte[]>> reclaim = new EnumMap<>(FileCompression.class);
+
+		@Override
+		public void putData(long fileId, int extent, FileCompression compression, byte[] value) throws IOException {
+			try {
+				batch.put(dataHandle(compression), dataKey(fileId, extent), value);
+			} catch (RocksDBException ex) {
+				throw new IOException(ex);
 			}
-			int n = (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
-			for (int i = 0; i < n; i++) {
-				storeDb.delete(dataHandle, (key + "_" + i).getBytes());
+		}
+
+		@Override
+		public void deleteData(long fileId, int extent, FileCompression compression) throws IOException {
+			try {
+				batch.delete(dataHandle(compression), dataKey(fileId, extent));
+			} catch (RocksDBException ex) {
+				throw new IOException(ex);
 			}
-			storeDb.delete(metaHandle, key0);
+		}
 
-		} catch (RocksDBException ex) {
-			java.util.logging.Logger.getLogger(RocksDBFileStore.class.getName()).log(Level.SEVERE, null, ex);
-			throw new IOException(ex);
-		} finally {
-			lock.writeLock().unlock();
+		@Override
+		public void deleteLegacyData(String key) throws IOException {
+			try {
+				batch.delete(dataHandle, key.getBytes());
+			} catch (RocksDBException ex) {
+				throw new IOException(ex);
+			}
 		}
-	}
 
-	@Override
-	public void clear() throws IOException {
+		/**
+		 * One range tombstone instead of one tombstone per extent.
+		 */
+		@Override
+		public void deleteFile(long fileId, int extentCount, long length, FileCompression compression) throws IOException {
+			byte[] begin = dataKey(fileId, 0);
+			byte[] end = dataKey(fileId + 1, 0);
+			try {
+				batch.deleteRange(dataHandle(compression), begin, end);
+			} catch (RocksDBException ex) {
+				throw new IOException(ex);
+			}
+			if (length >= RECLAIM_THRESHOLD) {
+				List<byte[]> ranges = reclaim.computeIfAbsent(compression, c -> new ArrayList<>());
+				ranges.add(begin);
+				ranges.add(end);
+			}
+		}
 
-		lock.writeLock().lock();
-		try {
-			Set<String> keySet = listKey();
-			for (String key : keySet) {
-				remove(key);
+		@Override
+		public void putMeta(String name, byte[] value) throws IOException {
+			try {
+				batch.put(metaHandle, metaKey(name), value);
+			} catch (RocksDBException ex) {
+				throw new IOException(ex);
 			}
-		} finally {
-			lock.writeLock().unlock();
 		}
-	}
 
-	@Override
-	public Set<String> listKey() {
-		Set<String> keys = new HashSet<>();
-		lock.readLock().lock();
-		try {
-			try ( RocksIterator iterator = storeDb.newIterator(metaHandle);) {
-				iterator.seekToFirst();
-				while (iterator.isValid()) {
-					keys.add(new String(iterator.key()).intern());
-					iterator.next();
+		@Override
+		public void deleteMeta(String name) throws IOException {
+			try {
+				batch.delete(metaHandle, metaKey(name));
+			} catch (RocksDBException ex) {
+				throw new IOException(ex);
+			}
+		}
+
+		@Override
+		public void write() throws IOException {
+			try {
+				storeDb.write(writeOptions(), batch);
+				batch.clear();
+				for (Map.Entry<FileCompression, List<byte[]>> ranges : reclaim.entrySet()) {
+					storeDb.deleteFilesInRanges(dataHandle(ranges.getKey()), ranges.getValue(), false);
 				}
+				reclaim.clear();
+			} catch (RocksDBException ex) {
+				java.util.logging.Logger.getLogger(RocksDBFileStore.class.getName()).log(Level.SEVERE, null, ex);
+				throw new IOException(ex);
 			}
-		} finally {
-			lock.readLock().unlock();
 		}
 
-		return keys;
+		@Override
+		public void close() {
+			batch.close();
+		}
 	}
 
-	@Override
-	public void append(String name, byte[] buf, int offset, int len) throws IOException {
+	/**
+	 * Writes the extents in key order into SST files next to the db instead
+	 * of the memtable and the WAL. The files are moved into the data column
+	 * family with the commit of the file, before its meta data is written.
+	 * The key range of a new file id overlaps no other data, so the files
+	 * go straight to the last level and are never compacted again. A batch
+	 * writes one file, so all extents go to the column family of its
+	 * compression.
+	 */
+	private final class BulkBatch extends Batch {
 
-		lock.writeLock().lock();
-		try {
+		private final List<String> files = new ArrayList<>();
 
-			long size = getSize(name);
-			if (size == -1) {
-				size = 0;
-			}
+		private SstFileWriter writer;
 
-			int f = offset;
-			int n = len;
+		private FileCompression compression;
 
-			while (true) {
+		private boolean metaChanged;
 
-				int m = (int) (size % (long) BLOCK_SIZE);
-				int r = Math.min(BLOCK_SIZE - m, n);
+		@Override
+		public void putData(long fileId, int extent, FileCompression compression, byte[] value) throws IOException {
+			if (this.compression == null) {
+				this.compression = compression;
+			} else if (this.compression != compression) {
+				throw new IllegalStateException("one compression per bulk batch");
+			}
+			try {
+				if (writer == null) {
+					writer = new SstFileWriter(envOptions, sstOptions[compression.ordinal()]);
+					String file = new File(bulkDir, bulkFileCounter.getAndIncrement() + ".sst").getAbsolutePath();
+					files.add(file);
+					writer.open(file);
+				}
+				writer.put(dataKey(fileId, extent), value);
+			} catch (RocksDBException ex) {
+				throw new IOException(ex);
+			}
+		}
 
-				byte[] bb;
+		@Override
+		public void putMeta(String name, byte[] value) throws IOException {
+			super.putMeta(name, value);
+			metaChanged = true;
+		}
 
-				int i = (int) ((size) / (long) BLOCK_SIZE);
-				if (m == 0) {
-					bb = new byte[BLOCK_SIZE];
-				} else {
-					bb = storeDb.get(dataHandle, (name + "_" + i).getBytes());
+		@Override
+		public void deleteMeta(String name) throws IOException {
+			super.deleteMeta(name);
+			metaChanged = true;
+		}
+
+		/**
+		 * Starts a new SST file once the current one is large enough, the
+		 * files are ingested with the meta data.
+		 */
+		@Override
+		public void write() throws IOException {
+			try {
+				if (writer != null && writer.fileSize() >= BULK_FILE_SIZE) {
+					finishFile();
+				}
+				if (!metaChanged) {
+					return;
 				}
+				if (writer != null) {
+					finishFile();
+				}
+				if (!files.isEmpty()) {
+					storeDb.ingestExternalFile(dataHandle(compression), files, ingestOptions);
+					files.clear();
+					bulkIngested = true;
+				}
+			} catch (RocksDBException ex) {
+				java.util.logging.Logger.getLogger(RocksDBFileStore.class.getName()).log(Level.SEVERE, null, ex);
+				throw new IOException(ex);
+			}
+			super.write();
+			metaChanged = false;
+		}
 
-				System.arraycopy(buf, f, bb, m, r);
-				storeDb.put(dataHandle, (name + "_" + i).getBytes(), bb);
-				size += r;
-				f += r;
-				n -= r;
+		private void finishFile() throws RocksDBException {
+			try {
+				writer.finish();
+			} finally {
+				writer.close();
+				writer = null;
+			}
+		}
 
-				if (n == 0) {
-					break;
-				}
+		@Override
+		public void close() {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
+			// files of an aborted writer
+			for (String file : files) {
+				new File(file).delete();
 			}
+			files.clear();
+			super.close();
+		}
+	}
 
-			storeDb.put(metaHandle, name.getBytes(), longToBytes(size));
+	@Override
+	protected void deleteOrphanedData(NavigableSet<Long> fileIds) throws IOException {
+		try (WriteBatch batch = new WriteBatch()) {
+			for (ColumnFamilyHandle handle : dataHandles) {
+				try (RocksIterator iterator = storeDb.newIterator(handle)) {
+					iterator.seek(dataKey(0, 0));
+					while (iterator.isValid() && Arrays.compareUnsigned(iterator.key(), DATA_KEY_END) < 0) {
+						long fileId = readLong(iterator.key());
+						if (fileIds.contains(fileId)) {
+							iterator.seek(dataKey(fileId + 1, 0));
+						} else {
+							byte[] end = orphanedDataEnd(fileIds, fileId);
+							batch.deleteRange(handle, dataKey(fileId, 0), end);
+							iterator.seek(end);
+						}
+					}
+				}
+			}
+			if (batch.count() > 0) {
+				storeDb.write(writeOptions(), batch);
+			}
+		} catch (RocksDBException ex) {
+			throw new IOException(ex);
+		}
+	}
 
+	/**
+	 * Drops the whole meta and data key space with range deletes and frees
+	 * the SST files of the data.
+	 */
+	@Override
+	protected void deleteAll() throws IOException {
+		try (WriteBatch batch = new WriteBatch();
+				RocksIterator iterator = storeDb.newIterator(metaHandle)) {
+			for (ColumnFamilyHandle handle : dataHandles) {
+				batch.deleteRange(handle, new byte[0], DATA_END);
+			}
+			iterator.seekToLast();
+			if (iterator.isValid()) {
+				byte[] last = iterator.key();
+				batch.deleteRange(metaHandle, new byte[0], last);
+				batch.delete(metaHandle, last);
+			}
+			storeDb.write(writeOptions(), batch);
+			for (ColumnFamilyHandle handle : dataHandles) {
+				storeDb.deleteFilesInRanges(handle, Arrays.asList(new byte[0], DATA_END), false);
+			}
 		} catch (RocksDBException ex) {
 			java.util.logging.Logger.getLogger(RocksDBFileStore.class.getName()).log(Level.SEVERE, null, ex);
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * Switches to the bulk load mode for a full reindex.
+	 *
+	 * Merged and flushed files are written to SST files and ingested, all
+	 * other writes skip the WAL and the automatic compactions are stopped.
+	 * Files committed in this mode are only durable after
+	 * {@link #sync()} or {@link #endBulkLoad()}.
+	 */
+	public synchronized void beginBulkLoad() throws IOException {
+		if (bulkLoad) {
+			return;
+		}
+		setAutoCompactions(false);
+		bulkLoad = true;
+	}
 
+	/**
+	 * Leaves the bulk load mode, flushes the memtables written without WAL
+	 * and compacts the store once if files were ingested.
+	 */
+	public synchronized void endBulkLoad() throws IOException {
+		if (!bulkLoad) {
+			return;
+		}
+		// later writes go to the WAL, the flush covers the ones without
+		bulkLoad = false;
+		try {
+			flushMemTables();
+		} catch (RocksDBException ex) {
+			java.util.logging.Logger.getLogger(RocksDBFileStore.class.getName()).log(Level.SEVERE, null, ex);
 			throw new IOException(ex);
-		} finally {
-			lock.writeLock().unlock();
+		}
+		setAutoCompactions(true);
+		if (bulkIngested) {
+			bulkIngested = false;
+			takeRemovedRanges();
+			compact();
 		}
 	}
 
-	@Override
-	public void move(String source, String dest) throws IOException {
+	public boolean isBulkLoad() {
+		return bulkLoad;
+	}
 
-		lock.writeLock().lock();
+	private void setAutoCompactions(boolean enabled) throws IOException {
+		MutableColumnFamilyOptions mutableOptions = MutableColumnFamilyOptions.builder()
+				.setDisableAutoCompactions(!enabled)
+				.build();
 		try {
+			storeDb.setOptions(metaHandle, mutableOptions);
+			for (ColumnFamilyHandle handle : dataHandles) {
+				storeDb.setOptions(handle, mutableOptions);
+			}
+		} catch (RocksDBException ex) {
+			throw new IOException(ex);
+		}
+	}
 
-			long s_size = getSize(source);
-			storeDb.put(metaHandle, dest.getBytes(), longToBytes(s_size));
+	private WriteOptions writeOptions() {
+		return bulkLoad ? bulkWriteOptions : writeOptions;
+	}
 
-			int n = (int) ((s_size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+	@Override
+	public void close() throws IOException {
+		try {
+			endBulkLoad();
+		} finally {
+			closeDb();
+			readBuffers.clear();
+		}
+	}
 
-			for (int i = 0; i < n; i++) {
-				storeDb.put(dataHandle, (dest + "_" + i).getBytes(), storeDb.get(dataHandle, (source + "_" + i).getBytes()));
+	private void closeDb() {
+		try {
+			for (ColumnFamilyHandle handle : handles) {
+				handle.close();
 			}
-			remove(source);
+			storeDb.close();
+		} finally {
+			writeOptions.close();
+			bulkWriteOptions.close();
+			readOptions.close();
+			closeResources();
+		}
+	}
 
+	/**
+	 * Syncs the WAL, which holds all writes since the last sync. Writes
+	 * without WAL are made durable by an atomic flush of the memtables.
+	 */
+	@Override
+	protected void syncBackend() throws IOException {
+		try {
+			if (bulkLoad || walDisabled) {
+				flushMemTables();
+			} else {
+				storeDb.flushWal(true);
+			}
 		} catch (RocksDBException ex) {
 			java.util.logging.Logger.getLogger(RocksDBFileStore.class.getName()).log(Level.SEVERE, null, ex);
 			throw new IOException(ex);
-		} finally {
-			lock.writeLock().unlock();
 		}
+	}
 
+	private void flushMemTables() throws RocksDBException {
+		try (FlushOptions flushOptions = new FlushOptions().setWaitForFlush(true)) {
+			List<ColumnFamilyHandle> flushed = new ArrayList<>(Arrays.asList(dataHandles));
+			flushed.add(metaHandle);
+			storeDb.flush(flushOptions, flushed);
+		}
 	}
 
+	/**
+	 * Creates a RocksDB checkpoint of the whole store, SST files are hard
+	 * linked if the target is on the same file system. Memtables are flushed
+	 * first, so writes without WAL are included. The files that are not
+	 * named are removed from the checkpoint afterwards.
+	 */
 	@Override
-	public void close() throws IOException {
+	public void checkpoint(Path target, Collection<String> names) throws IOException {
+		try (Stream<Path> entries = Files.list(Files.createDirectories(target))) {
+			if (entries.findAny().isPresent()) {
+				throw new IOException("checkpoint directory is not empty: " + target);
+			}
+		}
+		try (Checkpoint checkpoint = Checkpoint.create(storeDb)) {
+			// RocksDB creates the directory of the db itself
+			checkpoint.createCheckpoint(target.resolve(DATA_DIR).toString());
+		} catch (RocksDBException ex) {
+			throw new IOException(ex);
+		}
+		RocksDBFileStore copy = new RocksDBFileStore(target, config.withoutBulkLoad());
 		try {
-			storeDb.close();
+			for (String name : copy.listKey()) {
+				if (!names.contains(name)) {
+					copy.remove(name);
+				}
+			}
+			copy.sync();
 		} finally {
+			copy.close();
+		}
+	}
+
+	/**
+	 * Creates an incremental backup with a RocksDB BackupEngine, SST files
+	 * already in the backup directory are not copied again.
+	 *
+	 * @param backupDir the backup directory, created if it does not exist
+	 * @return the id of the new backup
+	 */
+	public int createBackup(Path backupDir) throws IOException {
+		Files.createDirectories(backupDir);
+		try (BackupEngineOptions backupOptions = new BackupEngineOptions(backupDir.toString());
+				BackupEngine engine = BackupEngine.open(Env.getDefault(), backupOptions)) {
+			engine.createNewBackup(storeDb, true);
+			List<BackupInfo> backups = engine.getBackupInfo();
+			return backups.get(backups.size() - 1).backupId();
+		} catch (RocksDBException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * Restores the latest backup of the backup directory to the directory of
+	 * a store that is not open, the db files are replaced.
+	 *
+	 * @param backupDir
+	 * @param path the directory of the store
+	 */
+	public static void restoreBackup(Path backupDir, Path path) throws IOException {
+		try (BackupEngineOptions backupOptions = new BackupEngineOptions(backupDir.toString());
+				BackupEngine engine = BackupEngine.open(Env.getDefault(), backupOptions);
+				RestoreOptions restoreOptions = new RestoreOptions(false)) {
+			String data = Files.createDirectories(path.resolve(DATA_DIR)).toString();
+			engine.restoreDbFromLatestBackup(data, data, restoreOptions);
+		} catch (RocksDBException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * Deletes all but the latest backups and the files only they refer to.
+	 *
+	 * @param backupDir
+	 * @param keep number of backups to keep
+	 */
+	public static void purgeBackups(Path backupDir, int keep) throws IOException {
+		try (BackupEngineOptions backupOptions = new BackupEngineOptions(backupDir.toString());
+				BackupEngine engine = BackupEngine.open(Env.getDefault(), backupOptions)) {
+			engine.purgeOldBackups(keep);
+		} catch (RocksDBException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * Passes through the compaction, memtable and size properties and, if
+	 * enabled by {@link RocksDBConfig#statistics()}, all tickers.
+	 */
+	@Override
+	protected void backendStatistics(Map<String, Long> values) {
+		try {
+			for (String property : DB_PROPERTIES) {
+				values.put(property, storeDb.getLongProperty(property));
+			}
+			for (String property : COLUMN_PROPERTIES) {
+				long sum = 0;
+				for (ColumnFamilyHandle handle : handles) {
+					sum += storeDb.getLongProperty(handle, property);
+				}
+				values.put(property, sum);
+			}
+		} catch (RocksDBException ex) {
+			java.util.logging.Logger.getLogger(RocksDBFileStore.class.getName()).log(Level.WARNING, null, ex);
+		}
+		if (statistics != null) {
+			for (TickerType ticker : TickerType.values()) {
+				if (ticker != TickerType.TICKER_ENUM_MAX) {
+					values.put("rocksdb." + ticker.name().toLowerCase(Locale.ROOT), statistics.getTickerCount(ticker));
+				}
+			}
 		}
 	}
 
 	@Override
-	public void sync() throws IOException {
+	public void compact() throws IOException {
 		try {
-			storeDb.compactRange();
+			storeDb.compactRange(metaHandle);
+			for (ColumnFamilyHandle handle : dataHandles) {
+				storeDb.compactRange(handle);
+			}
 		} catch (RocksDBException ex) {
 			java.util.logging.Logger.getLogger(RocksDBFileStore.class.getName()).log(Level.SEVERE, null, ex);
 			
 			throw new IOException(ex);
 		}
 	}
+
+	/**
+	 * Nothing is compacted in bulk load mode, the ranges are kept for the
+	 * compaction at its end.
+	 */
+	@Override
+	public void compactRemoved(DoubleConsumer progress) throws IOException {
+		if (!bulkLoad) {
+			super.compactRemoved(progress);
+		}
+	}
+
+	@Override
+	protected void compactRange(long fromFileId, long toFileId) throws IOException {
+		try {
+			for (ColumnFamilyHandle handle : dataHandles) {
+				storeDb.compactRange(handle, dataKey(fromFileId, 0), dataKey(toFileId, 0));
+			}
+		} catch (RocksDBException ex) {
+			java.util.logging.Logger.getLogger(RocksDBFileStore.class.getName()).log(Level.SEVERE, null, ex);
+			throw new IOException(ex);
+		}
+	}
 }
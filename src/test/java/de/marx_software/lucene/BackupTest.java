@@ -0,0 +1,192 @@
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.leveldb.LeveldbConfig;
+import de.marx_software.lucene.mvstore.MVStoreConfig;
+import de.marx_software.lucene.rocksdb.RocksDBConfig;
+import de.marx_software.lucene.rocksdb.RocksDBFileStore;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Created by thmarx.
+ */
+public class BackupTest {
+
+    private File tmpFile;
+
+    @Before
+    public void setUp() {
+        tmpFile = new File("target/test-backup");
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @After
+    public void after() {
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @Test
+    public void testCheckpoint() throws IOException {
+        DirectoryConfig hybrid = DirectoryConfig.builder()
+                .placementPolicy(new ExtensionPlacementPolicy(ExtensionPlacementPolicy.DATA_EXTENSIONS, 0))
+                .build();
+        for (int backend = 0; backend < 4; backend++) {
+            Path index = tmpFile.toPath().resolve("index-" + backend);
+            Path checkpoint = tmpFile.toPath().resolve("checkpoint-" + backend);
+            DirectoryConfig config = backend == 3 ? hybrid : DirectoryConfig.DEFAULT;
+            try (DBDirectory directory = open(backend, index, config)) {
+                SnapshotDeletionPolicy snapshots = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+                try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                        .setIndexDeletionPolicy(snapshots))) {
+                    addDocuments(writer, 0, 100);
+                    writer.commit();
+                    IndexCommit commit = snapshots.snapshot();
+
+                    // indexing goes on while the commit is pinned
+                    addDocuments(writer, 100, 50);
+                    writer.forceMerge(1);
+                    writer.commit();
+
+                    directory.checkpoint(commit, checkpoint);
+                    snapshots.release(commit);
+                }
+            }
+            try (DBDirectory copy = open(backend, checkpoint, config);
+                 DirectoryReader reader = DirectoryReader.open(copy)) {
+                Assert.assertEquals(100, reader.numDocs());
+                Assert.assertEquals(1, DirectoryReader.listCommits(copy).size());
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalBackupAndRestore() throws IOException {
+        try (DBDirectory directory = open(0, tmpFile.toPath().resolve("index"), DirectoryConfig.DEFAULT);
+             DBDirectory backup = open(1, tmpFile.toPath().resolve("backup"), DirectoryConfig.DEFAULT)) {
+            SnapshotDeletionPolicy snapshots = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                    .setIndexDeletionPolicy(snapshots))) {
+                addDocuments(writer, 0, 1000);
+                writer.commit();
+                IndexCommit commit = snapshots.snapshot();
+                long full = directory.backup(commit, backup);
+                snapshots.release(commit);
+                Assert.assertTrue(full > 0);
+
+                addDocuments(writer, 1000, 10);
+                writer.commit();
+                commit = snapshots.snapshot();
+                long incremental = directory.backup(commit, backup);
+                snapshots.release(commit);
+                Assert.assertTrue(incremental < full);
+                Assert.assertEquals(1, DirectoryReader.listCommits(backup).size());
+            }
+
+            try (DBDirectory restored = open(2, tmpFile.toPath().resolve("restored"), DirectoryConfig.DEFAULT)) {
+                Assert.assertTrue(restored.restore(backup) > 0);
+                // nothing changed
+                Assert.assertEquals(0, restored.restore(backup));
+                try (DirectoryReader reader = DirectoryReader.open(restored)) {
+                    Assert.assertEquals(1010, reader.numDocs());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBackupOfRecreatedIndex() throws IOException {
+        try (DBDirectory directory = open(0, tmpFile.toPath().resolve("index"), DirectoryConfig.DEFAULT);
+             DBDirectory backup = open(1, tmpFile.toPath().resolve("backup"), DirectoryConfig.DEFAULT)) {
+            backupAll(directory, backup, "a");
+            // the same segment names and lengths, other content
+            for (String name : directory.listAll()) {
+                directory.deleteFile(name);
+            }
+            backupAll(directory, backup, "b");
+
+            try (DirectoryReader reader = DirectoryReader.open(backup)) {
+                Assert.assertEquals(1, reader.docFreq(new Term("content", "b")));
+                Assert.assertEquals(0, reader.docFreq(new Term("content", "a")));
+            }
+        }
+    }
+
+    private static void backupAll(DBDirectory directory, DBDirectory backup, String content) throws IOException {
+        SnapshotDeletionPolicy snapshots = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                .setIndexDeletionPolicy(snapshots))) {
+            Document doc = new Document();
+            doc.add(new TextField("content", content, Field.Store.YES));
+            writer.addDocument(doc);
+            writer.commit();
+            IndexCommit commit = snapshots.snapshot();
+            directory.backup(commit, backup);
+            snapshots.release(commit);
+        }
+    }
+
+    @Test
+    public void testRocksDBBackupEngine() throws IOException {
+        Path index = tmpFile.toPath().resolve("index");
+        Path backups = tmpFile.toPath().resolve("backups");
+        Path restored = tmpFile.toPath().resolve("restored");
+        try (DBDirectory directory = open(0, index, DirectoryConfig.DEFAULT)) {
+            RocksDBFileStore store = (RocksDBFileStore) directory.getStore();
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+                addDocuments(writer, 0, 100);
+                writer.commit();
+                int first = store.createBackup(backups);
+                addDocuments(writer, 100, 100);
+                writer.commit();
+                Assert.assertTrue(store.createBackup(backups) > first);
+            }
+        }
+        RocksDBFileStore.purgeBackups(backups, 1);
+        RocksDBFileStore.restoreBackup(backups, restored);
+        try (DBDirectory directory = open(0, restored, DirectoryConfig.DEFAULT);
+             DirectoryReader reader = DirectoryReader.open(directory)) {
+            Assert.assertEquals(200, reader.numDocs());
+        }
+    }
+
+    private static DBDirectory open(int backend, Path path, DirectoryConfig config) throws IOException {
+        switch (backend) {
+            case 1:
+                return DBDirectories.leveldb(path, config, LeveldbConfig.DEFAULT);
+            case 2:
+                return DBDirectories.mvstore(path, config, MVStoreConfig.DEFAULT);
+            default:
+                return DBDirectories.rocket(path, config, RocksDBConfig.DEFAULT);
+        }
+    }
+
+    private static void addDocuments(IndexWriter writer, int from, int count) throws IOException {
+        for (int i = from; i < from + count; i++) {
+            Document doc = new Document();
+            doc.add(new TextField("content", "document number " + i, Field.Store.YES));
+            writer.addDocument(doc);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package de.marx_software.lucene;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Created by thmarx.
+ */
+public class BlockCacheTest {
+
+    private static final int BLOCK = 1024;
+
+    @Test
+    public void testGetPut() {
+        BlockCache cache = new BlockCache(1024 * 1024);
+
+        Assert.assertNull(cache.get("a", 0));
+        byte[] block = new byte[BLOCK];
+        cache.put("a", 0, block);
+
+        Assert.assertSame(block, cache.get("a", 0));
+        Assert.assertNull(cache.get("a", 1));
+        Assert.assertNull(cache.get("b", 0));
+        Assert.assertEquals(1, cache.hitCount());
+        Assert.assertEquals(3, cache.missCount());
+        Assert.assertEquals(BLOCK, cache.sizeInBytes());
+    }
+
+    @Test
+    public void testInvalidate() {
+        BlockCache cache = new BlockCache(1024 * 1024);
+        for (int i = 0; i < 10; i++) {
+            cache.put("a", i, new byte[BLOCK]);
+            cache.put("b", i, new byte[BLOCK]);
+        }
+
+        cache.invalidate("a");
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertNull(cache.get("a", i));
+            Assert.assertNotNull(cache.get("b", i));
+        }
+        Assert.assertEquals(10 * BLOCK, cache.sizeInBytes());
+    }
+
+    @Test
+    public void testInvalidateAfterEvictions() {
+        BlockCache cache = new BlockCache(64 * BLOCK);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 200; i++) {
+                cache.get("a", i);
+                cache.put("a", i, new byte[BLOCK]);
+            }
+        }
+        Assert.assertTrue(cache.evictionCount() > 0);
+
+        cache.invalidate("a");
+
+        Assert.assertEquals(0, cache.blockCount());
+        Assert.assertEquals(0, cache.sizeInBytes());
+        cache.put("a", 0, new byte[BLOCK]);
+        Assert.assertNotNull(cache.get("a", 0));
+    }
+
+    @Test
+    public void testBounded() {
+        long max = 64 * BLOCK;
+        BlockCache cache = new BlockCache(max);
+        for (int i = 0; i < 10000; i++) {
+            cache.get("scan", i);
+            cache.put("scan", i, new byte[BLOCK]);
+        }
+        Assert.assertTrue(cache.sizeInBytes() <= max);
+    }
+
+    @Test
+    public void testFrequentBlocksSurviveScan() {
+        BlockCache cache = new BlockCache(64 * BLOCK);
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 16; i++) {
+                if (cache.get("hot", i) == null) {
+                    cache.put("hot", i, new byte[BLOCK]);
+                }
+            }
+        }
+
+        // a scan larger than the cache, the hot blocks are still in use
+        for (int i = 0; i < 10000; i++) {
+            if (cache.get("scan", i) == null) {
+                cache.put("scan", i, new byte[BLOCK]);
+            }
+            if (i % 64 == 0) {
+                for (int h = 0; h < 16; h++) {
+                    if (cache.get("hot", h) == null) {
+                        cache.put("hot", h, new byte[BLOCK]);
+                    }
+                }
+            }
+        }
+
+        int hot = 0;
+        for (int i = 0; i < 16; i++) {
+            if (cache.get("hot", i) != null) {
+                hot++;
+            }
+        }
+        Assert.assertEquals(16, hot);
+    }
+}
@@ -0,0 +1,88 @@
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.rocksdb.RocksDBConfig;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by thmarx.
+ */
+public class CompactionSchedulerTest {
+
+    private File tmpFile;
+
+    @Before
+    public void setUp() {
+        tmpFile = new File("target/test-compaction");
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @After
+    public void after() {
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @Test
+    public void testCompactAfterRemovedBytes() throws Exception {
+        DirectoryConfig config = DirectoryConfig.builder()
+                .compactionMinBytes(200 * 1024)
+                .compactionGarbageRatio(0.6)
+                .build();
+        try (DBDirectory directory = DBDirectories.rocket(tmpFile.toPath(), config, RocksDBConfig.DEFAULT)) {
+            CompactionScheduler scheduler = directory.getCompactionScheduler();
+            byte[] content = new byte[100 * 1024];
+            for (int i = 0; i < 4; i++) {
+                try (IndexOutput output = directory.createOutput("_" + i + ".fdt", IOContext.DEFAULT)) {
+                    output.writeBytes(content, 0, content.length);
+                }
+            }
+            Assert.assertEquals(4 * content.length, scheduler.getLiveBytes());
+
+            directory.deleteFile("_0.fdt");
+            directory.deleteFile("_1.fdt");
+            // 200 kb removed, but only half of all bytes
+            Assert.assertEquals(0, scheduler.getCompactionCount());
+            Assert.assertEquals(200 * 1024, scheduler.getRemovedBytes());
+            Assert.assertEquals(2 * content.length, scheduler.getLiveBytes());
+
+            directory.deleteFile("_2.fdt");
+            long deadline = System.currentTimeMillis() + 10000;
+            while (scheduler.getCompactionCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, scheduler.getCompactionCount());
+            Assert.assertEquals(0, scheduler.getRemovedBytes());
+            Assert.assertEquals(content.length, directory.fileLength("_3.fdt"));
+            Assert.assertEquals(content.length, scheduler.getLiveBytes());
+        }
+    }
+
+    @Test
+    public void testWaitAboveLongNanos() {
+        // 20 GB at 1 GB per second
+        long gb = 1024L * 1024 * 1024;
+        Assert.assertEquals(TimeUnit.SECONDS.toNanos(20), CompactionScheduler.waitNanos(20 * gb, gb, 0), 1000);
+        Assert.assertEquals(TimeUnit.SECONDS.toNanos(10), CompactionScheduler.waitNanos(0.5 * 20 * gb, gb, 0), 1000);
+        Assert.assertTrue(CompactionScheduler.waitNanos(gb, gb, TimeUnit.SECONDS.toNanos(2)) < 0);
+    }
+
+    @Test
+    public void testDisabled() throws IOException {
+        DirectoryConfig config = DirectoryConfig.builder().compactionMinBytes(0).build();
+        try (DBDirectory directory = DBDirectories.rocket(tmpFile.toPath(), config, RocksDBConfig.DEFAULT)) {
+            Assert.assertNull(directory.getCompactionScheduler());
+        }
+    }
+}
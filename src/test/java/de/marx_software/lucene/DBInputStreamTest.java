@@ -0,0 +1,216 @@
+package de.marx_software.lucene;
+
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RandomAccessInput;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Created by thmarx.
+ */
+public class DBInputStreamTest {
+
+    private static final int SIZE = 100 * 1024;
+
+    private static final int BLOCK = ExtensionBlockSizePolicy.DEFAULT_BLOCK_SIZE;
+
+    private byte[] content;
+    private DBDirectory directory;
+
+    private File tmpFile;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpFile = new File("target/test-input-stream");
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+        directory = DBDirectories.rocket(tmpFile.toPath(), 0);
+
+        content = new byte[SIZE];
+        new Random(42).nextBytes(content);
+        try (IndexOutput output = directory.createOutput("test", IOContext.DEFAULT)) {
+            output.writeBytes(content, 0, content.length);
+        }
+    }
+
+    @After
+    public void after() throws IOException {
+        directory.close();
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @Test
+    public void testRandomAccess() throws IOException {
+        ByteBuffer expected = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+        try (IndexInput input = directory.openInput("test", IOContext.DEFAULT)) {
+            RandomAccessInput random = input.randomAccessSlice(0, SIZE);
+            Random positions = new Random(7);
+            for (int i = 0; i < 1000; i++) {
+                int pos = positions.nextInt(SIZE - Long.BYTES);
+                Assert.assertEquals(expected.get(pos), random.readByte(pos));
+                Assert.assertEquals(expected.getShort(pos), random.readShort(pos));
+                Assert.assertEquals(expected.getInt(pos), random.readInt(pos));
+                Assert.assertEquals(expected.getLong(pos), random.readLong(pos));
+            }
+
+            // values spanning two blocks
+            for (int pos = BLOCK - Long.BYTES; pos <= BLOCK; pos++) {
+                Assert.assertEquals(expected.getLong(pos), random.readLong(pos));
+                Assert.assertEquals(expected.getInt(pos), random.readInt(pos));
+            }
+        }
+    }
+
+    @Test
+    public void testRandomAccessSlice() throws IOException {
+        ByteBuffer expected = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+        try (IndexInput input = directory.openInput("test", IOContext.DEFAULT)) {
+            RandomAccessInput slice = input.randomAccessSlice(15000, 20000);
+            Assert.assertEquals(expected.getLong(15000), slice.readLong(0));
+            Assert.assertEquals(expected.getInt(15000 + 19996), slice.readInt(19996));
+            try {
+                slice.readInt(19997);
+                Assert.fail();
+            } catch (EOFException expectedException) {
+            }
+        }
+    }
+
+    @Test
+    public void testSliceEnd() throws IOException {
+        try (IndexInput input = directory.openInput("test", IOContext.DEFAULT)) {
+            // the slice ends within the block, the bytes behind it must not be read
+            IndexInput slice = input.slice("end", 1000, 100);
+            slice.seek(99);
+            slice.readByte();
+            assertEOF(slice, 99, in -> in.readShort());
+            assertEOF(slice, 97, in -> in.readInt());
+            assertEOF(slice, 93, in -> in.readLong());
+            assertEOF(slice, 100, in -> in.readVInt());
+            assertEOF(slice, 100, in -> in.readVLong());
+            assertEOF(slice, 90, in -> in.readLongs(new long[2], 0, 2));
+            assertEOF(slice, 94, in -> in.readInts(new int[2], 0, 2));
+            assertEOF(slice, 94, in -> in.readFloats(new float[2], 0, 2));
+
+            slice.seek(92);
+            long[] longs = new long[1];
+            slice.readLongs(longs, 0, 1);
+            Assert.assertEquals(ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN).getLong(1092), longs[0]);
+            Assert.assertEquals(100, slice.getFilePointer());
+        }
+    }
+
+    private interface Read {
+        void read(IndexInput input) throws IOException;
+    }
+
+    private static void assertEOF(IndexInput input, long pos, Read read) throws IOException {
+        input.seek(pos);
+        try {
+            read.read(input);
+            Assert.fail("read behind the end at " + pos);
+        } catch (EOFException expected) {
+        }
+    }
+
+    @Test
+    public void testPrimitives() throws IOException {
+        ByteBuffersDirectory reference = new ByteBuffersDirectory();
+        long[] longs = new long[3000];
+        int[] ints = new int[3000];
+        float[] floats = new float[3000];
+        Random random = new Random(11);
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = random.nextLong();
+            ints[i] = random.nextInt();
+            floats[i] = random.nextFloat();
+        }
+
+        long checksum = 0;
+        for (Directory dir : new Directory[]{directory, reference}) {
+            try (IndexOutput output = dir.createOutput("primitives", IOContext.DEFAULT)) {
+                // odd offset, so values span the block boundaries
+                output.writeByte((byte) 1);
+                for (int i = 0; i < longs.length; i++) {
+                    output.writeLong(longs[i]);
+                    output.writeInt(ints[i]);
+                    output.writeShort((short) ints[i]);
+                    output.writeVInt(ints[i] >>> 1);
+                    output.writeVLong(longs[i] >>> 1);
+                }
+                for (int i = 0; i < longs.length; i++) {
+                    output.writeLong(longs[i]);
+                }
+                for (int i = 0; i < ints.length; i++) {
+                    output.writeInt(ints[i]);
+                }
+                for (int i = 0; i < floats.length; i++) {
+                    output.writeInt(Float.floatToIntBits(floats[i]));
+                }
+                if (dir == directory) {
+                    checksum = output.getChecksum();
+                } else {
+                    Assert.assertEquals(output.getChecksum(), checksum);
+                }
+            }
+        }
+
+        try (IndexInput input = directory.openInput("primitives", IOContext.DEFAULT);
+                IndexInput expected = reference.openInput("primitives", IOContext.DEFAULT)) {
+            Assert.assertEquals(expected.length(), input.length());
+            Assert.assertEquals(1, input.readByte());
+            for (int i = 0; i < longs.length; i++) {
+                Assert.assertEquals(longs[i], input.readLong());
+                Assert.assertEquals(ints[i], input.readInt());
+                Assert.assertEquals((short) ints[i], input.readShort());
+                Assert.assertEquals(ints[i] >>> 1, input.readVInt());
+                Assert.assertEquals(longs[i] >>> 1, input.readVLong());
+            }
+            long[] readLongs = new long[longs.length];
+            input.readLongs(readLongs, 0, readLongs.length);
+            Assert.assertArrayEquals(longs, readLongs);
+            int[] readInts = new int[ints.length];
+            input.readInts(readInts, 0, readInts.length);
+            Assert.assertArrayEquals(ints, readInts);
+            float[] readFloats = new float[floats.length];
+            input.readFloats(readFloats, 0, readFloats.length);
+            Assert.assertArrayEquals(floats, readFloats, 0f);
+            Assert.assertEquals(input.length(), input.getFilePointer());
+        }
+    }
+
+    @Test
+    public void testPositionalReadsKeepFilePointer() throws IOException {
+        try (IndexInput input = directory.openInput("test", IOContext.DEFAULT)) {
+            RandomAccessInput random = (RandomAccessInput) input;
+            input.seek(100);
+            input.readByte();
+            random.readLong(50000);
+            Assert.assertEquals(101, input.getFilePointer());
+            Assert.assertEquals(content[101], input.readByte());
+
+            // seek within the current block and back
+            input.seek(50);
+            Assert.assertEquals(content[50], input.readByte());
+            input.seek(BLOCK - 1);
+            Assert.assertEquals(content[BLOCK - 1], input.readByte());
+            Assert.assertEquals(content[BLOCK], input.readByte());
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.rocksdb.RocksDBFileStore;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.store.IOContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Created by thmarx.
+ */
+public class DeduplicationTest {
+
+    private File tmpFile;
+
+    @Before
+    public void setUp() {
+        tmpFile = new File("target/test-dedup");
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @After
+    public void after() {
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @Test
+    public void testSharedContent() throws IOException {
+        byte[] data = new byte[256 * 1024];
+        new Random(42).nextBytes(data);
+        byte[] shifted = new byte[data.length + 100];
+        System.arraycopy(data, 0, shifted, 100, data.length);
+
+        try (DedupBlockStore blocks = new DedupBlockStore(new RocksDBFileStore(tmpFile.toPath()))) {
+            DedupFileStore store = blocks.open("index");
+            write(store, "a", data);
+            long blockBytes = blocks.getStatistics().get(DedupBlockStore.BLOCK_BYTES);
+            Assert.assertEquals(data.length, blockBytes);
+
+            // equal content is stored once, shifted content mostly
+            write(store, "b", data);
+            Assert.assertEquals(blockBytes, blocks.getStatistics().get(DedupBlockStore.BLOCK_BYTES).longValue());
+            write(store, "c", shifted);
+            Assert.assertTrue(blocks.getStatistics().get(DedupBlockStore.BLOCK_BYTES) - blockBytes < 4 * 8192);
+            Assert.assertArrayEquals(data, read(store, "b"));
+            Assert.assertArrayEquals(shifted, read(store, "c"));
+
+            store.move("b", "d");
+            Assert.assertArrayEquals(data, read(store, "d"));
+            store.remove("a");
+            store.remove("d");
+            Assert.assertArrayEquals(shifted, read(store, "c"));
+            store.remove("c");
+            Assert.assertEquals(0, blocks.getStatistics().get(DedupBlockStore.BLOCKS).longValue());
+        }
+    }
+
+    @Test
+    public void testCopyBetweenDirectories() throws IOException {
+        Path path = tmpFile.toPath();
+        DedupBlockStore blocks = new DedupBlockStore(new RocksDBFileStore(path));
+        try (DBDirectory first = DBDirectories.deduplicated(blocks, "first", DirectoryConfig.DEFAULT);
+             DBDirectory second = DBDirectories.deduplicated(blocks, "second", DirectoryConfig.DEFAULT)) {
+            try (IndexWriter writer = new IndexWriter(first, new IndexWriterConfig(new StandardAnalyzer()))) {
+                addDocuments(writer, 0, 1000);
+            }
+            long written = blocks.getStatistics().get(DedupBlockStore.WRITTEN_BLOCKS);
+
+            for (String name : first.listAll()) {
+                second.copyFrom(first, name, name, IOContext.DEFAULT);
+            }
+            Assert.assertEquals(written, blocks.getStatistics().get(DedupBlockStore.WRITTEN_BLOCKS).longValue());
+            assertDocs(second, 1000);
+
+            // addIndexes links the segment files and only writes segment infos
+            try (DBDirectory third = DBDirectories.deduplicated(blocks, "third", DirectoryConfig.DEFAULT)) {
+                long blockBytes = blocks.getStatistics().get(DedupBlockStore.BLOCK_BYTES);
+                try (IndexWriter writer = new IndexWriter(third, new IndexWriterConfig(new StandardAnalyzer()))) {
+                    writer.addIndexes(first);
+                }
+                assertDocs(third, 1000);
+                Assert.assertTrue(blocks.getStatistics().get(DedupBlockStore.BLOCK_BYTES) - blockBytes < 1024);
+                for (String name : third.listAll()) {
+                    third.deleteFile(name);
+                }
+            }
+
+            // the copy survives the original
+            for (String name : first.listAll()) {
+                first.deleteFile(name);
+            }
+            assertDocs(second, 1000);
+        }
+
+        // reference counts are rebuilt on open
+        blocks = new DedupBlockStore(new RocksDBFileStore(path));
+        Assert.assertEquals(Collections.singleton("second"), blocks.namespaces());
+        try (DBDirectory second = DBDirectories.deduplicated(blocks, "second", DirectoryConfig.DEFAULT)) {
+            assertDocs(second, 1000);
+            for (String name : second.listAll()) {
+                second.deleteFile(name);
+            }
+            Assert.assertEquals(0, blocks.getStatistics().get(DedupBlockStore.BLOCKS).longValue());
+        }
+    }
+
+    @Test
+    public void testBackupLinksFiles() throws IOException {
+        DedupBlockStore blocks = new DedupBlockStore(new RocksDBFileStore(tmpFile.toPath()));
+        try (DBDirectory directory = DBDirectories.deduplicated(blocks, "index", DirectoryConfig.DEFAULT);
+             DBDirectory backup = DBDirectories.deduplicated(blocks, "backup", DirectoryConfig.DEFAULT)) {
+            SnapshotDeletionPolicy snapshots = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                    .setIndexDeletionPolicy(snapshots))) {
+                addDocuments(writer, 0, 500);
+                writer.commit();
+                long blockBytes = blocks.getStatistics().get(DedupBlockStore.BLOCK_BYTES);
+                IndexCommit commit = snapshots.snapshot();
+                Assert.assertTrue(directory.backup(commit, backup) > 0);
+                snapshots.release(commit);
+                Assert.assertEquals(blockBytes, blocks.getStatistics().get(DedupBlockStore.BLOCK_BYTES).longValue());
+            }
+            Assert.assertTrue(Arrays.asList(backup.listAll()).size() > 1);
+            assertDocs(backup, 500);
+        }
+    }
+
+    @Test
+    public void testAbortReleasesBlocks() throws IOException {
+        byte[] data = new byte[64 * 1024];
+        new Random(11).nextBytes(data);
+
+        try (DedupBlockStore blocks = new DedupBlockStore(new RocksDBFileStore(tmpFile.toPath()))) {
+            DedupFileStore store = blocks.open("index");
+            write(store, "a", data);
+            long blockBytes = blocks.getStatistics().get(DedupBlockStore.BLOCK_BYTES);
+
+            DBFileWriter writer = store.createWriter("b", 4096);
+            writer.append(data, 0, data.length);
+            writer.abort();
+            Assert.assertFalse(store.contains("b"));
+
+            // the blocks shared with the aborted writer go with the last file
+            store.remove("a");
+            Assert.assertEquals(0, blocks.getStatistics().get(DedupBlockStore.BLOCKS).longValue());
+            Assert.assertTrue(blockBytes > 0);
+            Assert.assertEquals(0, blocks.getStatistics().get(DedupBlockStore.BLOCK_BYTES).longValue());
+        }
+    }
+
+    @Test
+    public void testConcurrentSharedBlocks() throws Exception {
+        byte[] data = new byte[32 * 1024];
+        new Random(13).nextBytes(data);
+
+        try (DedupBlockStore blocks = new DedupBlockStore(new RocksDBFileStore(tmpFile.toPath()))) {
+            DedupFileStore store = blocks.open("index");
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    String name = "file-" + t;
+                    futures.add(executor.submit(() -> {
+                        // the same blocks are written and released by all threads
+                        for (int i = 0; i < 50; i++) {
+                            write(store, name, data);
+                            Assert.assertArrayEquals(data, read(store, name));
+                            store.remove(name);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+            Assert.assertEquals(0, blocks.getStatistics().get(DedupBlockStore.BLOCKS).longValue());
+            Assert.assertEquals(0, blocks.getStatistics().get(DedupBlockStore.BLOCK_BYTES).longValue());
+        }
+    }
+
+    @Test
+    public void testMissingBlockFailsOpen() throws IOException {
+        byte[] data = new byte[16 * 1024];
+        new Random(17).nextBytes(data);
+        String block;
+        try (DedupBlockStore blocks = new DedupBlockStore(new RocksDBFileStore(tmpFile.toPath()))) {
+            DedupFileStore store = blocks.open("index");
+            write(store, "a", data);
+            block = blocks.readManifest("index/a").blocks[0];
+            blocks.backend().remove(block);
+        }
+
+        try {
+            new DedupBlockStore(new RocksDBFileStore(tmpFile.toPath()));
+            Assert.fail("opened with a missing block");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(block));
+        }
+        // the backend was closed again
+        new RocksDBFileStore(tmpFile.toPath()).close();
+    }
+
+    private static void write(DedupFileStore store, String name, byte[] data) throws IOException {
+        DBFileWriter writer = store.createWriter(name, 4096);
+        for (int i = 0; i < data.length; i += 1000) {
+            writer.append(data, i, Math.min(1000, data.length - i));
+        }
+        writer.commit();
+    }
+
+    private static byte[] read(DedupFileStore store, String name) throws IOException {
+        byte[] data = new byte[(int) store.getSize(name)];
+        Assert.assertEquals(data.length, store.load(name, 0, data, 0, data.length));
+        return data;
+    }
+
+    private static void assertDocs(DBDirectory directory, int count) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            Assert.assertEquals(count, reader.numDocs());
+        }
+    }
+
+    private static void addDocuments(IndexWriter writer, int from, int count) throws IOException {
+        for (int i = from; i < from + count; i++) {
+            Document doc = new Document();
+            doc.add(new TextField("content", "document number " + i, Field.Store.YES));
+            writer.addDocument(doc);
+        }
+    }
+}
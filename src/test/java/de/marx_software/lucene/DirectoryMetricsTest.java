@@ -0,0 +1,115 @@
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.DirectoryMetrics.Operation;
+import de.marx_software.lucene.rocksdb.RocksDBConfig;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Created by thmarx.
+ */
+public class DirectoryMetricsTest {
+
+    private DBDirectory directory;
+
+    private File tmpFile;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpFile = new File("target/test-metrics");
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+        directory = DBDirectories.rocket(tmpFile.toPath(),
+                DirectoryConfig.builder().jmxName("metrics-test").build(),
+                RocksDBConfig.builder().statistics(true).build());
+    }
+
+    @After
+    public void after() throws IOException {
+        directory.close();
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @Test
+    public void testOperations() throws IOException {
+        byte[] content = new byte[100 * 1024];
+        new Random(1).nextBytes(content);
+        try (IndexOutput output = directory.createOutput("_0.fdt", IOContext.DEFAULT)) {
+            output.writeBytes(content, 0, content.length);
+        }
+        try (IndexOutput output = directory.createOutput("_0.si", IOContext.DEFAULT)) {
+            output.writeBytes(content, 0, 100);
+        }
+        for (int i = 0; i < 2; i++) {
+            try (IndexInput input = directory.openInput("_0.si", IOContext.DEFAULT)) {
+                input.readBytes(new byte[100], 0, 100);
+            }
+        }
+        Assert.assertEquals(100, directory.ramBytesUsed());
+        Assert.assertEquals(1, directory.getChildResources().size());
+        directory.rename("_0.si", "_1.si");
+        directory.deleteFile("_0.fdt");
+
+        MetricsSnapshot metrics = directory.getMetrics();
+        Assert.assertEquals(content.length, metrics.get(Operation.APPEND, "fdt").bytes());
+        Assert.assertEquals(2, metrics.total(Operation.CREATE_OUTPUT).count());
+        Assert.assertEquals(2, metrics.get(Operation.OPEN_INPUT, "si").count());
+        // the second input reads from the cache
+        Assert.assertEquals(1, metrics.get(Operation.LOAD, "si").count());
+        Assert.assertEquals(1, metrics.cacheHits());
+        Assert.assertEquals(100, metrics.get(Operation.MOVE, "si").bytes());
+        Assert.assertEquals(content.length, metrics.get(Operation.REMOVE, "fdt").bytes());
+        Assert.assertTrue(metrics.total(Operation.APPEND).percentileNanos(0.99) > 0);
+
+        Assert.assertEquals(Long.valueOf(1), metrics.storeStatistics().get(BaseDBFileStore.FILES));
+        Assert.assertTrue(metrics.storeStatistics().get("rocksdb.number_keys_written") > 0);
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        try (IndexOutput output = directory.createOutput("_0.si", IOContext.DEFAULT)) {
+            output.writeInt(1);
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("de.marx_software.lucene:type=DBDirectory,name=\"metrics-test\"");
+        TabularData counts = (TabularData) server.getAttribute(name, "Counts");
+        Assert.assertEquals(1L, counts.get(new Object[]{"APPEND.si"}).get("value"));
+        TabularData statistics = (TabularData) server.getAttribute(name, "StoreStatistics");
+        Assert.assertEquals(1L, statistics.get(new Object[]{BaseDBFileStore.FILES}).get("value"));
+
+        server.invoke(name, "reset", null, null);
+        Assert.assertTrue(directory.getMetrics().operations().isEmpty());
+
+        directory.close();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void testPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1_000_000);
+        Assert.assertEquals(1024, LatencyHistogram.percentile(histogram.counts(), 0.5));
+        Assert.assertEquals(1024, LatencyHistogram.percentile(histogram.counts(), 0.99));
+        Assert.assertEquals(1 << 20, LatencyHistogram.percentile(histogram.counts(), 1));
+        Assert.assertEquals(0, LatencyHistogram.percentile(new long[LatencyHistogram.BUCKETS], 0.5));
+    }
+}
@@ -0,0 +1,42 @@
+package de.marx_software.lucene;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MergeInfo;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Created by thmarx.
+ */
+public class ExtensionBlockSizePolicyTest {
+
+    private final ExtensionBlockSizePolicy policy = new ExtensionBlockSizePolicy();
+
+    private final IOContext merge = new IOContext(new MergeInfo(1000, 1 << 20, false, 1));
+
+    @Test
+    public void testBlockSize() {
+        Assert.assertEquals(ExtensionBlockSizePolicy.SMALL_BLOCK_SIZE, policy.blockSize("segments_1", IOContext.DEFAULT));
+        Assert.assertEquals(ExtensionBlockSizePolicy.SMALL_BLOCK_SIZE, policy.blockSize("_0.si", IOContext.DEFAULT));
+        Assert.assertEquals(ExtensionBlockSizePolicy.SMALL_BLOCK_SIZE, policy.blockSize("_0_Lucene90_0.dvd", IOContext.DEFAULT));
+        Assert.assertEquals(ExtensionBlockSizePolicy.BULK_BLOCK_SIZE, policy.blockSize("_0.fdt", IOContext.DEFAULT));
+        Assert.assertEquals(ExtensionBlockSizePolicy.MERGE_BLOCK_SIZE, policy.blockSize("_0_Lucene90_0.doc", merge));
+        Assert.assertEquals(ExtensionBlockSizePolicy.SMALL_BLOCK_SIZE, policy.blockSize("_0.fnm", merge));
+        Assert.assertEquals(ExtensionBlockSizePolicy.DEFAULT_BLOCK_SIZE, policy.blockSize("_0.cfs", IOContext.DEFAULT));
+        Assert.assertEquals(ExtensionBlockSizePolicy.DEFAULT_BLOCK_SIZE, policy.blockSize("write.lock", IOContext.DEFAULT));
+    }
+
+    @Test
+    public void testReadBufferSize() {
+        int small = ExtensionBlockSizePolicy.SMALL_BLOCK_SIZE;
+        Assert.assertEquals(small, policy.readBufferSize("_0.si", small, IOContext.READ));
+        Assert.assertEquals(ExtensionBlockSizePolicy.SEQUENTIAL_BUFFER_SIZE, policy.readBufferSize("_0.si", small, IOContext.READONCE));
+        Assert.assertEquals(ExtensionBlockSizePolicy.SEQUENTIAL_BUFFER_SIZE, policy.readBufferSize("_0.tim", small, merge));
+        // a multiple of odd block sizes
+        Assert.assertEquals(0, policy.readBufferSize("_0.tim", 10 * 1024, merge) % (10 * 1024));
+        Assert.assertEquals(ExtensionBlockSizePolicy.MERGE_BLOCK_SIZE, policy.readBufferSize("_0.doc", ExtensionBlockSizePolicy.MERGE_BLOCK_SIZE, merge));
+        // lookups read a part of large extents
+        Assert.assertEquals(ExtensionBlockSizePolicy.RANDOM_ACCESS_BUFFER_SIZE, policy.readBufferSize("_0.doc", ExtensionBlockSizePolicy.MERGE_BLOCK_SIZE, IOContext.READ));
+        Assert.assertEquals(ExtensionBlockSizePolicy.RANDOM_ACCESS_BUFFER_SIZE, policy.readBufferSize("_0.fdt", ExtensionBlockSizePolicy.BULK_BLOCK_SIZE, IOContext.DEFAULT));
+    }
+}
@@ -0,0 +1,26 @@
+package de.marx_software.lucene;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Created by thmarx.
+ */
+public class ExtensionCompressionPolicyTest {
+
+    private final ExtensionCompressionPolicy policy = new ExtensionCompressionPolicy();
+
+    @Test
+    public void testCompression() {
+        Assert.assertEquals(FileCompression.HIGH, policy.compression("segments_1"));
+        Assert.assertEquals(FileCompression.HIGH, policy.compression("pending_segments_2"));
+        Assert.assertEquals(FileCompression.HIGH, policy.compression("_0.si"));
+        Assert.assertEquals(FileCompression.NONE, policy.compression("_0_Lucene90_0.tip"));
+        Assert.assertEquals(FileCompression.NONE, policy.compression("_0.fdt"));
+        Assert.assertEquals(FileCompression.NONE, policy.compression("_0_Lucene90_0.doc"));
+        Assert.assertEquals(FileCompression.NONE, policy.compression("_0_Lucene90_0.dvd"));
+        Assert.assertEquals(FileCompression.HIGH, policy.compression("_0_Lucene90_0.tim"));
+        Assert.assertEquals(FileCompression.FAST, policy.compression("_0.cfs"));
+        Assert.assertEquals(FileCompression.FAST, policy.compression("write.lock"));
+    }
+}
@@ -0,0 +1,66 @@
+package de.marx_software.lucene;
+
+import java.io.IOException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Created by thmarx.
+ */
+public class FileMetaTest {
+
+    @Test
+    public void testExtentOf() {
+        FileMeta meta = FileMeta.of(1, new long[]{10, 5, 20}, 3, 1024, FileCompression.FAST);
+
+        Assert.assertEquals(35, meta.length());
+        Assert.assertEquals(0, meta.extentOf(0));
+        Assert.assertEquals(0, meta.extentOf(9));
+        Assert.assertEquals(1, meta.extentOf(10));
+        Assert.assertEquals(1, meta.extentOf(14));
+        Assert.assertEquals(2, meta.extentOf(15));
+        Assert.assertEquals(2, meta.extentOf(34));
+        Assert.assertEquals(15, meta.extentStart(2));
+        Assert.assertEquals(35, meta.extentEnd(2));
+    }
+
+    @Test
+    public void testEncodeDecode() throws IOException {
+        FileMeta meta = FileMeta.empty(42, 4096, FileCompression.HIGH).append(100).append(1 << 20).append(7);
+
+        FileMeta decoded = FileMeta.decode(meta.encode(), 1024);
+
+        Assert.assertEquals(42, decoded.fileId());
+        Assert.assertEquals(4096, decoded.blockSize());
+        Assert.assertEquals(FileCompression.HIGH, decoded.compression());
+        Assert.assertEquals(meta.length(), decoded.length());
+        Assert.assertEquals(3, decoded.extentCount());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(meta.extentStart(i), decoded.extentStart(i));
+            Assert.assertEquals(meta.extentEnd(i), decoded.extentEnd(i));
+        }
+    }
+
+    @Test
+    public void testLegacyLength() {
+        FileMeta meta = FileMeta.decode(BaseDBFileStore.longToBytes(2500), 1024);
+
+        Assert.assertEquals(FileMeta.NO_FILE_ID, meta.fileId());
+        Assert.assertEquals(1024, meta.blockSize());
+        Assert.assertEquals(FileCompression.FAST, meta.compression());
+        Assert.assertEquals(2500, meta.length());
+        Assert.assertEquals(3, meta.extentCount());
+        Assert.assertEquals(2, meta.extentOf(2048));
+        Assert.assertEquals(2500, meta.extentEnd(2));
+
+        FileMeta appended = meta.append(100);
+        Assert.assertEquals(4, appended.extentCount());
+        Assert.assertEquals(2500, appended.extentStart(3));
+        Assert.assertEquals(3, appended.extentOf(2550));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownFormat() {
+        FileMeta.decode(new byte[]{4, 42, 0, 0}, 1024);
+    }
+}
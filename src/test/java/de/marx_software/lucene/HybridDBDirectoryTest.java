@@ -0,0 +1,190 @@
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.leveldb.LeveldbConfig;
+import de.marx_software.lucene.mvstore.MVStoreConfig;
+import de.marx_software.lucene.rocksdb.RocksDBConfig;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FlushInfo;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MergeInfo;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Created by thmarx.
+ */
+public class HybridDBDirectoryTest {
+
+    private static final DirectoryConfig CONFIG = DirectoryConfig.builder()
+            .placementPolicy(new ExtensionPlacementPolicy(ExtensionPlacementPolicy.DATA_EXTENSIONS, 1024))
+            .build();
+
+    private File tmpFile;
+
+    @Before
+    public void setUp() {
+        tmpFile = new File("target/test-hybrid");
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @After
+    public void after() {
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @Test
+    public void testPlacementPolicy() {
+        PlacementPolicy policy = new ExtensionPlacementPolicy();
+        IOContext smallFlush = new IOContext(new FlushInfo(10, 1024));
+        IOContext largeMerge = new IOContext(new MergeInfo(1000, 64 * 1024 * 1024, false, 1));
+        Assert.assertFalse(policy.mapped("_0.fdt", smallFlush));
+        Assert.assertTrue(policy.mapped("_0.fdt", largeMerge));
+        Assert.assertTrue(policy.mapped("_0_Lucene90_0.doc", largeMerge));
+        Assert.assertFalse(policy.mapped("_0.si", largeMerge));
+        Assert.assertFalse(policy.mapped("segments_1", largeMerge));
+        Assert.assertTrue(policy.mapped("_0.cfs", IOContext.DEFAULT));
+    }
+
+    @Test
+    public void testTempOutputPlacement() throws IOException {
+        IOContext merge = new IOContext(new MergeInfo(1000, 64 * 1024, false, 1));
+        try (HybridDBDirectory directory = (HybridDBDirectory) DBDirectories.rocket(tmpFile.toPath(), CONFIG, RocksDBConfig.DEFAULT)) {
+            // the stored fields of a sorted segment are written to a temporary copy first
+            String mappedName;
+            try (IndexOutput output = directory.createTempOutput("_0.fdt", "", merge)) {
+                mappedName = output.getName();
+            }
+            String storedName;
+            try (IndexOutput output = directory.createTempOutput("_0", "sort", merge)) {
+                storedName = output.getName();
+            }
+            Assert.assertTrue(directory.isMapped(mappedName));
+            Assert.assertFalse(directory.isMapped(storedName));
+            Assert.assertTrue(directory.getStore().contains(storedName));
+        }
+    }
+
+    @Test
+    public void testClosesStoreOnFailure() throws IOException {
+        // the mapped directory can not be created
+        Files.createDirectories(tmpFile.toPath());
+        Files.createFile(tmpFile.toPath().resolve(DBDirectories.MAPPED_DIRECTORY));
+        try {
+            DBDirectories.rocket(tmpFile.toPath(), CONFIG, RocksDBConfig.DEFAULT);
+            Assert.fail();
+        } catch (IOException expected) {
+        }
+        Files.delete(tmpFile.toPath().resolve(DBDirectories.MAPPED_DIRECTORY));
+        try (DBDirectory directory = DBDirectories.rocket(tmpFile.toPath(), CONFIG, RocksDBConfig.DEFAULT)) {
+            Assert.assertEquals(0, directory.listAll().length);
+        }
+    }
+
+    @Test
+    public void testOneView() throws IOException {
+        IOContext merge = new IOContext(new MergeInfo(1000, 64 * 1024, false, 1));
+        try (HybridDBDirectory directory = (HybridDBDirectory) DBDirectories.rocket(tmpFile.toPath(), CONFIG, RocksDBConfig.DEFAULT)) {
+            write(directory, "_0.fdt", merge, 3000);
+            write(directory, "_0.si", merge, 100);
+            Assert.assertTrue(directory.isMapped("_0.fdt"));
+            Assert.assertFalse(directory.getStore().contains("_0.fdt"));
+            Assert.assertFalse(directory.isMapped("_0.si"));
+            Assert.assertTrue(Files.exists(tmpFile.toPath().resolve(DBDirectories.MAPPED_DIRECTORY).resolve("_0.fdt")));
+
+            Assert.assertArrayEquals(new String[]{"_0.fdt", "_0.si"}, directory.listAll());
+            Assert.assertEquals(3000, directory.fileLength("_0.fdt"));
+            try (IndexInput input = directory.openInput("_0.fdt", IOContext.READ)) {
+                input.seek(2999);
+                Assert.assertEquals((byte) 2999, input.readByte());
+            }
+
+            // renames keep the tier and replace a file of the other tier
+            directory.rename("_0.fdt", "_0.si");
+            Assert.assertTrue(directory.isMapped("_0.si"));
+            Assert.assertFalse(directory.getStore().contains("_0.si"));
+            Assert.assertEquals(3000, directory.fileLength("_0.si"));
+
+            // rewritten in the store
+            write(directory, "_0.si", IOContext.DEFAULT, 10);
+            Assert.assertFalse(directory.isMapped("_0.si"));
+            Assert.assertEquals(10, directory.fileLength("_0.si"));
+
+            directory.sync(Collections.singleton("_0.si"));
+            directory.deleteFile("_0.si");
+            Assert.assertEquals(0, directory.listAll().length);
+        }
+    }
+
+    @Test
+    public void testCommitAndReopen() throws IOException {
+        for (int backend = 0; backend < 3; backend++) {
+            try (Directory directory = open(backend)) {
+                IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+                config.setUseCompoundFile(false);
+                config.setRAMBufferSizeMB(1);
+                try (IndexWriter writer = new IndexWriter(directory, config)) {
+                    for (int i = 0; i < 2000; i++) {
+                        Document doc = new Document();
+                        doc.add(new TextField("content", "document number " + i, Field.Store.YES));
+                        writer.addDocument(doc);
+                    }
+                    writer.commit();
+                }
+                Assert.assertTrue(Arrays.stream(directory.listAll()).anyMatch(((HybridDBDirectory) directory)::isMapped));
+            }
+            try (Directory directory = open(backend);
+                 DirectoryReader reader = DirectoryReader.open(directory)) {
+                Assert.assertEquals(2000, new IndexSearcher(reader).count(new TermQuery(new Term("content", "document"))));
+                for (String name : directory.listAll()) {
+                    if (name.startsWith("segments")) {
+                        Assert.assertFalse(((HybridDBDirectory) directory).isMapped(name));
+                    }
+                }
+            }
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    private Directory open(int backend) throws IOException {
+        switch (backend) {
+            case 0:
+                return DBDirectories.rocket(tmpFile.toPath(), CONFIG, RocksDBConfig.DEFAULT);
+            case 1:
+                return DBDirectories.leveldb(tmpFile.toPath(), CONFIG, LeveldbConfig.DEFAULT);
+            default:
+                return DBDirectories.mvstore(tmpFile.toPath(), CONFIG, MVStoreConfig.DEFAULT);
+        }
+    }
+
+    private static void write(Directory directory, String name, IOContext context, int length) throws IOException {
+        try (IndexOutput output = directory.createOutput(name, context)) {
+            for (int i = 0; i < length; i++) {
+                output.writeByte((byte) i);
+            }
+        }
+    }
+}
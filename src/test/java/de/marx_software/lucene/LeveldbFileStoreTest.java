@@ -2,6 +2,9 @@ package de.marx_software.lucene;
 
 
 import de.marx_software.lucene.leveldb.LeveldbFileStore;
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.impl.Iq80DBFactory;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -43,7 +46,7 @@ public class LeveldbFileStoreTest {
     }
 
     @org.junit.Test
-    public void testAppend() {
+    public void testAppend() throws IOException {
         long start = System.currentTimeMillis();
         for (int i = 0; i < 10000; i++) {
             store.append("test-1", bb, 0, bb.length);
@@ -52,7 +55,7 @@ public class LeveldbFileStoreTest {
     }
 
     @org.junit.Test
-    public void testLoad() {
+    public void testLoad() throws IOException {
 
         for (int i = 0; i < 1000; i++) {
             store.append("test-2", bb, 0, bb.length);
@@ -78,7 +81,7 @@ public class LeveldbFileStoreTest {
 
 
     @Test
-    public void testListKey() {
+    public void testListKey() throws IOException {
         for (int i = 0; i < 1000; i++) {
             store.append("test-tt-" + i, bb, 0, bb.length);
         }
@@ -90,7 +93,7 @@ public class LeveldbFileStoreTest {
     }
 
     @Test
-    public void testMove() {
+    public void testMove() throws IOException {
 
         for (int i = 0; i < 10; i++) {
             store.append("test-3", bb, 0, bb.length);
@@ -99,7 +102,72 @@ public class LeveldbFileStoreTest {
         store.move("test-3", "test-3-b");
 
         Assert.assertFalse(store.contains("test-3"));
+        Assert.assertEquals(10L * bb.length, store.getSize("test-3-b"));
 
+        byte[] b = new byte[bb.length];
+        store.load("test-3-b", 9L * bb.length, b, 0, bb.length);
+        Assert.assertArrayEquals(bb, b);
+
+    }
+
+    @Test
+    public void testWriter() throws IOException {
+        DBFileWriter writer = store.createWriter("test-4");
+        for (int i = 0; i < 1000; i++) {
+            writer.append(bb, 0, bb.length);
+        }
+
+        Assert.assertFalse(store.contains("test-4"));
+        writer.commit();
+        Assert.assertEquals(1000L * bb.length, store.getSize("test-4"));
+
+        long p = 0;
+        byte[] b = new byte[bb.length];
+        while (true) {
+            int n = store.load("test-4", p, b, 0, bb.length);
+            if (n == -1) {
+                break;
+            }
+            Assert.assertArrayEquals(bb, b);
+            p += n;
+        }
+        Assert.assertEquals(1000L * bb.length, p);
+    }
+
+    @Test
+    public void testMigrateLegacyLayout() throws IOException {
+        store.close();
+        TestUtils.deleteDir(tmpFile);
+
+        // 8 byte length and 10k blocks keyed by name
+        byte[] content = new byte[25 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        Options options = new Options().createIfMissing(true);
+        try (DB meta = Iq80DBFactory.factory.open(new File(tmpFile, "_meta"), options);
+                DB data = Iq80DBFactory.factory.open(new File(tmpFile, "_data"), options)) {
+            meta.put("legacy".getBytes(), BaseDBFileStore.longToBytes(content.length));
+            for (int i = 0; i < 3; i++) {
+                int from = i * BaseDBFileStore.BLOCK_SIZE;
+                byte[] block = new byte[BaseDBFileStore.BLOCK_SIZE];
+                System.arraycopy(content, from, block, 0, Math.min(block.length, content.length - from));
+                data.put(("legacy_" + i).getBytes(), block);
+            }
+        }
+
+        store = new LeveldbFileStore(tmpFile.toPath());
+
+        Assert.assertEquals(content.length, store.getSize("legacy"));
+        byte[] b = new byte[content.length];
+        Assert.assertEquals(content.length, store.load("legacy", 0, b, 0, b.length));
+        Assert.assertArrayEquals(content, b);
+
+        store.append("new", bb, 0, bb.length);
+        store.close();
+        store = new LeveldbFileStore(tmpFile.toPath());
+        Assert.assertEquals(content.length, store.getSize("legacy"));
+        Assert.assertEquals(bb.length, store.getSize("new"));
     }
 
     @Test
@@ -0,0 +1,210 @@
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.mvstore.MVStoreConfig;
+import de.marx_software.lucene.mvstore.MVStoreFileStore;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Created by thmarx.
+ */
+public class MVStoreFileStoreTest {
+
+    private File tmpFile;
+
+    private byte[] content;
+
+    @Before
+    public void setUp() {
+        tmpFile = new File("target/test-mvstore");
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+        content = new byte[100_000];
+        new Random(7).nextBytes(content);
+    }
+
+    @After
+    public void after() {
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @Test
+    public void testMapped() throws IOException {
+        MVStoreConfig config = MVStoreConfig.builder().mode(MVStoreConfig.Mode.MAPPED).build();
+        MVStoreFileStore store = new MVStoreFileStore(tmpFile.toPath(), config);
+        write(store, "_0.fdt");
+        assertContent(store, "_0.fdt");
+        store.sync();
+        write(store, "_1.fdt");
+        assertContent(store, "_1.fdt");
+        store.close();
+
+        store = new MVStoreFileStore(tmpFile.toPath(), config);
+        assertContent(store, "_0.fdt");
+        assertContent(store, "_1.fdt");
+        store.close();
+
+        // the file is the same as in the file mode
+        store = new MVStoreFileStore(tmpFile.toPath());
+        assertContent(store, "_1.fdt");
+        store.close();
+    }
+
+    @Test
+    public void testOffHeapSnapshots() throws IOException {
+        MVStoreConfig config = MVStoreConfig.builder().mode(MVStoreConfig.Mode.OFF_HEAP).snapshotInterval(0).build();
+        MVStoreFileStore store = new MVStoreFileStore(tmpFile.toPath(), config);
+        write(store, "_0.fdt");
+        store.sync();
+        Assert.assertFalse(Files.exists(tmpFile.toPath().resolve("directory.db")));
+
+        store.snapshot();
+        Assert.assertTrue(Files.exists(tmpFile.toPath().resolve("directory.db")));
+        Assert.assertEquals(Long.valueOf(1), store.getStatistics().get("mvstore.snapshots"));
+        store.snapshot();
+        Assert.assertEquals(Long.valueOf(1), store.getStatistics().get("mvstore.snapshots"));
+
+        write(store, "_1.fdt");
+        store.remove("_0.fdt");
+        store.close();
+
+        store = new MVStoreFileStore(tmpFile.toPath(), config);
+        Assert.assertFalse(store.contains("_0.fdt"));
+        assertContent(store, "_1.fdt");
+        store.close();
+
+        // a snapshot is a store of the file mode
+        store = new MVStoreFileStore(tmpFile.toPath());
+        assertContent(store, "_1.fdt");
+        store.close();
+    }
+
+    @Test
+    public void testPeriodicSnapshot() throws Exception {
+        MVStoreConfig config = MVStoreConfig.builder().mode(MVStoreConfig.Mode.OFF_HEAP).snapshotInterval(50).build();
+        MVStoreFileStore store = new MVStoreFileStore(tmpFile.toPath(), config);
+        try {
+            write(store, "_0.fdt");
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (store.getStatistics().get("mvstore.snapshots") == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            Assert.assertTrue(store.getStatistics().get("mvstore.snapshots") > 0);
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Commits run while another thread renames, a copy of the file after a
+     * commit is what a crash leaves behind. A rename must never be
+     * persisted half, with the file under both names.
+     */
+    @Test
+    public void testCommitDuringRename() throws Exception {
+        MVStoreConfig config = MVStoreConfig.builder().autoCommitDelay(600_000).build();
+        Path path = tmpFile.toPath().resolve("index");
+        MVStoreFileStore store = new MVStoreFileStore(path, config);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread renamer = new Thread(() -> {
+            try {
+                for (int i = 1; running.get(); i++) {
+                    DBFileWriter writer = store.createWriter("pending_segments_" + i);
+                    writer.append(content, i % 1000, 1000);
+                    writer.commit();
+                    store.move("pending_segments_" + i, "segments_" + i);
+                    store.remove("segments_" + (i - 1));
+                }
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        renamer.start();
+        try {
+            for (int crash = 0; crash < 50; crash++) {
+                store.sync();
+                Path copy = tmpFile.toPath().resolve("crash-" + crash);
+                Files.createDirectories(copy);
+                Files.copy(path.resolve("directory.db"), copy.resolve("directory.db"));
+                MVStoreFileStore recovered = new MVStoreFileStore(copy, config);
+                try {
+                    for (String name : recovered.listKey()) {
+                        int i = Integer.parseInt(name.substring(name.lastIndexOf('_') + 1));
+                        if (name.startsWith("pending")) {
+                            Assert.assertFalse(recovered.contains("segments_" + i));
+                        }
+                        byte[] read = new byte[1000];
+                        Assert.assertEquals(1000, recovered.load(name, 0, read, 0, 1000));
+                        Assert.assertArrayEquals(Arrays.copyOfRange(content, i % 1000, i % 1000 + 1000), read);
+                    }
+                } finally {
+                    recovered.close();
+                }
+            }
+        } finally {
+            running.set(false);
+            renamer.join();
+            store.close();
+        }
+        Assert.assertNull(failure.get());
+    }
+
+    /**
+     * Two names for one file id, as left by a rename that was persisted
+     * half. Deleting the leftover must not delete the data of the other.
+     */
+    @Test
+    public void testSharedFileIdIsKept() throws IOException {
+        MVStoreFileStore store = new MVStoreFileStore(tmpFile.toPath());
+        write(store, "segments_1");
+        store.close();
+
+        MVStore raw = new MVStore.Builder().fileName(tmpFile.toPath().resolve("directory.db").toString()).open();
+        MVMap<String, byte[]> meta = raw.openMap("_meta");
+        meta.put("pending_segments_1", meta.get("segments_1"));
+        raw.close();
+
+        store = new MVStoreFileStore(tmpFile.toPath());
+        store.remove("pending_segments_1");
+        assertContent(store, "segments_1");
+        store.close();
+
+        store = new MVStoreFileStore(tmpFile.toPath());
+        assertContent(store, "segments_1");
+        store.close();
+    }
+
+    private void write(DBFileStore store, String name) throws IOException {
+        DBFileWriter writer = store.createWriter(name);
+        for (int i = 0; i < content.length; i += 10_000) {
+            writer.append(content, i, 10_000);
+        }
+        writer.commit();
+    }
+
+    private void assertContent(DBFileStore store, String name) throws IOException {
+        Assert.assertEquals(content.length, store.getSize(name));
+        byte[] read = new byte[content.length];
+        for (int i = 0; i < read.length; i += 10_000) {
+            Assert.assertEquals(10_000, store.load(name, i, read, i, 10_000));
+        }
+        Assert.assertArrayEquals(content, read);
+    }
+}
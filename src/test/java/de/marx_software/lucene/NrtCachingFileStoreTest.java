@@ -0,0 +1,198 @@
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.rocksdb.RocksDBConfig;
+import de.marx_software.lucene.rocksdb.RocksDBFileStore;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FlushInfo;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by thmarx.
+ */
+public class NrtCachingFileStoreTest {
+
+    private static final IOContext FLUSH = new IOContext(new FlushInfo(10, 64 * 1024));
+
+    private DBDirectory directory;
+
+    private File tmpFile;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpFile = new File("target/test-nrt");
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+        directory = open();
+    }
+
+    private DBDirectory open() throws IOException {
+        return DBDirectories.rocket(tmpFile.toPath(),
+                DirectoryConfig.builder().nrtMaxCachedBytes(1024 * 1024).nrtMaxFileBytes(256 * 1024).build(),
+                RocksDBConfig.DEFAULT);
+    }
+
+    @After
+    public void after() throws IOException {
+        directory.close();
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testPersistsOutsideTheLock() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        DBFileStore store = new RocksDBFileStore(tmpFile.toPath().resolve("blocking")) {
+            @Override
+            public DBFileWriter createWriter(String name, int blockSize) throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.createWriter(name, blockSize);
+            }
+        };
+        NrtCachingFileStore nrt = new NrtCachingFileStore(store, 1024 * 1024, 256 * 1024, false);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            byte[] content = new byte[10 * 1024];
+            for (String name : Arrays.asList("_0.fdt", "_1.fdt")) {
+                DBFileWriter writer = nrt.createCachedWriter(name, 1024);
+                writer.append(content, 0, content.length);
+                writer.commit();
+            }
+            Future<?> sync = executor.submit(() -> {
+                nrt.sync(Collections.singleton("_0.fdt"));
+                return null;
+            });
+            Assert.assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+            // not blocked by the write, and the removed file does not show up in the store
+            nrt.remove("_1.fdt");
+            nrt.remove("_0.fdt");
+            release.countDown();
+            sync.get(10, TimeUnit.SECONDS);
+            Assert.assertFalse(nrt.contains("_0.fdt"));
+            Assert.assertFalse(store.contains("_0.fdt"));
+            Assert.assertEquals(0, nrt.cachedBytes());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            nrt.close();
+        }
+    }
+
+    @Test
+    public void testCachedUntilSync() throws IOException {
+        byte[] content = new byte[100 * 1024];
+        new Random(3).nextBytes(content);
+        for (String name : Arrays.asList("_0.fdt", "_1.fdt")) {
+            try (IndexOutput output = directory.createOutput(name, FLUSH)) {
+                output.writeBytes(content, 0, content.length);
+            }
+        }
+        try (IndexOutput output = directory.createOutput("_2.fdt", IOContext.DEFAULT)) {
+            output.writeBytes(content, 0, 10);
+        }
+
+        DBFileStore store = directory.getStore();
+        NrtCachingFileStore nrt = directory.getNrtStore();
+        Assert.assertTrue(nrt.isCached("_0.fdt"));
+        Assert.assertFalse(store.contains("_0.fdt"));
+        Assert.assertTrue(store.contains("_2.fdt"));
+        Assert.assertEquals(2 * content.length, nrt.cachedBytes());
+        Assert.assertEquals(content.length, directory.fileLength("_0.fdt"));
+        Assert.assertTrue(Arrays.asList(directory.listAll()).containsAll(Arrays.asList("_0.fdt", "_1.fdt", "_2.fdt")));
+        try (IndexInput input = directory.openInput("_0.fdt", IOContext.READ)) {
+            byte[] read = new byte[content.length];
+            input.readBytes(read, 0, read.length);
+            Assert.assertArrayEquals(content, read);
+        }
+
+        // merged away before the commit
+        directory.deleteFile("_1.fdt");
+        Assert.assertFalse(store.contains("_1.fdt"));
+        Assert.assertEquals(Long.valueOf(1), nrt.getStatistics().get(NrtCachingFileStore.DROPPED_FILES));
+
+        directory.sync(Collections.singleton("_0.fdt"));
+        Assert.assertFalse(nrt.isCached("_0.fdt"));
+        Assert.assertEquals(content.length, store.getSize("_0.fdt"));
+        Assert.assertEquals(0, nrt.cachedBytes());
+
+        directory.close();
+        directory = open();
+        Assert.assertEquals(content.length, directory.fileLength("_0.fdt"));
+        Assert.assertFalse(Arrays.asList(directory.listAll()).contains("_1.fdt"));
+    }
+
+    @Test
+    public void testRenameAndLimit() throws IOException {
+        byte[] content = new byte[300 * 1024];
+        try (IndexOutput output = directory.createOutput("_0.si", FLUSH)) {
+            output.writeBytes(content, 0, 100);
+        }
+        directory.rename("_0.si", "_1.si");
+        Assert.assertTrue(directory.getNrtStore().isCached("_1.si"));
+        Assert.assertEquals(100, directory.fileLength("_1.si"));
+
+        // larger than estimated, written through once the cache is full
+        for (int i = 0; i < 4; i++) {
+            try (IndexOutput output = directory.createOutput("_" + i + ".doc", FLUSH)) {
+                output.writeBytes(content, 0, content.length);
+            }
+        }
+        Assert.assertTrue(directory.getNrtStore().cachedBytes() <= 1024 * 1024);
+        Assert.assertTrue(directory.getStore().contains("_3.doc"));
+    }
+
+    @Test
+    public void testNearRealTimeSearch() throws IOException {
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+        try (IndexWriter writer = new IndexWriter(directory, config)) {
+            for (int i = 0; i < 20; i++) {
+                Document doc = new Document();
+                doc.add(new TextField("content", "document " + i, Field.Store.YES));
+                writer.addDocument(doc);
+                try (DirectoryReader reader = DirectoryReader.open(writer)) {
+                    Assert.assertEquals(i + 1, new IndexSearcher(reader).count(new TermQuery(new Term("content", "document"))));
+                }
+            }
+            writer.commit();
+        }
+        directory.close();
+        directory = open();
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            Assert.assertEquals(20, reader.numDocs());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.mvstore.MVStoreConfig;
+import de.marx_software.lucene.rocksdb.RocksDBConfig;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Created by thmarx.
+ */
+public class ProfileTest {
+
+    private File tmpFile;
+
+    @Before
+    public void setUp() {
+        tmpFile = new File("target/test-profiles");
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @After
+    public void after() {
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @Test
+    public void testProfiles() throws IOException {
+        byte[] content = new byte[300 * 1024];
+        new Random(5).nextBytes(content);
+        for (Profile profile : Profile.values()) {
+            Path path = tmpFile.toPath().resolve(profile.name());
+            DBDirectory[] directories = {
+                DBDirectories.rocket(path.resolve("rocksdb"), profile),
+                DBDirectories.leveldb(path.resolve("leveldb"), profile),
+                DBDirectories.mvstore(path.resolve("mvstore"), profile)
+            };
+            for (DBDirectory directory : directories) {
+                try (directory) {
+                    try (IndexOutput output = directory.createOutput("_0.fdt", IOContext.DEFAULT)) {
+                        output.writeBytes(content, 0, content.length);
+                    }
+                    try (IndexInput input = directory.openInput("_0.fdt", IOContext.READ)) {
+                        byte[] read = new byte[content.length];
+                        input.readBytes(read, 0, read.length);
+                        Assert.assertArrayEquals(profile.name(), content, read);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConfig() {
+        RocksDBConfig rocksdb = RocksDBConfig.builder(Profile.READ_HEAVY).blockCacheSize(0).build();
+        Assert.assertEquals(0, rocksdb.blockCacheSize());
+        Assert.assertEquals(10, rocksdb.dataBloomBitsPerKey());
+
+        Assert.assertEquals(0, DirectoryConfig.builder().cacheSize(0).build().cacheSize());
+        Assert.assertNull(DirectoryConfig.builder().cacheSize(0).build().createBlockCache());
+        Assert.assertEquals(MVStoreConfig.Compression.NONE, MVStoreConfig.of(Profile.BULK_LOAD).compression());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWriteBufferSize() {
+        RocksDBConfig.builder().writeBufferSize(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCacheSize() {
+        DirectoryConfig.builder().cacheSize(-1);
+    }
+}
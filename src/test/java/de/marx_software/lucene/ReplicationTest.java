@@ -0,0 +1,226 @@
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.rocksdb.RocksDBConfig;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.index.Term;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Created by thmarx.
+ */
+public class ReplicationTest {
+
+    private File tmpFile;
+
+    @Before
+    public void setUp() {
+        tmpFile = new File("target/test-replication");
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @After
+    public void after() {
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @Test
+    public void testIncrementalUpdates() throws IOException {
+        try (DBDirectory directory = DBDirectories.rocket(tmpFile.toPath().resolve("primary"));
+             DBDirectory copy = DBDirectories.leveldb(tmpFile.toPath().resolve("follower"))) {
+            SnapshotDeletionPolicy snapshots = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                    .setIndexDeletionPolicy(snapshots));
+                 ReplicationPrimary primary = new ReplicationPrimary(directory, snapshots)) {
+                ReplicationFollower follower = new ReplicationFollower(copy, new LocalReplicationTransport(primary));
+                Assert.assertEquals(0, follower.update());
+
+                addDocuments(writer, 0, 1000);
+                writer.commit();
+                long generation = primary.publish();
+                Assert.assertEquals(1, follower.getStatistics().get(ReplicationFollower.LAG_GENERATIONS).longValue());
+
+                long full = follower.update();
+                Assert.assertTrue(full > 0);
+                Assert.assertEquals(generation, follower.getGeneration());
+                Assert.assertEquals(0, follower.update());
+                assertDocs(copy, 1000);
+
+                addDocuments(writer, 1000, 10);
+                writer.commit();
+                primary.publish();
+                long incremental = follower.update();
+                Assert.assertTrue(incremental > 0 && incremental < full);
+                assertDocs(copy, 1010);
+
+                Map<String, Long> statistics = follower.getStatistics();
+                Assert.assertEquals(0, statistics.get(ReplicationFollower.LAG_GENERATIONS).longValue());
+                Assert.assertEquals(2, statistics.get(ReplicationFollower.UPDATES).longValue());
+                Assert.assertEquals(full + incremental, statistics.get(ReplicationFollower.BYTES).longValue());
+            }
+        }
+    }
+
+    @Test
+    public void testDeletesMergedFiles() throws IOException {
+        try (DBDirectory directory = DBDirectories.mvstore(tmpFile.toPath().resolve("primary"));
+             DBDirectory copy = DBDirectories.rocket(tmpFile.toPath().resolve("follower"))) {
+            SnapshotDeletionPolicy snapshots = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                    .setIndexDeletionPolicy(snapshots));
+                 ReplicationPrimary primary = new ReplicationPrimary(directory, snapshots)) {
+                ReplicationFollower follower = new ReplicationFollower(copy, new LocalReplicationTransport(primary));
+                for (int i = 0; i < 3; i++) {
+                    addDocuments(writer, i * 100, 100);
+                    writer.commit();
+                    primary.publish();
+                }
+                writer.forceMerge(1);
+                writer.commit();
+                primary.publish();
+                follower.update();
+                addDocuments(writer, 300, 1);
+                writer.commit();
+                primary.publish();
+                follower.update();
+                addDocuments(writer, 301, 1);
+                writer.commit();
+                primary.publish();
+                follower.update();
+
+                // only the last two generations are kept
+                Assert.assertEquals(2, DirectoryReader.listCommits(copy).size());
+                assertDocs(copy, 302);
+                Assert.assertTrue(Arrays.asList(copy.listAll()).containsAll(
+                        DirectoryReader.listCommits(directory).get(0).getFileNames()));
+            }
+        }
+    }
+
+    @Test
+    public void testReopensFollower() throws IOException {
+        SnapshotDeletionPolicy snapshots = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+        try (DBDirectory directory = DBDirectories.leveldb(tmpFile.toPath().resolve("primary"));
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                     .setIndexDeletionPolicy(snapshots));
+             ReplicationPrimary primary = new ReplicationPrimary(directory, snapshots)) {
+            addDocuments(writer, 0, 100);
+            writer.commit();
+            primary.publish();
+            try (DBDirectory copy = DBDirectories.mvstore(tmpFile.toPath().resolve("follower"))) {
+                new ReplicationFollower(copy, new LocalReplicationTransport(primary)).update();
+            }
+
+            addDocuments(writer, 100, 100);
+            writer.commit();
+            long generation = primary.publish();
+            try (DBDirectory copy = DBDirectories.mvstore(tmpFile.toPath().resolve("follower"))) {
+                ReplicationFollower follower = new ReplicationFollower(copy, new LocalReplicationTransport(primary));
+                Assert.assertEquals(generation - 1, follower.getGeneration());
+                Assert.assertTrue(follower.update() > 0);
+                assertDocs(copy, 200);
+            }
+        }
+    }
+
+    @Test
+    public void testRecreatedPrimary() throws IOException {
+        try (DBDirectory directory = DBDirectories.rocket(tmpFile.toPath().resolve("primary"));
+             DBDirectory copy = DBDirectories.rocket(tmpFile.toPath().resolve("follower"))) {
+            ReplicationFollower follower = publish(directory, copy, "a", "x");
+            for (String name : directory.listAll()) {
+                directory.deleteFile(name);
+            }
+            // the same segment names and lengths, other content
+            follower = publish(directory, copy, "b", "x", "y");
+            Assert.assertEquals(3, follower.getGeneration());
+            try (DirectoryReader reader = DirectoryReader.open(copy)) {
+                Assert.assertEquals(1, reader.docFreq(new Term("content", "b")));
+                Assert.assertEquals(0, reader.docFreq(new Term("content", "a")));
+            }
+        }
+    }
+
+    @Test
+    public void testMappedFiles() throws IOException {
+        DirectoryConfig config = DirectoryConfig.builder()
+                .placementPolicy(new ExtensionPlacementPolicy(ExtensionPlacementPolicy.DATA_EXTENSIONS, 1024))
+                .build();
+        try (HybridDBDirectory directory = (HybridDBDirectory) DBDirectories.rocket(tmpFile.toPath().resolve("primary"), config, RocksDBConfig.DEFAULT);
+             DBDirectory copy = DBDirectories.leveldb(tmpFile.toPath().resolve("follower"))) {
+            SnapshotDeletionPolicy snapshots = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                    .setIndexDeletionPolicy(snapshots));
+                 ReplicationPrimary primary = new ReplicationPrimary(directory, snapshots)) {
+                ReplicationFollower follower = new ReplicationFollower(copy, new LocalReplicationTransport(primary));
+                for (int i = 0; i < 2; i++) {
+                    addDocuments(writer, i * 1000, 1000);
+                    writer.commit();
+                    primary.publish();
+                    Assert.assertTrue(follower.update() > 0);
+                }
+                Assert.assertTrue(Arrays.stream(directory.listAll()).anyMatch(directory::isMapped));
+                writer.forceMerge(1);
+                writer.commit();
+                primary.publish();
+                follower.update();
+                assertDocs(copy, 2000);
+            }
+        }
+    }
+
+    /**
+     * Commits a document per generation, publishes the last one and updates
+     * a new follower.
+     */
+    private static ReplicationFollower publish(DBDirectory directory, DBDirectory copy, String... contents) throws IOException {
+        SnapshotDeletionPolicy snapshots = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                .setIndexDeletionPolicy(snapshots));
+             ReplicationPrimary primary = new ReplicationPrimary(directory, snapshots)) {
+            for (String text : contents) {
+                Document doc = new Document();
+                doc.add(new TextField("content", text, Field.Store.YES));
+                writer.addDocument(doc);
+                writer.commit();
+            }
+            primary.publish();
+            ReplicationFollower follower = new ReplicationFollower(copy, new LocalReplicationTransport(primary));
+            follower.update();
+            return follower;
+        }
+    }
+
+    private static void assertDocs(DBDirectory directory, int count) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            Assert.assertEquals(count, reader.numDocs());
+        }
+    }
+
+    private static void addDocuments(IndexWriter writer, int from, int count) throws IOException {
+        for (int i = from; i < from + count; i++) {
+            Document doc = new Document();
+            doc.add(new TextField("content", "document number " + i, Field.Store.YES));
+            writer.addDocument(doc);
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package de.marx_software.lucene;
+
+import de.marx_software.lucene.rocksdb.RocksDBConfig;
+import de.marx_software.lucene.rocksdb.RocksDBFileStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by thmarx.
+ */
+public class RocksDBFileStoreTest {
+
+    private byte[] bb = "abcefghijklmnopqrstuvwxyz1234567890".getBytes();
+    private RocksDBFileStore store;
+
+    private File tmpFile;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpFile = new File("target/test-rocksdb-store");
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+        store = new RocksDBFileStore(tmpFile.toPath());
+    }
+
+    @After
+    public void after() throws IOException {
+        store.close();
+        if (tmpFile.exists()) {
+            TestUtils.deleteDir(tmpFile);
+        }
+    }
+
+    @Test
+    public void testRemove() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            store.append("test-1", bb, 0, bb.length);
+            store.append("test-2", bb, 0, bb.length);
+        }
+
+        store.remove("test-1");
+
+        Assert.assertFalse(store.contains("test-1"));
+        Assert.assertEquals(-1, store.load("test-1", 0, new byte[bb.length], 0, bb.length));
+
+        byte[] b = new byte[bb.length];
+        Assert.assertEquals(bb.length, store.load("test-2", 99L * bb.length, b, 0, bb.length));
+        Assert.assertArrayEquals(bb, b);
+    }
+
+    @Test
+    public void testLoadWithinExtents() throws IOException {
+        // extents larger than the read buffer, reads start inside them
+        byte[] content = new byte[100 * 1024];
+        new Random(42).nextBytes(content);
+        DBFileWriter writer = store.createWriter("test-3");
+        writer.append(content, 0, 1000);
+        writer.append(content, 1000, 50 * 1024);
+        writer.append(content, 1000 + 50 * 1024, content.length - 1000 - 50 * 1024);
+        writer.commit();
+
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            int position = random.nextInt(content.length);
+            int len = Math.min(1 + random.nextInt(20 * 1024), content.length - position);
+            byte[] b = new byte[len];
+            Assert.assertEquals(len, store.load("test-3", position, b, 0, len));
+            Assert.assertArrayEquals(Arrays.copyOfRange(content, position, position + len), b);
+        }
+    }
+
+    @Test
+    public void testConcurrentLoadsWithinLargeExtents() throws Exception {
+        // extents above the size of the kept read buffers
+        byte[] content = new byte[4 * 1024 * 1024];
+        new Random(21).nextBytes(content);
+        DBFileWriter writer = store.createWriter("large", 2 * 1024 * 1024);
+        writer.append(content, 0, content.length / 2);
+        writer.append(content, content.length / 2, content.length / 2);
+        writer.commit();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int seed = t;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 20; i++) {
+                        int position = 1 + random.nextInt(content.length - 1);
+                        int len = Math.min(1 + random.nextInt(64 * 1024), content.length - position);
+                        byte[] b = new byte[len];
+                        Assert.assertEquals(len, store.load("large", position, b, 0, len));
+                        Assert.assertArrayEquals(Arrays.copyOfRange(content, position, position + len), b);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersAndReaders() throws Exception {
+        byte[] content = new byte[64 * 1024];
+        new Random(42).nextBytes(content);
+        DBFileWriter shared = store.createWriter("shared");
+        shared.append(content, 0, content.length);
+        shared.commit();
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    byte[] b = new byte[1024];
+                    for (int i = 0; i < 50; i++) {
+                        if (thread % 2 == 0) {
+                            String name = "file-" + thread + "-" + i;
+                            DBFileWriter writer = store.createWriter(name + ".tmp");
+                            writer.append(content, 0, 10 * 1024);
+                            writer.append(content, 10 * 1024, 10 * 1024);
+                            writer.commit();
+                            store.move(name + ".tmp", name);
+                            Assert.assertEquals(20 * 1024, store.getSize(name));
+                        } else {
+                            int position = (i * 997) % (content.length - b.length);
+                            Assert.assertEquals(b.length, store.load("shared", position, b, 0, b.length));
+                            Assert.assertArrayEquals(Arrays.copyOfRange(content, position, position + b.length), b);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int t = 0; t < threads; t += 2) {
+            for (int i = 0; i < 50; i++) {
+                Assert.assertTrue(store.contains("file-" + t + "-" + i));
+                Assert.assertFalse(store.contains("file-" + t + "-" + i + ".tmp"));
+            }
+        }
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            store.append("test-" + i, bb, 0, bb.length);
+        }
+
+        store.clear();
+
+        Assert.assertTrue(store.listKey().isEmpty());
+        Assert.assertFalse(store.contains("test-0"));
+
+        store.append("test-0", bb, 0, bb.length);
+        Assert.assertEquals(bb.length, store.getSize("test-0"));
+
+        store.close();
+        store = new RocksDBFileStore(tmpFile.toPath());
+        Assert.assertEquals(1, store.listKey().size());
+        Assert.assertEquals(bb.length, store.getSize("test-0"));
+    }
+
+    @Test
+    public void testBulkLoad() throws IOException {
+        store.append("small", bb, 0, bb.length);
+        store.beginBulkLoad();
+        Assert.assertTrue(store.isBulkLoad());
+
+        byte[] content = new byte[5 * 1024 * 1024];
+        new Random(3).nextBytes(content);
+        for (String name : Arrays.asList("merged", "small")) {
+            DBFileWriter writer = store.createWriter(name, 64 * 1024, true);
+            for (int offset = 0; offset < content.length; offset += 64 * 1024) {
+                writer.append(content, offset, 64 * 1024);
+            }
+            // not visible before the commit
+            Assert.assertEquals(name.equals("small") ? bb.length : -1, store.getSize(name));
+            writer.commit();
+        }
+        store.append("appended", bb, 0, bb.length);
+        Assert.assertEquals(0, new File(tmpFile, "_bulk").list().length);
+
+        byte[] b = new byte[content.length];
+        Assert.assertEquals(content.length, store.load("merged", 0, b, 0, b.length));
+        Assert.assertArrayEquals(content, b);
+        store.endBulkLoad();
+        Assert.assertFalse(store.isBulkLoad());
+
+        store.close();
+        store = new RocksDBFileStore(tmpFile.toPath());
+        for (String name : Arrays.asList("merged", "small")) {
+            Arrays.fill(b, (byte) 0);
+            Assert.assertEquals(content.length, store.load(name, 0, b, 0, b.length));
+            Assert.assertArrayEquals(content, b);
+        }
+        Assert.assertEquals(bb.length, store.getSize("appended"));
+    }
+
+    @Test
+    public void testBulkLoadCompactsOnlyAfterIngestion() throws IOException {
+        store.close();
+        AtomicInteger compactions = new AtomicInteger();
+        store = new RocksDBFileStore(tmpFile.toPath()) {
+            @Override
+            public void compact() throws IOException {
+                compactions.incrementAndGet();
+                super.compact();
+            }
+        };
+
+        store.beginBulkLoad();
+        store.append("appended", bb, 0, bb.length);
+        store.endBulkLoad();
+        Assert.assertEquals(0, compactions.get());
+
+        store.beginBulkLoad();
+        DBFileWriter writer = store.createWriter("merged", 64 * 1024, true);
+        writer.append(bb, 0, bb.length);
+        writer.commit();
+        store.endBulkLoad();
+        Assert.assertEquals(1, compactions.get());
+    }
+
+    @Test
+    public void testSyncOnlyChangedFiles() throws IOException {
+        store.close();
+        AtomicInteger syncs = new AtomicInteger();
+        store = new RocksDBFileStore(tmpFile.toPath()) {
+            @Override
+            protected void syncBackend() throws IOException {
+                syncs.incrementAndGet();
+                super.syncBackend();
+            }
+        };
+
+        store.append("a", bb, 0, bb.length);
+        store.append("b", bb, 0, bb.length);
+        store.sync(Arrays.asList("a"));
+        Assert.assertEquals(1, syncs.get());
+        // b was written before the first sync
+        store.sync(Arrays.asList("a", "b"));
+        store.sync();
+        Assert.assertEquals(1, syncs.get());
+
+        store.append("c", bb, 0, bb.length);
+        store.sync(Arrays.asList("a"));
+        Assert.assertEquals(1, syncs.get());
+        store.sync();
+        Assert.assertEquals(2, syncs.get());
+
+        store.remove("a");
+        store.compact();
+        store.close();
+        store = new RocksDBFileStore(tmpFile.toPath());
+        Assert.assertFalse(store.contains("a"));
+        Assert.assertEquals(bb.length, store.getSize("c"));
+    }
+
+    @Test
+    public void testRemovedRanges() throws IOException {
+        // file ids 1 to 6
+        for (int i = 1; i <= 6; i++) {
+            store.append("file-" + i, bb, 0, bb.length);
+        }
+        store.remove("file-1");
+        store.remove("file-2");
+        store.remove("file-4");
+        store.remove("file-6");
+
+        List<long[]> ranges = store.takeRemovedRanges();
+        Assert.assertEquals(3, ranges.size());
+        Assert.assertArrayEquals(new long[]{1, 3}, ranges.get(0));
+        Assert.assertArrayEquals(new long[]{4, 5}, ranges.get(1));
+        Assert.assertArrayEquals(new long[]{6, 7}, ranges.get(2));
+        Assert.assertTrue(store.takeRemovedRanges().isEmpty());
+
+        store.remove("file-3");
+        store.compactRemoved();
+        Assert.assertTrue(store.takeRemovedRanges().isEmpty());
+        byte[] b = new byte[bb.length];
+        Assert.assertEquals(bb.length, store.load("file-5", 0, b, 0, b.length));
+        Assert.assertArrayEquals(bb, b);
+    }
+
+    @Test
+    public void testAbortedWriter() throws IOException {
+        // file id 1, flushed past the batch size before the abort
+        DBFileWriter writer = store.createWriter("aborted", 64 * 1024);
+        writeMegabytes(writer, 5);
+        writer.abort();
+
+        Assert.assertFalse(store.contains("aborted"));
+        assertNoData(1);
+        Assert.assertArrayEquals(new long[]{1, 2}, store.takeRemovedRanges().get(0));
+    }
+
+    @Test
+    public void testUncommittedDataIsDeletedOnOpen() throws IOException {
+        // file id 1, flushed past the batch size and never committed
+        DBFileWriter writer = store.createWriter("orphan", 64 * 1024);
+        writeMegabytes(writer, 5);
+        store.close();
+
+        store = new RocksDBFileStore(tmpFile.toPath());
+        assertNoData(1);
+        // reuses file id 1 and must not see the old extents
+        writer = store.createWriter("reused", 64 * 1024);
+        writer.append(bb, 0, bb.length);
+        writer.commit();
+        Assert.assertEquals(bb.length, store.getSize("reused"));
+        for (FileCompression compression : FileCompression.values()) {
+            Assert.assertNull(((BaseDBFileStore) store).getData(1, 1, compression));
+        }
+    }
+
+    @Test
+    public void testOrphanedDataBelowLiveFilesIsDeletedOnOpen() throws IOException {
+        // file id 1 never committed, file id 2 committed
+        DBFileWriter orphan = store.createWriter("orphan", 64 * 1024);
+        writeMegabytes(orphan, 5);
+        DBFileWriter writer = store.createWriter("live", 64 * 1024);
+        writer.append(bb, 0, bb.length);
+        writer.commit();
+        store.close();
+
+        store = new RocksDBFileStore(tmpFile.toPath());
+        assertNoData(1);
+        byte[] content = new byte[bb.length];
+        store.load("live", 0, content, 0, content.length);
+        Assert.assertArrayEquals(bb, content);
+    }
+
+    @Test
+    public void testSharedDataIsKeptUntilLastNameIsRemoved() throws IOException {
+        DBFileWriter writer = store.createWriter("a", 64 * 1024);
+        writer.append(bb, 0, bb.length);
+        writer.commit();
+        // a rename persisted half
+        BaseDBFileStore base = (BaseDBFileStore) store;
+        try (BaseDBFileStore.StoreBatch batch = base.createBatch()) {
+            batch.putMeta("b", base.getMeta("a"));
+            batch.write();
+        }
+        store.close();
+
+        store = new RocksDBFileStore(tmpFile.toPath());
+        store.takeRemovedRanges();
+        store.remove("a");
+        Assert.assertTrue(store.takeRemovedRanges().isEmpty());
+        byte[] content = new byte[bb.length];
+        store.load("b", 0, content, 0, content.length);
+        Assert.assertArrayEquals(bb, content);
+
+        store.remove("b");
+        Assert.assertArrayEquals(new long[]{1, 2}, store.takeRemovedRanges().get(0));
+        assertNoData(1);
+    }
+
+    private static void writeMegabytes(DBFileWriter writer, int megabytes) throws IOException {
+        byte[] content = new byte[64 * 1024];
+        new Random(3).nextBytes(content);
+        for (int i = 0; i < megabytes * 16; i++) {
+            writer.append(content, 0, content.length);
+        }
+    }
+
+    private void assertNoData(long fileId) throws IOException {
+        for (FileCompression compression : FileCompression.values()) {
+            Assert.assertNull(((BaseDBFileStore) store).getData(fileId, 0, compression));
+        }
+    }
+
+    @Test
+    public void testCompressionPerFile() throws IOException {
+        byte[] content = new byte[300 * 1024];
+        new Random(5).nextBytes(content);
+        List<String> names = Arrays.asList("_0.fdt", "_0.si", "_0.tim", "segments_1");
+        for (String name : names) {
+            DBFileWriter writer = store.createWriter(name, 64 * 1024, name.equals("_0.fdt"));
+            writer.append(content, 0, content.length);
+            writer.commit();
+        }
+        store.remove("_0.tim");
+
+        // the compression is recorded with the file, not taken from the policy
+        store.close();
+        store = new RocksDBFileStore(tmpFile.toPath(), RocksDBConfig.builder()
+                .compressionPolicy(CompressionPolicy.FAST)
+                .build());
+        Assert.assertFalse(store.contains("_0.tim"));
+        byte[] b = new byte[content.length];
+        for (String name : Arrays.asList("_0.fdt", "_0.si", "segments_1")) {
+            Arrays.fill(b, (byte) 0);
+            Assert.assertEquals(content.length, store.load(name, 0, b, 0, b.length));
+            Assert.assertArrayEquals(content, b);
+        }
+
+        store.append("_1.si", bb, 0, bb.length);
+        store.clear();
+        Assert.assertTrue(store.listKey().isEmpty());
+    }
+}